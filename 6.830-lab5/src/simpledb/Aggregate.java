@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The Aggregator operator that computes an aggregate (e.g., sum, avg, max,
@@ -9,15 +10,25 @@ import java.util.*;
  */
 public class Aggregate extends AbstractDbIterator {
 
-    private Aggregator aggregator;
+    /** Number of tuples handed to a worker at a time by a parallel aggregation. */
+    static final int CHUNK_SIZE = 1024;
+
+    private static int defaultParallelism = 1;
+
+    /** the threads parallel aggregations run on, shared by every Aggregate */
+    private static ForkJoinPool pool;
+
+    private DbIterator child;
+    private int afield, gfield;
+    private Aggregator.Op aop;
+    private TupleDesc td;
+    private int parallelism;
+    private long memoryBudget = SpillingAggregator.DEFAULT_MEMORY_BUDGET;
     private DbIterator aggreItr;
 
     /**
-     * Constructor.  
-     *
-     *  Implementation hint: depending on the type of afield, you will want to construct an 
-     *  IntAggregator or StringAggregator to help you with your implementation of readNext().
-     * 
+     * Constructor.  The aggregate is computed by a {@link SpillingAggregator}
+     * when the operator is opened.
      *
      * @param child The DbIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -25,32 +36,78 @@ public class Aggregate extends AbstractDbIterator {
      * @param aop The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-        TupleDesc td = child.getTupleDesc();
-        if (td.getType(afield) == Type.STRING_TYPE)
-            aggregator = new StringAggregator(
-                    gfield,
-                    gfield == Aggregator.NO_GROUPING ? null : td.getType(gfield),
-                    afield,
-                    aop
-            );
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.parallelism = defaultParallelism;
+        TupleDesc childTd = child.getTupleDesc();
+        Type resultType = resultType(aop, childTd.getType(afield));
+        String aggCol = aggName(aop) + " (" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] {resultType}, new String[] {aggCol});
         else
-            aggregator = new IntAggregator(
-                    gfield,
-                    gfield == Aggregator.NO_GROUPING ? null : td.getType(gfield),
-                    afield,
-                    aop
-            );
-        try {
-            child.open();
-            while (child.hasNext())
-                aggregator.merge(child.next());
-            aggreItr = aggregator.iterator();
-            child.close();
-        } catch (DbException dbe) {
-            dbe.printStackTrace();
-        } catch (TransactionAbortedException tae) {
-            tae.printStackTrace();
-        }
+            td = new TupleDesc(new Type[] {childTd.getType(gfield), resultType},
+                    new String[] {childTd.getFieldName(gfield), aggCol});
+    }
+
+    /**
+     * Returns the type of the values of an aggregate: COUNT is an INT, SUM
+     * over an INT column is a LONG, so that it does not overflow, and the
+     * other aggregates have the type of the column they aggregate.
+     *
+     * @param aop the aggregation operator
+     * @param type the type of the aggregated column
+     * @throws IllegalArgumentException if aop does not apply to type: only
+     *   COUNT applies to strings, and SUM and AVG do not apply to dates
+     */
+    public static Type resultType(Aggregator.Op aop, Type type) {
+        if (aop == Aggregator.Op.COUNT)
+            return Type.INT_TYPE;
+        if (type == Type.STRING_TYPE
+            || (type == Type.DATE_TYPE && (aop == Aggregator.Op.SUM || aop == Aggregator.Op.AVG)))
+            throw new IllegalArgumentException("unsupported operator " + aggName(aop) + " over " + type);
+        if (aop == Aggregator.Op.SUM && type == Type.INT_TYPE)
+            return Type.LONG_TYPE;
+        return type;
+    }
+
+    /**
+     * Sets the number of workers used by Aggregates constructed from now
+     * on.  1 (the default) aggregates on the calling thread.  The workers
+     * of every Aggregate run on one shared pool of threads, as many as
+     * there are processors.
+     */
+    public static void setDefaultParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        defaultParallelism = parallelism;
+    }
+
+    /**
+     * Sets the number of workers this Aggregate uses the next time it is
+     * opened.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets approximately how many bytes of group state this Aggregate may
+     * keep in memory (shared between its workers); groups beyond that are
+     * spilled to temporary files.
+     * @see SpillingAggregator
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        memoryBudget = bytes;
     }
 
     public static String aggName(Aggregator.Op aop) {
@@ -69,11 +126,261 @@ public class Aggregate extends AbstractDbIterator {
         return "";
     }
 
+    private Aggregator newAggregator() {
+        Type gbType = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getType(gfield);
+        return new SpillingAggregator(gfield, gbType, afield, child.getTupleDesc().getType(afield),
+                aop, memoryBudget / parallelism);
+    }
+
+    /**
+     * Drains the child and computes the aggregate.  This is done here rather
+     * than in the constructor so that building a plan does not read any data.
+     */
     public void open()
         throws NoSuchElementException, DbException, TransactionAbortedException {
+        Aggregator aggregator;
+        if (parallelism <= 1)
+            aggregator = aggregateSerial();
+        else if (child instanceof SeqScan && ((SeqScan) child).getDbFile() instanceof HeapFile)
+            aggregator = aggregatePageRanges((SeqScan) child);
+        else
+            aggregator = aggregatePartitioned();
+        aggreItr = aggregator.iterator();
         aggreItr.open();
     }
 
+    private Aggregator aggregateSerial() throws DbException, TransactionAbortedException {
+        Aggregator aggregator = newAggregator();
+        child.open();
+        while (child.hasNext())
+            aggregator.merge(child.next());
+        child.close();
+        return aggregator;
+    }
+
+    /** @return the pool parallel aggregations run on, created the first time one runs */
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    /**
+     * Aggregates a heap file scan by splitting its pages into ranges; each
+     * leaf task reads its pages through the buffer pool (as part of the
+     * scan's transaction) into a local aggregator, and the partial results
+     * are combined as the tasks are joined.  The scan's predicates are
+     * applied to the pages as the scan itself would apply them.
+     * <p>
+     * The pages are locked on the calling thread before the tasks are
+     * forked, so that the workers never wait for a lock: the LockManager
+     * keeps one wait per transaction, which workers sharing the scan's
+     * transaction would overwrite, hiding deadlocks from it.
+     */
+    private Aggregator aggregatePageRanges(SeqScan scan)
+        throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) scan.getDbFile();
+        TransactionId tid = scan.getTransactionId();
+        Predicate[] predicates = scan.getPredicates();
+        int numPages = file.numPages();
+        int[] pages = new int[numPages];
+        int n = 0;
+        for (int pageno = 0; pageno < numPages; ++pageno) {
+            if (predicates.length > 0 && !file.getZoneMap().mayMatch(pageno, predicates))
+                continue;
+            Database.getBufferPool().lockPage(tid, new HeapPageId(file.getId(), pageno),
+                    Permissions.READ_ONLY);
+            pages[n++] = pageno;
+        }
+        int leafPages = Math.max(1, (n + parallelism * 4 - 1) / (parallelism * 4));
+        try {
+            return pool().invoke(new PageRangeTask(tid, file, predicates, pages, 0, n, leafPages));
+        } catch (RuntimeException e) {
+            throw rethrow(e);
+        }
+    }
+
+    private class PageRangeTask extends RecursiveTask<Aggregator> {
+        private static final long serialVersionUID = 1L;
+        private final TransactionId tid;
+        private final HeapFile file;
+        private final Predicate[] predicates;
+        /** the numbers of the pages to read, locked by the scan's transaction */
+        private final int[] pages;
+        private final int lo, hi, leafPages;
+
+        PageRangeTask(TransactionId tid, HeapFile file, Predicate[] predicates,
+                      int[] pages, int lo, int hi, int leafPages) {
+            this.tid = tid;
+            this.file = file;
+            this.predicates = predicates;
+            this.pages = pages;
+            this.lo = lo;
+            this.hi = hi;
+            this.leafPages = leafPages;
+        }
+
+        protected Aggregator compute() {
+            if (hi - lo > leafPages) {
+                int mid = (lo + hi) >>> 1;
+                PageRangeTask left = new PageRangeTask(tid, file, predicates, pages, lo, mid, leafPages);
+                left.fork();
+                Aggregator right = new PageRangeTask(tid, file, predicates, pages, mid, hi, leafPages).compute();
+                Aggregator result = left.join();
+                result.combine(right);
+                return result;
+            }
+            Aggregator aggregator = newAggregator();
+            try {
+                for (int i = lo; i < hi; ++i) {
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                            tid, new HeapPageId(file.getId(), pages[i]), Permissions.READ_ONLY);
+                    Iterator<Tuple> it = page.iterator(predicates);
+                    while (it.hasNext())
+                        aggregator.merge(it.next());
+                }
+            } catch (DbException e) {
+                throw new WorkerException(e);
+            } catch (TransactionAbortedException e) {
+                throw new WorkerException(e);
+            }
+            return aggregator;
+        }
+    }
+
+    /**
+     * Aggregates an arbitrary child by reading it on the calling thread and
+     * routing chunks of tuples to the workers by the hash of their group
+     * value (or round-robin if there is no grouping), so each worker owns a
+     * disjoint set of groups.  A worker waiting for its next chunk lets the
+     * pool start another thread, so that the workers of every aggregation
+     * run at once however many share the pool.
+     */
+    private Aggregator aggregatePartitioned() throws DbException, TransactionAbortedException {
+        final List<Tuple> done = new ArrayList<Tuple>(0);
+        List<BlockingQueue<List<Tuple>>> queues = new ArrayList<BlockingQueue<List<Tuple>>>();
+        List<ForkJoinTask<Aggregator>> tasks = new ArrayList<ForkJoinTask<Aggregator>>();
+        ForkJoinPool pool = pool();
+        try {
+            for (int i = 0; i < parallelism; ++i) {
+                final BlockingQueue<List<Tuple>> queue = new ArrayBlockingQueue<List<Tuple>>(4);
+                queues.add(queue);
+                tasks.add(pool.submit(new Callable<Aggregator>() {
+                    public Aggregator call() throws InterruptedException {
+                        Aggregator aggregator = newAggregator();
+                        RuntimeException failure = null;
+                        List<Tuple> chunk;
+                        // keep draining after a failure so the reader never blocks
+                        while ((chunk = take(queue)) != done) {
+                            if (failure != null)
+                                continue;
+                            try {
+                                for (Tuple t : chunk)
+                                    aggregator.merge(t);
+                            } catch (RuntimeException e) {
+                                failure = e;
+                            }
+                        }
+                        if (failure != null)
+                            throw failure;
+                        return aggregator;
+                    }
+                }));
+            }
+
+            List<List<Tuple>> chunks = new ArrayList<List<Tuple>>();
+            for (int i = 0; i < parallelism; ++i)
+                chunks.add(new ArrayList<Tuple>(CHUNK_SIZE));
+            int next = 0;
+            try {
+                child.open();
+                while (child.hasNext()) {
+                    Tuple t = child.next();
+                    int p;
+                    if (gfield == Aggregator.NO_GROUPING)
+                        p = next;
+                    else
+                        p = (t.getField(gfield).hashCode() & Integer.MAX_VALUE) % parallelism;
+                    List<Tuple> chunk = chunks.get(p);
+                    chunk.add(t);
+                    if (chunk.size() == CHUNK_SIZE) {
+                        queues.get(p).put(chunk);
+                        chunks.set(p, new ArrayList<Tuple>(CHUNK_SIZE));
+                        next = (next + 1) % parallelism;
+                    }
+                }
+                child.close();
+                for (int i = 0; i < parallelism; ++i)
+                    if (!chunks.get(i).isEmpty())
+                        queues.get(i).put(chunks.get(i));
+            } finally {
+                for (BlockingQueue<List<Tuple>> queue : queues)
+                    queue.put(done);
+            }
+
+            Aggregator result = tasks.get(0).get();
+            for (int i = 1; i < parallelism; ++i)
+                result.combine(tasks.get(i).get());
+            return result;
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted during parallel aggregation");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Takes the head of a queue, waiting for one if it is empty.  A worker
+     * of a fork-join pool that waits this way is replaced while it waits.
+     */
+    private static <T> T take(final BlockingQueue<T> queue) throws InterruptedException {
+        final List<T> taken = new ArrayList<T>(1);
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            public boolean block() throws InterruptedException {
+                if (taken.isEmpty())
+                    taken.add(queue.take());
+                return true;
+            }
+
+            public boolean isReleasable() {
+                if (taken.isEmpty()) {
+                    T head = queue.poll();
+                    if (head != null)
+                        taken.add(head);
+                }
+                return !taken.isEmpty();
+            }
+        });
+        return taken.get(0);
+    }
+
+    /** Carries a checked exception out of a fork-join task. */
+    private static class WorkerException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        WorkerException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Finds the DbException or TransactionAbortedException that made a
+     * worker fail and rethrows it on the calling thread.
+     */
+    private static DbException rethrow(Throwable e) throws TransactionAbortedException {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) t;
+            if (t instanceof DbException)
+                return (DbException) t;
+        }
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        return new DbException("parallel aggregation failed: " + e);
+    }
+
     /**
      * Returns the next tuple.  If there is a group by field, then 
      * the first field is the field by which we are
@@ -83,6 +390,8 @@ public class Aggregate extends AbstractDbIterator {
      * Should return null if there are no more tuples.
      */
     protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (aggreItr == null)
+            throw new IllegalStateException("Aggregate not open");
         if (aggreItr.hasNext())
             return aggreItr.next();
         return null;
@@ -104,10 +413,13 @@ public class Aggregate extends AbstractDbIterator {
      * of the child iterator. 
      */
     public TupleDesc getTupleDesc() {
-        return aggreItr.getTupleDesc();
+        return td;
     }
 
     public void close() {
-        aggreItr.close();
+        super.close();
+        if (aggreItr != null)
+            aggreItr.close();
+        aggreItr = null;
     }
 }
@@ -0,0 +1,440 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * AggregateHashTable is the grouping engine behind {@link IntAggregator},
+ * {@link StringAggregator} and {@link BatchAggregate}.  It maps group-by
+ * values to dense group numbers with an open-addressing (linear probing)
+ * hash table, and keeps the running state of one or more aggregates in
+ * parallel <code>long[]</code> arrays indexed by group number, so that
+ * merging a value never allocates.
+ * <p>
+ * Aggregated values are handled as the 64 bits they are stored as (see
+ * {@link Type#bits}): sums of ints are 64-bit sums, which can't overflow
+ * before 2^32 rows are summed, sums of LONG_TYPE and DECIMAL_TYPE values
+ * are exact 64-bit sums, which fail with an ArithmeticException rather
+ * than overflow, and the accumulators of DOUBLE_TYPE values hold the bits
+ * of a double.
+ * <p>
+ * Int group-by values are stored unboxed in an <code>int[]</code>; other
+ * group-by values are stored as Fields together with their cached hash code.
+ * A table created with a null key type has a single group.
+ * <p>
+ * Group numbers are assigned in order of first appearance, and
+ * {@link #iterator} returns the groups in that order.
+ */
+public class AggregateHashTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    private final Type keyType;
+    private final Aggregator.Op[] ops;
+    /** the type of the values aggregate i aggregates */
+    private final Type[] valueTypes;
+
+    /** bucket -> group number, or EMPTY; length is a power of two */
+    private int[] buckets;
+    private int mask;
+
+    private int numGroups;
+    private int[] intKeys;
+    private Field[] fieldKeys;
+    private int[] hashes;
+    private long[] counts;
+    /** acc[i][g] is the sum, min or max (depending on ops[i]) of group g */
+    private long[][] acc;
+
+    /**
+     * Create an empty table of aggregates over int values.
+     *
+     * @param keyType the type of the group-by values, or null if there is no grouping
+     * @param ops the aggregates computed for each group
+     */
+    public AggregateHashTable(Type keyType, Aggregator.Op[] ops) {
+        this(keyType, ops, intTypes(ops.length));
+    }
+
+    private static Type[] intTypes(int n) {
+        Type[] types = new Type[n];
+        Arrays.fill(types, Type.INT_TYPE);
+        return types;
+    }
+
+    /**
+     * Create an empty table.
+     *
+     * @param keyType the type of the group-by values, or null if there is no grouping
+     * @param ops the aggregates computed for each group
+     * @param valueTypes the type of the values each aggregate aggregates
+     * @throws IllegalArgumentException if an aggregate does not apply to its
+     *   type (see {@link Aggregate#resultType})
+     */
+    public AggregateHashTable(Type keyType, Aggregator.Op[] ops, Type[] valueTypes) {
+        if (valueTypes.length != ops.length)
+            throw new IllegalArgumentException("one value type is needed per aggregate");
+        for (int i = 0; i < ops.length; ++i)
+            Aggregate.resultType(ops[i], valueTypes[i]);
+        this.keyType = keyType;
+        this.ops = ops.clone();
+        this.valueTypes = valueTypes.clone();
+        buckets = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(buckets, EMPTY);
+        mask = buckets.length - 1;
+        if (keyType == Type.INT_TYPE)
+            intKeys = new int[INITIAL_CAPACITY];
+        else if (keyType != null) {
+            fieldKeys = new Field[INITIAL_CAPACITY];
+            hashes = new int[INITIAL_CAPACITY];
+        }
+        counts = new long[INITIAL_CAPACITY];
+        acc = new long[ops.length][INITIAL_CAPACITY];
+    }
+
+    /** @return the number of groups in this table */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /** @return the type of the group-by values, or null if there is no grouping */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** @return the aggregates computed for each group */
+    public Aggregator.Op[] getOps() {
+        return ops.clone();
+    }
+
+    /** Spread the bits of h so that linear probing on the low bits works for sequential keys. */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the group number for an int group-by value, adding a new group
+     * if the value has not been seen before.
+     */
+    public int findOrInsert(int key) {
+        int b = mix(key) & mask;
+        while (true) {
+            int g = buckets[b];
+            if (g == EMPTY) {
+                g = newGroup();
+                intKeys[g] = key;
+                buckets[b] = g;
+                maybeRehash();
+                return g;
+            }
+            if (intKeys[g] == key)
+                return g;
+            b = (b + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the group number for a group-by value, adding a new group if
+     * the value has not been seen before.  If the table has no grouping, the
+     * key is ignored and the single group is returned.
+     */
+    public int findOrInsert(Field key) {
+        if (keyType == null)
+            return numGroups == 0 ? newGroup() : 0;
+        if (intKeys != null)
+            return findOrInsert(((IntField) key).getValue());
+        int h = key.hashCode();
+        int b = mix(h) & mask;
+        while (true) {
+            int g = buckets[b];
+            if (g == EMPTY) {
+                g = newGroup();
+                fieldKeys[g] = key;
+                hashes[g] = h;
+                buckets[b] = g;
+                maybeRehash();
+                return g;
+            }
+            if (hashes[g] == h && fieldKeys[g].equals(key))
+                return g;
+            b = (b + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the group number for a group-by value, or -1 if there is no
+     * such group.  If the table has no grouping, the key is ignored.
+     */
+    public int find(Field key) {
+        if (keyType == null)
+            return numGroups == 0 ? -1 : 0;
+        if (intKeys != null)
+            return find(((IntField) key).getValue());
+        int h = key.hashCode();
+        for (int b = mix(h) & mask; buckets[b] != EMPTY; b = (b + 1) & mask) {
+            int g = buckets[b];
+            if (hashes[g] == h && fieldKeys[g].equals(key))
+                return g;
+        }
+        return -1;
+    }
+
+    /** Returns the group number for an int group-by value, or -1 if there is no such group. */
+    public int find(int key) {
+        for (int b = mix(key) & mask; buckets[b] != EMPTY; b = (b + 1) & mask) {
+            int g = buckets[b];
+            if (intKeys[g] == key)
+                return g;
+        }
+        return -1;
+    }
+
+    private int newGroup() {
+        if (numGroups == counts.length)
+            growGroups();
+        int g = numGroups++;
+        counts[g] = 0;
+        for (int i = 0; i < ops.length; ++i) {
+            boolean dbl = valueTypes[i] == Type.DOUBLE_TYPE;
+            switch (ops[i]) {
+            case MIN:
+                acc[i][g] = dbl ? Double.doubleToLongBits(Double.POSITIVE_INFINITY) : Long.MAX_VALUE;
+                break;
+            case MAX:
+                acc[i][g] = dbl ? Double.doubleToLongBits(Double.NEGATIVE_INFINITY) : Long.MIN_VALUE;
+                break;
+            default:
+                // the bits of 0.0 are 0 as well
+                acc[i][g] = 0;
+                break;
+            }
+        }
+        return g;
+    }
+
+    private void growGroups() {
+        int n = counts.length * 2;
+        if (intKeys != null)
+            intKeys = Arrays.copyOf(intKeys, n);
+        if (fieldKeys != null) {
+            fieldKeys = Arrays.copyOf(fieldKeys, n);
+            hashes = Arrays.copyOf(hashes, n);
+        }
+        counts = Arrays.copyOf(counts, n);
+        for (int i = 0; i < acc.length; ++i)
+            acc[i] = Arrays.copyOf(acc[i], n);
+    }
+
+    /** Keeps the load factor of the buckets at or below 1/2. */
+    private void maybeRehash() {
+        if (numGroups * 2 > buckets.length)
+            rehash(buckets.length * 2);
+    }
+
+    private void rehash(int size) {
+        buckets = new int[size];
+        Arrays.fill(buckets, EMPTY);
+        mask = size - 1;
+        if (keyType == null)
+            return;
+        for (int g = 0; g < numGroups; ++g) {
+            int h = intKeys != null ? intKeys[g] : hashes[g];
+            int b = mix(h) & mask;
+            while (buckets[b] != EMPTY)
+                b = (b + 1) & mask;
+            buckets[b] = g;
+        }
+    }
+
+    /**
+     * Adds one input row to group g.  values[i] is the value of the i-th
+     * aggregate's column in that row, as the bits it is stored as; it is
+     * ignored for COUNT.
+     */
+    public void merge(int g, long[] values) {
+        counts[g]++;
+        for (int i = 0; i < ops.length; ++i)
+            acc[i][g] = accumulate(i, acc[i][g], values[i]);
+    }
+
+    /** Adds one input row to group g of a table computing a single aggregate. */
+    public void merge(int g, long value) {
+        counts[g]++;
+        if (ops.length > 0)
+            acc[0][g] = accumulate(0, acc[0][g], value);
+    }
+
+    /**
+     * Adds a partial aggregate to group g of a table computing a single
+     * aggregate: count input rows whose accumulated value (sum, min or max,
+     * as returned by {@link #getAccumulator}) is acc.
+     */
+    public void mergePartial(int g, long count, long acc) {
+        counts[g] += count;
+        if (ops.length > 0 && ops[0] != Aggregator.Op.COUNT)
+            this.acc[0][g] = accumulate(0, this.acc[0][g], acc);
+    }
+
+    /**
+     * Adds the groups and partial aggregates of other to this table.  Both
+     * tables must have the same key type and aggregates.
+     */
+    public void combine(AggregateHashTable other) {
+        if (keyType != other.keyType || !Arrays.equals(ops, other.ops)
+            || !Arrays.equals(valueTypes, other.valueTypes))
+            throw new IllegalArgumentException("incompatible aggregate tables");
+        for (int og = 0; og < other.numGroups; ++og) {
+            int g;
+            if (intKeys != null)
+                g = findOrInsert(other.intKeys[og]);
+            else
+                g = findOrInsert(other.getKey(og));
+            counts[g] += other.counts[og];
+            for (int i = 0; i < ops.length; ++i) {
+                if (ops[i] != Aggregator.Op.COUNT)
+                    acc[i][g] = accumulate(i, acc[i][g], other.acc[i][og]);
+            }
+        }
+    }
+
+    /** @return the accumulator a of aggregate i with the value or accumulator b merged into it */
+    private long accumulate(int i, long a, long b) {
+        if (valueTypes[i] == Type.DOUBLE_TYPE) {
+            double x = Double.longBitsToDouble(a), y = Double.longBitsToDouble(b);
+            switch (ops[i]) {
+            case MIN:
+                return Double.doubleToLongBits(Math.min(x, y));
+            case MAX:
+                return Double.doubleToLongBits(Math.max(x, y));
+            case COUNT:
+                return a;
+            default:
+                return Double.doubleToLongBits(x + y);
+            }
+        }
+        switch (ops[i]) {
+        case MIN:
+            return Math.min(a, b);
+        case MAX:
+            return Math.max(a, b);
+        case COUNT:
+            return a;
+        default:
+            long sum = a + b;
+            if (valueTypes[i] == Type.INT_TYPE)
+                return sum;
+            // the sum overflowed if both operands have a sign it does not
+            if (((a ^ sum) & (b ^ sum)) < 0)
+                throw new ArithmeticException(Aggregate.aggName(ops[i]) + " overflows " + Type.LONG_TYPE);
+            return sum;
+        }
+    }
+
+    /** @return the group-by value of group g as a Field, or null if there is no grouping */
+    public Field getKey(int g) {
+        if (intKeys != null)
+            return new IntField(intKeys[g]);
+        return fieldKeys == null ? null : fieldKeys[g];
+    }
+
+    /** @return the int group-by value of group g; only valid for INT_TYPE keys */
+    public int getIntKey(int g) {
+        return intKeys[g];
+    }
+
+    /** @return the number of rows merged into group g */
+    public long getCount(int g) {
+        return counts[g];
+    }
+
+    /** @return the running sum, min or max of aggregate i for group g */
+    public long getAccumulator(int i, int g) {
+        return acc[i][g];
+    }
+
+    /**
+     * @return the final value of aggregate i for group g, as the bits a
+     *   value of its result type is stored as (AVG of values other than
+     *   doubles is truncated like integer division)
+     */
+    public long getResult(int i, int g) {
+        switch (ops[i]) {
+        case COUNT:
+            return counts[g];
+        case AVG:
+            if (valueTypes[i] == Type.DOUBLE_TYPE)
+                return Double.doubleToLongBits(Double.longBitsToDouble(acc[i][g]) / counts[g]);
+            return acc[i][g] / counts[g];
+        default:
+            return acc[i][g];
+        }
+    }
+
+    /**
+     * @return the final value of aggregate i for group g, whose result type
+     *   is INT_TYPE
+     * @throws ArithmeticException if the value does not fit an int
+     */
+    public int getIntResult(int i, int g) {
+        long r = getResult(i, g);
+        if (r != (int) r)
+            throw new ArithmeticException(Aggregate.aggName(ops[i]) + " overflows " + Type.INT_TYPE);
+        return (int) r;
+    }
+
+    /** @return the final value of aggregate i for group g as a Field of its result type */
+    public Field getResultField(int i, int g) {
+        Type type = Aggregate.resultType(ops[i], valueTypes[i]);
+        if (type == Type.INT_TYPE)
+            return new IntField(getIntResult(i, g));
+        return type.fromBits(getResult(i, g));
+    }
+
+    /**
+     * Returns a DbIterator over the groups of this table.  Result tuples are
+     * built one at a time as the iterator advances; groups added after the
+     * iterator was opened are returned as well.
+     *
+     * @param td the descriptor of the result tuples: the group-by value (if
+     *   there is grouping) followed by one field per aggregate, of the
+     *   type given by {@link Aggregate#resultType}
+     */
+    public DbIterator iterator(final TupleDesc td) {
+        return new AbstractDbIterator() {
+            private int g = -1;
+
+            public void open() {
+                g = 0;
+            }
+
+            public void rewind() {
+                g = 0;
+            }
+
+            public void close() {
+                super.close();
+                g = -1;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            protected Tuple readNext() {
+                if (g < 0)
+                    throw new IllegalStateException("iterator not open");
+                if (g >= numGroups)
+                    return null;
+                Tuple t = new Tuple(td);
+                int f = 0;
+                if (keyType != null)
+                    t.setField(f++, getKey(g));
+                for (int i = 0; i < ops.length; ++i)
+                    t.setField(f++, getResultField(i, g));
+                ++g;
+                return t;
+            }
+        };
+    }
+}
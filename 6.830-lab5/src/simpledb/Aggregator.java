@@ -40,6 +40,16 @@ public interface Aggregator {
      */
     public void merge(Tuple tup);
 
+    /**
+     * Merge the partial results of another aggregator into this one, as if
+     * every tuple merged into other had been merged into this aggregator.
+     * Used to combine the per-worker results of a parallel aggregation.
+     *
+     * @param other an aggregator of the same class constructed with the same arguments
+     * @throws IllegalArgumentException if other is not compatible with this aggregator
+     */
+    public void combine(Aggregator other);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
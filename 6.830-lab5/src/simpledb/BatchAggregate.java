@@ -0,0 +1,117 @@
+package simpledb;
+
+/**
+ * BatchAggregate is the vectorized counterpart of {@link Aggregate}.  It
+ * computes a single aggregate, optionally grouped by a single column, by
+ * reading its child a batch at a time and reading values straight out of the
+ * column arrays.  Aggregation happens in open(); the results are then
+ * returned in batches.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private BatchIterator child;
+    private int afield, gfield;
+    private Aggregator.Op aop;
+    private TupleDesc td;
+
+    private AggregateHashTable groups;
+    private int nextGroup = -1;
+    private ColumnBatch out;
+
+    /**
+     * Constructor.
+     *
+     * @param child The BatchIterator that is feeding us rows.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if there is no grouping
+     * @param aop The aggregation operator to use
+     * @throws IllegalArgumentException if afield is a string column and aop is not COUNT
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        TupleDesc childTd = child.getTupleDesc();
+        Type resultType = Aggregate.resultType(aop, childTd.getType(afield));
+        String aggCol = Aggregate.aggName(aop) + " (" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] {resultType}, new String[] {aggCol});
+        else
+            td = new TupleDesc(new Type[] {childTd.getType(gfield), resultType},
+                    new String[] {childTd.getFieldName(gfield), aggCol});
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        TupleDesc childTd = child.getTupleDesc();
+        groups = new AggregateHashTable(
+                gfield == Aggregator.NO_GROUPING ? null : childTd.getType(gfield),
+                new Aggregator.Op[] {aop});
+        boolean intAgg = childTd.getType(afield) == Type.INT_TYPE;
+        boolean intGroup = gfield != Aggregator.NO_GROUPING
+                && childTd.getType(gfield) == Type.INT_TYPE;
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            int[] vals = intAgg ? batch.intColumn(afield) : null;
+            int[] keys = intGroup ? batch.intColumn(gfield) : null;
+            int rows = batch.numSelected();
+            for (int k = 0; k < rows; ++k) {
+                int r = batch.row(k);
+                int g;
+                if (intGroup)
+                    g = groups.findOrInsert(keys[r]);
+                else if (gfield == Aggregator.NO_GROUPING)
+                    g = groups.findOrInsert((Field) null);
+                else
+                    g = groups.findOrInsert(new StringField(batch.getString(gfield, r), Type.STRING_LEN));
+                groups.merge(g, intAgg ? vals[r] : 0);
+            }
+        }
+        child.close();
+        nextGroup = 0;
+        out = new ColumnBatch(td);
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (nextGroup < 0)
+            throw new IllegalStateException("BatchAggregate not open");
+        if (nextGroup >= groups.numGroups())
+            return null;
+        out.clear();
+        int row = 0;
+        int aggCol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        boolean intGroup = groups.getKeyType() == Type.INT_TYPE;
+        boolean longResult = td.getType(aggCol) == Type.LONG_TYPE;
+        while (row < out.capacity() && nextGroup < groups.numGroups()) {
+            if (aggCol == 1) {
+                if (intGroup)
+                    out.setInt(0, row, groups.getIntKey(nextGroup));
+                else
+                    out.setString(0, row, ((StringField) groups.getKey(nextGroup)).getValue());
+            }
+            if (longResult)
+                out.setLong(aggCol, row, groups.getResult(0, nextGroup));
+            else
+                out.setInt(aggCol, row, groups.getIntResult(0, nextGroup));
+            ++row;
+            ++nextGroup;
+        }
+        out.setSize(row);
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+    }
+
+    public void close() {
+        groups = null;
+        nextGroup = -1;
+        out = null;
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+/**
+ * BatchFilter is the vectorized counterpart of {@link Filter}.  It evaluates
+ * a {@link Predicate} against a whole column at a time and narrows the
+ * selection vector of each batch rather than copying the surviving rows.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private BatchIterator child;
+    private int field;
+    private Predicate.Op op;
+    private int intOperand;
+    private byte[] stringOperand;
+
+    /**
+     * Constructor accepts a predicate to apply and a child
+     * operator to read batches to filter from.
+     *
+     * @param p The predicate to filter rows with
+     * @param child The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.child = child;
+        field = p.getField();
+        op = p.getOp();
+        if (child.getTupleDesc().getType(field) == Type.INT_TYPE) {
+            intOperand = ((IntField) p.getOperand()).getValue();
+        } else {
+            String s = ((StringField) p.getOperand()).getValue();
+            stringOperand = new byte[s.length()];
+            for (int i = 0; i < s.length(); ++i)
+                stringOperand[i] = (byte) s.charAt(i);
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Returns the next batch of the child with the rows that fail the
+     * predicate removed from its selection vector.
+     */
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        int n;
+        if (stringOperand == null)
+            n = filterInts(batch);
+        else
+            n = filterStrings(batch);
+        batch.setSelected(n);
+        return batch;
+    }
+
+    /* The op switch is hoisted out of the per-row loops below, so each loop
+       body is a single comparison the JIT can unroll. */
+    private int filterInts(ColumnBatch batch) {
+        int[] col = batch.intColumn(field);
+        int[] sel = batch.selectionBuffer();
+        int rows = batch.numSelected();
+        int v = intOperand;
+        int n = 0;
+        switch (op) {
+        case EQUALS: case LIKE:
+            for (int k = 0; k < rows; ++k) {
+                int r = batch.row(k);
+                if (col[r] == v) sel[n++] = r;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int k = 0; k < rows; ++k) {
+                int r = batch.row(k);
+                if (col[r] != v) sel[n++] = r;
+            }
+            break;
+        case GREATER_THAN:
+            for (int k = 0; k < rows; ++k) {
+                int r = batch.row(k);
+                if (col[r] > v) sel[n++] = r;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int k = 0; k < rows; ++k) {
+                int r = batch.row(k);
+                if (col[r] >= v) sel[n++] = r;
+            }
+            break;
+        case LESS_THAN:
+            for (int k = 0; k < rows; ++k) {
+                int r = batch.row(k);
+                if (col[r] < v) sel[n++] = r;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int k = 0; k < rows; ++k) {
+                int r = batch.row(k);
+                if (col[r] <= v) sel[n++] = r;
+            }
+            break;
+        }
+        return n;
+    }
+
+    private int filterStrings(ColumnBatch batch) {
+        int[] sel = batch.selectionBuffer();
+        int rows = batch.numSelected();
+        int n = 0;
+        for (int k = 0; k < rows; ++k) {
+            int r = batch.row(k);
+            boolean pass;
+            if (op == Predicate.Op.LIKE) {
+                pass = batch.containsString(field, r, stringOperand);
+            } else {
+                int c = batch.compareString(field, r, stringOperand);
+                switch (op) {
+                case EQUALS: pass = c == 0; break;
+                case NOT_EQUALS: pass = c != 0; break;
+                case GREATER_THAN: pass = c > 0; break;
+                case GREATER_THAN_OR_EQ: pass = c >= 0; break;
+                case LESS_THAN: pass = c < 0; break;
+                case LESS_THAN_OR_EQ: pass = c <= 0; break;
+                default: pass = false; break;
+                }
+            }
+            if (pass) sel[n++] = r;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * BatchIterator is the vectorized counterpart of {@link DbIterator}.  Instead
+ * of one Tuple per call, each call to {@link #nextBatch} returns a
+ * {@link ColumnBatch} holding up to {@link ColumnBatch#DEFAULT_CAPACITY} rows
+ * in column-major form.
+ * <p>
+ * Producers are free to reuse the same ColumnBatch object for every call, so
+ * a consumer must be done with a batch before asking for the next one.
+ * Consumers may narrow the selection vector of a batch they received, but
+ * must not otherwise modify it.
+ * <p>
+ * Batch plans can be mixed with tuple-at-a-time plans using
+ * {@link TupleToBatchIterator} and {@link BatchToTupleIterator}.
+ */
+public interface BatchIterator {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows.  A returned batch may have no selected
+     * rows (e.g., when a filter rejected all of them); the end of the
+     * iteration is signalled by a null return value only.
+     *
+     * @return the next batch, or null if the iteration is finished.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc of the batches produced by this iterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
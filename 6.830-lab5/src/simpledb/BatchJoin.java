@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchJoin is the vectorized counterpart of {@link Join}.  When it is
+ * opened, it reads the rows of its inner (second) child into batches of
+ * its own, indexed by a hash of the join field when the predicate is an
+ * equality of int fields.  Each call to {@link #nextBatch} then fills the
+ * same output batch, allocated when the join is opened, with the
+ * concatenation of each outer row and the inner rows it matches.
+ * <p>
+ * Rows are compared through {@link RowBuffer}s and copied column by
+ * column, so the join builds no Tuple or Field for its input or output
+ * rows, and the output schema is computed once, when the join is created.
+ */
+public class BatchJoin implements BatchIterator {
+
+    private static final int CAPACITY = ColumnBatch.DEFAULT_CAPACITY;
+
+    private final JoinPredicate jp;
+    private final BatchIterator child1, child2;
+    private final TupleDesc td;
+    private final int outerFields;
+    private final RowBuffer left = new RowBuffer(), right = new RowBuffer();
+
+    /** the inner rows, CAPACITY to a batch, so inner row r is row r % CAPACITY of batch r / CAPACITY */
+    private ArrayList<ColumnBatch> inner;
+    private int innerRows;
+    /**
+     * for an int equality, head[h] is the first inner row whose join field
+     * hashes to h and next[r] the one after inner row r, or -1 if there is none
+     */
+    private int[] head, next;
+
+    private ColumnBatch out;
+    private ColumnBatch outerBatch;
+    private int outerPos;
+    /** the next inner row to test against the current outer row, or -1 to start at the first */
+    private int cursor;
+
+    /**
+     * Constructor.  Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BatchJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        this.jp = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        outerFields = child1.getTupleDesc().numFields();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return true if inner rows are found through the hash index */
+    private boolean hashed() {
+        return jp.getOperator() == Predicate.Op.EQUALS
+                && child2.getTupleDesc().getType(jp.getField2()) == Type.INT_TYPE;
+    }
+
+    private static int hash(int v) {
+        int h = v * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+
+        inner = new ArrayList<ColumnBatch>();
+        innerRows = 0;
+        ColumnBatch batch;
+        while ((batch = child2.nextBatch()) != null) {
+            for (int k = 0; k < batch.numSelected(); ++k) {
+                if (innerRows % CAPACITY == 0)
+                    inner.add(new ColumnBatch(child2.getTupleDesc(), CAPACITY));
+                ColumnBatch dest = inner.get(inner.size() - 1);
+                right.at(batch, batch.row(k)).copyTo(dest, dest.size(), 0);
+                dest.setSize(dest.size() + 1);
+                ++innerRows;
+            }
+        }
+
+        head = next = null;
+        if (hashed()) {
+            int size = 16;
+            while (size < 2 * innerRows)
+                size <<= 1;
+            head = new int[size];
+            Arrays.fill(head, -1);
+            next = new int[innerRows];
+            // inserted from the last row, so that each chain is in row order
+            for (int r = innerRows - 1; r >= 0; --r) {
+                int h = hash(inner.get(r / CAPACITY).getInt(jp.getField2(), r % CAPACITY)) & (size - 1);
+                next[r] = head[h];
+                head[h] = r;
+            }
+        }
+
+        out = new ColumnBatch(td, CAPACITY);
+        outerBatch = null;
+        outerPos = 0;
+        cursor = -1;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        inner = null;
+        head = next = null;
+        out = null;
+        outerBatch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        outerBatch = null;
+        outerPos = 0;
+        cursor = -1;
+    }
+
+    /** @return the first inner row that may match the outer row left, or -1 */
+    private int first() {
+        if (head != null)
+            return head[hash(left.getInt(jp.getField1())) & (head.length - 1)];
+        return innerRows > 0 ? 0 : -1;
+    }
+
+    /** @return the inner row that may match the outer row left after inner row r, or -1 */
+    private int following(int r) {
+        if (next != null)
+            return next[r];
+        return r + 1 < innerRows ? r + 1 : -1;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("BatchJoin not open");
+        out.clear();
+        while (!out.isFull()) {
+            if (outerBatch == null || outerPos >= outerBatch.numSelected()) {
+                outerBatch = child1.nextBatch();
+                outerPos = 0;
+                cursor = -1;
+                if (outerBatch == null)
+                    return out.size() > 0 ? out : null;
+                continue;
+            }
+            left.at(outerBatch, outerBatch.row(outerPos));
+            int r = cursor < 0 ? first() : cursor;
+            while (r >= 0 && !out.isFull()) {
+                right.at(inner.get(r / CAPACITY), r % CAPACITY);
+                if (jp.filter(left, right)) {
+                    int row = out.size();
+                    left.copyTo(out, row, 0);
+                    right.copyTo(out, row, outerFields);
+                    out.setSize(row + 1);
+                }
+                r = following(r);
+            }
+            if (r >= 0) {
+                // the output batch is full; carry on from r next time
+                cursor = r;
+                break;
+            }
+            ++outerPos;
+            cursor = -1;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchProject is the vectorized counterpart of {@link Project}.  The batches
+ * it returns are views over the columns of the child's batches, so
+ * projection does not copy any values; a child that reuses its batch gets
+ * the same view back each time.
+ */
+public class BatchProject implements BatchIterator {
+
+    private BatchIterator child;
+    private TupleDesc td;
+    private int[] outFieldIds;
+    private ColumnBatch view;
+
+    /**
+     * Constructor accepts a child operator to read batches to apply
+     * projection to and a list of fields in the output batches
+     *
+     * @param fieldList The ids of the fields child's tupleDesc to project out
+     * @param typesList the types of the fields in the final projection
+     * @param child The child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, ArrayList<Type> typesList, BatchIterator child) {
+        this.child = child;
+        outFieldIds = new int[fieldList.size()];
+        String[] fieldAr = new String[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < fieldAr.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            fieldAr[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        td = new TupleDesc(typesList.toArray(new Type[0]), fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        view = batch.project(outFieldIds, td, view);
+        return view;
+    }
+}
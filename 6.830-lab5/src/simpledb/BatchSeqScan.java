@@ -0,0 +1,129 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the vectorized counterpart of {@link SeqScan}: it reads
+ * the tuples of a table in file order and returns them in
+ * {@link ColumnBatch}es.
+ * <p>
+ * A scan may read only some of the fields of the table.  The batches of
+ * a HeapFile (or {@link PaxFile}) are filled from the bytes of its pages
+ * without building tuples, reading only the fields scanned.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private final TransactionId tid;
+    private final DbFile dbf;
+    private final int[] fields;
+    private DbFileIterator dbfItr;
+    private TupleDesc aliasTd;
+    private ColumnBatch batch;
+
+    private int numPages;
+    private int pageno;
+    private HeapPage page;
+    private int slot;
+
+    /**
+     * Creates a sequential scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table; the field names of the
+     *         returned batches are tableAlias.fieldName
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, allFields(Database.getCatalog().getTupleDesc(tableid)));
+    }
+
+    /**
+     * Creates a sequential scan over some of the fields of the specified
+     * table as a part of the specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table; the field names of the
+     *         returned batches are tableAlias.fieldName
+     * @param fields the fields of the table to read; column k of the
+     *         returned batches is field fields[k]
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        this.tid = tid;
+        this.dbf = Database.getCatalog().getDbFile(tableid);
+        this.fields = fields.clone();
+        TupleDesc td = SeqScan.aliasTupleDesc(dbf.getTupleDesc(), tableAlias);
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int k = 0; k < fields.length; ++k) {
+            types[k] = td.getType(fields[k]);
+            names[k] = td.getFieldName(fields[k]);
+        }
+        aliasTd = new TupleDesc(types, names);
+        if (!(dbf instanceof HeapFile))
+            dbfItr = dbf.iterator(tid);
+    }
+
+    private static int[] allFields(TupleDesc td) {
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; ++i)
+            fields[i] = i;
+        return fields;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (dbfItr != null)
+            dbfItr.open();
+        else
+            start();
+        batch = new ColumnBatch(aliasTd);
+    }
+
+    /** Starts reading a HeapFile from its first page. */
+    private void start() {
+        numPages = ((HeapFile) dbf).numPages();
+        pageno = 0;
+        page = null;
+        slot = 0;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("BatchSeqScan not open");
+        batch.clear();
+        if (dbfItr != null) {
+            while (!batch.isFull() && dbfItr.hasNext())
+                batch.append(dbfItr.next(), fields);
+        } else {
+            while (!batch.isFull() && pageno < numPages) {
+                if (page == null)
+                    page = (HeapPage) Database.getBufferPool().getPage(
+                            tid, new HeapPageId(dbf.getId(), pageno), Permissions.READ_ONLY);
+                slot = page.appendTo(batch, fields, slot);
+                if (slot < 0) {
+                    page = null;
+                    slot = 0;
+                    ++pageno;
+                }
+            }
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (dbfItr != null)
+            dbfItr.rewind();
+        else
+            start();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return aliasTd;
+    }
+
+    public void close() {
+        if (dbfItr != null)
+            dbfItr.close();
+        page = null;
+        batch = null;
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * BatchToTupleIterator exposes a {@link BatchIterator} as a
+ * {@link DbIterator}, so that batch operators can feed the tuple-at-a-time
+ * operators (e.g., Join or OrderBy) of a plan.
+ */
+public class BatchToTupleIterator extends AbstractDbIterator {
+
+    private BatchIterator child;
+    private ColumnBatch batch;
+    private int pos;
+
+    public BatchToTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        pos = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+        pos = 0;
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.numSelected()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.toTuple(batch.row(pos++));
+    }
+}
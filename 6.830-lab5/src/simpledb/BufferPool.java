@@ -8,12 +8,22 @@ import java.util.*;
  * disk. Access methods call into it to retrieve pages, and it fetches
  * pages from the appropriate location.
  * <p>
+ * Files may have pages of different sizes (see {@link HeapFile#getPageSize}),
+ * so the pool holds as many pages as fit in the bytes of numPages pages of
+ * {@link #PAGE_SIZE} bytes: fewer large pages, or more small ones.
+ * <p>
+ * A pool created to keep its pages off the heap moves the data of each
+ * HeapPage of {@link #PAGE_SIZE} bytes it holds into frames of a
+ * {@link FrameArena}, so that a large pool adds little to the heap the
+ * garbage collector has to trace.  Pages leaving the pool move back onto
+ * the heap.
+ * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool which check that the transaction has the appropriate
  * locks to read/write the page.
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Bytes per page, including header, of files that do not set their own page size. */
     public static final int PAGE_SIZE = 4096;
 
     /** Default number of pages passed to the constructor. This is used by
@@ -24,18 +34,48 @@ public class BufferPool {
     private LinkedHashMap<PageId, Page> pages;
 
     private int pagesLimit;
+    /** the size of each page in the pool, and their total */
+    private HashMap<PageId, Integer> frameSizes = new HashMap<PageId, Integer>();
+    private long usedBytes;
+    /** where the data of pages is kept off the heap, or null to keep it on the heap */
+    private FrameArena arena;
     private LockManager lockManager;
+    /** number of times the tuples of each table have changed, see getTableVersion */
+    private HashMap<Integer, Long> tableVersions = new HashMap<Integer, Long>();
+    /** tables each running transaction has inserted tuples into or deleted tuples from */
+    private HashMap<TransactionId, HashSet<Integer>> tablesWritten = new HashMap<TransactionId, HashSet<Integer>>();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of
+     * {@link #PAGE_SIZE} bytes, or as many pages of other sizes as take
+     * the same space.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, keeping their
+     * data in frames off the heap if offHeap is set.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param offHeap whether to keep the data of pages off the heap
+     */
+    public BufferPool(int numPages, boolean offHeap) {
 //        pages = new Page[numPages];
         pagesLimit = numPages;
         pages = new LinkedHashMap<PageId, Page>();
         lockManager = new LockManager();
+        // each page takes a frame for its data and one for its before image
+        if (offHeap)
+            arena = new FrameArena(PAGE_SIZE, 2 * numPages);
+    }
+
+    /** @return the arena the data of pages is kept in, or null if they are kept on the heap */
+    FrameArena getFrameArena() {
+        return arena;
     }
 
     /**
@@ -55,9 +95,7 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        if (perm == Permissions.READ_WRITE)
-            lockManager.acquireWriteLock(tid, pid);
-        else lockManager.acquireReadLock(tid, pid);
+        lockPage(tid, pid, perm);
         Page page;
         synchronized (this) {
             if (pages.containsKey(pid)) {
@@ -69,19 +107,40 @@ public class BufferPool {
                     page = file.readPage(pid);
                 } else {
                     try {
-                        page = new HeapPage(((HeapPageId) pid), HeapPage.createEmptyPageData());
+                        page = file.createPage((HeapPageId) pid, HeapPage.createEmptyPageData(file.getPageSize()));
                     } catch (IOException e) {
                         throw new DbException(e.getMessage());
                     }
                 }
-                if (pages.size() == this.pagesLimit)
+                int size = file.getPageSize();
+                while (usedBytes + size > (long) pagesLimit * PAGE_SIZE && !pages.isEmpty())
                     evictPage();
+                frameSizes.put(pid, size);
+                usedBytes += size;
+                if (arena != null && page instanceof HeapPage)
+                    ((HeapPage) page).moveTo(arena);
             }
             pages.put(pid, page);
             return page;
         }
     }
 
+    /**
+     * Acquires the lock {@link #getPage} would on a page, without reading
+     * the page.  A transaction that has other threads read pages for it
+     * locks them first, so that those threads never wait for a lock.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the permissions the page will be read with
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        if (perm == Permissions.READ_WRITE)
+            lockManager.acquireWriteLock(tid, pid);
+        else lockManager.acquireReadLock(tid, pid);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -118,16 +177,73 @@ public class BufferPool {
      */
     public   void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        if (lockManager.getPagesHeldBy(tid) == null) return;
-        Set<PageId> pageIds = lockManager.getPagesHeldBy(tid);
-        if (commit) {
-            for (PageId pageId: pageIds)
-                flushPage(pageId);
-        } else {
-            for (PageId pageId: pageIds)
-                discardPage(pageId);
+        Set<PageId> held = lockManager.getPagesHeldBy(tid);
+        if (held == null)
+            return;
+        try {
+            ArrayList<PageId> pageIds;
+            synchronized (lockManager) {
+                pageIds = new ArrayList<PageId>(held);
+            }
+            if (commit) {
+                for (PageId pageId: pageIds)
+                    flushPage(pageId);
+            } else {
+                for (PageId pageId: pageIds)
+                    discardPage(pageId);
+            }
+        } finally {
+            // the locks go even if a page could not be written
+            lockManager.releaseAllLocks(tid);
+            // the changes are now committed or undone
+            synchronized (this) {
+                HashSet<Integer> tables = tablesWritten.remove(tid);
+                if (tables != null)
+                    for (int tableId : tables)
+                        bumpTableVersion(tableId);
+            }
+        }
+    }
+
+    /**
+     * Returns the version of the tuples of a table, which changes whenever
+     * a tuple is inserted into or deleted from the table through the
+     * buffer pool, and again when the transaction that did so commits or
+     * aborts.  Anything computed from the table while its version did not
+     * change, and no transaction had uncommitted changes to it (see
+     * {@link #hasUncommittedChanges}), is still up to date.
+     *
+     * @param tableId the table
+     */
+    public synchronized long getTableVersion(int tableId) {
+        Long version = tableVersions.get(tableId);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * @return true if a transaction that has inserted tuples into or
+     *   deleted tuples from the table has not yet committed or aborted
+     */
+    public synchronized boolean hasUncommittedChanges(int tableId) {
+        for (HashSet<Integer> tables : tablesWritten.values())
+            if (tables.contains(tableId))
+                return true;
+        return false;
+    }
+
+    private synchronized void bumpTableVersion(int tableId) {
+        tableVersions.put(tableId, getTableVersion(tableId) + 1);
+    }
+
+    /** Records that a transaction has changed the tuples of a table. */
+    private synchronized void tableChanged(TransactionId tid, int tableId) {
+        bumpTableVersion(tableId);
+        HashSet<Integer> tables = tablesWritten.get(tid);
+        if (tables == null) {
+            tables = new HashSet<Integer>();
+            tablesWritten.put(tid, tables);
         }
-        lockManager.releaseAllLocks(tid);
+        tables.add(tableId);
     }
 
     /**
@@ -149,6 +265,7 @@ public class BufferPool {
         for (Page page: Database.getCatalog().getDbFile(tableId).addTuple(tid, t)) {
             page.markDirty(true, tid);
         }
+        tableChanged(tid, tableId);
     }
 
     /**
@@ -170,6 +287,7 @@ public class BufferPool {
         if (pid == null)
             throw new DbException("the tuple to delete doesn't belong to any table");
         Database.getCatalog().getDbFile(pid.getTableId()).deleteTuple(tid, t).markDirty(true, tid);
+        tableChanged(tid, pid.getTableId());
         if (!pages.containsKey(pid))
             throw new DbException("wtf");
     }
@@ -191,7 +309,44 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        pages.remove(pid);
+        removePage(pid);
+    }
+
+    /**
+     * Stops transactions from locking the pages of a table while it is
+     * dropped (see {@link LockManager#fenceTable}).
+     *
+     * @return false if a transaction holds or is waiting for a lock on one
+     *   of its pages, and the table can't be dropped yet
+     */
+    public boolean fenceTable(int tableId) {
+        return lockManager.fenceTable(tableId);
+    }
+
+    /** Undoes {@link #fenceTable}. */
+    public void unfenceTable(int tableId) {
+        lockManager.unfenceTable(tableId);
+    }
+
+    /**
+     * Removes every page of a table from the buffer pool, without writing
+     * it, once the table has been dropped.
+     */
+    public synchronized void discardTable(int tableId) {
+        for (PageId pid : new ArrayList<PageId>(pages.keySet()))
+            if (pid.getTableId() == tableId)
+                removePage(pid);
+        bumpTableVersion(tableId);
+    }
+
+    /** Removes a page from the pool, and gives back its space */
+    private void removePage(PageId pid) {
+        Page page = pages.remove(pid);
+        if (arena != null && page instanceof HeapPage)
+            ((HeapPage) page).release(arena);
+        Integer size = frameSizes.remove(pid);
+        if (size != null)
+            usedBytes -= size;
     }
 
     /**
@@ -199,11 +354,16 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-        if (!pages.containsKey(pid)) return;
         Page p = pages.get(pid);
+        if (p == null) return;
         TransactionId dirtier = p.isDirty();
         if (dirtier == null) return;
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDbFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;   // the table has been dropped, and the page goes with it
+        }
 
         Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
         Database.getLogFile().force();
@@ -233,7 +393,7 @@ public class BufferPool {
             } catch (IOException e) {
                 throw new DbException(e.getMessage());
             }
-            pages.remove(pid);
+            removePage(pid);
             return;
         }
         throw new DbException("all pages in the buffer pool are dirty");
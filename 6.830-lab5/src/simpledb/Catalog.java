@@ -3,30 +3,72 @@ package simpledb;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The Catalog keeps track of all available idToTables in the database and their
  * associated schemas.
- * For now, this is a stub catalog that must be populated with idToTables by a
- * user program before it can be used -- eventually, this should be converted
- * to a catalog that reads a catalog table from disk.
+ * <p>
+ * Tables are either added by a user program as DbFiles, or described by a
+ * schema file read by {@link #loadSchema}.  The tables of a schema file are
+ * also stored in a {@link SystemCatalog} next to it, which gives each of
+ * them an id that never changes, and which later calls read instead of
+ * parsing the schema again, until the schema file is edited.  The DbFile of
+ * a table described by a schema is only opened when it is first needed.
+ * <p>
+ * Tables may be created and dropped while the database runs (see
+ * {@link #createTable} and {@link #dropTable}): each change is logged, then
+ * written to the schema file last loaded and to its system catalog, and is
+ * replayed by recovery if the database crashed before that was done.
+ * Lookups may run concurrently with these changes.
  */
 
 public class Catalog {
-    private static class Table {
+    /** The layouts a table described by a schema may be stored in. */
+    static final String HEAP = "heap", PAX = "pax", COMPRESSED = "compressed", SLOTTED = "slotted";
+
+    static class Table {
+        private final int id;
+        private final String name;
+        private final TupleDesc td;
+        private final String primaryKey;
+        /** the file and layout of a table described by a schema, or null */
+        private final String path, layout;
+        /** the most characters of each field of a SLOTTED table, or null */
+        private final int[] maxLengths;
         private DbFile dbFile;
-        private String primaryKey;
-        private String name;
+        private ArrayList<String[]> columnGroups = new ArrayList<String[]>();
+
         Table(DbFile dbFile, String name, String primaryKey) {
+            this.id = dbFile.getId();
             this.dbFile = dbFile;
+            this.td = dbFile.getTupleDesc();
             this.name = name;
             this.primaryKey = primaryKey;
+            this.path = null;
+            this.layout = null;
+            this.maxLengths = null;
+        }
+
+        Table(int id, String name, TupleDesc td, String primaryKey, String path, String layout,
+              int[] maxLengths) {
+            this.id = id;
+            this.name = name;
+            this.td = td;
+            this.primaryKey = primaryKey;
+            this.path = path;
+            this.layout = layout;
+            this.maxLengths = maxLengths;
         }
 
         int id() {
-            return dbFile.getId();
+            return id;
         }
 
         String name() {
@@ -34,28 +76,109 @@ public class Catalog {
         }
 
         TupleDesc getTupleDesc() {
-            return dbFile.getTupleDesc();
+            return td;
         }
 
-        DbFile file() {
+        /** @return the DbFile of the table, opening it the first time */
+        synchronized DbFile file() {
+            if (dbFile == null)
+                dbFile = open(id, new File(path), td, layout, maxLengths);
             return dbFile;
         }
 
         String primaryKey() {
             return primaryKey;
         }
+
+        String path() {
+            return path;
+        }
+
+        String layout() {
+            return layout;
+        }
+
+        int[] maxLengths() {
+            return maxLengths;
+        }
+
+        List<String[]> columnGroups() {
+            return columnGroups;
+        }
+
+        /** @return the description of the table, as on a line of a schema file */
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(" (");
+            for (int i = 0; i < td.numFields(); ++i) {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append(td.getFieldName(i)).append(' ');
+                Type type = td.getType(i);
+                if (type == Type.STRING_TYPE && SLOTTED.equals(layout))
+                    sb.append("varchar(").append(maxLengths[i]).append(')');
+                else
+                    sb.append(type.name().substring(0, type.name().indexOf('_')).toLowerCase());
+                if (td.getFieldName(i).equals(primaryKey))
+                    sb.append(" pk");
+            }
+            sb.append(')');
+            if (PAX.equals(layout) || COMPRESSED.equals(layout))
+                sb.append(' ').append(layout);
+            for (String[] group : columnGroups)
+                sb.append(" group (").append(group[0]).append(", ").append(group[1]).append(')');
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Opens the file of a table described by a schema.
+     *
+     * @param id the id the file is given
+     * @param layout one of HEAP, PAX, COMPRESSED and SLOTTED
+     * @param maxLengths the most characters of each field of a SLOTTED table
+     * @throws IllegalArgumentException if the table cannot be stored in that layout
+     */
+    static HeapFile open(int id, File f, TupleDesc td, String layout, int[] maxLengths) {
+        HeapFile hf;
+        if (layout.equals(PAX))
+            hf = new PaxFile(f, td);
+        else if (layout.equals(COMPRESSED))
+            hf = new CompressedFile(f, td);
+        else if (layout.equals(SLOTTED))
+            hf = new SlottedFile(f, td, maxLengths);
+        else
+            hf = new HeapFile(f, td);
+        hf.setId(id);
+        return hf;
     }
 
-    private HashMap<Integer, Table> idToTables;
-    private HashMap<String, Table> nameToTables;
+    /** A varchar field type in a schema file: <tt>varchar(n)</tt> */
+    private static final Pattern VARCHAR = Pattern.compile("(?i)varchar\\s*\\(\\s*(\\d+)\\s*\\)");
+
+    /** The layout of a table in a schema file: <tt>pax</tt> or <tt>compressed</tt> */
+    private static final Pattern LAYOUT = Pattern.compile("(?i)\\s*(pax|compressed)\\b");
+
+    /** A column group in a schema file: <tt>group (field, field)</tt> */
+    private static final Pattern COLUMN_GROUP =
+        Pattern.compile("\\s*group\\s*\\(\\s*([^,\\s]+)\\s*,\\s*([^)\\s]+)\\s*\\)\\s*");
+
+    private ConcurrentHashMap<Integer, Table> idToTables;
+    private ConcurrentHashMap<String, Table> nameToTables;
+    /** the tables of SystemCatalogs being read or written */
+    private final ConcurrentHashMap<Integer, Table> systemTables = new ConcurrentHashMap<Integer, Table>();
+
+    /** the schema file last loaded, its system catalog and its tables, in order */
+    private File schemaFile;
+    private SystemCatalog system;
+    private List<Table> schemaTables;
 
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
-        idToTables = new HashMap<Integer, Table>();
-        nameToTables = new HashMap<String, Table>();
+        idToTables = new ConcurrentHashMap<Integer, Table>();
+        nameToTables = new ConcurrentHashMap<String, Table>();
     }
 
     /**
@@ -68,9 +191,17 @@ public class Catalog {
      * conflict exists, use the last table to be added as the table for a given name.
      */
     public void addTable(DbFile file, String name, String pkeyField) {
-        Table table = new Table(file, name, pkeyField);
+        addTable(new Table(file, name, pkeyField));
+    }
+
+    private synchronized void addTable(Table table) {
         idToTables.put(table.id(), table);
-        nameToTables.put(name, table);
+        nameToTables.put(table.name(), table);
+    }
+
+    private synchronized void removeTable(Table table) {
+        idToTables.remove(table.id());
+        nameToTables.remove(table.name(), table);
     }
 
     public void addTable(DbFile file, String name) {
@@ -94,8 +225,9 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) {
-        if (nameToTables.containsKey(name))
-            return nameToTables.get(name).id();
+        Table table = name == null ? null : nameToTables.get(name);
+        if (table != null)
+            return table.id();
         throw new NoSuchElementException();
     }
 
@@ -119,14 +251,51 @@ public class Catalog {
     }
 
     /** Delete all idToTables from the catalog */
-    public void clear() {
+    public synchronized void clear() {
         idToTables.clear();
+        nameToTables.clear();
     }
 
     public String getPrimaryKey(int tableid) {
         return getTable(tableid).primaryKey();
     }
 
+    /**
+     * Declares that two columns of a table are correlated, so that
+     * statistics are kept over their joint values (see
+     * {@link ColumnGroupStats}).  The group is used once the statistics of
+     * the table are next computed, for example by ANALYZE.
+     *
+     * @param tableid the id of the table
+     * @param field1 the name of the first column
+     * @param field2 the name of the second column
+     * @throws NoSuchElementException if the table or either column doesn't exist
+     * @throws IllegalArgumentException if the columns are the same
+     */
+    public void addColumnGroup(int tableid, String field1, String field2) throws NoSuchElementException {
+        Table table = getTable(tableid);
+        int f1 = table.getTupleDesc().nameToId(field1);
+        int f2 = table.getTupleDesc().nameToId(field2);
+        if (f1 == f2)
+            throw new IllegalArgumentException("a column group needs two different columns");
+        for (String[] group : table.columnGroups)
+            if ((group[0].equals(field1) && group[1].equals(field2))
+                || (group[0].equals(field2) && group[1].equals(field1)))
+                return;
+        table.columnGroups.add(new String[] {field1, field2});
+    }
+
+    /**
+     * @return the column groups declared for a table, as pairs of column
+     *   names, in the order they were declared
+     */
+    public List<String[]> getColumnGroups(int tableid) throws NoSuchElementException {
+        List<String[]> groups = new ArrayList<String[]>();
+        for (String[] group : getTable(tableid).columnGroups)
+            groups.add(group.clone());
+        return groups;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return idToTables.keySet().iterator();
     }
@@ -136,63 +305,328 @@ public class Catalog {
     }
 
     private Table getTable(int tableid) throws NoSuchElementException {
-        if (idToTables.containsKey(tableid))
-            return idToTables.get(tableid);
+        Table table = idToTables.get(tableid);
+        if (table == null)
+            table = systemTables.get(tableid);
+        if (table != null)
+            return table;
         throw new NoSuchElementException();
     }
+
+    /**
+     * Makes a table of a SystemCatalog known by its id while its pages are
+     * read or written, without listing it among the tables of the database.
+     */
+    void addSystemTable(HeapFile file) {
+        systemTables.put(file.getId(), new Table(file, "", ""));
+    }
+
+    void removeSystemTable(int tableid) {
+        systemTables.remove(tableid);
+    }
+
+    /**
+     * Creates a new, empty table, as CREATE TABLE does, and adds it to the
+     * schema file last loaded.  The table is logged, and recorded in the
+     * schema file and its system catalog, before it can be used.
+     *
+     * @param definition the table, described as on a line of a schema file
+     *   (see {@link #loadSchema})
+     * @return the id of the new table
+     * @throws IllegalArgumentException if the definition is invalid, or the
+     *   table or its file already exists
+     * @throws IllegalStateException if no schema file has been loaded
+     */
+    public int createTable(String definition) throws IOException {
+        LogFile log = Database.getLogFile();
+        synchronized (log) {
+            synchronized (this) {
+                if (system == null)
+                    throw new IllegalStateException("no schema file is loaded");
+                Table table = describe(definition, system.idFor(tableName(definition)));
+                if (nameToTables.containsKey(table.name()))
+                    throw new IllegalArgumentException("Table " + table.name() + " already exists");
+                if (new File(table.path()).length() > 0)
+                    throw new IllegalArgumentException(table.path() + " already exists");
+                log.logCatalogChange(LogFile.CREATE_TABLE, schemaFile, table.id(), table.toString());
+                create(table);
+                return table.id();
+            }
+        }
+    }
+
+    /**
+     * Drops a table, as DROP TABLE does: removes it from the catalog and
+     * deletes its files.  A table of the schema file last loaded is first
+     * logged as dropped, and removed from the schema file and its system
+     * catalog.
+     *
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws IllegalStateException if a transaction that has not committed
+     *   or aborted holds locks on the pages of the table; while the table
+     *   is dropped, transactions that ask for them abort
+     */
+    public void dropTable(String name) throws IOException {
+        Table table = name == null ? null : nameToTables.get(name);
+        if (table == null)
+            throw new NoSuchElementException("Unknown table " + name);
+        BufferPool pool = Database.getBufferPool();
+        if (!pool.fenceTable(table.id()))
+            throw new IllegalStateException("Table " + name + " is in use by a transaction");
+        try {
+            if (pool.hasUncommittedChanges(table.id()))
+                throw new IllegalStateException("Table " + name + " has uncommitted changes");
+            LogFile log = Database.getLogFile();
+            synchronized (log) {
+                synchronized (this) {
+                    if (nameToTables.get(name) != table)
+                        throw new NoSuchElementException("Unknown table " + name);
+                    if (schemaTables != null && schemaTables.contains(table)) {
+                        log.logCatalogChange(LogFile.DROP_TABLE, schemaFile, table.id(), name);
+                        schemaTables.remove(table);
+                        saveSchema();
+                    }
+                    removeTable(table);
+                }
+            }
+            deleteFiles(table);
+        } finally {
+            pool.unfenceTable(table.id());
+        }
+    }
+
+    /**
+     * Redoes a change to the catalog logged by {@link LogFile#logCatalogChange},
+     * if the schema file it was made to is loaded and does not have it.
+     */
+    synchronized void replay(int change, String schema, int tableid, String text) throws IOException {
+        if (schemaFile == null || !schemaFile.getAbsolutePath().equals(schema))
+            return;
+        if (change == LogFile.CREATE_TABLE && !idToTables.containsKey(tableid)) {
+            create(describe(text, tableid));
+            System.out.println("Redid CREATE TABLE " + text);
+        } else if (change == LogFile.DROP_TABLE && idToTables.containsKey(tableid)) {
+            Table table = idToTables.get(tableid);
+            schemaTables.remove(table);
+            saveSchema();
+            removeTable(table);
+            deleteFiles(table);
+            System.out.println("Redid DROP TABLE " + text);
+        }
+    }
+
+    /** Creates the empty file of a new table, and adds the table to the schema. */
+    private void create(Table table) throws IOException {
+        new File(table.path()).createNewFile();
+        table.file();
+        schemaTables.add(table);
+        saveSchema();
+        addTable(table);
+    }
+
+    /** Removes the pages and files of a table that was dropped. */
+    private void deleteFiles(Table table) {
+        Database.getBufferPool().discardTable(table.id());
+        TableStats.forget(table.id());
+        if (table.path() != null) {
+            File f = new File(table.path());
+            String stats = f.getName().endsWith(".dat")
+                ? f.getName().substring(0, f.getName().length() - ".dat".length()) : f.getName();
+            new File(f.getAbsoluteFile().getParentFile(), stats + ".stats").delete();
+            f.delete();
+        }
+    }
+
+    /** Rewrites the schema file last loaded, and then its system catalog. */
+    private void saveSchema() throws IOException {
+        File tmp = new File(schemaFile.getPath() + ".new");
+        PrintWriter out = new PrintWriter(new FileWriter(tmp));
+        for (Table table : schemaTables)
+            out.println(table);
+        out.close();
+        if (out.checkError())
+            throw new IOException("can't write " + tmp);
+        if (!tmp.renameTo(schemaFile) && !(schemaFile.delete() && tmp.renameTo(schemaFile)))
+            throw new IOException("can't replace " + schemaFile);
+        system.write(schemaTables);
+    }
     
+    /** @return the index of the parenthesis closing the one at open in s */
+    private static int closingParenthesis(String s, int open) {
+        int depth = 0;
+        for (int i = open; i < s.length(); ++i) {
+            if (s.charAt(i) == '(')
+                ++depth;
+            else if (s.charAt(i) == ')' && --depth == 0)
+                return i;
+        }
+        throw new IndexOutOfBoundsException("unbalanced parentheses");
+    }
+
+    /**
+     * @return the name of the table described by a line of a schema file
+     * @throws IllegalArgumentException if the line describes no table
+     */
+    private static String tableName(String line) {
+        int open = line.indexOf("(");
+        if (open < 0)
+            throw new IllegalArgumentException("Invalid catalog entry : " + line);
+        return line.substring(0, open).trim();
+    }
+
+    /**
+     * Describes the table on a line of a schema file, and opens its file.
+     *
+     * @param id the id the table is given
+     * @throws IllegalArgumentException if the line is not a valid description
+     */
+    private Table describe(String line, int id) {
+        try {
+            //assume line is of the format name (field type, field type, ...),
+            //where a type is int, string, long, double, date, timestamp,
+            //decimal or varchar(n),
+            //optionally followed by pax or compressed, to store the table
+            //in a PaxFile or CompressedFile, and column groups: group (field, field) ...
+            //tables with varchar(n) fields are stored in SlottedFiles
+            String name = tableName(line);
+            if (name.length() == 0)
+                throw new IllegalArgumentException("Invalid catalog entry : " + line);
+            int close = closingParenthesis(line, line.indexOf("("));
+            String fields = line.substring(line.indexOf("(") + 1, close).trim();
+            String[] els = fields.split(",");
+            ArrayList<String> names = new ArrayList<String>();
+            ArrayList<Type> types = new ArrayList<Type>();
+            ArrayList<Integer> maxLengths = new ArrayList<Integer>();
+            boolean varchar = false;
+            String primaryKey = "";
+            for (String e : els) {
+                String[] els2 = e.trim().split(" ");
+                names.add(els2[0].trim());
+                Matcher vm = VARCHAR.matcher(els2[1].trim());
+                maxLengths.add(Type.STRING_LEN);
+                Type type = Type.forName(els2[1]);
+                if (type != null)
+                    types.add(type);
+                else if (vm.matches()) {
+                    types.add(Type.STRING_TYPE);
+                    maxLengths.set(maxLengths.size() - 1, Integer.parseInt(vm.group(1)));
+                    varchar = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown type " + els2[1]);
+                }
+                if (els2.length == 3) {
+                    if (els2[2].trim().equals("pk"))
+                        primaryKey = els2[0].trim();
+                    else
+                        throw new IllegalArgumentException("Unknown annotation " + els2[2]);
+                }
+            }
+            Type[] typeAr = types.toArray(new Type[0]);
+            String[] namesAr = names.toArray(new String[0]);
+            TupleDesc t = new TupleDesc(typeAr, namesAr);
+            String rest = line.substring(close + 1);
+            String layoutName = HEAP;
+            int[] lengths = null;
+            Matcher layout = LAYOUT.matcher(rest);
+            if (layout.lookingAt()) {
+                if (varchar)
+                    throw new IllegalArgumentException("Tables with varchar fields can't be " + layout.group(1));
+                layoutName = layout.group(1).toLowerCase().equals("pax") ? PAX : COMPRESSED;
+                rest = rest.substring(layout.end());
+            } else if (varchar) {
+                layoutName = SLOTTED;
+                lengths = new int[maxLengths.size()];
+                for (int i = 0; i < lengths.length; ++i)
+                    lengths[i] = maxLengths.get(i);
+            }
+            Table table = new Table(id, name, t, primaryKey, name + ".dat", layoutName, lengths);
+            try {
+                table.file();
+            } catch (IllegalArgumentException e) {
+                if (varchar)
+                    throw new IllegalArgumentException("Invalid varchar length in " + fields);
+                throw new IllegalArgumentException("Table " + name + " can't be compressed: " + e.getMessage());
+            }
+            Matcher m = COLUMN_GROUP.matcher(rest);
+            int end = 0;
+            while (m.find() && m.start() == end) {
+                int f1, f2;
+                try {
+                    f1 = t.nameToId(m.group(1));
+                    f2 = t.nameToId(m.group(2));
+                } catch (NoSuchElementException e) {
+                    f1 = f2 = -1;
+                }
+                if (f1 == f2)
+                    throw new IllegalArgumentException("Invalid column group " + m.group().trim());
+                table.columnGroups.add(new String[] {m.group(1), m.group(2)});
+                end = m.end();
+            }
+            if (rest.substring(end).trim().length() > 0)
+                System.out.println("Ignoring " + rest.substring(end).trim());
+            return table;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid catalog entry : " + line);
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate idToTables in the database.
+     * The tables are read from the file's {@link SystemCatalog} instead, when
+     * that was written after the file was last edited.
      * @param catalogFile
      */
-    public void loadSchema(String catalogFile) {
-        String line = "";
+    public synchronized void loadSchema(String catalogFile) {
+        schemaFile = new File(catalogFile);
+        system = new SystemCatalog(schemaFile);
+        if (system.isCurrent()) {
+            try {
+                schemaTables = system.read();
+                for (Table table : schemaTables) {
+                    addTable(table);
+                    System.out.println("Added table : " + table.name() + " with schema " + table.getTupleDesc());
+                }
+                return;
+            } catch (IOException e) {
+                System.out.println("Can't read " + system + ", reading " + catalogFile + ": " + e.getMessage());
+            }
+        }
+        schemaTables = parseSchema(catalogFile, system);
+        try {
+            system.write(schemaTables);
+        } catch (IOException e) {
+            System.out.println("Can't write " + system + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the schema from a file, and adds its tables to the catalog, with
+     * the ids the system catalog gives them.
+     * @return the tables read
+     */
+    private List<Table> parseSchema(String catalogFile, SystemCatalog system) {
+        List<Table> tables = new ArrayList<Table>();
+        String line;
         try {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
-                String name = line.substring(0, line.indexOf("(")).trim();
-                //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
-                String[] els = fields.split(",");
-                ArrayList<String> names = new ArrayList<String>();
-                ArrayList<Type> types = new ArrayList<Type>();
-                String primaryKey = "";
-                for (String e : els) {
-                    String[] els2 = e.trim().split(" ");
-                    names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
-                    else {
-                        System.out.println("Unknown type " + els2[1]);
-                        System.exit(0);
-                    }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
-                            primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
-                            System.exit(0);
-                        }
-                    }
+                Table table;
+                try {
+                    table = describe(line, system.idFor(tableName(line)));
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    System.exit(0);
+                    return tables;
                 }
-                Type[] typeAr = types.toArray(new Type[0]);
-                String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t);
+                addTable(table);
+                tables.add(table);
+                System.out.println("Added table : " + table.name() + " with schema " + table.getTupleDesc());
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
-            System.out.println ("Invalid catalog entry : " + line);
-            System.exit(0);
         }
+        return tables;
     }
 }
-
@@ -0,0 +1,352 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnBatch holds up to {@link #DEFAULT_CAPACITY} rows of a relation in
+ * column-major form, and is the unit of data passed between
+ * {@link BatchIterator}s.
+ * <p>
+ * Columns of {@link Type#INT_TYPE} are stored in an <code>int[]</code>.
+ * Columns of {@link Type#STRING_TYPE} are stored as byte slices: one
+ * <code>byte[]</code> of <code>capacity * Type.STRING_LEN</code> bytes plus an
+ * <code>int[]</code> of lengths, so that row <code>r</code> of the column
+ * occupies bytes <code>[r * STRING_LEN, r * STRING_LEN + len[r])</code>.
+ * Columns of {@link Type#LONG_TYPE}, such as the sums computed by
+ * {@link BatchAggregate}, are stored in a <code>long[]</code>.  Batches of
+ * other types are not supported.
+ * <p>
+ * A batch may carry a selection vector.  When it is active, only the rows
+ * listed in it (in increasing order) are logically part of the batch;
+ * operators such as {@link BatchFilter} narrow the selection instead of
+ * copying the surviving rows.  Consumers should always walk the batch through
+ * {@link #numSelected} and {@link #row}.
+ */
+public class ColumnBatch {
+
+    /** Number of rows in a batch unless a capacity is given explicitly. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final long[][] longs;
+    private final byte[][] strings;
+    private final int[][] stringLens;
+
+    private int size;
+    private int[] sel;
+    private int numSelected;
+    private boolean selectionActive;
+    /** the batch this one is a projection of, or null */
+    private ColumnBatch base;
+
+    /**
+     * Create an empty batch for tuples of the specified schema.
+     *
+     * @param td the schema of the rows in this batch
+     * @param capacity the maximum number of rows held by this batch
+     * @throws IllegalArgumentException if td has fields of other types than
+     *   INT_TYPE, LONG_TYPE and STRING_TYPE
+     */
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int numFields = td.numFields();
+        ints = new int[numFields][];
+        longs = new long[numFields][];
+        strings = new byte[numFields][];
+        stringLens = new int[numFields][];
+        for (int i = 0; i < numFields; ++i) {
+            if (td.getType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else if (td.getType(i) == Type.LONG_TYPE) {
+                longs[i] = new long[capacity];
+            } else if (td.getType(i) == Type.STRING_TYPE) {
+                strings[i] = new byte[capacity * Type.STRING_LEN];
+                stringLens[i] = new int[capacity];
+            } else {
+                throw new IllegalArgumentException("batches cannot hold fields of " + td.getType(i));
+            }
+        }
+        sel = new int[capacity];
+    }
+
+    public ColumnBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /** View constructor used by {@link #project}; shares the column arrays. */
+    private ColumnBatch(TupleDesc td, int capacity, int[][] ints, long[][] longs,
+                        byte[][] strings, int[][] stringLens) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.longs = longs;
+        this.strings = strings;
+        this.stringLens = stringLens;
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows this batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of physical rows in this batch, ignoring the selection vector */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be appended */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Remove all rows (and the selection vector) from this batch so it can be refilled. */
+    public void clear() {
+        size = 0;
+        numSelected = 0;
+        selectionActive = false;
+    }
+
+    /**
+     * Sets the number of physical rows after a producer filled the column
+     * arrays directly; clears any selection vector.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > capacity)
+            throw new IllegalArgumentException("batch size " + size + " out of range");
+        this.size = size;
+        selectionActive = false;
+    }
+
+    /** @return the number of rows that are logically part of this batch */
+    public int numSelected() {
+        return selectionActive ? numSelected : size;
+    }
+
+    /**
+     * Maps a logical row number (0 &lt;= k &lt; numSelected()) to the physical
+     * row in the column arrays.
+     */
+    public int row(int k) {
+        return selectionActive ? sel[k] : k;
+    }
+
+    /**
+     * Returns the buffer that backs the selection vector.  A filter writes the
+     * physical row numbers of the surviving rows into it and then calls
+     * {@link #setSelected}.  Writing position k only after reading
+     * {@link #row}(k) is safe, so filters can narrow the selection in place.
+     */
+    int[] selectionBuffer() {
+        return sel;
+    }
+
+    /** Activates the selection vector with the first n entries of {@link #selectionBuffer}. */
+    void setSelected(int n) {
+        numSelected = n;
+        selectionActive = true;
+    }
+
+    /** @return the int column i; only valid for {@link Type#INT_TYPE} columns */
+    public int[] intColumn(int i) {
+        return ints[i];
+    }
+
+    /** @return the long column i; only valid for {@link Type#LONG_TYPE} columns */
+    public long[] longColumn(int i) {
+        return longs[i];
+    }
+
+    /** @return the bytes of string column i; only valid for {@link Type#STRING_TYPE} columns */
+    public byte[] stringColumn(int i) {
+        return strings[i];
+    }
+
+    /** @return the lengths of the values in string column i */
+    public int[] stringLengths(int i) {
+        return stringLens[i];
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public String getString(int col, int row) {
+        return new String(strings[col], row * Type.STRING_LEN, stringLens[col][row]);
+    }
+
+    public void setInt(int col, int row, int v) {
+        ints[col][row] = v;
+    }
+
+    public long getLong(int col, int row) {
+        return longs[col][row];
+    }
+
+    public void setLong(int col, int row, long v) {
+        longs[col][row] = v;
+    }
+
+    /** Store s into string column col at the given row, truncating to STRING_LEN. */
+    public void setString(int col, int row, String s) {
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        byte[] bytes = strings[col];
+        int off = row * Type.STRING_LEN;
+        // same encoding as StringField.serialize (DataOutputStream.writeBytes)
+        for (int i = 0; i < len; ++i)
+            bytes[off + i] = (byte) s.charAt(i);
+        stringLens[col][row] = len;
+    }
+
+    /**
+     * Store len bytes of src, starting at off, into string column col at the
+     * given row, truncating to STRING_LEN.
+     */
+    void setString(int col, int row, ByteBuffer src, int off, int len) {
+        len = Math.min(len, Type.STRING_LEN);
+        ByteBuffer view = src.duplicate();
+        view.clear();
+        view.position(off);
+        view.get(strings[col], row * Type.STRING_LEN, len);
+        stringLens[col][row] = len;
+    }
+
+    /**
+     * Lexicographically compares the string at (col, row) to value, using the
+     * same ordering as {@link String#compareTo} for single-byte characters.
+     */
+    public int compareString(int col, int row, byte[] value) {
+        byte[] bytes = strings[col];
+        int off = row * Type.STRING_LEN;
+        int len = stringLens[col][row];
+        int n = Math.min(len, value.length);
+        for (int i = 0; i < n; ++i) {
+            int c = (bytes[off + i] & 0xff) - (value[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return len - value.length;
+    }
+
+    /** @return true if the string at (col, row) contains needle as a substring */
+    public boolean containsString(int col, int row, byte[] needle) {
+        byte[] bytes = strings[col];
+        int off = row * Type.STRING_LEN;
+        int len = stringLens[col][row];
+        outer:
+        for (int i = 0; i + needle.length <= len; ++i) {
+            for (int j = 0; j < needle.length; ++j)
+                if (bytes[off + i + j] != needle[j]) continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Append a tuple as a new physical row.  Must not be called on a batch
+     * with an active selection vector.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void append(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        int row = size++;
+        for (int i = 0; i < td.numFields(); ++i) {
+            Field f = t.getField(i);
+            if (ints[i] != null)
+                ints[i][row] = ((IntField) f).getValue();
+            else if (longs[i] != null)
+                longs[i][row] = ((LongField) f).getValue();
+            else
+                setString(i, row, ((StringField) f).getValue());
+        }
+    }
+
+    /**
+     * Append the given fields of a tuple as a new physical row, so that
+     * column k of the row is field fields[k] of the tuple.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void append(Tuple t, int[] fields) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        int row = size++;
+        for (int k = 0; k < fields.length; ++k) {
+            Field f = t.getField(fields[k]);
+            if (ints[k] != null)
+                ints[k][row] = ((IntField) f).getValue();
+            else if (longs[k] != null)
+                longs[k][row] = ((LongField) f).getValue();
+            else
+                setString(k, row, ((StringField) f).getValue());
+        }
+    }
+
+    /** Materialize physical row <code>row</code> as a Tuple (with no RecordId). */
+    public Tuple toTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); ++i) {
+            if (ints[i] != null)
+                t.setField(i, new IntField(ints[i][row]));
+            else if (longs[i] != null)
+                t.setField(i, new LongField(longs[i][row]));
+            else
+                t.setField(i, new StringField(getString(i, row), Type.STRING_LEN));
+        }
+        return t;
+    }
+
+    /**
+     * Returns a batch whose column i is column fields[i] of this batch.  The
+     * returned batch shares the column arrays and the selection vector state
+     * with this batch, so no values are copied.
+     *
+     * @param fields the columns of this batch to keep, in output order
+     * @param projectedTd the schema of the returned batch
+     */
+    public ColumnBatch project(int[] fields, TupleDesc projectedTd) {
+        int[][] pInts = new int[fields.length][];
+        long[][] pLongs = new long[fields.length][];
+        byte[][] pStrings = new byte[fields.length][];
+        int[][] pLens = new int[fields.length][];
+        for (int i = 0; i < fields.length; ++i) {
+            pInts[i] = ints[fields[i]];
+            pLongs[i] = longs[fields[i]];
+            pStrings[i] = strings[fields[i]];
+            pLens[i] = stringLens[fields[i]];
+        }
+        ColumnBatch view = new ColumnBatch(projectedTd, capacity, pInts, pLongs, pStrings, pLens);
+        view.base = this;
+        view.size = size;
+        view.sel = sel;
+        view.numSelected = numSelected;
+        view.selectionActive = selectionActive;
+        return view;
+    }
+
+    /**
+     * Like {@link #project(int[], TupleDesc)}, but brings view up to date
+     * and returns it if it is a projection of this batch on the same
+     * fields, as a producer that reuses its batch keeps handing back, so
+     * that projecting the batch again allocates nothing.
+     *
+     * @param view a batch returned by projecting this batch on fields, or null
+     */
+    public ColumnBatch project(int[] fields, TupleDesc projectedTd, ColumnBatch view) {
+        if (view == null || view.base != this)
+            return project(fields, projectedTd);
+        view.size = size;
+        view.sel = sel;
+        view.numSelected = numSelected;
+        view.selectionActive = selectionActive;
+        return view;
+    }
+}
@@ -0,0 +1,517 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnGroupStats summarizes the joint values of a declared pair of
+ * columns of a table (see {@link Catalog#addColumnGroup}), so that
+ * conjunctions of predicates over correlated columns are not estimated as
+ * if the columns were independent.  It keeps
+ * <ul>
+ * <li>the most common pairs of values and their row counts,</li>
+ * <li>a two-dimensional equi-depth histogram over the other rows: the rows
+ *     are split into slices of about equal size by the first column, and
+ *     each slice into cells of about equal size by the second, and</li>
+ * <li>a {@link HyperLogLog} sketch of the number of distinct pairs.</li>
+ * </ul>
+ * Like {@link ColumnStats}, row counts are scaled to the whole table and
+ * kept up to date as rows are added and removed, and objects are not
+ * thread-safe.
+ */
+public class ColumnGroupStats {
+
+    /** Number of slices of the first column, and of cells of each slice. */
+    public static final int SLICES = 10;
+
+    private final int field1, field2;
+    private Field[] mcvs1, mcvs2;
+    private double[] mcvRows;
+    /** slice s holds cells sliceStart[s] up to sliceStart[s + 1] */
+    private Field[] sliceLows, sliceHighs;
+    private int[] sliceStart;
+    private Field[] lows1, highs1, lows2, highs2;
+    private double[] cellRows, cellDistinct1, cellDistinct2;
+    private double rows;
+    private double baseDistinct;
+    private HyperLogLog sketch;
+    private double baseSketch;
+
+    private ColumnGroupStats(int field1, int field2) {
+        this.field1 = field1;
+        this.field2 = field2;
+    }
+
+    /**
+     * Builds the statistics of a pair of columns from a uniform sample of
+     * their rows.
+     *
+     * @param field1 the index of the first column
+     * @param field2 the index of the second column
+     * @param a the sampled values of the first column
+     * @param b the sampled values of the second column, in the same rows as a
+     * @param n the number of sampled rows
+     * @param rows the (estimated) number of rows of the table
+     * @param sketch a sketch of the pairs of every row that was read, or null
+     * @param rowsSketched the number of rows added to the sketch
+     */
+    public static ColumnGroupStats build(int field1, int field2, final Field[] a, final Field[] b, int n,
+                                         double rows, HyperLogLog sketch, long rowsSketched) {
+        ColumnGroupStats s = new ColumnGroupStats(field1, field2);
+        s.rows = rows;
+        s.sketch = sketch == null ? new HyperLogLog() : sketch;
+        s.baseSketch = s.sketch.estimate();
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; ++i)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer x, Integer y) {
+                int c = ColumnStats.VALUE_ORDER.compare(a[x], a[y]);
+                return c != 0 ? c : ColumnStats.VALUE_ORDER.compare(b[x], b[y]);
+            }
+        });
+
+        // runs of equal pairs
+        int[] runStart = new int[n + 1];
+        int d = 0;
+        for (int i = 0; i < n; ++i) {
+            if (i == 0 || !a[order[i]].equals(a[order[i - 1]]) || !b[order[i]].equals(b[order[i - 1]]))
+                runStart[d++] = i;
+        }
+        runStart[d] = n;
+        int once = 0;
+        for (int r = 0; r < d; ++r)
+            if (runStart[r + 1] - runStart[r] == 1)
+                ++once;
+        s.baseDistinct = ColumnStats.estimateDistinct(d, once, n, rows, s.baseSketch, rowsSketched);
+
+        // the most common pairs, chosen as ColumnStats chooses values
+        double weight = n == 0 ? 0 : rows / n;
+        boolean[] isMcv = new boolean[d];
+        int numMcvs = 0;
+        if (d <= ColumnStats.MAX_MCVS) {
+            Arrays.fill(isMcv, true);
+            numMcvs = d;
+        } else {
+            Integer[] byCount = new Integer[d];
+            for (int r = 0; r < d; ++r)
+                byCount[r] = r;
+            final int[] starts = runStart;
+            Arrays.sort(byCount, new Comparator<Integer>() {
+                public int compare(Integer x, Integer y) {
+                    return (starts[y + 1] - starts[y]) - (starts[x + 1] - starts[x]);
+                }
+            });
+            double threshold = Math.max(2, 1.25 * n / d);
+            while (numMcvs < ColumnStats.MAX_MCVS
+                   && runStart[byCount[numMcvs] + 1] - runStart[byCount[numMcvs]] >= threshold)
+                isMcv[byCount[numMcvs++]] = true;
+        }
+        s.mcvs1 = new Field[numMcvs];
+        s.mcvs2 = new Field[numMcvs];
+        s.mcvRows = new double[numMcvs];
+        int[] rest = new int[n];
+        int numRest = 0, restPairs = 0, m = 0;
+        for (int r = 0; r < d; ++r) {
+            int count = runStart[r + 1] - runStart[r];
+            if (isMcv[r]) {
+                s.mcvs1[m] = a[order[runStart[r]]];
+                s.mcvs2[m] = b[order[runStart[r]]];
+                s.mcvRows[m++] = count * weight;
+            } else {
+                for (int i = runStart[r]; i < runStart[r + 1]; ++i)
+                    rest[numRest++] = order[i];
+                ++restPairs;
+            }
+        }
+        double distinctScale = restPairs == 0 ? 0
+            : Math.max(1, (s.baseDistinct - numMcvs) / restPairs);
+
+        // slices by the first column, then cells by the second
+        int[] sliceEnds = split(a, rest, 0, numRest, SLICES);
+        s.sliceLows = new Field[sliceEnds.length];
+        s.sliceHighs = new Field[sliceEnds.length];
+        s.sliceStart = new int[sliceEnds.length + 1];
+        ArrayList<int[]> cells = new ArrayList<int[]>();
+        int start = 0;
+        for (int sl = 0; sl < sliceEnds.length; ++sl) {
+            int end = sliceEnds[sl];
+            s.sliceLows[sl] = a[rest[start]];
+            s.sliceHighs[sl] = a[rest[end - 1]];
+            s.sliceStart[sl] = cells.size();
+            sortBy(b, rest, start, end);
+            int cellStart = start;
+            for (int cellEnd : split(b, rest, start, end, SLICES)) {
+                cells.add(new int[] {cellStart, cellEnd});
+                cellStart = cellEnd;
+            }
+            start = end;
+        }
+        s.sliceStart[sliceEnds.length] = cells.size();
+
+        int numCells = cells.size();
+        s.lows1 = new Field[numCells];
+        s.highs1 = new Field[numCells];
+        s.lows2 = new Field[numCells];
+        s.highs2 = new Field[numCells];
+        s.cellRows = new double[numCells];
+        s.cellDistinct1 = new double[numCells];
+        s.cellDistinct2 = new double[numCells];
+        for (int c = 0; c < numCells; ++c) {
+            int from = cells.get(c)[0], to = cells.get(c)[1];
+            HashSet<Field> values1 = new HashSet<Field>();
+            HashSet<Field> values2 = new HashSet<Field>();
+            Field low1 = a[rest[from]], high1 = low1;
+            for (int i = from; i < to; ++i) {
+                Field v = a[rest[i]];
+                if (ColumnStats.VALUE_ORDER.compare(v, low1) < 0)
+                    low1 = v;
+                if (ColumnStats.VALUE_ORDER.compare(v, high1) > 0)
+                    high1 = v;
+                values1.add(v);
+                values2.add(b[rest[i]]);
+            }
+            s.lows1[c] = low1;
+            s.highs1[c] = high1;
+            s.lows2[c] = b[rest[from]];
+            s.highs2[c] = b[rest[to - 1]];
+            s.cellRows[c] = (to - from) * weight;
+            s.cellDistinct1[c] = Math.min(values1.size() * distinctScale, ColumnStats.span(low1, high1));
+            s.cellDistinct2[c] = Math.min(values2.size() * distinctScale, ColumnStats.span(s.lows2[c], s.highs2[c]));
+        }
+        return s;
+    }
+
+    /** Sorts idx[from, to) by the values they index. */
+    private static void sortBy(final Field[] values, int[] idx, int from, int to) {
+        Integer[] sorted = new Integer[to - from];
+        for (int i = from; i < to; ++i)
+            sorted[i - from] = idx[i];
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer x, Integer y) {
+                return ColumnStats.VALUE_ORDER.compare(values[x], values[y]);
+            }
+        });
+        for (int i = from; i < to; ++i)
+            idx[i] = sorted[i - from];
+    }
+
+    /**
+     * Splits idx[from, to), which is ordered by the values it indexes, into
+     * at most parts runs of about equal length, never between equal values.
+     *
+     * @return the end of each run
+     */
+    private static int[] split(Field[] values, int[] idx, int from, int to, int parts) {
+        int[] ends = new int[parts];
+        int count = 0, start = from;
+        for (int p = 1; p <= parts && start < to; ++p) {
+            int end = p == parts ? to : from + (int) ((long) (to - from) * p / parts);
+            if (end <= start)
+                continue;
+            while (end < to && ColumnStats.VALUE_ORDER.compare(values[idx[end]], values[idx[end - 1]]) == 0)
+                ++end;
+            ends[count++] = end;
+            start = end;
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    /** @return a copy of these statistics */
+    public ColumnGroupStats copy() {
+        ColumnGroupStats c = new ColumnGroupStats(field1, field2);
+        c.mcvs1 = mcvs1.clone();
+        c.mcvs2 = mcvs2.clone();
+        c.mcvRows = mcvRows.clone();
+        c.sliceLows = sliceLows.clone();
+        c.sliceHighs = sliceHighs.clone();
+        c.sliceStart = sliceStart.clone();
+        c.lows1 = lows1.clone();
+        c.highs1 = highs1.clone();
+        c.lows2 = lows2.clone();
+        c.highs2 = highs2.clone();
+        c.cellRows = cellRows.clone();
+        c.cellDistinct1 = cellDistinct1.clone();
+        c.cellDistinct2 = cellDistinct2.clone();
+        c.rows = rows;
+        c.baseDistinct = baseDistinct;
+        c.sketch = sketch.copy();
+        c.baseSketch = baseSketch;
+        return c;
+    }
+
+    /** @return the index of the first column of the group */
+    public int getField1() {
+        return field1;
+    }
+
+    /** @return the index of the second column of the group */
+    public int getField2() {
+        return field2;
+    }
+
+    /** @return the estimated number of distinct pairs of values of the two columns */
+    public double numDistinct() {
+        double d = baseDistinct + Math.max(0, sketch.estimate() - baseSketch);
+        return Math.max(1, Math.min(d, rows));
+    }
+
+    private int findMcv(Field v1, Field v2) {
+        for (int i = 0; i < mcvs1.length; ++i)
+            if (mcvs1[i].equals(v1) && mcvs2[i].equals(v2))
+                return i;
+        return -1;
+    }
+
+    /** @return the index of the first element of highs[from, to) that is not less than v, or to - 1 */
+    private static int search(Field[] highs, int from, int to, Field v) {
+        int lo = from, hi = to - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ColumnStats.VALUE_ORDER.compare(highs[mid], v) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the cell whose ranges hold (v1, v2), or the nearest cell */
+    private int findCell(Field v1, Field v2) {
+        int sl = search(sliceHighs, 0, sliceHighs.length, v1);
+        return search(highs2, sliceStart[sl], sliceStart[sl + 1], v2);
+    }
+
+    /** Records that a row with values v1 and v2 was added. */
+    public void addValues(Field v1, Field v2) {
+        rows++;
+        sketch.add(v1, v2);
+        int m = findMcv(v1, v2);
+        if (m >= 0) {
+            mcvRows[m]++;
+            return;
+        }
+        if (cellRows.length == 0) {
+            sliceLows = new Field[] {v1};
+            sliceHighs = new Field[] {v1};
+            sliceStart = new int[] {0, 1};
+            lows1 = new Field[] {v1};
+            highs1 = new Field[] {v1};
+            lows2 = new Field[] {v2};
+            highs2 = new Field[] {v2};
+            cellRows = new double[] {1};
+            cellDistinct1 = new double[] {1};
+            cellDistinct2 = new double[] {1};
+            return;
+        }
+        int sl = search(sliceHighs, 0, sliceHighs.length, v1);
+        if (ColumnStats.VALUE_ORDER.compare(v1, sliceLows[sl]) < 0)
+            sliceLows[sl] = v1;
+        if (ColumnStats.VALUE_ORDER.compare(v1, sliceHighs[sl]) > 0)
+            sliceHighs[sl] = v1;
+        int c = search(highs2, sliceStart[sl], sliceStart[sl + 1], v2);
+        // values outside the ranges of the cell widen them, and are new distinct values of it
+        if (ColumnStats.VALUE_ORDER.compare(v1, lows1[c]) < 0) {
+            lows1[c] = v1;
+            cellDistinct1[c]++;
+        } else if (ColumnStats.VALUE_ORDER.compare(v1, highs1[c]) > 0) {
+            highs1[c] = v1;
+            cellDistinct1[c]++;
+        }
+        if (ColumnStats.VALUE_ORDER.compare(v2, lows2[c]) < 0) {
+            lows2[c] = v2;
+            cellDistinct2[c]++;
+        } else if (ColumnStats.VALUE_ORDER.compare(v2, highs2[c]) > 0) {
+            highs2[c] = v2;
+            cellDistinct2[c]++;
+        }
+        cellRows[c]++;
+    }
+
+    /** Records that a row with values v1 and v2 was removed. */
+    public void removeValues(Field v1, Field v2) {
+        rows = Math.max(0, rows - 1);
+        int m = findMcv(v1, v2);
+        if (m >= 0) {
+            mcvRows[m] = Math.max(0, mcvRows[m] - 1);
+        } else if (cellRows.length > 0) {
+            int c = findCell(v1, v2);
+            cellRows[c] = Math.max(0, cellRows[c] - 1);
+        }
+    }
+
+    /**
+     * @return the fraction of the values of a cell's range [lo, hi], holding
+     *   distinct values spread evenly, that satisfy <tt>value op v</tt>
+     */
+    private static double fraction(Predicate.Op op, Field v, Field lo, Field hi, double distinct) {
+        boolean inside = ColumnStats.VALUE_ORDER.compare(v, lo) >= 0
+            && ColumnStats.VALUE_ORDER.compare(v, hi) <= 0;
+        double eq = inside ? 1 / Math.max(1, distinct) : 0;
+        double below = ColumnStats.fractionBelow(v, lo, hi);
+        double f;
+        switch (op) {
+            case EQUALS:
+                f = eq;
+                break;
+            case NOT_EQUALS:
+                f = 1 - eq;
+                break;
+            case LESS_THAN:
+                f = below;
+                break;
+            case LESS_THAN_OR_EQ:
+                f = below + eq;
+                break;
+            case GREATER_THAN:
+                f = 1 - below - eq;
+                break;
+            default:
+                f = 1 - below;
+                break;
+        }
+        return Math.max(0, Math.min(1, f));
+    }
+
+    /**
+     * Estimate the selectivity of <tt>column1 op1 v1 AND column2 op2 v2</tt>.
+     *
+     * @return the estimated fraction of rows that satisfy both predicates,
+     *   or -1 if either is a LIKE, which is not estimated
+     */
+    public double estimateSelectivity(Predicate.Op op1, Field v1, Predicate.Op op2, Field v2) {
+        if (op1 == Predicate.Op.LIKE || op2 == Predicate.Op.LIKE)
+            return -1;
+        if (rows <= 0)
+            return 0;
+        double matching = 0, mcvTotal = 0;
+        for (int i = 0; i < mcvs1.length; ++i) {
+            mcvTotal += mcvRows[i];
+            if (mcvs1[i].compare(op1, v1) && mcvs2[i].compare(op2, v2))
+                matching += mcvRows[i];
+        }
+        if (op1 == Predicate.Op.EQUALS && op2 == Predicate.Op.EQUALS) {
+            // a pair that is not common gets an even share of the other
+            // rows, if some cell can hold it
+            if (findMcv(v1, v2) < 0) {
+                for (int c = 0; c < cellRows.length; ++c) {
+                    if (cellRows[c] > 0 && fraction(op1, v1, lows1[c], highs1[c], 1) > 0
+                        && fraction(op2, v2, lows2[c], highs2[c], 1) > 0) {
+                        matching += Math.max(0, rows - mcvTotal) / Math.max(1, numDistinct() - mcvs1.length);
+                        break;
+                    }
+                }
+            }
+        } else {
+            for (int c = 0; c < cellRows.length; ++c)
+                matching += cellRows[c] * fraction(op1, v1, lows1[c], highs1[c], cellDistinct1[c])
+                    * fraction(op2, v2, lows2[c], highs2[c], cellDistinct2[c]);
+        }
+        return Math.max(0, Math.min(1, matching / rows));
+    }
+
+    /** Writes these statistics in the form read by {@link #readFrom}. */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(field1);
+        out.writeInt(field2);
+        out.writeDouble(rows);
+        out.writeDouble(baseDistinct);
+        out.writeDouble(baseSketch);
+        sketch.writeTo(out);
+        out.writeInt(mcvRows.length);
+        for (int i = 0; i < mcvRows.length; ++i) {
+            mcvs1[i].serialize(out);
+            mcvs2[i].serialize(out);
+            out.writeDouble(mcvRows[i]);
+        }
+        out.writeInt(sliceLows.length);
+        for (int sl = 0; sl < sliceLows.length; ++sl) {
+            sliceLows[sl].serialize(out);
+            sliceHighs[sl].serialize(out);
+            out.writeInt(sliceStart[sl + 1] - sliceStart[sl]);
+        }
+        for (int c = 0; c < cellRows.length; ++c) {
+            lows1[c].serialize(out);
+            highs1[c].serialize(out);
+            lows2[c].serialize(out);
+            highs2[c].serialize(out);
+            out.writeDouble(cellRows[c]);
+            out.writeDouble(cellDistinct1[c]);
+            out.writeDouble(cellDistinct2[c]);
+        }
+    }
+
+    /**
+     * Reads statistics written by {@link #writeTo}.
+     *
+     * @param td the schema of the table, which gives the types of the columns
+     */
+    public static ColumnGroupStats readFrom(DataInputStream in, TupleDesc td) throws IOException {
+        try {
+            ColumnGroupStats s = new ColumnGroupStats(in.readInt(), in.readInt());
+            Type t1 = td.getType(s.field1), t2 = td.getType(s.field2);
+            s.rows = in.readDouble();
+            s.baseDistinct = in.readDouble();
+            s.baseSketch = in.readDouble();
+            s.sketch = HyperLogLog.readFrom(in);
+            int n = in.readInt();
+            s.mcvs1 = new Field[n];
+            s.mcvs2 = new Field[n];
+            s.mcvRows = new double[n];
+            for (int i = 0; i < n; ++i) {
+                s.mcvs1[i] = t1.parse(in);
+                s.mcvs2[i] = t2.parse(in);
+                s.mcvRows[i] = in.readDouble();
+            }
+            int slices = in.readInt();
+            s.sliceLows = new Field[slices];
+            s.sliceHighs = new Field[slices];
+            s.sliceStart = new int[slices + 1];
+            for (int sl = 0; sl < slices; ++sl) {
+                s.sliceLows[sl] = t1.parse(in);
+                s.sliceHighs[sl] = t1.parse(in);
+                s.sliceStart[sl + 1] = s.sliceStart[sl] + in.readInt();
+            }
+            int cells = s.sliceStart[slices];
+            s.lows1 = new Field[cells];
+            s.highs1 = new Field[cells];
+            s.lows2 = new Field[cells];
+            s.highs2 = new Field[cells];
+            s.cellRows = new double[cells];
+            s.cellDistinct1 = new double[cells];
+            s.cellDistinct2 = new double[cells];
+            for (int c = 0; c < cells; ++c) {
+                s.lows1[c] = t1.parse(in);
+                s.highs1[c] = t1.parse(in);
+                s.lows2[c] = t2.parse(in);
+                s.highs2[c] = t2.parse(in);
+                s.cellRows[c] = in.readDouble();
+                s.cellDistinct1[c] = in.readDouble();
+                s.cellDistinct2[c] = in.readDouble();
+            }
+            return s;
+        } catch (java.text.ParseException e) {
+            throw new IOException("bad value in column group statistics: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // negative counts, or fields that are not in the table
+            throw new IOException("bad column group statistics");
+        }
+    }
+
+    /**
+     * @return A string describing these statistics, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("fields: ").append(field1).append(", ").append(field2)
+          .append(" rows: ").append(rows).append(" distinct: ").append(numDistinct()).append("\n");
+        for (int i = 0; i < mcvRows.length; ++i)
+            sb.append("(").append(mcvs1[i]).append(", ").append(mcvs2[i]).append(") : ")
+              .append(mcvRows[i]).append("\n");
+        for (int c = 0; c < cellRows.length; ++c)
+            sb.append(lows1[c]).append(" ~ ").append(highs1[c]).append(", ")
+              .append(lows2[c]).append(" ~ ").append(highs2[c]).append(" : ").append(cellRows[c]).append("\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,571 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnStats summarizes the values of one column of a table, for
+ * estimating the selectivity of predicates and joins over it.  It keeps
+ * <ul>
+ * <li>a list of the most common values (MCVs) and their row counts,</li>
+ * <li>an equi-depth histogram over the other values: each bucket holds
+ *     about the same number of rows, and records its lowest and highest
+ *     value and how many distinct values it holds, and</li>
+ * <li>a {@link HyperLogLog} sketch of the number of distinct values.</li>
+ * </ul>
+ * Statistics are built from a sample of the column (see {@link #build}),
+ * and kept up to date as values are added and removed.  Row counts are
+ * scaled to the whole table, so a bucket built from 10 sampled values of a
+ * table sampled at 1% counts 1000 rows.
+ * <p>
+ * ColumnStats objects are not thread-safe; {@link TableStats} guards its
+ * own and hands out copies.
+ */
+public class ColumnStats {
+
+    /** Most values kept in the most-common-value list. */
+    public static final int MAX_MCVS = 32;
+
+    /**
+     * A sampled value is a most common value if it occurs this many times
+     * more often than the average value of the sample.
+     */
+    private static final double MCV_THRESHOLD = 1.25;
+
+    private final Type type;
+    private Field[] mcvs;
+    private double[] mcvRows;
+    private Field[] lows, highs;
+    private double[] bucketRows, bucketDistinct;
+    /** rows in the column, including the MCVs */
+    private double rows;
+    /** distinct values when the statistics were built */
+    private double baseDistinct;
+    private HyperLogLog sketch;
+    /** estimate of the sketch when the statistics were built */
+    private double baseSketch;
+
+    private ColumnStats(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * Builds the statistics of a column from a uniform sample of its values.
+     *
+     * @param type the type of the column
+     * @param sample the sampled values; only the first n are used, and they are reordered
+     * @param n the number of sampled values
+     * @param rows the (estimated) number of rows of the table
+     * @param sketch a sketch of the values of every row that was read, or
+     *   null; the sample is a subset of those rows
+     * @param rowsSketched the number of rows added to the sketch
+     * @param buckets the most buckets of the histogram
+     */
+    public static ColumnStats build(Type type, Field[] sample, int n, double rows,
+                                    HyperLogLog sketch, long rowsSketched, int buckets) {
+        ColumnStats s = new ColumnStats(type);
+        s.rows = rows;
+        s.sketch = sketch == null ? new HyperLogLog() : sketch;
+        s.baseSketch = s.sketch.estimate();
+        Arrays.sort(sample, 0, n, VALUE_ORDER);
+
+        // runs of equal values: the sampled distinct values and their counts
+        Field[] values = new Field[n];
+        int[] counts = new int[n];
+        int d = 0;
+        for (int i = 0; i < n; ++i) {
+            if (d > 0 && VALUE_ORDER.compare(values[d - 1], sample[i]) == 0) {
+                counts[d - 1]++;
+            } else {
+                values[d] = sample[i];
+                counts[d++] = 1;
+            }
+        }
+        int once = 0;
+        for (int v = 0; v < d; ++v)
+            if (counts[v] == 1)
+                ++once;
+
+        s.baseDistinct = estimateDistinct(d, once, n, rows, s.baseSketch, rowsSketched);
+
+        // all values are MCVs if there are few of them; otherwise the
+        // values that are clearly more common than average
+        double weight = n == 0 ? 0 : rows / n;
+        boolean[] isMcv = new boolean[d];
+        int numMcvs;
+        if (d <= MAX_MCVS) {
+            Arrays.fill(isMcv, true);
+            numMcvs = d;
+        } else {
+            Integer[] byCount = new Integer[d];
+            for (int v = 0; v < d; ++v)
+                byCount[v] = v;
+            final int[] c = counts;
+            Arrays.sort(byCount, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return c[b] - c[a];
+                }
+            });
+            double threshold = Math.max(2, MCV_THRESHOLD * n / d);
+            numMcvs = 0;
+            while (numMcvs < MAX_MCVS && counts[byCount[numMcvs]] >= threshold)
+                isMcv[byCount[numMcvs++]] = true;
+        }
+        s.mcvs = new Field[numMcvs];
+        s.mcvRows = new double[numMcvs];
+        int m = 0;
+        int restRows = 0, restDistinct = 0;
+        for (int v = 0; v < d; ++v) {
+            if (isMcv[v]) {
+                s.mcvs[m] = values[v];
+                s.mcvRows[m++] = counts[v] * weight;
+            } else {
+                restRows += counts[v];
+                ++restDistinct;
+            }
+        }
+
+        // equi-depth buckets over the other values; a value is never split
+        // across buckets
+        int numBuckets = Math.min(buckets, restDistinct);
+        s.lows = new Field[numBuckets];
+        s.highs = new Field[numBuckets];
+        s.bucketRows = new double[numBuckets];
+        s.bucketDistinct = new double[numBuckets];
+        // the sampled distinct values stand for this many distinct values of the table
+        double distinctScale = restDistinct == 0 ? 0
+            : Math.max(1, (s.baseDistinct - numMcvs) / restDistinct);
+        int b = 0;
+        long seen = 0;
+        for (int v = 0; v < d && numBuckets > 0; ++v) {
+            if (isMcv[v])
+                continue;
+            if (s.lows[b] == null)
+                s.lows[b] = values[v];
+            s.highs[b] = values[v];
+            s.bucketRows[b] += counts[v] * weight;
+            s.bucketDistinct[b] += distinctScale;
+            seen += counts[v];
+            if (b < numBuckets - 1 && seen * numBuckets >= (long) restRows * (b + 1))
+                ++b;
+        }
+        int filled = 0;
+        while (filled < numBuckets && s.lows[filled] != null)
+            ++filled;
+        // fewer buckets are filled than planned if the last values are common
+        if (filled < numBuckets)
+            s.shrinkBuckets(filled);
+        for (int i = 0; i < s.lows.length; ++i)
+            s.bucketDistinct[i] = Math.min(s.bucketDistinct[i], s.span(i));
+        return s;
+    }
+
+    /**
+     * Estimates the distinct values of a table from a sample of it.
+     *
+     * @param d the distinct values in the sample
+     * @param once the values that occur exactly once in the sample
+     * @param n the size of the sample
+     * @param rows the (estimated) rows of the table
+     * @param sketched the estimate of a sketch of the rows that were read
+     * @param rowsSketched the number of rows that were read
+     */
+    static double estimateDistinct(int d, int once, int n, double rows, double sketched, long rowsSketched) {
+        // exact if the sample is the table, otherwise the sketch or, if it
+        // saw only part of the table, scaled up from the values seen once in
+        // the sample (the GEE estimator)
+        double distinct = d;
+        if (n < rows) {
+            if (rowsSketched >= rows)
+                distinct = Math.max(d, sketched);
+            else
+                distinct = Math.max(Math.max(d, sketched), Math.sqrt(rows / n) * once + (d - once));
+        }
+        return Math.min(distinct, Math.max(rows, d));
+    }
+
+    private void shrinkBuckets(int n) {
+        lows = Arrays.copyOf(lows, n);
+        highs = Arrays.copyOf(highs, n);
+        bucketRows = Arrays.copyOf(bucketRows, n);
+        bucketDistinct = Arrays.copyOf(bucketDistinct, n);
+    }
+
+    /** @return a copy of these statistics */
+    public ColumnStats copy() {
+        ColumnStats c = new ColumnStats(type);
+        c.mcvs = mcvs.clone();
+        c.mcvRows = mcvRows.clone();
+        c.lows = lows.clone();
+        c.highs = highs.clone();
+        c.bucketRows = bucketRows.clone();
+        c.bucketDistinct = bucketDistinct.clone();
+        c.rows = rows;
+        c.baseDistinct = baseDistinct;
+        c.sketch = sketch.copy();
+        c.baseSketch = baseSketch;
+        return c;
+    }
+
+    /**
+     * Orders numbers and dates numerically and string values
+     * lexicographically.  Both values must have the same type.
+     */
+    static final Comparator<Field> VALUE_ORDER = new Comparator<Field>() {
+        public int compare(Field a, Field b) {
+            if (a instanceof IntField) {
+                int x = ((IntField) a).getValue();
+                int y = ((IntField) b).getValue();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+            if (a instanceof StringField)
+                return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+            if (a instanceof DoubleField)
+                return Double.compare(((DoubleField) a).getValue(), ((DoubleField) b).getValue());
+            long x = a.getType().bits(a), y = b.getType().bits(b);
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    /**
+     * @return true if values of type are integers at heart (INT, LONG,
+     *   DATE and DECIMAL values are counts of units), so that a range of
+     *   them holds a bounded number of distinct values
+     */
+    static boolean isDiscrete(Type type) {
+        return type != Type.STRING_TYPE && type != Type.DOUBLE_TYPE;
+    }
+
+    /**
+     * @return a number that increases with the value of f, for interpolating
+     *   within a bucket; strings are placed by their first few characters
+     */
+    static double position(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        if (f instanceof DoubleField)
+            return ((DoubleField) f).getValue();
+        if (!(f instanceof StringField))
+            return f.getType().bits(f);
+        String s = ((StringField) f).getValue();
+        double p = 0, scale = 1;
+        for (int i = 0; i < 4 && i < s.length(); ++i) {
+            scale /= 65536;
+            p += s.charAt(i) * scale;
+        }
+        return p;
+    }
+
+    /** @return the most distinct values the range [lo, hi] can hold */
+    static double span(Field lo, Field hi) {
+        if (!isDiscrete(lo.getType()))
+            return Double.MAX_VALUE;
+        return position(hi) - position(lo) + 1;
+    }
+
+    /** @return the most distinct values bucket b can hold */
+    private double span(int b) {
+        return span(lows[b], highs[b]);
+    }
+
+    private int findMcv(Field v) {
+        for (int i = 0; i < mcvs.length; ++i)
+            if (VALUE_ORDER.compare(mcvs[i], v) == 0)
+                return i;
+        return -1;
+    }
+
+    /** @return the bucket whose range holds v, or the nearest bucket if none does */
+    private int findBucket(Field v) {
+        int lo = 0, hi = lows.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (VALUE_ORDER.compare(highs[mid], v) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the number of rows of the column */
+    public double numRows() {
+        return rows;
+    }
+
+    /** @return the estimated number of distinct values of the column */
+    public double numDistinct() {
+        // values added since the statistics were built show up in the sketch
+        double d = baseDistinct + Math.max(0, sketch.estimate() - baseSketch);
+        return Math.max(1, Math.min(d, rows));
+    }
+
+    /** @return the number of most common values */
+    public int numMcvs() {
+        return mcvs.length;
+    }
+
+    /** @return the number of buckets of the histogram */
+    public int numBuckets() {
+        return lows.length;
+    }
+
+    /** Records that a row with value v was added to the column. */
+    public void addValue(Field v) {
+        rows++;
+        sketch.add(v);
+        int m = findMcv(v);
+        if (m >= 0) {
+            mcvRows[m]++;
+            return;
+        }
+        if (lows.length == 0) {
+            lows = new Field[] {v};
+            highs = new Field[] {v};
+            bucketRows = new double[] {1};
+            bucketDistinct = new double[] {1};
+            return;
+        }
+        int b = findBucket(v);
+        // values outside every bucket widen the nearest one, and are new
+        // distinct values of it
+        if (VALUE_ORDER.compare(v, lows[b]) < 0) {
+            lows[b] = v;
+            bucketDistinct[b]++;
+        } else if (VALUE_ORDER.compare(v, highs[b]) > 0) {
+            highs[b] = v;
+            bucketDistinct[b]++;
+        }
+        bucketRows[b]++;
+    }
+
+    /** Records that a row with value v was removed from the column. */
+    public void removeValue(Field v) {
+        rows = Math.max(0, rows - 1);
+        int m = findMcv(v);
+        if (m >= 0) {
+            mcvRows[m] = Math.max(0, mcvRows[m] - 1);
+        } else if (lows.length > 0) {
+            int b = findBucket(v);
+            bucketRows[b] = Math.max(0, bucketRows[b] - 1);
+        }
+    }
+
+    /** @return the estimated number of rows equal to v */
+    private double rowsEqual(Field v) {
+        int m = findMcv(v);
+        if (m >= 0)
+            return mcvRows[m];
+        if (lows.length == 0)
+            return 0;
+        int b = findBucket(v);
+        if (VALUE_ORDER.compare(v, lows[b]) < 0 || VALUE_ORDER.compare(v, highs[b]) > 0)
+            return 0;
+        return bucketRows[b] / Math.max(1, bucketDistinct[b]);
+    }
+
+    /** @return the estimated number of rows less than v */
+    private double rowsBelow(Field v) {
+        double below = 0;
+        for (int i = 0; i < mcvs.length; ++i)
+            if (VALUE_ORDER.compare(mcvs[i], v) < 0)
+                below += mcvRows[i];
+        if (lows.length == 0)
+            return below;
+        int b = findBucket(v);
+        for (int i = 0; i < b; ++i)
+            below += bucketRows[i];
+        // within the bucket, assume its values are spread evenly
+        return below + bucketRows[b] * fractionBelow(v, lows[b], highs[b]);
+    }
+
+    /**
+     * @return the fraction of the values of a range [lo, hi] that are less
+     *   than v, assuming they are spread evenly over the range
+     */
+    static double fractionBelow(Field v, Field lo, Field hi) {
+        if (VALUE_ORDER.compare(v, lo) <= 0)
+            return 0;
+        if (VALUE_ORDER.compare(v, hi) > 0)
+            return 1;
+        double l = position(lo), h = position(hi);
+        double width = isDiscrete(v.getType()) ? h - l + 1 : h - l;
+        double fraction = width <= 0 ? 0.5 : (position(v) - l) / width;
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    /**
+     * Estimate the selectivity of predicate <tt>column op v</tt>.
+     *
+     * @param op the comparison; LIKE is not estimated, and gives 0
+     * @param v the value the column is compared to
+     * @return the estimated fraction of rows that satisfy the predicate
+     */
+    public double estimateSelectivity(Predicate.Op op, Field v) {
+        if (rows <= 0)
+            return 0;
+        double sel;
+        switch (op) {
+            case EQUALS:
+                sel = rowsEqual(v) / rows;
+                break;
+            case NOT_EQUALS:
+                sel = 1 - rowsEqual(v) / rows;
+                break;
+            case LESS_THAN:
+                sel = rowsBelow(v) / rows;
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = (rowsBelow(v) + rowsEqual(v)) / rows;
+                break;
+            case GREATER_THAN:
+                sel = 1 - (rowsBelow(v) + rowsEqual(v)) / rows;
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1 - rowsBelow(v) / rows;
+                break;
+            default:
+                return 0;
+        }
+        return Math.max(0, Math.min(1, sel));
+    }
+
+    /**
+     * Estimate the selectivity of the join predicate <tt>this op other</tt>
+     * over the cross product of the two columns.
+     *
+     * @param op the join predicate; LIKE is not estimated, and gives -1
+     * @param other the statistics of the other column
+     * @return the estimated fraction of pairs of rows that satisfy the predicate
+     */
+    public double estimateJoinSelectivity(Predicate.Op op, ColumnStats other) {
+        if (rows <= 0 || other.rows <= 0)
+            return 0;
+        switch (op) {
+            case EQUALS:
+                return equiJoinSelectivity(other);
+            case NOT_EQUALS:
+                return 1 - equiJoinSelectivity(other);
+            case LIKE:
+                return -1;
+            default:
+                // average the selectivity of the predicate over the other
+                // column's MCVs and buckets, weighted by their rows
+                double sel = 0;
+                for (int i = 0; i < other.mcvs.length; ++i)
+                    sel += other.mcvRows[i] * estimateSelectivity(op, other.mcvs[i]);
+                for (int b = 0; b < other.lows.length; ++b)
+                    sel += other.bucketRows[b] * (estimateSelectivity(op, other.lows[b])
+                                                  + estimateSelectivity(op, other.highs[b])) / 2;
+                return Math.max(0, Math.min(1, sel / other.rows));
+        }
+    }
+
+    /**
+     * Equi-join selectivity from the MCV lists and distinct counts of both
+     * columns.  Values that are MCVs of both columns are matched exactly;
+     * the rest of each column is assumed to spread evenly over the other
+     * column's remaining distinct values.  This is the estimator used by
+     * PostgreSQL's eqjoinsel.
+     */
+    private double equiJoinSelectivity(ColumnStats other) {
+        double nd1 = numDistinct(), nd2 = other.numDistinct();
+        double match = 0, matched1 = 0, matched2 = 0, mcv1 = 0, mcv2 = 0;
+        int matches = 0;
+        for (int i = 0; i < other.mcvs.length; ++i)
+            mcv2 += other.mcvRows[i] / other.rows;
+        for (int i = 0; i < mcvs.length; ++i) {
+            double f1 = mcvRows[i] / rows;
+            mcv1 += f1;
+            int o = other.findMcv(mcvs[i]);
+            if (o >= 0) {
+                double f2 = other.mcvRows[o] / other.rows;
+                match += f1 * f2;
+                matched1 += f1;
+                matched2 += f2;
+                ++matches;
+            }
+        }
+        double unmatched1 = mcv1 - matched1, unmatched2 = mcv2 - matched2;
+        double rest1 = Math.max(0, 1 - mcv1), rest2 = Math.max(0, 1 - mcv2);
+
+        double sel1 = match, sel2 = match;
+        if (nd2 > other.mcvs.length)
+            sel1 += unmatched1 * rest2 / (nd2 - other.mcvs.length);
+        if (nd2 > matches)
+            sel1 += rest1 * (rest2 + unmatched2) / (nd2 - matches);
+        if (nd1 > mcvs.length)
+            sel2 += unmatched2 * rest1 / (nd1 - mcvs.length);
+        if (nd1 > matches)
+            sel2 += rest2 * (rest1 + unmatched1) / (nd1 - matches);
+        return Math.max(0, Math.min(1, Math.min(sel1, sel2)));
+    }
+
+    /** Writes these statistics in the form read by {@link #readFrom}. */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeDouble(rows);
+        out.writeDouble(baseDistinct);
+        out.writeDouble(baseSketch);
+        sketch.writeTo(out);
+        out.writeInt(mcvs.length);
+        for (int i = 0; i < mcvs.length; ++i) {
+            mcvs[i].serialize(out);
+            out.writeDouble(mcvRows[i]);
+        }
+        out.writeInt(lows.length);
+        for (int b = 0; b < lows.length; ++b) {
+            lows[b].serialize(out);
+            highs[b].serialize(out);
+            out.writeDouble(bucketRows[b]);
+            out.writeDouble(bucketDistinct[b]);
+        }
+    }
+
+    /** Reads statistics of a column of the given type written by {@link #writeTo}. */
+    public static ColumnStats readFrom(DataInputStream in, Type type) throws IOException {
+        try {
+            ColumnStats s = new ColumnStats(type);
+            s.rows = in.readDouble();
+            s.baseDistinct = in.readDouble();
+            s.baseSketch = in.readDouble();
+            s.sketch = HyperLogLog.readFrom(in);
+            int n = in.readInt();
+            s.mcvs = new Field[n];
+            s.mcvRows = new double[n];
+            for (int i = 0; i < n; ++i) {
+                s.mcvs[i] = type.parse(in);
+                s.mcvRows[i] = in.readDouble();
+            }
+            n = in.readInt();
+            s.lows = new Field[n];
+            s.highs = new Field[n];
+            s.bucketRows = new double[n];
+            s.bucketDistinct = new double[n];
+            for (int b = 0; b < n; ++b) {
+                s.lows[b] = type.parse(in);
+                s.highs[b] = type.parse(in);
+                s.bucketRows[b] = in.readDouble();
+                s.bucketDistinct[b] = in.readDouble();
+            }
+            return s;
+        } catch (java.text.ParseException e) {
+            throw new IOException("bad value in column statistics: " + e.getMessage());
+        } catch (NegativeArraySizeException e) {
+            throw new IOException("bad column statistics");
+        }
+    }
+
+    /**
+     * @return A string describing these statistics, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("rows: ").append(rows).append(" distinct: ").append(numDistinct()).append("\n");
+        for (int i = 0; i < mcvs.length; ++i)
+            sb.append(mcvs[i]).append(" : ").append(mcvRows[i]).append("\n");
+        for (int b = 0; b < lows.length; ++b)
+            sb.append(lows[b]).append(" ~ ").append(highs[b]).append(" : ").append(bucketRows[b])
+              .append(" (").append(bucketDistinct[b]).append(" distinct)\n");
+        return sb.toString();
+    }
+}
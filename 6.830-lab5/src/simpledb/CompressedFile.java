@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CompressedFile is a HeapFile whose pages are {@link CompressedPage}s,
+ * which compress the fields of their tuples with dictionary, frame of
+ * reference and run-length encodings.  A cold table with few distinct
+ * strings, small ranges of ints or sorted fields takes several times fewer
+ * pages to store and to scan than as a HeapFile, at the cost of
+ * decompressing each page as it is read and compressing it as it is
+ * written.
+ * <p>
+ * The file keeps the number of tuples on each page it has read or
+ * written, and the time it has taken to decompress pages, to report its
+ * compression ratio and decoding throughput.  Use {@link #convert} to
+ * compress a HeapFile, such as one written by {@link HeapFileEncoder}.
+ *
+ * Only tables of INT_TYPE and STRING_TYPE fields can be compressed.
+ *
+ * @see CompressedPage
+ */
+public class CompressedFile extends HeapFile {
+    private final HashMap<Integer,Integer> pageTuples = new HashMap<Integer,Integer>();
+    private long decodedPages, decodedTuples, decodeNanos;
+
+    /**
+     * Constructs a compressed file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @throws IllegalArgumentException if td has fields of other types than
+     *   INT_TYPE and STRING_TYPE
+     */
+    public CompressedFile(File f, TupleDesc td) {
+        super(f, td);
+        for (int j = 0; j < td.numFields(); ++j)
+            if (td.getType(j) != Type.INT_TYPE && td.getType(j) != Type.STRING_TYPE)
+                throw new IllegalArgumentException("cannot compress fields of " + td.getType(j));
+    }
+
+    HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        long start = System.nanoTime();
+        CompressedPage page = new CompressedPage(pid, data);
+        long nanos = System.nanoTime() - start;
+        int tuples = page.numTuples();
+        synchronized (this) {
+            ++decodedPages;
+            decodedTuples += tuples;
+            decodeNanos += nanos;
+            pageTuples.put(pid.pageno(), tuples);
+        }
+        return page;
+    }
+
+    public void writePage(Page page) throws IOException {
+        super.writePage(page);
+        if (page instanceof CompressedPage) {
+            int tuples = ((CompressedPage) page).numTuples();
+            synchronized (this) {
+                pageTuples.put(page.getId().pageno(), tuples);
+            }
+        }
+    }
+
+    /**
+     * @return the size the tuples on the pages of this file read or written
+     *   so far would take in a HeapFile, divided by the size of those pages,
+     *   or 0 if no pages have been read or written
+     */
+    public synchronized double getCompressionRatio() {
+        if (pageTuples.isEmpty())
+            return 0.0;
+        int perHeapPage = getPageSize() * 8 / (getTupleDesc().getSize() * 8 + 1);
+        long tuples = 0;
+        for (int n : pageTuples.values())
+            tuples += n;
+        double heapPages = Math.ceil((double) tuples / perHeapPage);
+        return heapPages / pageTuples.size();
+    }
+
+    /** @return the number of tuples decompressed per second, or 0 if none have been */
+    public synchronized double getDecodeThroughput() {
+        return decodeNanos == 0 ? 0.0 : decodedTuples * 1e9 / decodeNanos;
+    }
+
+    /** @return the number of pages decompressed so far */
+    public synchronized long getDecodedPages() {
+        return decodedPages;
+    }
+
+    public synchronized String toString() {
+        return String.format("compression ratio %.2f over %d pages, decoded %d pages at %.0f tuples/s (%.1f MB/s)",
+                getCompressionRatio(), pageTuples.size(), decodedPages, getDecodeThroughput(),
+                getDecodeThroughput() * getTupleDesc().getSize() / (1 << 20));
+    }
+
+    /**
+     * Writes the tuples of a HeapFile of tuples with the given TupleDesc to
+     * a new file of CompressedPages of the same size, in order, filling each
+     * page with as many tuples as fit.
+     *
+     * @param heapFile the HeapFile to read
+     * @param compressedFile the file to write; it may be heapFile itself
+     * @param td the TupleDesc of the tuples in the file
+     * @return the number of pages written
+     */
+    public static int convert(File heapFile, File compressedFile, TupleDesc td) throws IOException {
+        int pageSize = HeapFile.readPageSize(heapFile);
+        int rowSize = td.getSize();
+        int numSlots = pageSize * 8 / (rowSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+
+        // the rows of the file, in order
+        ByteArrayOutputStream all = new ByteArrayOutputStream((int) heapFile.length());
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        try {
+            in.skipBytes(HeapFile.headerSize(pageSize));
+            byte[] page = new byte[pageSize];
+            for (long n = heapFile.length() / pageSize; n > 0; --n) {
+                in.readFully(page);
+                for (int i = 0; i < numSlots; ++i)
+                    if (((page[i / 8] >> (i % 8)) & 1) == 1)
+                        all.write(page, headerSize + i * rowSize, rowSize);
+            }
+        } finally {
+            in.close();
+        }
+        byte[] rows = all.toByteArray();
+        int numRows = rows.length / rowSize;
+
+        // fill each page with the most rows that fit, found by bisection
+        int capacity = CompressedPage.capacity(td, pageSize);
+        boolean[] filled = new boolean[capacity];
+        Arrays.fill(filled, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HeapFile.writeHeader(out, pageSize);
+        int pages = 0;
+        for (int start = 0; start < numRows; ++pages) {
+            int lo = 1, hi = Math.min(capacity, numRows - start);
+            while (lo < hi) {
+                int mid = (lo + hi + 1) / 2;
+                if (encode(td, rows, start, mid, filled, pageSize) != null)
+                    lo = mid;
+                else
+                    hi = mid - 1;
+            }
+            out.write(encode(td, rows, start, lo, filled, pageSize));
+            start += lo;
+        }
+
+        FileOutputStream fos = new FileOutputStream(compressedFile);
+        try {
+            out.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+        return pages;
+    }
+
+    /** @return the page data holding count rows from start, or null if they do not fit */
+    private static byte[] encode(TupleDesc td, byte[] rows, int start, int count, boolean[] filled,
+            int pageSize) {
+        int rowSize = td.getSize();
+        byte[] pageRows = new byte[count * rowSize];
+        System.arraycopy(rows, start * rowSize, pageRows, 0, pageRows.length);
+        return CompressedPage.encode(td, pageRows, filled, count, pageSize);
+    }
+}
@@ -0,0 +1,528 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * CompressedPage stores pages of CompressedFiles.  On disk, the tuples of
+ * a page are compressed column by column, so that a page holds up to
+ * {@link #MAX_RATIO} times as many tuples as a HeapPage of the same table;
+ * in memory, they are decompressed into the rows of a HeapPage, so that
+ * scans read them as they read a HeapPage.
+ * <p>
+ * The page data begins with the number of slots of the page, as an
+ * unsigned short, and a bitmap of the slots that are filled.  Then, for
+ * each field, the values of the field in the filled slots, in slot order,
+ * are encoded as a sequence of ints: int fields as they are, and string
+ * fields as codes into a dictionary of their distinct values, which comes
+ * first.  The sequence is stored in whichever of two forms is smaller:
+ * <ul>
+ * <li>frame of reference: the smallest value, and the difference of each
+ *     value from it packed into as few bits as the largest one needs;
+ * <li>run-length: each run of equal values as the value and its length,
+ *     which suits sorted fields.
+ * </ul>
+ * Adding a tuple to a page that has no room for its compressed form fails,
+ * as adding one to a full HeapPage does.
+ *
+ * @see CompressedFile
+ */
+public class CompressedPage extends HeapPage {
+
+    /** The most tuples a page holds, as a multiple of the tuples a HeapPage holds. */
+    public static final int MAX_RATIO = 16;
+
+    private static final int FRAME_OF_REFERENCE = 0;
+    private static final int RUN_LENGTH = 1;
+
+    private final TupleDesc td;
+    private final int[] fieldOffsets;
+    private final byte[] rows;
+    private final boolean[] filled;
+    private final int pageSize;
+    private int numSlots;
+    /** bounds on the columns of the filled slots, or null until a tuple is added */
+    private ColumnBound[] bounds;
+
+    /**
+     * Create a CompressedPage from a set of bytes of data read from disk.
+     */
+    public CompressedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    private CompressedPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        this(id, data, td, new byte[capacity(td, data.length) * td.getSize()]);
+    }
+
+    private CompressedPage(HeapPageId id, byte[] data, TupleDesc td, byte[] rows) throws IOException {
+        super(id, rows, capacity(td, data.length));
+        this.td = td;
+        this.fieldOffsets = fieldOffsets(td);
+        this.rows = rows;
+        this.filled = new boolean[capacity(td, data.length)];
+        this.pageSize = data.length;
+        numSlots = decode(td, fieldOffsets, data, rows, filled);
+        setBeforeImage(data.clone());
+    }
+
+    HeapPage newPage(byte[] data) throws IOException {
+        return new CompressedPage(getId(), data, td);
+    }
+
+    /**
+     * @return the most tuples a page of the given size of tuples with the
+     *   given TupleDesc holds, which is at most what an unsigned short counts
+     */
+    static int capacity(TupleDesc td, int pageSize) {
+        return Math.min(MAX_RATIO * (pageSize * 8 / (td.getSize() * 8 + 1)), 0xffff);
+    }
+
+    /** @return the offset of each field in a row of the given TupleDesc */
+    private static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields()];
+        for (int j = 1; j < offsets.length; ++j)
+            offsets[j] = offsets[j - 1] + td.getType(j - 1).getLen();
+        return offsets;
+    }
+
+    /**
+     * The values of one field in the filled slots of a page, as ints, with
+     * the dictionary of a string field and the size of their two encodings.
+     */
+    private static class Column {
+        final int[] values;
+        final ArrayList<String> dictionary;
+        int min, width, runs;
+        long max;
+
+        /** Reads the field at offset off of the first n rows that are filled */
+        Column(Type type, byte[] rows, int rowSize, int off, boolean[] filled, int n) {
+            int m = 0;
+            for (int i = 0; i < n; ++i)
+                if (filled[i])
+                    ++m;
+            values = new int[m];
+            dictionary = type == Type.STRING_TYPE ? new ArrayList<String>() : null;
+            HashMap<String,Integer> codes = new HashMap<String,Integer>();
+            int k = 0;
+            for (int i = 0; i < n; ++i) {
+                if (!filled[i])
+                    continue;
+                int pos = i * rowSize + off;
+                if (dictionary == null) {
+                    values[k++] = getInt(rows, pos);
+                } else {
+                    String s = latin1(rows, pos + 4, getInt(rows, pos));
+                    Integer code = codes.get(s);
+                    if (code == null) {
+                        code = dictionary.size();
+                        codes.put(s, code);
+                        dictionary.add(s);
+                    }
+                    values[k++] = code;
+                }
+            }
+
+            max = 0;
+            min = 0;
+            runs = 0;
+            for (int i = 0; i < m; ++i) {
+                if (i == 0 || values[i] < min)
+                    min = values[i];
+                if (i == 0 || values[i] > max)
+                    max = values[i];
+                if (i == 0 || values[i] != values[i - 1])
+                    ++runs;
+            }
+            width = m == 0 ? 0 : 64 - Long.numberOfLeadingZeros(max - min);
+        }
+
+        boolean runLength() {
+            return 2 + 6 * runs < 5 + (values.length * width + 7) / 8;
+        }
+
+        int size() {
+            int size = 1 + (runLength() ? 2 + 6 * runs : 5 + (values.length * width + 7) / 8);
+            if (dictionary != null) {
+                size += 2;
+                for (String s : dictionary)
+                    size += 1 + s.length();
+            }
+            return size;
+        }
+
+        void write(ByteBuffer out) {
+            if (dictionary != null) {
+                out.putShort((short) dictionary.size());
+                for (String s : dictionary) {
+                    out.put((byte) s.length());
+                    for (int i = 0; i < s.length(); ++i)
+                        out.put((byte) s.charAt(i));
+                }
+            }
+            if (runLength()) {
+                out.put((byte) RUN_LENGTH);
+                out.putShort((short) runs);
+                for (int i = 0; i < values.length; ) {
+                    int j = i;
+                    while (j < values.length && values[j] == values[i])
+                        ++j;
+                    out.putInt(values[i]);
+                    out.putShort((short) (j - i));
+                    i = j;
+                }
+            } else {
+                out.put((byte) FRAME_OF_REFERENCE);
+                out.putInt(min);
+                out.put((byte) width);
+                long acc = 0;
+                int bits = 0;
+                for (int v : values) {
+                    acc |= ((long) v - min) << bits;
+                    bits += width;
+                    while (bits >= 8) {
+                        out.put((byte) acc);
+                        acc >>>= 8;
+                        bits -= 8;
+                    }
+                }
+                if (bits > 0)
+                    out.put((byte) acc);
+            }
+        }
+    }
+
+    /**
+     * Upper bounds on what the size of a Column depends on, which are kept
+     * as values are added without reading the other values.  A value may
+     * add a run, or split one in two if it goes between other values, and
+     * a string may add an entry to the dictionary.  Removing values never
+     * makes the bounds smaller than the column.
+     */
+    private static class ColumnBound {
+        final boolean strings;
+        int count, runs, dictionarySize, dictionaryBytes;
+        long min, max;
+
+        ColumnBound(Column c) {
+            strings = c.dictionary != null;
+            count = c.values.length;
+            runs = c.runs;
+            min = c.min;
+            max = c.max;
+            if (strings) {
+                dictionarySize = c.dictionary.size();
+                for (String v : c.dictionary)
+                    dictionaryBytes += 1 + v.length();
+            }
+        }
+
+        ColumnBound(ColumnBound b) {
+            strings = b.strings;
+            count = b.count;
+            runs = b.runs;
+            min = b.min;
+            max = b.max;
+            dictionarySize = b.dictionarySize;
+            dictionaryBytes = b.dictionaryBytes;
+        }
+
+        /**
+         * Accounts for a value added to the column.
+         *
+         * @param value the int, or the length of the string
+         * @param last true if the value goes after all the others
+         */
+        void add(int value, boolean last) {
+            if (strings) {
+                // codes are numbered from 0 in the order strings first appear
+                ++dictionarySize;
+                dictionaryBytes += 1 + value;
+                min = 0;
+                max = dictionarySize - 1;
+            } else if (count == 0) {
+                min = max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            ++count;
+            runs += last ? 1 : 2;
+        }
+
+        /** @return the most bytes the column can take, as Column.size computes it */
+        int size() {
+            int width = count == 0 ? 0 : 64 - Long.numberOfLeadingZeros(max - min);
+            long size = 1 + Math.min(2 + 6L * runs, 5 + ((long) count * width + 7) / 8);
+            if (strings)
+                size += 2 + dictionaryBytes;
+            return (int) Math.min(Integer.MAX_VALUE, size);
+        }
+    }
+
+    private static int getInt(byte[] data, int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+            | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /** @return the string whose chars are the len bytes of data at off */
+    private static String latin1(byte[] data, int off, int len) {
+        char[] chars = new char[len];
+        for (int i = 0; i < len; ++i)
+            chars[i] = (char) (data[off + i] & 0xff);
+        return new String(chars);
+    }
+
+    /** @return the columns of the first n rows, of which those filled are stored */
+    private static Column[] columns(TupleDesc td, int[] fieldOffsets, byte[] rows, boolean[] filled, int n) {
+        Column[] columns = new Column[td.numFields()];
+        for (int j = 0; j < columns.length; ++j)
+            columns[j] = new Column(td.getType(j), rows, td.getSize(), fieldOffsets[j], filled, n);
+        return columns;
+    }
+
+    /** @return the size of the compressed form of n rows with the given columns */
+    private static int encodedSize(Column[] columns, int n) {
+        int size = 2 + (n + 7) / 8;
+        for (Column c : columns)
+            size += c.size();
+        return size;
+    }
+
+    private static ColumnBound[] bounds(Column[] columns) {
+        ColumnBound[] bounds = new ColumnBound[columns.length];
+        for (int j = 0; j < columns.length; ++j)
+            bounds[j] = new ColumnBound(columns[j]);
+        return bounds;
+    }
+
+    /**
+     * @return the page data holding the first n rows, of which those filled
+     *   are stored, or null if they do not fit on a page of the given size
+     */
+    static byte[] encode(TupleDesc td, byte[] rows, boolean[] filled, int n, int pageSize) {
+        int[] fieldOffsets = fieldOffsets(td);
+        Column[] columns = columns(td, fieldOffsets, rows, filled, n);
+        int size = encodedSize(columns, n);
+        if (size > pageSize || n > capacity(td, pageSize))
+            return null;
+
+        byte[] data = HeapPage.createEmptyPageData(pageSize);
+        ByteBuffer out = ByteBuffer.wrap(data);
+        out.putShort((short) n);
+        for (int i = 0; i < n; ++i)
+            if (filled[i])
+                data[2 + i / 8] |= 1 << (i % 8);
+        out.position(2 + (n + 7) / 8);
+        for (Column c : columns)
+            c.write(out);
+        return data;
+    }
+
+    /**
+     * Decompresses page data into rows and the slots that are filled.
+     *
+     * @return the number of slots of the page
+     */
+    private static int decode(TupleDesc td, int[] fieldOffsets, byte[] data, byte[] rows, boolean[] filled)
+            throws IOException {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            int n = in.getShort() & 0xffff;
+            int m = 0;
+            for (int i = 0; i < n; ++i) {
+                filled[i] = ((data[2 + i / 8] >> (i % 8)) & 1) == 1;
+                if (filled[i])
+                    ++m;
+            }
+            in.position(2 + (n + 7) / 8);
+
+            int rowSize = td.getSize();
+            int[] values = new int[m];
+            for (int j = 0; j < td.numFields(); ++j) {
+                byte[][] dictionary = null;
+                if (td.getType(j) == Type.STRING_TYPE) {
+                    dictionary = new byte[in.getShort() & 0xffff][];
+                    for (int d = 0; d < dictionary.length; ++d) {
+                        dictionary[d] = new byte[in.get() & 0xff];
+                        in.get(dictionary[d]);
+                    }
+                }
+
+                if (in.get() == RUN_LENGTH) {
+                    int runs = in.getShort() & 0xffff;
+                    for (int r = 0, k = 0; r < runs; ++r) {
+                        int value = in.getInt();
+                        for (int len = in.getShort() & 0xffff; len > 0; --len)
+                            values[k++] = value;
+                    }
+                } else {
+                    long min = in.getInt();
+                    int width = in.get();
+                    long mask = (1L << width) - 1;
+                    long acc = 0;
+                    int bits = 0;
+                    for (int k = 0; k < m; ++k) {
+                        while (bits < width) {
+                            acc |= (long) (in.get() & 0xff) << bits;
+                            bits += 8;
+                        }
+                        values[k] = (int) (min + (acc & mask));
+                        acc >>>= width;
+                        bits -= width;
+                    }
+                }
+
+                for (int i = 0, k = 0; i < n; ++i) {
+                    if (!filled[i])
+                        continue;
+                    int off = i * rowSize + fieldOffsets[j];
+                    if (dictionary == null) {
+                        putInt(rows, off, values[k++]);
+                    } else {
+                        byte[] s = dictionary[values[k++]];
+                        putInt(rows, off, s.length);
+                        System.arraycopy(s, 0, rows, off + 4, s.length);
+                    }
+                }
+            }
+            return n;
+        } catch (RuntimeException e) {
+            // a BufferUnderflowException or an index out of bounds
+            throw new IOException("corrupt compressed page: " + e);
+        }
+    }
+
+    private static void putInt(byte[] data, int off, int value) {
+        data[off] = (byte) (value >> 24);
+        data[off + 1] = (byte) (value >> 16);
+        data[off + 2] = (byte) (value >> 8);
+        data[off + 3] = (byte) value;
+    }
+
+    /** @return the number of tuples on this page */
+    int numTuples() {
+        int count = 0;
+        for (int i = 0; i < numSlots; ++i)
+            if (filled[i])
+                ++count;
+        return count;
+    }
+
+    public synchronized byte[] getPageData() {
+        return encode(td, rows, filled, numSlots, pageSize);
+    }
+
+    public boolean getSlot(int i) {
+        return i < numSlots && filled[i];
+    }
+
+    int fieldOffset(int i, int j) {
+        return i * td.getSize() + fieldOffsets[j];
+    }
+
+    /**
+     * Returns the number of empty slots on this page.  A tuple added to
+     * one of them may still not fit in the compressed page data; see
+     * {@link #hasRoomFor}.
+     */
+    public synchronized int getNumEmptySlots() {
+        return filled.length - numTuples();
+    }
+
+    /**
+     * Writes t into the first empty slot, and fills it if the page data
+     * still fits on a page.  Whether it fits is decided from the bounds on
+     * the columns where they allow, so that filling a page does not
+     * compress it again for every tuple; the page is only compressed to
+     * find out once the bounds exceed a page, which resets them.
+     *
+     * @return the slot t was added in, or -1 if there was no room
+     */
+    private int place(Tuple t, boolean keep) {
+        int i = 0;
+        while (i < numSlots && filled[i])
+            ++i;
+        if (i == filled.length)
+            return -1;
+        if (bounds == null)
+            bounds = bounds(columns(td, fieldOffsets, rows, filled, numSlots));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); ++j)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, rows, i * td.getSize(), td.getSize());
+        filled[i] = true;
+        int n = Math.max(numSlots, i + 1);
+        ColumnBound[] grown = new ColumnBound[bounds.length];
+        int bound = 2 + (n + 7) / 8;
+        for (int j = 0; j < grown.length; ++j) {
+            grown[j] = new ColumnBound(bounds[j]);
+            // an int field, or the length a string field starts with
+            grown[j].add(getInt(rows, fieldOffset(i, j)), i >= numSlots);
+            bound += grown[j].size();
+        }
+        boolean fits;
+        if (bound <= pageSize) {
+            fits = true;
+        } else {
+            Column[] columns = columns(td, fieldOffsets, rows, filled, n);
+            fits = encodedSize(columns, n) <= pageSize;
+            grown = bounds(columns);
+        }
+        if (fits && keep) {
+            bounds = grown;
+            numSlots = n;
+            return i;
+        }
+        filled[i] = false;
+        return fits ? i : -1;
+    }
+
+    synchronized boolean hasRoomFor(Tuple t) {
+        return place(t, false) >= 0;
+    }
+
+    /**
+     * Adds the specified tuple to the page in its first empty slot.
+     *
+     * @throws DbException if the page has no room for the tuple, or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void addTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc is mismatch");
+        int i = place(t, true);
+        if (i < 0)
+            throw new DbException("page is full");
+        forgetTuple(i);
+        t.setRecordId(new RecordId(getId(), i));
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        if (!t.getRecordId().getPageId().equals(getId()))
+            throw new DbException("tuple to delete is not on this page");
+        int i = t.getRecordId().tupleno();
+        if (!getSlot(i))
+            throw new DbException("tuple slot is already empty");
+        forgetTuple(i);
+        filled[i] = false;
+        while (numSlots > 0 && !filled[numSlots - 1])
+            --numSlots;
+    }
+}
@@ -11,4 +11,6 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public Vector<LogicalJoinNode> plan;
+    /** True if the last join of the subplan has its inner and outer swapped */
+    public boolean swapped;
 }
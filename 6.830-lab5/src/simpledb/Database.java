@@ -50,13 +50,21 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
-        _instance._bufferpool = new BufferPool(pages);
+        return resetBufferPool(pages, false);
+    }
+
+    /** Create a new instance of the buffer pool, keeping the data of its
+        pages off the heap if offHeap is set, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, boolean offHeap) {
+        _instance._bufferpool = new BufferPool(pages, offHeap);
         return _instance._bufferpool;
     }
 
     //reset the database, used for unit tests only.
     public static void reset() {
     	_instance = new Database();
+    	TableStats.forgetAll();
     }
 
 }
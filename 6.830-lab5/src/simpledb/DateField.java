@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.io.*;
+import java.text.*;
+import java.util.TimeZone;
+
+/**
+ * Instance of Field that stores a point in time, to the millisecond, as
+ * the number of milliseconds since 1970-01-01 00:00:00 UTC.  Dates are
+ * written as <tt>yyyy-MM-dd</tt>, or <tt>yyyy-MM-dd HH:mm:ss</tt> with
+ * optional milliseconds, in UTC.
+ */
+public class DateField implements Field {
+    private static final String[] FORMATS = {
+        "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"
+    };
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private long time;
+
+    /** @return the number of milliseconds since 1970-01-01 00:00:00 UTC */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param time The value of this field, in milliseconds since the epoch.
+     */
+    public DateField(long time) {
+        this.time = time;
+    }
+
+    private static DateFormat format(String pattern) {
+        SimpleDateFormat f = new SimpleDateFormat(pattern);
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        f.setLenient(false);
+        return f;
+    }
+
+    /**
+     * @return the date written in s
+     * @throws IllegalArgumentException if s is not in one of the formats of dates
+     */
+    public static DateField valueOf(String s) {
+        s = s.trim();
+        for (String pattern : FORMATS) {
+            ParsePosition pos = new ParsePosition(0);
+            java.util.Date d = format(pattern).parse(s, pos);
+            if (d != null && pos.getIndex() == s.length())
+                return new DateField(d.getTime());
+        }
+        throw new IllegalArgumentException("not a date: " + s);
+    }
+
+    /** @return the date, without its time of day if that is midnight */
+    public String toString() {
+        if (time % MILLIS_PER_DAY == 0)
+            return format(FORMATS[2]).format(new java.util.Date(time));
+        if (time % 1000 == 0)
+            return format(FORMATS[1]).format(new java.util.Date(time));
+        return format(FORMATS[0]).format(new java.util.Date(time));
+    }
+
+    public int hashCode() {
+        return (int) (time ^ (time >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof DateField && ((DateField) field).time == time;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(time);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DateField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        return LongField.compare(time, op, ((DateField) val).time);
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DATE_TYPE
+     */
+    public Type getType() {
+        return Type.DATE_TYPE;
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.*;
+import java.math.*;
+
+/**
+ * Instance of Field that stores an exact decimal number with {@link #SCALE}
+ * digits after the point, such as an amount of money.  The value is kept
+ * as a 64-bit count of units of 10<sup>-SCALE</sup> (its unscaled value),
+ * so decimals are compared, summed and stored like longs, without rounding.
+ */
+public class DecimalField implements Field {
+    /** The number of digits after the decimal point. */
+    public static final int SCALE = 4;
+
+    private static final BigDecimal MIN = BigDecimal.valueOf(Long.MIN_VALUE, SCALE);
+    private static final BigDecimal MAX = BigDecimal.valueOf(Long.MAX_VALUE, SCALE);
+
+    private long unscaled;
+
+    private DecimalField(long unscaled) {
+        this.unscaled = unscaled;
+    }
+
+    /**
+     * @return the decimal whose value is unscaled * 10<sup>-SCALE</sup>
+     */
+    public static DecimalField ofUnscaled(long unscaled) {
+        return new DecimalField(unscaled);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param value The value of this field, rounded half up to SCALE digits.
+     * @throws ArithmeticException if value is out of the range of decimals
+     */
+    public DecimalField(BigDecimal value) {
+        value = value.setScale(SCALE, RoundingMode.HALF_UP);
+        if (value.compareTo(MIN) < 0 || value.compareTo(MAX) > 0)
+            throw new ArithmeticException("decimal out of range: " + value);
+        unscaled = value.unscaledValue().longValue();
+    }
+
+    /**
+     * @return the decimal written in s
+     * @throws NumberFormatException if s is not a decimal number
+     */
+    public static DecimalField valueOf(String s) {
+        try {
+            return new DecimalField(new BigDecimal(s.trim()));
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException(e.getMessage());
+        }
+    }
+
+    /** @return the value of this field */
+    public BigDecimal getValue() {
+        return BigDecimal.valueOf(unscaled, SCALE);
+    }
+
+    /** @return the value of this field in units of 10<sup>-SCALE</sup> */
+    public long getUnscaledValue() {
+        return unscaled;
+    }
+
+    public String toString() {
+        return getValue().toPlainString();
+    }
+
+    public int hashCode() {
+        return (int) (unscaled ^ (unscaled >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof DecimalField && ((DecimalField) field).unscaled == unscaled;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(unscaled);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DecimalField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        return LongField.compare(unscaled, op, ((DecimalField) val).unscaled);
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DECIMAL_TYPE
+     */
+    public Type getType() {
+        return Type.DECIMAL_TYPE;
+    }
+}
@@ -58,7 +58,9 @@ public class Delete extends AbstractDbIterator {
         if (deleted) return null;
         int count = 0;
         while (child.hasNext()) {
-            Database.getBufferPool().deleteTuple(tid, child.next());
+            Tuple t = child.next();
+            Database.getBufferPool().deleteTuple(tid, t);
+            TableStats.tupleDeleted(t.getRecordId().getPageId().getTableId(), t);
             count++;
         }
         Tuple tp = new Tuple(deleteTd);
@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single double-precision floating point
+ * number.
+ */
+public class DoubleField implements Field {
+    private double value;
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param d The value of this field.
+     */
+    public DoubleField(double d) {
+        value = d;
+    }
+
+    public String toString() {
+        return Double.toString(value);
+    }
+
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(value);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof DoubleField
+                && Double.doubleToLongBits(((DoubleField) field).value) == Double.doubleToLongBits(value);
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeDouble(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DoubleField, a LongField
+     *   or an IntField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        double operand;
+        if (val instanceof IntField)
+            operand = ((IntField) val).getValue();
+        else if (val instanceof LongField)
+            operand = ((LongField) val).getValue();
+        else
+            operand = ((DoubleField) val).value;
+        return compare(value, op, operand);
+    }
+
+    /**
+     * Compares two double values as a DoubleField holding value would
+     * compare to one holding operand.
+     */
+    static boolean compare(double value, Predicate.Op op, double operand) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == operand;
+        case NOT_EQUALS:
+            return value != operand;
+        case GREATER_THAN:
+            return value > operand;
+        case GREATER_THAN_OR_EQ:
+            return value >= operand;
+        case LESS_THAN:
+            return value < operand;
+        case LESS_THAN_OR_EQ:
+            return value <= operand;
+        }
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DOUBLE_TYPE
+     */
+    public Type getType() {
+        return Type.DOUBLE_TYPE;
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * FrameArena hands out fixed-size frames of memory outside the Java heap,
+ * for a BufferPool to keep the data of its pages in.  Frames are carved
+ * out of direct ByteBuffers of {@link #FRAMES_PER_SLAB} frames each, which
+ * are allocated as they are needed, up to the number of frames the arena
+ * was created with, and are never given back: a frame that is freed is
+ * handed out again.  The garbage collector sees one object per slab and
+ * one per frame, however many pages the frames hold.
+ */
+public class FrameArena {
+    /** The number of frames allocated together. */
+    public static final int FRAMES_PER_SLAB = 256;
+
+    private final int frameSize;
+    private final int maxFrames;
+    private int numFrames;
+    private final ArrayList<ByteBuffer> free = new ArrayList<ByteBuffer>();
+
+    /**
+     * Creates an arena of up to maxFrames frames of frameSize bytes.
+     */
+    public FrameArena(int frameSize, int maxFrames) {
+        this.frameSize = frameSize;
+        this.maxFrames = maxFrames;
+    }
+
+    /** @return the size of each frame of this arena */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames this arena has allocated, free or not */
+    public synchronized int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of frames of this arena in use */
+    public synchronized int getUsedFrames() {
+        return numFrames - free.size();
+    }
+
+    /**
+     * Hands out a frame, with its position at 0 and its limit at its end.
+     * Its contents are those it was last freed with.
+     *
+     * @return the frame, or null if all the frames of the arena are in use
+     */
+    public synchronized ByteBuffer allocate() {
+        if (free.isEmpty() && numFrames < maxFrames) {
+            int n = Math.min(FRAMES_PER_SLAB, maxFrames - numFrames);
+            ByteBuffer slab = ByteBuffer.allocateDirect(n * frameSize);
+            for (int k = n - 1; k >= 0; --k) {
+                slab.limit((k + 1) * frameSize);
+                slab.position(k * frameSize);
+                free.add(slab.slice());
+            }
+            numFrames += n;
+        }
+        if (free.isEmpty())
+            return null;
+        ByteBuffer frame = free.remove(free.size() - 1);
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Gives a frame handed out by {@link #allocate} back to the arena.
+     * The frame must no longer be used.
+     */
+    public synchronized void free(ByteBuffer frame) {
+        free.add(frame);
+    }
+}
@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -10,25 +9,117 @@ import java.util.*;
  * which is a fixed size, and the file is simply a collection of those
  * pages. HeapFile works closely with HeapPage.  The format of HeapPages
  * is described in the HeapPage constructor.
+ * <p>
+ * Pages are {@link BufferPool#PAGE_SIZE} bytes unless the file says
+ * otherwise: a file of pages of another size starts with a
+ * {@link #FILE_HEADER_SIZE}-byte header holding {@link #MAGIC} and the
+ * page size, and its pages follow the header.  Large pages suit tables
+ * that are mostly scanned, small ones tables that are mostly updated a
+ * tuple at a time.
+ * <p>
+ * Every page read or written is summarized in the file's {@link ZoneMap},
+ * so that scans with predicates over int fields (see
+ * {@link #iterator(TransactionId, Predicate[])}) skip the pages that cannot
+ * match them.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+    /** The first bytes of the header of a file with its own page size: "SimpleDB" */
+    public static final long MAGIC = 0x53696d706c654442L;
+    /** The size of the header of a file with its own page size. */
+    public static final int FILE_HEADER_SIZE = 16;
+    /** The smallest and largest page sizes a file may have. */
+    public static final int MIN_PAGE_SIZE = 512;
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
     private File file;
+    private int id;
     private TupleDesc tupleDesc;
+    private final int pageSize;
 
     private int numPages;
+    private final ZoneMap zones;
 
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file, with the page
+     * size recorded in the file, if any.
      *
      * @param f the file that stores the on-disk backing store for this heap file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, readPageSize(f));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * the given size.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param pageSize the size of the pages of the file
+     * @throws IllegalArgumentException if the page size is out of range, or
+     *         the file has pages of another size
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("page size must be between " + MIN_PAGE_SIZE
+                    + " and " + MAX_PAGE_SIZE);
+        if (f.length() > 0 && readPageSize(f) != pageSize)
+            throw new IllegalArgumentException(f + " has pages of " + readPageSize(f) + " bytes");
         file = f;
+        id = f.getAbsoluteFile().hashCode();
         tupleDesc = td;
-        numPages = (int) f.length() / BufferPool.PAGE_SIZE;
+        this.pageSize = pageSize;
+        numPages = (int) (Math.max(0, f.length() - headerSize(pageSize)) / pageSize);
+        zones = new ZoneMap(td);
+    }
+
+    /** @return the size of the header of a file with pages of the given size */
+    static int headerSize(int pageSize) {
+        return pageSize == BufferPool.PAGE_SIZE ? 0 : FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Reads the size of the pages of a file from its header.
+     *
+     * @return the page size, or {@link BufferPool#PAGE_SIZE} if the file has
+     *   no header (or cannot be read)
+     */
+    public static int readPageSize(File f) {
+        if (f.length() < FILE_HEADER_SIZE)
+            return BufferPool.PAGE_SIZE;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(f));
+            try {
+                return in.readLong() == MAGIC ? in.readInt() : BufferPool.PAGE_SIZE;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return BufferPool.PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Writes the header of a file with pages of the given size, if it
+     * needs one, to the start of out.
+     */
+    public static void writeHeader(OutputStream out, int pageSize) throws IOException {
+        if (headerSize(pageSize) == 0)
+            return;
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeLong(MAGIC);
+        dos.writeInt(pageSize);
+        dos.writeInt(0);
+        dos.flush();
+    }
+
+    /**
+     * Returns the size of the pages of this file.
+     */
+    public int getPageSize() {
+        return pageSize;
     }
 
     /**
@@ -41,16 +132,23 @@ public class HeapFile implements DbFile {
     }
 
     /**
-    * Returns an ID uniquely identifying this HeapFile. Implementation note:
-    * you will need to generate this tableid somewhere ensure that each
-    * HeapFile has a "unique id," and that you always return the same value
-    * for a particular HeapFile. We suggest hashing the absolute file name of
-    * the file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
-    *
-    * @return an ID uniquely identifying this HeapFile.
-    */
+     * Returns an ID uniquely identifying this HeapFile: the hash code of the
+     * absolute path of its file, unless the Catalog gave it the id recorded
+     * for its table (see {@link #setId}).
+     *
+     * @return an ID uniquely identifying this HeapFile.
+     */
     public int getId() {
-        return file.getAbsoluteFile().hashCode();
+        return id;
+    }
+
+    /**
+     * Gives this file the id its table is known by, which stays the same
+     * wherever the file is moved.  Must be called before any page of the
+     * file is read.
+     */
+    void setId(int id) {
+        this.id = id;
     }
     
     /**
@@ -63,13 +161,20 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        byte[] pageData = HeapPage.createEmptyPageData();
+        byte[] pageData = HeapPage.createEmptyPageData(pageSize);
         Page page = null;
         try {
-            FileInputStream fis = new FileInputStream(file);
-            fis.skip(BufferPool.PAGE_SIZE * pid.pageno());
-            if (fis.read(pageData) == BufferPool.PAGE_SIZE)
-                page = new HeapPage((HeapPageId) pid, pageData);
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(headerSize(pageSize) + (long) pageSize * pid.pageno());
+                raf.readFully(pageData);
+                page = createPage((HeapPageId) pid, pageData);
+                ((HeapPage) page).widenZones(zones);
+            } finally {
+                raf.close();
+            }
+        } catch (EOFException e) {
+            // no such page
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -78,10 +183,30 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        FileOutputStream fos = new FileOutputStream(file);
-        fos.getChannel()
-                .position(page.getId().pageno() * BufferPool.PAGE_SIZE)
-                .write(ByteBuffer.wrap(page.getPageData()));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            int headerSize = headerSize(pageSize);
+            if (raf.length() < headerSize) {
+                ByteArrayOutputStream header = new ByteArrayOutputStream(headerSize);
+                writeHeader(header, pageSize);
+                raf.write(header.toByteArray());
+            }
+            raf.seek(headerSize + (long) page.getId().pageno() * pageSize);
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+        if (page instanceof HeapPage)
+            ((HeapPage) page).widenZones(zones);
+    }
+
+    /**
+     * Creates a page of this file from its bytes, which are those of an
+     * empty page (see {@link HeapPage#createEmptyPageData(int)}) for a page
+     * that is not in the file yet.
+     */
+    HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
     }
 
     /**
@@ -91,6 +216,11 @@ public class HeapFile implements DbFile {
         return numPages;
     }
 
+    /** @return the summary of the int fields of each page of this file */
+    ZoneMap getZoneMap() {
+        return zones;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
@@ -101,14 +231,17 @@ public class HeapFile implements DbFile {
         for (int pageno = 0; pageno <= numPages; ++pageno) {
             page = ((HeapPage) Database.getBufferPool().getPage(
                     tid, new HeapPageId(getId(), pageno), Permissions.READ_WRITE));
-            if (page.getNumEmptySlots() > 0) {
+            if (page.hasRoomFor(t)) {
                 page.addTuple(t);
+                zones.widen(pageno, t);
                 dirtyPages.add(page);
                 if (pageno == numPages)
                     ++numPages;
                 break;
             }
         }
+        if (dirtyPages.isEmpty())
+            throw new DbException("tuple does not fit on a page");
         return dirtyPages;
     }
 
@@ -125,8 +258,23 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all of
+     * the given predicates.  The predicates are tested against the bytes of
+     * each page before its tuples are built, and pages whose zone map rules
+     * them out are not read (or locked) at all.
+     *
+     * @param tid The transaction the pages are read as a part of
+     * @param predicates the predicates over the fields of this file's
+     *        tuples, or null to return every tuple
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
         final TransactionId tid_ = tid;
         final int numPages = numPages();
+        final Predicate[] predicates_ = predicates;
 
         return new DbFileIterator() {
             boolean open = false;
@@ -164,19 +312,21 @@ public class HeapFile implements DbFile {
             }
 
             private void setNextPage() throws DbException, TransactionAbortedException {
-                if (pageno == numPages - 1) {
+                ++pageno;
+                while (predicates_ != null && pageno < numPages && !zones.mayMatch(pageno, predicates_))
                     ++pageno;
+                if (pageno >= numPages) {
                     selectedPage = null;
                     tupleIterator = null;
                 } else {
                     selectedPage = (HeapPage) Database.getBufferPool().getPage(
-                            tid_, new HeapPageId(getId(), ++pageno), Permissions.READ_ONLY
+                            tid_, new HeapPageId(getId(), pageno), Permissions.READ_ONLY
                     );
-                    tupleIterator = selectedPage.iterator();
+                    tupleIterator = predicates_ == null ? selectedPage.iterator()
+                        : selectedPage.iterator(predicates_);
                 }
             }
         };
     }
     
 }
-
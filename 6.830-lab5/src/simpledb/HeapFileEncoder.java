@@ -62,15 +62,16 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * value,...,value\n<br>
+    * value,...,value\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each value is written as
+    * {@link Type#fromString} of the type of its field reads it.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile; a file of pages of other than {@link BufferPool#PAGE_SIZE}
+    * bytes starts with the header that records its page size.
     *
     * @see HeapPage
     * @see HeapFile
@@ -100,6 +101,7 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    HeapFile.writeHeader(os, npagebytes);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -132,14 +134,14 @@ public class HeapFileEncoder {
             first = false;
         if (c == ',' || c == '\n' || c == '\r') {
             String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
+            if (typeAr[fieldNo] != Type.STRING_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
+                    typeAr[fieldNo].fromString(s.trim()).serialize(pageStream);
+                } catch (IllegalArgumentException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
-            else if (typeAr[fieldNo] == Type.STRING_TYPE) {
+            else {
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
                 if (overflow < 0) {
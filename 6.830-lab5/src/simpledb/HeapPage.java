@@ -2,10 +2,19 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that
  * is used by BufferPool.
+ * <p>
+ * A page reads its header and tuples from its data, and writes added and
+ * deleted tuples into it, in place.  The data is the array the page was
+ * created from, copied the first time the page changes, or a frame of a
+ * {@link FrameArena} outside the Java heap while the page is in a buffer
+ * pool that keeps its pages there (see {@link #moveTo}).  Tuples decoded
+ * from a page on the heap are kept until the page changes; a page in a
+ * frame keeps no tuples, so that it holds little more than its frame.
  *
  * @see HeapFile
  * @see BufferPool
@@ -14,12 +23,20 @@ public class HeapPage implements Page {
 
     private HeapPageId pid;
     private TupleDesc td;
-    private byte header[];
+    private int headerSize;
     private Tuple tuples[];
     private int numSlots;
+    private ByteBuffer data;
+    /** false while data is the array the page was created from, which it must not change */
+    private boolean ownsData;
+    /** whether the slots of this page are laid out by HeapPage, rather than a subclass */
+    private boolean fixedLayout;
+    /** field j of slot i starts at fieldBase[j] + i * fieldStride[j] */
+    private int[] fieldBase;
+    private int[] fieldStride;
     private Queue<Integer> available = null;
 
-    private byte[] oldData;
+    private ByteBuffer oldData;
 
     private TransactionId dirtyt = null;
 
@@ -28,46 +45,80 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the length of data, the page size of its file (see
+     * {@link HeapFile#getPageSize}).
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are decoded from the data the first time they are needed, so
+     * that scans can test predicates against the bytes of a slot (see
+     * {@link #iterator(Predicate[])}) and only build the tuples that pass.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a page from a set of bytes of data read from disk, with the
+     * header of a HeapPage followed by the same slots laid out either in
+     * rows, as described above, or in columns, as described in
+     * {@link PaxPage}.
+     */
+    protected HeapPage(HeapPageId id, byte[] data, boolean columnar) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = ByteBuffer.wrap(data);
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.fixedLayout = true;
+
+        // the header slots of this page are read from its data
+        headerSize = getHeaderSize();
+
+        fieldBase = new int[td.numFields()];
+        fieldStride = new int[td.numFields()];
+        int offset = 0;
+        for (int j = 0; j < fieldBase.length; j++) {
+            int len = td.getType(j).getLen();
+            fieldBase[j] = headerSize + (columnar ? numSlots * offset : offset);
+            fieldStride[j] = columnar ? len : td.getSize();
+            offset += len;
         }
-        dis.close();
+
+        // the records of this page are read by tuple()
+        tuples = new Tuple[numSlots];
 
         setBeforeImage();
     }
 
+    /**
+     * Create a page with up to numSlots slots from a set of bytes of data
+     * read from disk, for a subclass that lays out its slots itself.  The
+     * subclass locates the fields of its slots (see {@link #fieldOffset}),
+     * keeps track of which are filled, and sets the before image of the
+     * page once it is ready.
+     */
+    HeapPage(HeapPageId id, byte[] data, int numSlots) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots;
+        this.data = ByteBuffer.wrap(data);
+        this.ownsData = true;
+        tuples = new Tuple[numSlots];
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
-        return BufferPool.PAGE_SIZE * 8 / (td.getSize() * 8 + 1);
+        return data.capacity() * 8 / (td.getSize() * 8 + 1);
     }
 
     /**
@@ -75,7 +126,7 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-        int numTuples = getNumTuples();
+        int numTuples = numSlots;
         int headerBytes = numTuples / 8;
         while (headerBytes * 8 < numTuples)
             headerBytes++;
@@ -86,7 +137,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return newPage(oldData.hasArray() ? oldData.array() : copy(oldData, 0, oldData.capacity()));
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -95,121 +146,238 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return a page of the same layout as this one, with the same id, holding data */
+    HeapPage newPage(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        setBeforeImage(getPageData().clone());
+    }
+
+    /** Sets the data of the view of this page before it was modified. */
+    synchronized void setBeforeImage(byte[] data) {
+        if (oldData != null && oldData.isDirect() && oldData.capacity() == data.length) {
+            ByteBuffer frame = oldData.duplicate();
+            frame.clear();
+            frame.put(data);
+        } else {
+            oldData = ByteBuffer.wrap(data);
+        }
+    }
+
+    /** @return a copy of len bytes of buffer from off */
+    private static byte[] copy(ByteBuffer buffer, int off, int len) {
+        byte[] bytes = new byte[len];
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.position(off);
+        view.get(bytes);
+        return bytes;
     }
 
     /**
-     * @return the PageId associated with this page.
+     * Moves the data of this page, and its before image, into two frames of
+     * arena, and drops the tuples decoded from it.  Only pages laid out by
+     * HeapPage whose size is that of the frames of arena move.
+     *
+     * @return true if the page moved, or false if it stays on the heap
      */
-    public HeapPageId getId() {
-        return pid;
+    synchronized boolean moveTo(FrameArena arena) {
+        if (!fixedLayout || data.isDirect() || data.capacity() != arena.getFrameSize())
+            return false;
+        ByteBuffer frame = arena.allocate();
+        if (frame == null)
+            return false;
+        ByteBuffer oldFrame = arena.allocate();
+        if (oldFrame == null) {
+            arena.free(frame);
+            return false;
+        }
+        frame.put(data.array(), data.arrayOffset(), data.capacity());
+        oldFrame.put(oldData.array(), oldData.arrayOffset(), oldData.capacity());
+        data = frame;
+        oldData = oldFrame;
+        ownsData = true;
+        tuples = null;
+        return true;
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Copies the data of this page, and its before image, out of the frames
+     * of arena they were moved to, and gives the frames back to arena.
+     * Anyone still holding the page, such as a scan that has not finished
+     * with it, keeps reading the same bytes.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!getSlot(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    synchronized void release(FrameArena arena) {
+        if (!data.isDirect())
+            return;
+        ByteBuffer frame = data, oldFrame = oldData;
+        data = ByteBuffer.wrap(copy(frame, 0, frame.capacity()));
+        oldData = ByteBuffer.wrap(copy(oldFrame, 0, oldFrame.capacity()));
+        arena.free(frame);
+        arena.free(oldFrame);
+    }
+
+    /** @return true if the data of this page is in a frame outside the Java heap */
+    boolean isOffHeap() {
+        return data.isDirect();
+    }
+
+    /** Copies the data of this page the first time it changes, so that the array it was created from does not */
+    private void ownData() {
+        if (!ownsData) {
+            data = ByteBuffer.wrap(data.array().clone());
+            ownsData = true;
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the offset in the page data of field j of the tuple in the filled slot i */
+    int fieldOffset(int i, int j) {
+        return fieldBase[j] + i * fieldStride[j];
+    }
+
+    /** Decodes field j of the tuple in slot i from the page data. */
+    private Field field(int i, int j) {
+        Type type = td.getType(j);
+        int off = fieldOffset(i, j);
+        int len = Math.min(type.getLen(), data.capacity() - off);
+        DataInputStream dis = new DataInputStream(data.hasArray()
+                ? new ByteArrayInputStream(data.array(), data.arrayOffset() + off, len)
+                : new ByteArrayInputStream(copy(data, off, len)));
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return type.parse(dis);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /** @return the int at an offset in the page data */
+    private int intAt(int off) {
+        return data.getInt(off);
     }
 
     /**
-     * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
-     * <p>
-     * The invariant here is that it should be possible to pass the byte
-     * array generated by getPageData to the HeapPage constructor and
-     * have it produce an identical HeapPage object.
-     *
-     * @see #HeapPage
-     * @return A byte array correspond to the bytes of this page.
+     * Returns the tuple in the filled slot i, decoding it from the page data
+     * the first time it is needed.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+    private synchronized Tuple tuple(int i) throws NoSuchElementException {
+        if (tuples != null && tuples[i] != null)
+            return tuples[i];
 
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        // read fields in the tuple
+        Tuple t = new Tuple(td);
+        RecordId rid = new RecordId(pid, i);
+        t.setRecordId(rid);
+        for (int j=0; j<td.numFields(); j++)
+            t.setField(j, field(i, j));
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        if (tuples != null)
+            tuples[i] = t;
+        return t;
+    }
 
-            // empty slot
-            if (!getSlot(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /** @return the int field j of the tuple in the filled slot i, without decoding the tuple */
+    int intValue(int i, int j) {
+        if (tuples != null && tuples[i] != null)
+            return ((IntField) tuples[i].getField(j)).getValue();
+        return intAt(fieldOffset(i, j));
+    }
 
-                }
-                continue;
-            }
+    /**
+     * Tests the tuple in the filled slot i against p.  Fields of the types
+     * stored as numbers are compared in place when the operand has the
+     * same type; other fields are decoded on their own.
+     */
+    private boolean matches(int i, Predicate p) {
+        if (tuples != null && tuples[i] != null)
+            return p.filter(tuples[i]);
+        int j = p.getField();
+        Type type = td.getType(j);
+        if (type == Type.INT_TYPE)
+            return p.filter(intValue(i, j));
+        if (type == p.getOperand().getType() && type != Type.STRING_TYPE) {
+            if (type == Type.DOUBLE_TYPE)
+                return p.filter(data.getDouble(fieldOffset(i, j)));
+            return p.filter(data.getLong(fieldOffset(i, j)));
+        }
+        return field(i, j).compare(p.getOp(), p.getOperand());
+    }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+    /**
+     * Appends the given fields of the tuples in the filled slots of this
+     * page, starting at slot start, to batch as new rows, until the batch
+     * is full.  Only the bytes of those fields are read, and no tuples are
+     * built.
+     *
+     * @param batch the batch to append to, whose column k is field fields[k]
+     * @param fields the fields to append
+     * @param start the first slot to append
+     * @return the slot to continue from once the batch is full, or -1 if
+     *   every slot from start on has been appended
+     */
+    synchronized int appendTo(ColumnBatch batch, int[] fields, int start) {
+        for (int i = start; i < numSlots; ++i) {
+            if (!getSlot(i))
+                continue;
+            if (batch.isFull())
+                return i;
+            int row = batch.size();
+            for (int k = 0; k < fields.length; ++k) {
+                int j = fields[k];
+                if (td.getType(j) == Type.INT_TYPE) {
+                    batch.setInt(k, row, intValue(i, j));
+                } else if (tuples != null && tuples[i] != null) {
+                    batch.setString(k, row, ((StringField) tuples[i].getField(j)).getValue());
+                } else {
+                    int off = fieldOffset(i, j);
+                    batch.setString(k, row, data, off + 4, intAt(off));
                 }
             }
+            batch.setSize(row + 1);
         }
+        return -1;
+    }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Widens the bounds recorded for this page in zones to cover the int
+     * fields of its tuples.
+     */
+    synchronized void widenZones(ZoneMap zones) {
+        int pageno = pid.pageno();
+        zones.cover(pageno);
+        for (int i = 0; i < numSlots; ++i) {
+            if (!getSlot(i))
+                continue;
+            zones.addTuple(pageno);
+            for (int j = 0; j < td.numFields(); ++j)
+                if (td.getType(j) == Type.INT_TYPE)
+                    zones.widen(pageno, j, intValue(i, j));
         }
+    }
 
-        return baos.toByteArray();
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HeapPage constructor and
+     * have it produce an identical HeapPage object.
+     *
+     * @see #HeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public synchronized byte[] getPageData() {
+        // the header and tuples are written into the data as they change
+        return copy(data, 0, data.capacity());
     }
 
     /**
@@ -223,8 +391,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of a file
+     * with pages of the given size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -234,15 +409,22 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         initAvailable();
         if (!t.getRecordId().getPageId().equals(getId()))
             throw new DbException("tuple to delete is not on this page");
         int tupleno = t.getRecordId().tupleno();
         if (!getSlot(tupleno))
             throw new DbException("tuple slot is already empty");
-        tuples[tupleno] = null;
+        ownData();
+        forgetTuple(tupleno);
         setSlot(tupleno, false);
+        // empty slots are zero
+        for (int j = 0; j < td.numFields(); ++j) {
+            int off = fieldOffset(tupleno, j);
+            for (int k = 0; k < td.getType(j).getLen(); ++k)
+                data.put(off + k, (byte) 0);
+        }
         available.offer(tupleno);
     }
 
@@ -253,18 +435,50 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void addTuple(Tuple t) throws DbException {
+    public synchronized void addTuple(Tuple t) throws DbException {
         initAvailable();
         if (available.isEmpty())
             throw new DbException("page is full");
         if (!t.getTupleDesc().equals(td))
             throw new DbException("tupledesc is mismatch");
+        ownData();
         int tupleno = available.poll();
-        tuples[tupleno] = t;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Type.STRING_LEN + 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j = 0; j < td.numFields(); j++) {
+            baos.reset();
+            try {
+                t.getField(j).serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                throw new DbException("couldn't write field " + j + ": " + e.getMessage());
+            }
+            ByteBuffer field = data.duplicate();
+            field.position(fieldOffset(tupleno, j));
+            field.put(baos.toByteArray(), 0, td.getType(j).getLen());
+        }
+        if (tuples != null)
+            tuples[tupleno] = t;
         t.setRecordId(new RecordId(pid, tupleno));
         setSlot(tupleno, true);
     }
 
+    /**
+     * Drops the tuple decoded from slot i, whose record is about to be
+     * removed.
+     */
+    void forgetTuple(int i) {
+        if (tuples != null)
+            tuples[i] = null;
+    }
+
+    /**
+     * @return true if t can be added to this page
+     */
+    boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     private void initAvailable() {
         if (available == null) {
             available = new PriorityQueue<Integer>();
@@ -295,29 +509,32 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int emptyBits = 8 * header.length;
-        for (byte headerByte: header)
-            for (int i = 0; i < 8; ++i)
-                emptyBits -= (headerByte >> i) & 1;
-        return emptyBits;
+        // the padding bits at the end of the header are not slots
+        int empty = 0;
+        for (int i = 0; i < numSlots; ++i)
+            if (!getSlot(i))
+                ++empty;
+        return empty;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean getSlot(int i) {
-        return ((header[i / 8] >> (i % 8)) & 1) == 1;
+        return ((data.get(i / 8) >> (i % 8)) & 1) == 1;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void setSlot(int i, boolean value) {
+        byte b = data.get(i / 8);
         if (value) {
-            header[i / 8] |= 1 << (i % 8);
+            b |= 1 << (i % 8);
         } else {
-            header[i / 8] &= ~(1 << (i % 8));
+            b &= ~(1 << (i % 8));
         }
+        data.put(i / 8, b);
     }
 
     /**
@@ -325,11 +542,25 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        List<Tuple> filledTuples = new LinkedList<Tuple>();
-        for (int i = 0; i < tuples.length; ++i)
-            if (getSlot(i))
-                filledTuples.add(tuples[i]);
-        return filledTuples.iterator();
+        return iterator(new Predicate[0]);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy all of
+     * the given predicates, which are tested before the tuples are decoded
+     */
+    public synchronized Iterator<Tuple> iterator(Predicate[] predicates) {
+        List<Tuple> filledTuples = new ArrayList<Tuple>();
+        for (int i = 0; i < numSlots; ++i) {
+            if (!getSlot(i))
+                continue;
+            boolean match = true;
+            for (int k = 0; k < predicates.length && match; ++k)
+                match = matches(i, predicates[k]);
+            if (match)
+                filledTuples.add(tuple(i));
+        }
+        return Collections.unmodifiableList(filledTuples).iterator();
     }
 
 }
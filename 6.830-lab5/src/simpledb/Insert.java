@@ -67,7 +67,9 @@ public class Insert extends AbstractDbIterator {
         int count = 0;
         while (child.hasNext()) {
             try {
-                Database.getBufferPool().insertTuple(t, tableid, child.next());
+                Tuple tup = child.next();
+                Database.getBufferPool().insertTuple(t, tableid, tup);
+                TableStats.tupleInserted(tableid, tup);
                 ++count;
             } catch (IOException ioe) {
                 ioe.printStackTrace();
@@ -14,40 +14,47 @@ public class IntAggregator implements Aggregator {
      * @param aFieldId the 0-based index of the aggregate field in the tuple
      * @param what the aggregation operator
      */
-    private int gbFieldId, aFieldId;
+    private int gbFieldId;
+    private int[] aFieldIds;
     private Type gbFieldType;
-    private Op what;
-    private HashMap<Field, Integer> vals, cnts;
+    private AggregateHashTable table;
+    private long[] values;
     private TupleDesc baseTd = null;
 
-    static final Field NO_GROUPPING_FIELD = new IntField(Integer.MAX_VALUE);
-
     public IntAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, new int[] {afield}, new Op[] {what});
+    }
+
+    /**
+     * Constructs an aggregator that computes several aggregates in one pass.
+     * The result tuples hold the group value (if any) followed by one field
+     * per aggregate, in the order given here.
+     *
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afields the 0-based indexes of the aggregate fields in the tuple
+     * @param whats the aggregation operator applied to the corresponding entry of afields
+     */
+    public IntAggregator(int gbfield, Type gbfieldtype, int[] afields, Op[] whats) {
+        if (afields.length != whats.length)
+            throw new IllegalArgumentException("one operator is needed per aggregate field");
         this.gbFieldId = gbfield;
         this.gbFieldType = gbfieldtype;
-        this.aFieldId = afield;
-        this.what = what;
-        vals = new HashMap<Field, Integer>();
-        cnts = new HashMap<Field, Integer>();
+        this.aFieldIds = afields.clone();
+        table = new AggregateHashTable(gbfield == NO_GROUPING ? null : gbfieldtype, whats);
+        values = new long[afields.length];
     }
 
     private void validate(Tuple tup) {
-        if (baseTd == null)
+        if (baseTd == null) {
             baseTd = tup.getTupleDesc();
-        if (!tup.getTupleDesc().equals(baseTd))
+            if (baseTd.numFields() <= gbFieldId)
+                throw new IllegalArgumentException("length of tuple is too short");
+            for (int aFieldId : aFieldIds)
+                if (baseTd.numFields() <= aFieldId)
+                    throw new IllegalArgumentException("length of tuple is too short");
+        } else if (tup.getTupleDesc() != baseTd && !tup.getTupleDesc().equals(baseTd))
             throw new IllegalArgumentException("not compatible tuple");
-        if (baseTd.numFields() < gbFieldId || baseTd.numFields() < aFieldId)
-            throw new IllegalArgumentException("length of tuple is too short");
-    }
-
-    private Field initGroupby(Tuple tup) {
-        Field gbField;
-        if (gbFieldId == NO_GROUPING) {
-            gbField = NO_GROUPPING_FIELD;
-        } else {
-            gbField = tup.getField(gbFieldId);
-        }
-        return gbField;
     }
 
     /**
@@ -56,27 +63,22 @@ public class IntAggregator implements Aggregator {
      */
     public void merge(Tuple tup) {
         validate(tup);
-        int rawValue = ((IntField) tup.getField(aFieldId)).getValue();
-        Field gbField = initGroupby(tup);
-        if (! cnts.containsKey(gbField) ) {
-            cnts.put(gbField, 1);
-            vals.put(gbField, rawValue);
-        } else {
-            cnts.put(gbField, cnts.get(gbField) + 1);
-            vals.put(gbField, aggr(vals.get(gbField), rawValue));
-        }
+        for (int i = 0; i < aFieldIds.length; ++i)
+            values[i] = ((IntField) tup.getField(aFieldIds[i])).getValue();
+        int g = gbFieldId == NO_GROUPING
+                ? table.findOrInsert((Field) null)
+                : table.findOrInsert(tup.getField(gbFieldId));
+        table.merge(g, values);
     }
 
-    private int aggr(int a, int b) {
-        switch (what) {
-            case COUNT: case AVG: case SUM:
-                return a + b;
-            case MAX:
-                return Math.max(a, b);
-            case MIN:
-                return Math.min(a, b);
-            default: return Integer.MAX_VALUE;
-        }
+    /**
+     * Merge the groups of another IntAggregator into this one.
+     * @param other an IntAggregator constructed with the same arguments
+     */
+    public void combine(Aggregator other) {
+        if (!(other instanceof IntAggregator))
+            throw new IllegalArgumentException("can only combine with an IntAggregator");
+        table.combine(((IntAggregator) other).table);
     }
 
     /**
@@ -88,44 +90,13 @@ public class IntAggregator implements Aggregator {
      *   aggregate specified in the constructor.
      */
     public DbIterator iterator() {
-        TupleDesc td = new TupleDesc(
-                gbFieldId == NO_GROUPING
-                        ? new Type[] {Type.INT_TYPE}
-                        : new Type[] {gbFieldType, Type.INT_TYPE}
-        );
-        List<Tuple> tuples = new LinkedList<Tuple>();
-        for (Field field: cnts.keySet()) {
-            int val = vals.get(field);
-            int cnt = cnts.get(field);
-            Tuple tp = new Tuple(td);
-            if (td.numFields() == 1)
-                switch (what) {
-                    case COUNT:
-                        tp.setField(0, new IntField(cnt));
-                        break;
-                    case AVG:
-                        tp.setField(0, new IntField(val / cnt));
-                        break;
-                    default:
-                        tp.setField(0, new IntField(val));
-                        break;
-                }
-            else {
-                tp.setField(0, field);
-                switch (what) {
-                    case COUNT:
-                        tp.setField(1, new IntField(cnt));
-                        break;
-                    case AVG:
-                        tp.setField(1, new IntField(val / cnt));
-                        break;
-                    default:
-                        tp.setField(1, new IntField(val));
-                        break;
-                }
-            }
-            tuples.add(tp);
-        }
-        return new TupleIterator(td, tuples);
+        int offset = gbFieldId == NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[offset + aFieldIds.length];
+        if (offset == 1)
+            types[0] = gbFieldType;
+        Op[] ops = table.getOps();
+        for (int i = offset; i < types.length; ++i)
+            types[i] = Aggregate.resultType(ops[i - offset], Type.INT_TYPE);
+        return table.iterator(new TupleDesc(types));
     }
 }
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.*;
+
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
 public class IntHistogram {
@@ -37,10 +39,50 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-        ++hist[bucketOf(v)];
+        ++hist[bucketOf(clamp(v))];
         ++total;
     }
 
+    /**
+     * Remove a value that was previously added to the histogram.
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+        int b = bucketOf(clamp(v));
+        if (hist[b] > 0) {
+            --hist[b];
+            --total;
+        }
+    }
+
+    /**
+     * Values added after the histogram was built may lie outside [min, max];
+     * they are counted in the first or last bucket.
+     */
+    private int clamp(int v) {
+        return Math.max(minV, Math.min(maxV, v));
+    }
+
+    /** Writes this histogram in the form read by {@link #readFrom}. */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(hist.length);
+        out.writeInt(minV);
+        out.writeInt(maxV);
+        out.writeInt(total);
+        for (int i = 0; i < hist.length; ++i)
+            out.writeInt(hist[i]);
+    }
+
+    /** Reads a histogram written by {@link #writeTo}. */
+    public static IntHistogram readFrom(DataInputStream in) throws IOException {
+        int buckets = in.readInt();
+        IntHistogram h = new IntHistogram(buckets, in.readInt(), in.readInt());
+        h.total = in.readInt();
+        for (int i = 0; i < buckets; ++i)
+            h.hist[i] = in.readInt();
+        return h;
+    }
+
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
      * 
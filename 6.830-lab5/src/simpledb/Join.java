@@ -17,17 +17,22 @@ public class Join extends AbstractDbIterator {
     private DbIterator child1, child2;
     private Tuple t1 = null;
     private JoinPredicate jp;
+    private TupleDesc td;
+    private int len1, len2;
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         jp = p;
         this.child1 = child1;
         this.child2 = child2;
+        td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        len1 = child1.getTupleDesc().numFields();
+        len2 = child2.getTupleDesc().numFields();
     }
 
     /**
      * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
     }
 
     public void open()
@@ -66,12 +71,10 @@ public class Join extends AbstractDbIterator {
      *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
+     * @see BatchJoin for a join that builds no tuples
      */
-    private static Tuple join(Tuple t1, Tuple t2) {
-        TupleDesc tdr = TupleDesc.combine(t1.getTupleDesc(), t2.getTupleDesc());
-        Tuple r = new Tuple(tdr);
-        int len1 = t1.getTupleDesc().numFields();
-        int len2 = t2.getTupleDesc().numFields();
+    private Tuple join(Tuple t1, Tuple t2) {
+        Tuple r = new Tuple(td);
         for (int i = 0; i < len1; ++i)
             r.setField(i, t1.getField(i));
         for (int i = 0; i < len2; ++i)
@@ -81,6 +84,7 @@ public class Join extends AbstractDbIterator {
 
     protected Tuple readNext() throws TransactionAbortedException, DbException {
         if (t1 == null && child1.hasNext()) t1 = child1.next();
+        if (t1 == null) return null;
         while (true) {
             while (child2.hasNext()) {
                 Tuple t2 = child2.next();
@@ -8,6 +8,18 @@ import javax.swing.tree.*;
  *    join for a given logical plan.
 */
 public class JoinOptimizer {
+    /** Queries joining more tables than this are ordered heuristically, unless changed. */
+    public static final int DEFAULT_DP_TABLE_LIMIT = 16;
+
+    /** Time spent improving a heuristic join order, unless changed: 200 ms. */
+    public static final long DEFAULT_TIME_LIMIT_MILLIS = 200;
+
+    /** Seed of the random moves of the heuristic enumerator, so plans are repeatable. */
+    private static final long RANDOM_SEED = 6830;
+
+    private static int dpTableLimit = DEFAULT_DP_TABLE_LIMIT;
+    private static long timeLimitMillis = DEFAULT_TIME_LIMIT_MILLIS;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -20,6 +32,30 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Sets the largest number of tables whose joins are ordered exactly, by
+     * dynamic programming.  Joins over more tables (or more than
+     * {@link PlanCache#MAX_JOINS} joins) are ordered greedily and then
+     * improved by random moves for at most the time limit.
+     */
+    public static void setDpTableLimit(int tables) {
+        if (tables < 2)
+            throw new IllegalArgumentException("table limit must be at least 2");
+        dpTableLimit = tables;
+    }
+
+    /** @return the largest number of tables whose joins are ordered exactly */
+    public static int getDpTableLimit() {
+        return dpTableLimit;
+    }
+
+    /** Sets how long the heuristic enumerator may spend improving a join order. */
+    public static void setTimeLimit(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("time limit must not be negative");
+        timeLimitMillis = millis;
+    }
+
     /** Return best iterator for computing a given logical join, given
      *   the specified statistics, and the provided left and right
      *   subplans.  Note that there is insufficient information to
@@ -89,6 +125,63 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the cardinality of a join from the statistics of the
+     * joined columns: equi-joins from their distinct counts and most
+     * common values, range joins from their histograms.  Falls back to
+     * {@link #estimateJoinCardinality(LogicalJoinNode, int, int, boolean, boolean)}
+     * if either column has no statistics.
+     *
+     * @param j A LogicalJoinNode representing the join operation
+     *   being performed.
+     * @param card1 Cardinality of the left-hand table in the join
+     * @param card2 Cardinality of the right-hand table in the join
+     * @param t1pkey Is the left-hand table a primary-key table?
+     * @param t2pkey Is the right-hand table a primary-key table?
+     * @param stats The statistics of the tables of the query, by alias
+     * @return The cardinality of the join
+     */
+    public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2, boolean t1pkey, boolean t2pkey,
+                                       HashMap<String, TableStats> stats) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return card1;
+        return estimateJoinCardinality(j, card1, card2, t1pkey, t2pkey,
+                                       columnStats(stats, j.t1, j.f1), columnStats(stats, j.t2, j.f2));
+    }
+
+    private int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2, boolean t1pkey, boolean t2pkey,
+                                        ColumnStats col1, ColumnStats col2) {
+        if (j instanceof LogicalSubplanJoinNode || col1 == null || col2 == null)
+            return estimateJoinCardinality(j, card1, card2, t1pkey, t2pkey);
+        double sel = col1.estimateJoinSelectivity(j.p, col2);
+        if (sel < 0)
+            return estimateJoinCardinality(j, card1, card2, t1pkey, t2pkey);
+        double res = (double) card1 * card2 * sel;
+        // each tuple matches at most one tuple of a primary key
+        if (t1pkey)
+            res = Math.min(res, card2);
+        if (t2pkey)
+            res = Math.min(res, card1);
+        if (res > 0 && res < 1)
+            res = 1;
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(res));
+    }
+
+    /** @return a copy of the statistics of table.field, or null if there are none */
+    private ColumnStats columnStats(HashMap<String, TableStats> stats, String table, String field) {
+        TableStats s = table == null ? null : stats.get(table);
+        if (s == null || field == null)
+            return null;
+        if (field.startsWith(table + "."))
+            field = field.substring(table.length() + 1);
+        try {
+            int i = Database.getCatalog().getTupleDesc(s.getTableId()).nameToId(field);
+            return s.getColumnStats(i);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
     /**
      * Estimate the cardinality of a join.  The cardinality of a join
      * is the number of tuples produced by the join.
@@ -158,6 +251,12 @@ public class JoinOptimizer {
     /**
      * Compute a logical, reasonably efficient join on the specified
      *   tables.  See PS4 for hints on how this should be implemented.
+     * <p>
+     * Joins over at most {@link #getDpTableLimit} tables are ordered
+     * exactly, by dynamic programming over sets of joins (see
+     * {@link #orderJoinsExhaustive}).  Larger join graphs are ordered
+     * heuristically (see {@link #orderJoinsHeuristic}).  Neither ever
+     * considers a plan with a cross product.
      * 
      * @param stats Statistics for each table involved in the join,
      *    referenced by table name
@@ -176,158 +275,440 @@ public class JoinOptimizer {
                                               HashMap<String, Double> filterSelectivities,  
                                               boolean explain) throws ParsingException 
     {
-        PlanCache planCache = new PlanCache();
-        for (int i = 1; i <= joins.size(); ++i) {
-            for (Set<LogicalJoinNode> joinNodeSet : enumerateSubsets(joins, i)) {
-                CostCard bestSoFar = null;
-                for (LogicalJoinNode joinToRemove : joinNodeSet) {
-                    CostCard better = computeCostAndCardOfSubplan(
-                            stats,
-                            filterSelectivities,
-                            joinToRemove,
-                            joinNodeSet,
-                            bestSoFar == null ? Double.MAX_VALUE : bestSoFar.cost,
-                            planCache
-                    );
-                    if (better != null)
-                        bestSoFar = better;
-                }
-                if (bestSoFar != null)
-                    planCache.addPlan(joinNodeSet, bestSoFar.cost, bestSoFar.card, bestSoFar.plan);
-            }
-        }
-        if (explain)
-            printJoins(joins, planCache, stats, filterSelectivities);
-        return planCache.getOrder(new HashSet<LogicalJoinNode>(joins));
-    } 
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        if (g.numTables <= dpTableLimit && joins.size() <= PlanCache.MAX_JOINS)
+            return orderJoinsExhaustive(g, stats, filterSelectivities, explain);
+        return orderJoinsHeuristic(g, stats, filterSelectivities, explain);
+    }
  
     //===================== Private Methods =================================
 
-    /** This is a helper method that computes the cost and cardinality
-        of joining joinToRemove to joinSet (joinSet should contain
-        joinToRemove), given that all of the subsets of size
-        joinSet.size() - 1 have already been computed and stored in
-        PlanCache pc.
-
-        @param stats table stats for all of the base tables (see
-               {@link #orderJoins})
-        @param filterSelectivities the selectivities of the filters
-               over each of the tables (where tables are indentified
-               by their alias or name if no alias is given)
-        @param joinToRemove the join to remove from joinSet
-        @param joinSet the set of joins being considered
-        @param bestCostSoFar the best way to join joinSet so far
-               (minimum of previous invocations of
-               computeCostAndCardOfSubplan for this joinSet, from
-               returned CostCard)
-        @param pc the PlanCache for this join; should have subplans
-               for all plans of size joinSet.size()-1
-        @return A {@link CostCard} objects desribing the cost,
-                cardinality, optimal subplan
-        @throws ParsingException when stats, filterSelectivities, or
-                pc object is missing tables involved in join
-    */
-@SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(HashMap<String, TableStats> stats, 
-                                                HashMap<String, Double> filterSelectivities, 
-                                                LogicalJoinNode joinToRemove,  
-                                                Set<LogicalJoinNode> joinSet,
-                                                double bestCostSoFar,
-                                                PlanCache pc) throws ParsingException
+    /**
+     * Orders the joins by dynamic programming.  Join orders are enumerated
+     * bottom-up over sets of joins, represented as bitmasks over the
+     * positions of the joins in the vector given to the constructor.  Only
+     * connected sets are ever built: a set of k+1 joins is reached from a
+     * set of k joins by adding a join that touches one of its tables.
+     */
+    private Vector<LogicalJoinNode> orderJoinsExhaustive(JoinGraph g,
+                                                         HashMap<String, TableStats> stats,
+                                                         HashMap<String, Double> filterSelectivities,
+                                                         boolean explain) throws ParsingException
     {
+        PlanCache planCache = new PlanCache(joins);
+        int n = joins.size();
+        int pkeyJoins = 0;
+        for (int e = 0; e < n; ++e)
+            if (g.leftPkey[e] || g.rightPkey[e])
+                pkeyJoins |= 1 << e;
+        // tables joined by each set of joins that has a plan
+        long[] tablesOf = new long[1 << n];
+        CostCard cc = new CostCard();
 
-        LogicalJoinNode j = joinToRemove;
-        
-        Vector<LogicalJoinNode> prevBest;
+        int[] layer = new int[] {0};
+        int layerSize = 1;
+        for (int k = 0; k < n && layerSize > 0; ++k) {
+            int[] next = new int[16];
+            int nextSize = 0;
+            for (int i = 0; i < layerSize; ++i) {
+                int prefix = layer[i];
+                for (int e = 0; e < n; ++e) {
+                    int bit = 1 << e;
+                    if ((prefix & bit) != 0)
+                        continue;
+                    if (prefix != 0 && (g.edgeTables[e] & tablesOf[prefix]) == 0)
+                        continue;
+                    int s = prefix | bit;
+                    boolean seen = planCache.hasPlan(s);
+                    if (!computeCostAndCardOfSubplan(g, tablesOf[prefix],
+                                                     planCache.getCost(prefix), planCache.getCard(prefix),
+                                                     (prefix & pkeyJoins) != 0, e,
+                                                     seen ? planCache.getCost(s) : Double.MAX_VALUE, cc))
+                        continue;
+                    planCache.addPlan(s, cc.cost, cc.card, e, cc.swapped);
+                    if (!seen) {
+                        tablesOf[s] = tablesOf[prefix] | g.edgeTables[e];
+                        if (nextSize == next.length)
+                            next = Arrays.copyOf(next, nextSize * 2);
+                        next[nextSize++] = s;
+                    }
+                }
+            }
+            layer = next;
+            layerSize = nextSize;
+        }
+
+        int all = (1 << n) - 1;
+        Vector<LogicalJoinNode> order = planCache.getOrder(all);
+        if (explain && order != null) {
+            System.out.println("Join order: dynamic programming over " + n + " joins of "
+                               + g.numTables + " tables");
+            // cost and cardinality after each step of the plan
+            double[] costs = new double[n];
+            int[] cards = new int[n];
+            for (int i = n - 1, s = all; i >= 0; --i) {
+                costs[i] = planCache.getCost(s);
+                cards[i] = planCache.getCard(s);
+                s &= ~(1 << planCache.getLastJoin(s));
+            }
+            printJoins(order, costs, cards, stats, filterSelectivities);
+        }
+        return order;
+    }
+
+    /**
+     * Orders the joins heuristically.  A greedy order is built first, adding
+     * at each step the join that touches the tables joined so far and
+     * yields the fewest tuples.  It is then improved by iterated
+     * improvement: random moves (swapping two joins, or moving one join to
+     * another position) are applied and kept when they lower the cost of
+     * the order, and after too many moves without improvement the search
+     * restarts from a random order.  The search stops after the time limit
+     * (see {@link #setTimeLimit}) or a number of moves quadratic in the
+     * number of joins, whichever comes first.
+     */
+    private Vector<LogicalJoinNode> orderJoinsHeuristic(JoinGraph g,
+                                                        HashMap<String, TableStats> stats,
+                                                        HashMap<String, Double> filterSelectivities,
+                                                        boolean explain)
+    {
+        int n = joins.size();
+        int[] best = greedyOrder(g);
+        if (best == null)
+            return null; // the join graph is not connected
+        double greedyCost = costOfOrder(g, best, null, null, null);
+        double bestCost = greedyCost;
+
+        Random random = new Random(RANDOM_SEED);
+        long deadline = System.nanoTime() + timeLimitMillis * 1000000L;
+        long maxMoves = 100L * n * n;
+        int[] current = best.clone();
+        double currentCost = bestCost;
+        int[] candidate = new int[n];
+        long moves = 0;
+        int restarts = 0, sinceImprovement = 0;
+        while (n > 1 && moves < maxMoves && System.nanoTime() < deadline) {
+            moves++;
+            System.arraycopy(current, 0, candidate, 0, n);
+            int from = random.nextInt(n), to = random.nextInt(n - 1);
+            if (to >= from)
+                to++;
+            if (random.nextBoolean()) {
+                int tmp = candidate[from];
+                candidate[from] = candidate[to];
+                candidate[to] = tmp;
+            } else {
+                int moved = candidate[from];
+                if (from < to)
+                    System.arraycopy(candidate, from + 1, candidate, from, to - from);
+                else
+                    System.arraycopy(candidate, to, candidate, to + 1, from - to);
+                candidate[to] = moved;
+            }
+            double cost = costOfOrder(g, candidate, null, null, null);
+            if (cost < currentCost) {
+                int[] tmp = current;
+                current = candidate;
+                candidate = tmp;
+                currentCost = cost;
+                sinceImprovement = 0;
+                if (cost < bestCost) {
+                    best = current.clone();
+                    bestCost = cost;
+                }
+            } else if (++sinceImprovement > n * n) {
+                // local minimum; start again somewhere else
+                current = randomOrder(g, random);
+                currentCost = costOfOrder(g, current, null, null, null);
+                sinceImprovement = 0;
+                restarts++;
+                if (currentCost < bestCost) {
+                    best = current.clone();
+                    bestCost = currentCost;
+                }
+            }
+        }
 
-        if (stats.get(j.t1) == null)
-            throw new ParsingException("Unknown table " + j.t1);
-        if (stats.get(j.t2) == null)
-            throw new ParsingException("Unknown table " + j.t2);
+        double[] costs = new double[n];
+        int[] cards = new int[n];
+        boolean[] swapped = new boolean[n];
+        costOfOrder(g, best, costs, cards, swapped);
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        for (int i = 0; i < n; ++i)
+            order.add(swapped[i] ? g.swappedJoins[best[i]] : joins.get(best[i]));
+        if (explain) {
+            System.out.println("Join order: greedy + iterated improvement over " + n + " joins of "
+                               + g.numTables + " tables (" + moves + " moves, " + restarts
+                               + " restarts; cost " + greedyCost + " -> " + bestCost + ")");
+            printJoins(order, costs, cards, stats, filterSelectivities);
+        }
+        return order;
+    }
 
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet)joinSet).clone();
-        news.remove(j);
+    /**
+     * @return a greedy order of the joins (as join positions), or null if
+     *   the join graph is not connected
+     */
+    private int[] greedyOrder(JoinGraph g) {
+        int n = joins.size();
+        int[] order = new int[n];
+        boolean[] used = new boolean[n];
+        CostCard cc = new CostCard();
+        long tables = 0;
+        double cost = 0;
+        int card = 0;
+        boolean pkey = false;
+        for (int i = 0; i < n; ++i) {
+            int bestJoin = -1;
+            double bestCost = 0;
+            int bestCard = 0;
+            for (int e = 0; e < n; ++e) {
+                if (used[e] || (i > 0 && (g.edgeTables[e] & tables) == 0))
+                    continue;
+                computeCostAndCardOfSubplan(g, tables, cost, card, pkey, e, Double.MAX_VALUE, cc);
+                if (bestJoin < 0 || cc.card < bestCard || (cc.card == bestCard && cc.cost < bestCost)) {
+                    bestJoin = e;
+                    bestCost = cc.cost;
+                    bestCard = cc.card;
+                }
+            }
+            if (bestJoin < 0)
+                return null;
+            order[i] = bestJoin;
+            used[bestJoin] = true;
+            tables |= g.edgeTables[bestJoin];
+            cost = bestCost;
+            card = bestCard;
+            pkey |= g.leftPkey[bestJoin] || g.rightPkey[bestJoin];
+        }
+        return order;
+    }
 
-        double t1cost,t2cost;
-        int t1card,t2card;
-        boolean leftPkey, rightPkey;
+    /**
+     * @return a random order of the joins without cross products; the join
+     *   graph must be connected
+     */
+    private int[] randomOrder(JoinGraph g, Random random) {
+        int n = joins.size();
+        int[] order = new int[n];
+        boolean[] used = new boolean[n];
+        int[] candidates = new int[n];
+        long tables = 0;
+        for (int i = 0; i < n; ++i) {
+            int numCandidates = 0;
+            for (int e = 0; e < n; ++e)
+                if (!used[e] && (i == 0 || (g.edgeTables[e] & tables) != 0))
+                    candidates[numCandidates++] = e;
+            int e = candidates[random.nextInt(numCandidates)];
+            order[i] = e;
+            used[e] = true;
+            tables |= g.edgeTables[e];
+        }
+        return order;
+    }
 
-        if (news.isEmpty()) { //base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(j.t1).estimateScanCost();
-            t1card = stats.get(j.t1).estimateTableCardinality(filterSelectivities.get(j.t1));
-            leftPkey = isPkey(j.t1, j.f1);
+    /**
+     * Computes the cost of performing the joins in the given order, each
+     * join oriented the cheaper way.
+     *
+     * @param order join positions, in the order they are performed
+     * @param costs if not null, set to the cost after each join
+     * @param cards if not null, set to the cardinality after each join
+     * @param swapped if not null, set to whether each join has its inner
+     *   and outer swapped
+     * @return the cost of the order, or Double.MAX_VALUE if it has a cross product
+     */
+    private double costOfOrder(JoinGraph g, int[] order, double[] costs, int[] cards, boolean[] swapped) {
+        CostCard cc = new CostCard();
+        long tables = 0;
+        double cost = 0;
+        int card = 0;
+        boolean pkey = false;
+        for (int i = 0; i < order.length; ++i) {
+            int e = order[i];
+            if (i > 0 && (g.edgeTables[e] & tables) == 0)
+                return Double.MAX_VALUE;
+            computeCostAndCardOfSubplan(g, tables, cost, card, pkey, e, Double.MAX_VALUE, cc);
+            tables |= g.edgeTables[e];
+            cost = cc.cost;
+            card = cc.card;
+            pkey |= g.leftPkey[e] || g.rightPkey[e];
+            if (costs != null)
+                costs[i] = cost;
+            if (cards != null)
+                cards[i] = card;
+            if (swapped != null)
+                swapped[i] = cc.swapped;
+        }
+        return cost;
+    }
 
-            t2cost = j.t2==null?0:stats.get(j.t2).estimateScanCost();
-            t2card = j.t2==null?0:stats.get(j.t2).estimateTableCardinality(filterSelectivities.get(j.t2));
-            rightPkey = j.t2==null?false:isPkey(j.t2,j.f2);
-        } else {
-            //news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    /**
+     * Per-query information about the joins being ordered, indexed by join
+     * position: the tables each join touches (as a bitmask over the tables
+     * of the query) and the scan cost, cardinality and primary key flags of
+     * its two sides.
+     */
+    private class JoinGraph {
+        /** Most tables a join graph can have, one bit of a long each. */
+        static final int MAX_TABLES = 64;
+
+        int numTables;
+        long[] edgeTables;
+        int[] leftTable, rightTable;
+        boolean[] leftPkey, rightPkey;
+        double[] scanCost;
+        int[] scanCard;
+        LogicalJoinNode[] swappedJoins;
+        /** statistics of the joined columns, or null if there are none */
+        ColumnStats[] leftColumn, rightColumn;
+
+        JoinGraph(HashMap<String, TableStats> stats,
+                  HashMap<String, Double> filterSelectivities) throws ParsingException {
+            int n = joins.size();
+            HashMap<String, Integer> tableIds = new HashMap<String, Integer>();
+            Vector<String> tables = new Vector<String>();
+            edgeTables = new long[n];
+            leftTable = new int[n];
+            rightTable = new int[n];
+            leftPkey = new boolean[n];
+            rightPkey = new boolean[n];
+            swappedJoins = new LogicalJoinNode[n];
+            leftColumn = new ColumnStats[n];
+            rightColumn = new ColumnStats[n];
+            for (int e = 0; e < n; ++e) {
+                LogicalJoinNode j = joins.get(e);
+                if (stats.get(j.t1) == null)
+                    throw new ParsingException("Unknown table " + j.t1);
+                if (j.t2 != null && stats.get(j.t2) == null)
+                    throw new ParsingException("Unknown table " + j.t2);
+                leftTable[e] = tableId(j.t1, tableIds, tables);
+                leftPkey[e] = isPkey(j.t1, j.f1);
+                edgeTables[e] = 1L << leftTable[e];
+                if (j.t2 == null) {
+                    rightTable[e] = -1;
+                } else {
+                    rightTable[e] = tableId(j.t2, tableIds, tables);
+                    rightPkey[e] = isPkey(j.t2, j.f2);
+                    edgeTables[e] |= 1L << rightTable[e];
+                }
+                swappedJoins[e] = j.swapInnerOuter();
+                if (!(j instanceof LogicalSubplanJoinNode)) {
+                    leftColumn[e] = columnStats(stats, j.t1, j.f1);
+                    rightColumn[e] = columnStats(stats, j.t2, j.f2);
+                }
+            }
+            numTables = tables.size();
+            scanCost = new double[numTables];
+            scanCard = new int[numTables];
+            for (int t = 0; t < numTables; ++t) {
+                String name = tables.get(t);
+                scanCost[t] = stats.get(name).estimateScanCost();
+                scanCard[t] = stats.get(name).estimateTableCardinality(filterSelectivities.get(name));
+            }
+        }
 
-            //possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        private int tableId(String table, HashMap<String, Integer> tableIds, Vector<String> tables)
+            throws ParsingException {
+            Integer id = tableIds.get(table);
+            if (id == null) {
+                if (tables.size() == MAX_TABLES)
+                    throw new ParsingException("Too many tables to order joins over (at most "
+                                               + MAX_TABLES + ")");
+                id = tables.size();
+                tableIds.put(table, id);
+                tables.add(table);
             }
+            return id;
+        }
+    }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
+    /** This is a helper method that computes the cost and cardinality
+        of performing join e after a left-deep plan over prefixTables
+        (or as the first join, if prefixTables is empty).
+
+        @param g the per-query join information
+        @param prefixTables the tables joined by the plan performed
+               before join e; one of them must be joined by e
+        @param prefixCost the cost of that plan
+        @param prefixCard the cardinality of that plan
+        @param prefixPkey true if that plan joins a primary key
+        @param e the index of the join performed last
+        @param bestCostSoFar the best way to join prefix and e so
+               far (minimum of previous invocations of
+               computeCostAndCardOfSubplan for this set)
+        @param cc set to the cost and cardinality of the plan, and
+               to whether join e is performed with inner and outer swapped
+        @return true if the plan is cheaper than bestCostSoFar, in which
+                case cc has been filled in
+    */
+    private boolean computeCostAndCardOfSubplan(JoinGraph g,
+                                                long prefixTables,
+                                                double prefixCost,
+                                                int prefixCard,
+                                                boolean prefixPkey,
+                                                int e,
+                                                double bestCostSoFar,
+                                                CostCard cc)
+    {
+        LogicalJoinNode j = joins.get(e);
+        boolean swapped = false;
 
-            t1cost = prevBestCost;  //left side just has cost of whatever left subtree is
-            t1card = bestCard;
-            leftPkey = hasPkey(prevBest);
+        double t1cost,t2cost;
+        int t1card,t2card;
+        boolean leftPkey, rightPkey;
+        int right;
+
+        if (prefixTables == 0) { //base case -- both are base relations
+            t1cost = g.scanCost[g.leftTable[e]];
+            t1card = g.scanCard[g.leftTable[e]];
+            leftPkey = g.leftPkey[e];
+            right = g.rightTable[e];
+            rightPkey = g.rightPkey[e];
+        } else {
+            t1cost = prefixCost;  //left side just has cost of whatever left subtree is
+            t1card = prefixCard;
+            leftPkey = prefixPkey;
 
             //estimate cost of right subtree
-            if (doesJoin(prevBest,j.t1)) { //j.t1 is in prevBest
-                t2cost = j.t2 == null?0:stats.get(j.t2).estimateScanCost();
-                t2card = j.t2 == null?0:stats.get(j.t2).estimateTableCardinality(filterSelectivities.get(j.t2));
-                rightPkey = j.t2 == null?false:isPkey(j.t2,j.f2);
-            } else if (doesJoin(prevBest, j.t2)) { //j.t2 is in prevbest (both shouldn't be)
-                t2cost = stats.get(j.t1).estimateScanCost();
-                t2card = stats.get(j.t1).estimateTableCardinality(filterSelectivities.get(j.t1));
-                rightPkey = isPkey(j.t1,j.f1);
-                j = j.swapInnerOuter(); // BUG
-            } else {
-                //don't consider this plan if one of j.t1 or j.t2
-                //isn't a table joined in prevBest (cross product)
-                return null;
+            if ((prefixTables & (1L << g.leftTable[e])) != 0) { //j.t1 is in prefix
+                right = g.rightTable[e];
+                rightPkey = g.rightPkey[e];
+            } else { //j.t2 is in prefix (the callers skip cross products)
+                right = g.leftTable[e];
+                rightPkey = g.leftPkey[e];
+                swapped = true;
             }
         }
-                    
-        //case where prevbest is left
-        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost);
+        t2cost = right < 0 ? 0 : g.scanCost[right];
+        t2card = right < 0 ? 0 : g.scanCard[right];
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
+        //case where prefix is left
+        LogicalJoinNode j1 = swapped ? g.swappedJoins[e] : j;
+        double cost1 = estimateJoinCost(j1,t1card,t2card, t1cost,t2cost);
+
+        LogicalJoinNode j2 = swapped ? j : g.swappedJoins[e];
         double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost);
         if (cost2 < cost1) {
             boolean tmp;
-            j = j2;
+            j1 = j2;
             cost1 = cost2;
+            swapped = !swapped;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
         if (cost1 >= bestCostSoFar)
-            return null;
+            return false;
 
-        CostCard cc = new CostCard();
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey, rightPkey);
+        cc.card = estimateJoinCardinality(j1, t1card, t2card, leftPkey, rightPkey,
+                                          swapped ? g.rightColumn[e] : g.leftColumn[e],
+                                          swapped ? g.leftColumn[e] : g.rightColumn[e]);
         cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>)prevBest.clone();
-        cc.plan.addElement(j);  //prevbest is left -- add new join to end
-        return cc;
+        cc.swapped = swapped;
+        return true;
     } 
 
-    /** Return true if the specified table is in the list of joins, false otherwise */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1.equals(table) || (j.t2!=null && j.t2.equals(table)))
-                return true;
-        }
-        return false;
-    }
-
     /** Return true if field is a primary key of the specified table, false otherwise */
     private boolean isPkey(String table, String field) {
         int tid1 = p.getTableId(table);
@@ -336,29 +717,21 @@ public class JoinOptimizer {
         return (pkey1.equals(field) || (table + "." + pkey1).equals(field));
     }
 
-    /** Return true if a primary key field is joined by one of the joins in joinlist */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j: joinlist) {
-            if (isPkey(j.t1, j.f1) || (j.t2!=null && isPkey(j.t2, j.f2))) return true;
-        }
-        return false;
-        
-    }
-    
     /** Helper function to display a Swing window with a tree representation of the
         specified list of joins.  See {@link #orderJoins}, which may want to call this
         when the analyze flag is true.
 
         @param js the join plan to visualize
-        @param pc the PlanCache accumulated whild building the optimal
-               plan
+        @param costs the cost of the plan after each join of js
+        @param cards the cardinality of the plan after each join of js
         @param stats table statistics for base tables
         @param selectivities the selectivities of the filters over each
                 of the tables (where tables are indentified by their
                 alias or name if no alias is given)
     */
     private void printJoins(Vector<LogicalJoinNode> js, 
-                           PlanCache pc,
+                           double[] costs,
+                           int[] cards,
                            HashMap<String, TableStats> stats,
                            HashMap<String,Double> selectivities ) {
 
@@ -378,19 +751,17 @@ public class JoinOptimizer {
         
         int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
         boolean neither;
 
         System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+        for (int i = 0; i < js.size(); ++i) {
+            LogicalJoinNode j = js.get(i);
+            System.out.println("PATH SO FAR = " + js.subList(0, i + 1));
 
-            Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost =" + pc.getCost(pathSoFar) + 
-                                              ", card = " + pc.getCard(pathSoFar)+ ")");
+            root = new DefaultMutableTreeNode("Join " + j + " (Cost =" + costs[i] + 
+                                              ", card = " + cards[i]+ ")");
             DefaultMutableTreeNode n = m.get(j.t1);
             if (n == null) {  //never seen this table before
                 n  = new DefaultMutableTreeNode(j.t1 + " (Cost = " + stats.get(j.t1).estimateScanCost()+ ", card = " +
@@ -3,6 +3,11 @@ package simpledb;
 /**
  * JoinPredicate compares fields of two tuples using a predicate.
  * JoinPredicate is most likely used by the Join operator.
+ * <p>
+ * Like {@link Predicate}, comparisons of int fields are compiled into a
+ * matcher for the operator; since the field types are only known from the
+ * tuples, this happens when the first pair is filtered.  String fields are
+ * compared through {@link Field#compare}.
  */
 public class JoinPredicate {
 
@@ -18,6 +23,7 @@ public class JoinPredicate {
      */
     private int field1, field2;
     private Predicate.Op op;
+    private Matcher matcher;
     public JoinPredicate(int field1, Predicate.Op op, int field2) {
         this.field1 = field1;
         this.field2 = field2;
@@ -30,6 +36,107 @@ public class JoinPredicate {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
-        return t1.getField(field1).compare(op, t2.getField(field2));
+        if (matcher == null)
+            matcher = compile(t1.getField(field1));
+        return matcher.matches(t1, t2);
+    }
+
+    /**
+     * Apply the predicate to two rows of batches, without building tuples.
+     * @return true if the rows satisfy the predicate.
+     */
+    public boolean filter(RowBuffer r1, RowBuffer r2) {
+        int c;
+        if (r1.getTupleDesc().getType(field1) == Type.INT_TYPE) {
+            int v1 = r1.getInt(field1), v2 = r2.getInt(field2);
+            c = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+        } else if (op == Predicate.Op.LIKE) {
+            return r1.containsString(field1, r2, field2);
+        } else {
+            c = r1.compareString(field1, r2, field2);
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return c == 0;
+        case NOT_EQUALS:
+            return c != 0;
+        case GREATER_THAN:
+            return c > 0;
+        case GREATER_THAN_OR_EQ:
+            return c >= 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQ:
+            return c <= 0;
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    /** @return the field of the first tuple the predicate compares */
+    public int getField1() {
+        return field1;
+    }
+
+    /** @return the field of the second tuple the predicate compares */
+    public int getField2() {
+        return field2;
+    }
+
+    /** @return the operator of the predicate */
+    public Predicate.Op getOperator() {
+        return op;
+    }
+
+    /** A test of pairs of tuples, specialized to an operator and field type. */
+    abstract static class Matcher {
+        abstract boolean matches(Tuple t1, Tuple t2);
+    }
+
+    private int left(Tuple t) {
+        return ((IntField) t.getField(field1)).getValue();
+    }
+
+    private int right(Tuple t) {
+        return ((IntField) t.getField(field2)).getValue();
+    }
+
+    /** @return a matcher for the type of the field f of the left tuples */
+    private Matcher compile(Field f) {
+        if (!(f instanceof IntField)) {
+            return new Matcher() {
+                boolean matches(Tuple t1, Tuple t2) {
+                    return t1.getField(field1).compare(op, t2.getField(field2));
+                }
+            };
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new Matcher() {
+                boolean matches(Tuple t1, Tuple t2) { return left(t1) == right(t2); }
+            };
+        case NOT_EQUALS:
+            return new Matcher() {
+                boolean matches(Tuple t1, Tuple t2) { return left(t1) != right(t2); }
+            };
+        case GREATER_THAN:
+            return new Matcher() {
+                boolean matches(Tuple t1, Tuple t2) { return left(t1) > right(t2); }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new Matcher() {
+                boolean matches(Tuple t1, Tuple t2) { return left(t1) >= right(t2); }
+            };
+        case LESS_THAN:
+            return new Matcher() {
+                boolean matches(Tuple t1, Tuple t2) { return left(t1) < right(t2); }
+            };
+        case LESS_THAN_OR_EQ:
+            return new Matcher() {
+                boolean matches(Tuple t1, Tuple t2) { return left(t1) <= right(t2); }
+            };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
     }
 }
@@ -12,11 +12,17 @@ public class LockManager {
     Map<PageId, TpLock> pageToLocks;
     Map<TransactionId, Set<TransactionId>> preGraph;
     Map<TransactionId, Set<PageId>> pagesHeldByTid;
+    /** the number of lock requests in progress on the pages of each table */
+    Map<Integer, Integer> requestsByTable;
+    /** the tables being dropped, whose pages can't be locked */
+    Set<Integer> fencedTables;
 
     public LockManager() {
         pageToLocks = new HashMap<PageId, TpLock>();
         preGraph = new HashMap<TransactionId, Set<TransactionId>>();
         pagesHeldByTid = new HashMap<TransactionId, Set<PageId>>();
+        requestsByTable = new HashMap<Integer, Integer>();
+        fencedTables = new HashSet<Integer>();
     }
 
     public void acquireReadLock(TransactionId tid, PageId pid)
@@ -26,6 +32,8 @@ public class LockManager {
         synchronized (this) {
             lock = getOrCreateLock(pid);
             if (lock.heldBy(tid)) return;
+            if (fencedTables.contains(pid.getTableId()))
+                throw new TransactionAbortedException();
             if (!lock.holders().isEmpty() && lock.isExclusive()) {
                 preGraph.put(tid, lock.holders());
                 if (hasDeadLock(tid)) {
@@ -33,11 +41,13 @@ public class LockManager {
                     throw new TransactionAbortedException();
                 }
             }
+            countRequest(pid, 1);
         }
         lock.readLock(tid);
         synchronized (this) {
             preGraph.remove(tid);
             getOrCreatePagesHeld(tid).add(pid);
+            countRequest(pid, -1);
         }
     }
 
@@ -49,16 +59,60 @@ public class LockManager {
             lock = getOrCreateLock(pid);
             if (lock.isExclusive() && lock.heldBy(tid))
                 return;
+            if (fencedTables.contains(pid.getTableId()))
+                throw new TransactionAbortedException();
             preGraph.put(tid, lock.holders());
             if (hasDeadLock(tid)) {
                 preGraph.remove(tid);
                 throw new TransactionAbortedException();
             }
+            countRequest(pid, 1);
         }
         lock.writeLock(tid);
         synchronized (this) {
             preGraph.remove(tid);
             getOrCreatePagesHeld(tid).add(pid);
+            countRequest(pid, -1);
+        }
+    }
+
+    private void countRequest(PageId pid, int delta) {
+        Integer n = requestsByTable.get(pid.getTableId());
+        n = (n == null ? 0 : n) + delta;
+        if (n == 0)
+            requestsByTable.remove(pid.getTableId());
+        else
+            requestsByTable.put(pid.getTableId(), n);
+    }
+
+    /**
+     * Stops the pages of a table from being locked, so that it can be
+     * dropped: requests for their locks then abort their transactions.
+     * A table can't be fenced while a transaction holds a lock on one of
+     * its pages or is waiting for one.
+     *
+     * @return true if the table was fenced
+     */
+    public synchronized boolean fenceTable(int tableId) {
+        if (requestsByTable.containsKey(tableId))
+            return false;
+        for (Map.Entry<PageId, TpLock> e : pageToLocks.entrySet())
+            if (e.getKey().getTableId() == tableId && !e.getValue().holders().isEmpty())
+                return false;
+        fencedTables.add(tableId);
+        return true;
+    }
+
+    /**
+     * Lets the pages of a table fenced by {@link #fenceTable} be locked
+     * again, forgetting their locks, which nobody holds.
+     */
+    public synchronized void unfenceTable(int tableId) {
+        fencedTables.remove(tableId);
+        for (Iterator<Map.Entry<PageId, TpLock>> it = pageToLocks.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<PageId, TpLock> e = it.next();
+            if (e.getKey().getTableId() == tableId && e.getValue().holders().isEmpty())
+                it.remove();
         }
     }
 
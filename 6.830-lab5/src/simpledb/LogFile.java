@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and CATALOG
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +67,13 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> CATALOG records describe a table created or dropped while the
+database runs (see {@link Catalog#createTable}).  They have no
+transaction id (-1), and consist of an integer change (CREATE_TABLE or
+DROP_TABLE), the path of the schema file changed, the integer id of the
+table and, for CREATE_TABLE, its description, or for DROP_TABLE, its
+name.  Recovery redoes the changes that did not reach the schema file.
+
 </ul>
 
 */
@@ -82,6 +89,10 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CATALOG_RECORD = 6;
+    /** The changes a CATALOG record may describe. */
+    static final int CREATE_TABLE = 1;
+    static final int DROP_TABLE = 2;
     static final long NO_CHECKPOINT_ID = -1;
 
     static int INT_SIZE = 4;
@@ -220,6 +231,30 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a CATALOG record to disk for a table created or dropped,
+        and force the log to disk.  The caller must hold the lock of
+        this LogFile until the change has been written to the schema
+        file, so that no checkpoint comes between the two.
+
+        @param change CREATE_TABLE or DROP_TABLE
+        @param schema The schema file the table is created in or dropped from
+        @param tableId The id of the table
+        @param text The description of a table created, or the name of a table dropped
+    */
+    public synchronized void logCatalogChange(int change, File schema, int tableId, String text)
+        throws IOException {
+        preAppend();
+        raf.writeInt(CATALOG_RECORD);
+        raf.writeLong(-1);
+        raf.writeInt(change);
+        raf.writeUTF(schema.getAbsolutePath());
+        raf.writeInt(tableId);
+        raf.writeUTF(text);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -248,6 +283,42 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    /** Reads the id of the page written at the current position of the
+        log by writePageData, leaving the position where it was.
+    */
+    PageId peekPageId(RandomAccessFile raf) throws IOException {
+        long start = raf.getFilePointer();
+        raf.readUTF();
+        PageId pid = readPageId(raf, raf.readUTF());
+        raf.seek(start);
+        return pid;
+    }
+
+    private PageId readPageId(RandomAccessFile raf, String idClassName) throws IOException {
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
+            int numIdArgs = raf.readInt();
+            Object idArgs[] = new Object[numIdArgs];
+            for (int i = 0; i<numIdArgs;i++) {
+                idArgs[i] = new Integer(raf.readInt());
+            }
+            return (PageId)idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException e){
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
@@ -256,16 +327,9 @@ public class LogFile {
         String idClassName = raf.readUTF();
 
         try {
-            Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            pid = readPageId(raf, idClassName);
 
             Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
@@ -277,7 +341,12 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            // pages are built by their (PageId, byte[]) constructor
+            Constructor<?> pageConst = pageConsts[0];
+            for (Constructor<?> c : pageConsts)
+                if (c.getParameterTypes().length == 2)
+                    pageConst = c;
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -431,6 +500,12 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case CATALOG_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeUTF(raf.readUTF());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeUTF(raf.readUTF());
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -479,8 +554,14 @@ public class LogFile {
                     int recordType = raf.readInt();
                     long transactionId = raf.readLong();
                     if (recordType == UPDATE_RECORD && transactionId == tid.getId()) {
+                        // a page can only be read while its table exists
+                        DbFile dbFile;
+                        try {
+                            dbFile = Database.getCatalog().getDbFile(peekPageId(raf).getTableId());
+                        } catch (NoSuchElementException e) {
+                            continue;   // the table has been dropped
+                        }
                         Page page = readPageData(raf);
-                        DbFile dbFile = Database.getCatalog().getDbFile(page.getId().getTableId());
                         dbFile.writePage(page);
                         Database.getBufferPool().discardPage(page.getId());
                     }
@@ -518,6 +599,7 @@ public class LogFile {
                 long firstRecord;
                 long recordTid;
                 Set<Long> completedTids = new HashSet<Long>();
+                LinkedList<Object[]> catalogChanges = new LinkedList<Object[]>();
                 while (lastCheckPoint != offset) {
                     raf.seek(offset - LONG_SIZE);
                     offset = raf.readLong();
@@ -545,11 +627,21 @@ public class LogFile {
                                     tidToFirstLogRecord.put(recordTid, firstRecord);
                             }
                             break;
+                        case CATALOG_RECORD:
+                            raf.readLong();
+                            catalogChanges.addFirst(new Object[] {
+                                raf.readInt(), raf.readUTF(), raf.readInt(), raf.readUTF()
+                            });
+                            break;
                     }
                 }
                 currentOffset = raf.length();
                 for (Object tid : tidToFirstLogRecord.keySet().toArray())
                     logAbort(TransactionId.make((Long) tid));
+                // redo, in order, the catalog changes that may not have
+                // reached the schema file
+                for (Object[] c : catalogChanges)
+                    Database.getCatalog().replay((Integer) c[0], (String) c[1], (Integer) c[2], (String) c[3]);
             }
         }
     }
@@ -598,6 +690,16 @@ public class LogFile {
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                     break;
+                case CATALOG_RECORD:
+                    System.out.println(" (CATALOG)");
+                    int change = raf.readInt();
+                    String schema = raf.readUTF();
+                    int tableId = raf.readInt();
+                    System.out.println((change == CREATE_TABLE ? " CREATE TABLE " : " DROP TABLE ")
+                                       + raf.readUTF() + " (table id " + tableId + ", schema " + schema + ")");
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    break;
+
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.List;
 
 import java.awt.*;
 
@@ -41,6 +42,8 @@ public  class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    /** true if joins are already in the order they should be performed */
+    private boolean joinsOrdered = false;
 
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
@@ -202,6 +205,82 @@ public  class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** @return the ids of the tables scanned by this plan, one for each alias */
+    ArrayList<Integer> getTableIds() {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (LogicalScanNode table : tables)
+            ids.add(table.t);
+        return ids;
+    }
+
+    /** @return the joins of this plan, in the order chosen when it was last planned */
+    Vector<LogicalJoinNode> getJoins() {
+        return joins;
+    }
+
+    /** @return true if one of the joins of this plan is with a subquery */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins)
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        return false;
+    }
+
+    /** @return the filter constant that refers to the k-th parameter given to {@link #bind} */
+    static String parameter(int k) {
+        return "?" + k;
+    }
+
+    /**
+     * Returns a copy of this plan in which every filter constant made by
+     * {@link #parameter} is replaced by the value of that parameter.  The
+     * copy can be planned once, like a plan built by the parser.
+     *
+     * @param values the values of the parameters
+     * @param joinOrder the joins of this plan in the order the copy should
+     *   perform them, as returned by {@link #getJoins} after a copy has been
+     *   planned; or null to have the join optimizer order them
+     * @throws ParsingException if a parameter has no value
+     */
+    LogicalPlan bind(List<String> values, Vector<LogicalJoinNode> joinOrder) throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        for (LogicalFilterNode lf : filters) {
+            String c = lf.c;
+            int k = parameterIndex(c);
+            if (k >= 0) {
+                if (k >= values.size() || values.get(k) == null)
+                    throw new ParsingException("No value given for parameter " + (k + 1));
+                c = values.get(k);
+            }
+            lp.filters.addElement(new LogicalFilterNode(lf.t, lf.f, lf.p, c));
+        }
+        lp.joins.addAll(joinOrder != null ? joinOrder : joins);
+        lp.joinsOrdered = joinOrder != null;
+        lp.tables.addAll(tables);
+        lp.tableMap.putAll(tableMap);
+        lp.selectList.addAll(selectList);
+        lp.groupByField = groupByField;
+        lp.hasAgg = hasAgg;
+        lp.aggOp = aggOp;
+        lp.aggField = aggField;
+        lp.oByAsc = oByAsc;
+        lp.hasOrderBy = hasOrderBy;
+        lp.oByField = oByField;
+        lp.query = query;
+        return lp;
+    }
+
+    /** @return the index of the parameter a filter constant refers to, or -1 */
+    private static int parameterIndex(String c) {
+        if (c.length() < 2 || c.charAt(0) != '?')
+            return -1;
+        try {
+            return Integer.parseInt(c.substring(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form table.name.  If the name parameter is already qualified
@@ -274,6 +353,7 @@ public  class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,Vector<Predicate>> tableFilters = new HashMap<String,Vector<Predicate>>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -308,10 +388,11 @@ public  class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.f);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.fromString(lf.c);
+            } catch (IllegalArgumentException e) {
+                throw new ParsingException("Constant " + lf.c + " is not a value of " + ftyp);
+            }
 
             Predicate p = null;
             try {
@@ -319,19 +400,28 @@ public  class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.f);
             }
-            subplanMap.put(lf.t, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(lf.t);
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().nameToId(disambiguateName(lf.f)), lf.p, f);
-            filterSelectivities.put(lf.t, filterSelectivities.get(lf.t) * sel);
+            if (tableFilters.get(lf.t) == null)
+                tableFilters.put(lf.t, new Vector<Predicate>());
+            tableFilters.get(lf.t).add(p);
+        }
 
-            //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
+        // the filters of a table are pushed into its scan, which tests them
+        // before building tuples, and are estimated together, so that those
+        // over correlated columns are not taken to be independent
+        for (java.util.Map.Entry<String, Vector<Predicate>> e : tableFilters.entrySet()) {
+            SeqScan ss = (SeqScan) subplanMap.get(e.getKey());
+            subplanMap.put(e.getKey(), new SeqScan(t, ss.getDbFile().getId(), e.getKey(), e.getValue()));
+
+            double sel = statsMap.get(e.getKey()).estimateSelectivity(e.getValue());
+            filterSelectivities.put(e.getKey(), sel);
+            if (explain)
+                System.out.println("Filter selectivity of " + e.getKey() + ": " + sel);
         }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!joinsOrdered)
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -407,7 +497,11 @@ public  class LogicalPlan {
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                try {
+                    outTypes.add(Aggregate.resultType(getAggOp(si.aggOp), td.getType(id)));
+                } catch (IllegalArgumentException e) {
+                    throw new ParsingException(e);
+                }
 
             } else if (hasAgg) {
                     if (groupByField == null) {
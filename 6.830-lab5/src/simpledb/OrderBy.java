@@ -1,16 +1,48 @@
 package simpledb;
+import java.io.*;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * If the child fits in the memory budget it is sorted in memory.
+ * Otherwise OrderBy performs an external merge sort: the child is read in
+ * budget-sized runs which are sorted and written to {@link SpillFile}s, and
+ * the runs are then merged, at most {@link #MERGE_FAN_IN} at a time.  Runs
+ * sorted on an int field are sorted as packed <code>long</code> keys rather
+ * than with a Comparator.
+ * <p>
+ * When only the first N tuples of the ordering are needed, OrderBy keeps
+ * them in a bounded heap while reading the child and never spills.
+ * <p>
+ * The sort is stable: tuples with equal sort keys are returned in the order
+ * the child produced them.
  */
 public class OrderBy extends AbstractDbIterator {
+
+    /** Pass as the limit to return every tuple. */
+    public static final int NO_LIMIT = -1;
+
+    /** Memory budget used unless one is set explicitly: 16 MB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+
+    /** Maximum number of runs merged in one pass. */
+    public static final int MERGE_FAN_IN = 64;
+
     DbIterator child;
     TupleDesc td;
     ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     int orderByField;
     Iterator<Tuple> it;
     boolean asc;
+    int limit;
+    long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private Comparator<Tuple> comparator;
+
+    /** Sorted runs on disk, if the child did not fit in memory. */
+    private List<SpillFile> runs;
+    private RunMerger merger;
+    private int returned;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -20,32 +52,264 @@ public class OrderBy extends AbstractDbIterator {
      * @param child the tuples to sort.
      */
     public OrderBy(int orderbyField,  boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first limit tuples of
+     * the ordering.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc true if the sort order is ascending.
+     * @param child the tuples to sort.
+     * @param limit the number of tuples to return, or NO_LIMIT
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit) {
         this.child = child;
         td= child.getTupleDesc();
         this.orderByField = orderbyField;
         this.asc = asc;
+        this.limit = limit;
+        comparator = new TupleComparator(orderbyField, asc);
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * Sets approximately how many bytes of tuples this operator may hold in
+     * memory while sorting.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        memoryBudget = bytes;
+    }
+
+    /** @return the number of tuples that fit in the memory budget */
+    int runCapacity() {
+        // Tuple + Field[] + one object per field on top of the serialized size
+        long perTuple = 32 + td.getSize() + 32L * td.numFields();
+        return (int) Math.max(2, Math.min(Integer.MAX_VALUE - 8, memoryBudget / perTuple));
+    }
+
+    /** @return true if the last open() had to write sorted runs to disk */
+    public boolean isExternal() {
+        return runs != null;
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
+        deleteRuns();
+        childTups = new ArrayList<Tuple>();
         child.open();
-        //load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple)child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        int capacity = runCapacity();
+        if (limit >= 0 && limit <= capacity)
+            topN();
+        else
+            sortRuns(capacity);
+        child.close();
+        rewind();
+    }
+
+    /** Keeps the first limit tuples of the ordering in a bounded max-heap. */
+    private void topN() throws DbException, TransactionAbortedException {
+        if (limit == 0)
+            return;
+        // heap of (tuple, arrival) ordered so that the head is the entry to drop next
+        Comparator<Object[]> worstFirst = new Comparator<Object[]>() {
+            public int compare(Object[] a, Object[] b) {
+                int c = comparator.compare((Tuple) b[0], (Tuple) a[0]);
+                if (c != 0)
+                    return c;
+                return ((Long) b[1]).compareTo((Long) a[1]);
+            }
+        };
+        PriorityQueue<Object[]> heap = new PriorityQueue<Object[]>(limit, worstFirst);
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Object[] {t, seq++});
+            } else if (comparator.compare(t, (Tuple) heap.peek()[0]) < 0) {
+                heap.poll();
+                heap.add(new Object[] {t, seq++});
+            }
+        }
+        Object[][] entries = heap.toArray(new Object[0][]);
+        Arrays.sort(entries, Collections.reverseOrder(worstFirst));
+        for (Object[] e : entries)
+            childTups.add((Tuple) e[0]);
+    }
+
+    /**
+     * Reads the child in runs of at most capacity tuples.  If everything
+     * fits in one run, the sorted run stays in childTups; otherwise each
+     * sorted run is written to its own spill file.
+     */
+    private void sortRuns(int capacity) throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> run = new ArrayList<Tuple>();
+        while (true) {
+            while (run.size() < capacity && child.hasNext())
+                run.add(child.next());
+            boolean more = child.hasNext();
+            sort(run);
+            if (!more && runs == null) {
+                childTups = run;
+                return;
+            }
+            if (runs == null)
+                runs = new ArrayList<SpillFile>();
+            if (!run.isEmpty())
+                runs.add(writeRun(run));
+            run.clear();
+            if (!more)
+                break;
+        }
+        try {
+            while (runs.size() > MERGE_FAN_IN) {
+                List<SpillFile> merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                    List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN));
+                    SpillFile out = new SpillFile("sort");
+                    RunMerger m = new RunMerger(group);
+                    Tuple t;
+                    while ((t = m.next()) != null)
+                        out.writeTuple(t);
+                    m.close();
+                    out.finish();
+                    for (SpillFile f : group)
+                        f.delete();
+                    merged.add(out);
+                }
+                runs = merged;
+            }
+        } catch (IOException e) {
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sorts a run in place.  Runs ordered by an int field are sorted as
+     * (key, position) pairs packed into longs, which avoids comparator calls
+     * and keeps the sort stable.
+     */
+    private void sort(ArrayList<Tuple> run) {
+        if (td.getType(orderByField) != Type.INT_TYPE) {
+            Collections.sort(run, comparator);
+            return;
+        }
+        int n = run.size();
+        long[] keys = new long[n];
+        for (int i = 0; i < n; ++i) {
+            int v = ((IntField) run.get(i).getField(orderByField)).getValue();
+            // ~v reverses the order of ints exactly, for descending sorts
+            keys[i] = ((long) (asc ? v : ~v) << 32) | i;
+        }
+        Arrays.sort(keys);
+        Tuple[] sorted = new Tuple[n];
+        for (int i = 0; i < n; ++i)
+            sorted[i] = run.get((int) keys[i]);
+        for (int i = 0; i < n; ++i)
+            run.set(i, sorted[i]);
+    }
+
+    private SpillFile writeRun(List<Tuple> run) throws DbException {
+        try {
+            SpillFile f = new SpillFile("sort");
+            for (Tuple t : run)
+                f.writeTuple(t);
+            f.finish();
+            return f;
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs.  Ties are broken by run number, which keeps
+     * the merge stable since earlier runs hold earlier input.
+     */
+    private class RunMerger {
+        private DataInputStream[] inputs;
+        private long[] remaining;
+        private PriorityQueue<Object[]> heads;
+
+        RunMerger(List<SpillFile> files) throws IOException {
+            inputs = new DataInputStream[files.size()];
+            remaining = new long[files.size()];
+            heads = new PriorityQueue<Object[]>(Math.max(1, files.size()), new Comparator<Object[]>() {
+                public int compare(Object[] a, Object[] b) {
+                    int c = comparator.compare((Tuple) a[0], (Tuple) b[0]);
+                    if (c != 0)
+                        return c;
+                    return ((Integer) a[1]).compareTo((Integer) b[1]);
+                }
+            });
+            for (int i = 0; i < inputs.length; ++i) {
+                inputs[i] = files.get(i).openInput();
+                remaining[i] = files.get(i).numRecords();
+                advance(i);
+            }
+        }
+
+        private void advance(int i) throws IOException {
+            if (remaining[i] > 0) {
+                remaining[i]--;
+                heads.add(new Object[] {SpillFile.readTuple(inputs[i], td), i});
+            }
+        }
+
+        /** @return the next tuple of the merged runs, or null at the end */
+        Tuple next() throws IOException {
+            Object[] head = heads.poll();
+            if (head == null)
+                return null;
+            advance((Integer) head[1]);
+            return (Tuple) head[0];
+        }
+
+        void close() {
+            for (DataInputStream in : inputs) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void deleteRuns() {
+        if (merger != null)
+            merger.close();
+        merger = null;
+        if (runs != null)
+            for (SpillFile f : runs)
+                f.delete();
+        runs = null;
     }
 
     public void close() {
+        super.close();
         it = null;
+        deleteRuns();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        returned = 0;
+        if (runs == null) {
+            it = childTups.iterator();
+            return;
+        }
+        if (merger != null)
+            merger.close();
+        try {
+            merger = new RunMerger(runs);
+        } catch (IOException e) {
+            throw new DbException("could not read sort runs: " + e.getMessage());
+        }
     }
 
     /**
@@ -56,10 +320,21 @@ public class OrderBy extends AbstractDbIterator {
      */
     protected Tuple readNext()
         throws NoSuchElementException, TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (limit >= 0 && returned >= limit)
             return null;
+        Tuple next = null;
+        if (merger != null) {
+            try {
+                next = merger.next();
+            } catch (IOException e) {
+                throw new DbException("could not read sort runs: " + e.getMessage());
+            }
+        } else if (it != null && it.hasNext()) {
+            next = it.next();
+        }
+        if (next != null)
+            returned++;
+        return next;
     }
 }
 
@@ -72,15 +347,21 @@ public class OrderBy extends AbstractDbIterator {
      this.asc = asc;
      }
 
+     /** Compares the values directly by type, rather than through Field.compare. */
      public int compare(Tuple o1, Tuple o2) {
          Field t1 = (o1).getField(field);
          Field t2 = (o2).getField(field);
-         if (t1.compare(Predicate.Op.EQUALS, t2))
-             return 0;
-         if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-             return asc?1:-1;
-         else
-             return asc?-1:1;
+         int c;
+         if (t1 instanceof IntField) {
+             int v1 = ((IntField) t1).getValue();
+             int v2 = ((IntField) t2).getValue();
+             c = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+         } else if (t1 instanceof StringField) {
+             c = ((StringField) t1).getValue().compareTo(((StringField) t2).getValue());
+         } else {
+             c = ColumnStats.VALUE_ORDER.compare(t1, t2);
+         }
+         return asc ? c : -c;
      }
 
 }
@@ -3,6 +3,8 @@ package simpledb;
 import Zql.*;
 import java.io.*;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,10 +14,33 @@ public class Parser {
     static boolean explain = false;
      static HashMap<String, TableStats> statsMap = new HashMap<String,TableStats>();
     private static final int IOCOSTPERPAGE = 1000;
+    static StatementCache statementCache = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+    /** cache of query results, or null if results are not cached */
+    static ResultCache resultCache = null;
+    /** statements prepared with PREPARE, by name */
+    static HashMap<String, StatementCache.Statement> preparedStatements = new HashMap<String, StatementCache.Statement>();
     
     public static void setStatsMap(HashMap<String, TableStats> _statsMap) {
     	statsMap = _statsMap;
     }
+
+    /** @return the cache of query plans used for SELECT and EXECUTE statements, with its hit rate */
+    public static StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Sets the cache that the results of SELECT and EXECUTE statements are
+     * answered from and added to, or turns caching results off if it is null.
+     */
+    public static void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+
+    /** @return the cache of query results, or null if results are not cached */
+    public static ResultCache getResultCache() {
+        return resultCache;
+    }
     
     static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("=")) return Predicate.Op.EQUALS;
@@ -230,9 +255,81 @@ public class Parser {
 
     public static void handleQueryStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
         // and run it
-        DbIterator node;
-        node = parseQuery(curtrans.getId(), s);
+        runQuery(parseQuery(curtrans.getId(), s));
+    }
 
+    /**
+     * Runs a query through the {@link StatementCache}, which plans it from
+     * the cached plan of a query that differed only in its constants if
+     * there is one.  If results are cached, the query is answered from the
+     * {@link ResultCache} if it can be, and its result added to it otherwise.
+     */
+    public static void handleCachedQuery(StatementCache.Statement s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException {
+        runQuery(planCachedQuery(curtrans.getId(), s));
+        if (explain) {
+            System.out.println("Statement cache: " + statementCache);
+            if (resultCache != null)
+                System.out.println("Result cache: " + resultCache);
+        }
+    }
+
+    /**
+     * Answers a query from the result cache, or plans it through the
+     * statement cache.  A cached result is looked up without holding the
+     * planning lock, since the locks it takes may wait for other sessions.
+     */
+    private static DbIterator planCachedQuery(TransactionId tid, StatementCache.Statement s)
+        throws TransactionAbortedException, simpledb.ParsingException {
+        ResultCache cache = resultCache;
+        boolean cacheResult = cache != null && s.numParameters() == 0;
+        DbIterator node = cacheResult ? cache.get(tid, s) : null;
+        if (node != null)
+            return node;
+        synchronized (Parser.class) {
+            node = statementCache.plan(tid, s, statsMap, explain);
+        }
+        return cacheResult ? cache.record(s, node) : node;
+    }
+
+    /**
+     * Plans a SELECT, INSERT or DELETE statement to run in a transaction,
+     * without running it: the plan of a query returns its rows, and that of
+     * an INSERT or DELETE the number of rows it changed.  Statements may be
+     * planned by many threads, one at a time, and their plans run at once.
+     *
+     * @throws simpledb.ParsingException if the statement is not a valid
+     *   SELECT, INSERT or DELETE
+     * @throws DbException if the rows of an INSERT don't fit its table
+     */
+    public static DbIterator planStatement(TransactionId tid, String sql) throws DbException, IOException, TransactionAbortedException, simpledb.ParsingException {
+        StatementCache.Statement query = StatementCache.normalize(sql);
+        if (query.isCacheable())
+            return planCachedQuery(tid, query);
+        ZStatement s;
+        try {
+            s = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8"))).readStatement();
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        } catch (Zql.TokenMgrError e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        }
+        synchronized (Parser.class) {
+            try {
+                if (s instanceof ZInsert)
+                    return planInsert(tid, (ZInsert) s);
+                if (s instanceof ZDelete)
+                    return planDelete(tid, (ZDelete) s);
+                if (s instanceof ZQuery)
+                    return parseQuery(tid, (ZQuery) s);
+            } catch (Zql.ParseException e) {
+                throw new simpledb.ParsingException(e.getMessage());
+            }
+        }
+        throw new simpledb.ParsingException("Only SELECT, INSERT and DELETE statements can be planned: " + sql);
+    }
+
+    /** Runs a planned query in the current transaction and prints its results */
+    private static void runQuery(DbIterator node) throws TransactionAbortedException, DbException, IOException {
         Query sdbq = new Query(node, curtrans.getId());
         TupleDesc td = node.getTupleDesc();
 
@@ -258,6 +355,19 @@ public class Parser {
     }
 
     public static void handleInsertStatement(ZInsert s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
+        Query sdbq = new Query(planInsert(curtrans.getId(), s), curtrans.getId());
+        // XXX print field names
+        sdbq.start();
+        System.out.print("Inserted ");
+        while (sdbq.hasNext()) {
+            Tuple tup = sdbq.next();
+            System.out.println(tup);
+        }
+        sdbq.close();
+
+    }
+
+    private static DbIterator planInsert(TransactionId tid, ZInsert s) throws DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); //will fall through if table doesn't exist
@@ -282,20 +392,18 @@ public class Parser {
                 if (!(e instanceof ZConstant))
                     throw new simpledb.ParsingException("Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant)e;
-                if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getType(i) != Type.INT_TYPE) {
-                        throw new simpledb.ParsingException("Value " + zc.getValue() + " is not an integer, expected a string.");
+                if (zc.getType() == ZConstant.NUMBER || zc.getType() == ZConstant.STRING) {
+                    // numbers are never strings; dates, and any number, may be quoted
+                    if (zc.getType() == ZConstant.NUMBER && td.getType(i) == Type.STRING_TYPE) {
+                        throw new simpledb.ParsingException("Value " + zc.getValue() + " is a number, expected a string.");
                     }
-                    IntField f= new IntField(new Integer(zc.getValue()));
-                    t.setField(i,f);
-                } else if(zc.getType() == ZConstant.STRING) {
-                    if (td.getType(i) != Type.STRING_TYPE) {
-                        throw new simpledb.ParsingException("Value " + zc.getValue() + " is a string, expected an integer.");
+                    try {
+                        t.setField(i, td.getType(i).fromString(zc.getValue()));
+                    } catch (IllegalArgumentException ex) {
+                        throw new simpledb.ParsingException("Value " + zc.getValue() + " is not a value of " + td.getType(i) + ".");
                     }
-                    StringField f= new StringField(zc.getValue(), Type.STRING_LEN);
-                    t.setField(i,f);
                 } else {
-                    throw new simpledb.ParsingException("Only string or int fields are supported.");
+                    throw new simpledb.ParsingException("Only number or string constants are supported.");
                 }
 
                 i ++;
@@ -306,13 +414,17 @@ public class Parser {
 
         } else {
             ZQuery query = (ZQuery)s.getQuery();
-            newTups = parseQuery(curtrans.getId(),query);
+            newTups = parseQuery(tid,query);
         }
 
-        Query sdbq = new Query(new Insert(curtrans.getId(), newTups, id), curtrans.getId());
+        return new Insert(tid, newTups, id);
+    }
+
+    public static void handleDeleteStatement(ZDelete s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
+        Query sdbq = new Query(planDelete(curtrans.getId(), s), curtrans.getId());
         // XXX print field names
         sdbq.start();
-        System.out.print("Inserted ");
+        System.out.print("Deleted ");
         while (sdbq.hasNext()) {
             Tuple tup = sdbq.next();
             System.out.println(tup);
@@ -321,7 +433,7 @@ public class Parser {
 
     }
 
-    public static void handleDeleteStatement(ZDelete s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
+    private static DbIterator planDelete(TransactionId tid, ZDelete s) throws IOException, simpledb.ParsingException, Zql.ParseException  {
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); //will fall through if table doesn't exist
@@ -335,19 +447,10 @@ public class Parser {
 
         lp.addScan(id, name);
         if (s.getWhere() != null)
-            processExpression(curtrans.getId(), (ZExpression)s.getWhere(), lp);
+            processExpression(tid, (ZExpression)s.getWhere(), lp);
         lp.addProjectField("null.*",null);
 
-        Query sdbq = new Query(new Delete(curtrans.getId(), lp.physicalPlan(curtrans.getId(), statsMap, false)), curtrans.getId());
-        // XXX print field names
-        sdbq.start();
-        System.out.print("Deleted ");
-        while (sdbq.hasNext()) {
-            Tuple tup = sdbq.next();
-            System.out.println(tup);
-        }
-        sdbq.close();
-
+        return new Delete(tid, lp.physicalPlan(tid, statsMap, false));
     }
 
     public static void handleTransactStatement(ZTransactStmt s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException {
@@ -402,8 +505,216 @@ public class Parser {
 		}    	
     }
     
+    /**
+     * Handles <tt>ANALYZE [table]</tt>, which Zql does not parse: recomputes
+     * and saves the statistics of the table, or of every table, and reports
+     * the compression of compressed tables.
+     */
+    public static void handleAnalyzeStatement(String table) throws simpledb.ParsingException {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        if (table == null) {
+            Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+            while (it.hasNext())
+                ids.add(it.next());
+        } else {
+            try {
+                ids.add(Database.getCatalog().getTableId(table));
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown table : " + table);
+            }
+        }
+        for (int id : ids) {
+            String name = Database.getCatalog().getTableName(id);
+            TableStats s = TableStats.analyze(id, IOCOSTPERPAGE);
+            synchronized (Parser.class) {
+                statsMap.put(name, s);
+            }
+            if (s.isExact()) {
+                System.out.println("Analyzed " + name + ": " + s.estimateTableCardinality(1.0) + " tuples.");
+            } else {
+                System.out.println(String.format(
+                        "Analyzed %s: %d +/- %.0f tuples, sampled %d (selectivities +/- %.3f).",
+                        name, s.estimateTableCardinality(1.0), s.cardinalityErrorBound(),
+                        s.getSampleSize(), s.selectivityErrorBound()));
+            }
+            DbFile f = Database.getCatalog().getDbFile(id);
+            if (f instanceof CompressedFile)
+                System.out.println("Compressed " + name + ": " + f);
+        }
+    }
+
+    /**
+     * Handles <tt>PREPARE name AS query</tt>: saves the query, in which
+     * each <tt>?</tt> is a parameter, to be run by EXECUTE.
+     */
+    public static void handlePrepareStatement(String name, String query) throws simpledb.ParsingException {
+        StatementCache.Statement s = StatementCache.normalize(query);
+        if (!s.isCacheable())
+            throw new simpledb.ParsingException("Only queries without subqueries can be prepared.");
+        preparedStatements.put(name, s);
+        System.out.println("Prepared " + name + " with " + s.numParameters() + " parameters.");
+    }
+
+    /**
+     * Handles <tt>EXECUTE name [(constant, ...)]</tt>: runs a prepared
+     * query with its parameters, in order, set to the constants.
+     */
+    public static void handleExecuteStatement(String name, String arguments) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException {
+        StatementCache.Statement s = preparedStatements.get(name);
+        if (s == null)
+            throw new simpledb.ParsingException("No prepared statement named " + name);
+        List<String> values = new ArrayList<String>();
+        if (arguments != null) {
+            StatementCache.Statement args = StatementCache.normalize(arguments);
+            if (!EXECUTE_ARGUMENTS.matcher(args.getText()).matches() || args.numParameters() > 0)
+                throw new simpledb.ParsingException("Arguments of EXECUTE must be constants: " + arguments);
+            values = args.getConstants();
+        }
+        handleCachedQuery(s.bind(values));
+    }
+
+    /** Handles <tt>DEALLOCATE [PREPARE] name</tt>: forgets a prepared query. */
+    public static void handleDeallocateStatement(String name) throws simpledb.ParsingException {
+        if (preparedStatements.remove(name) == null)
+            throw new simpledb.ParsingException("No prepared statement named " + name);
+        System.out.println("Deallocated " + name + ".");
+    }
+
+    /**
+     * Handles <tt>CREATE TABLE name (field type, ...) [pax|compressed]
+     * [group (field, field) ...]</tt>, which Zql does not parse: creates an
+     * empty table described as in a schema file, and records it in the
+     * schema file.  The table is created at once, outside the current
+     * transaction.
+     */
+    public static void handleCreateTableStatement(String definition) throws IOException, simpledb.ParsingException {
+        int id;
+        try {
+            id = Database.getCatalog().createTable(definition.replaceAll("\\s+", " "));
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        }
+        String name = Database.getCatalog().getTableName(id);
+        TableStats s = TableStats.load(id, IOCOSTPERPAGE);
+        synchronized (Parser.class) {
+            statsMap.put(name, s);
+        }
+        tablesChanged();
+        System.out.println("Created table " + name + " with schema " + Database.getCatalog().getTupleDesc(id));
+    }
+
+    /**
+     * Handles <tt>DROP TABLE name</tt>, which Zql does not parse: removes
+     * the table from the catalog and the schema file, and deletes its data.
+     */
+    public static void handleDropTableStatement(String name) throws IOException, simpledb.ParsingException {
+        try {
+            Database.getCatalog().dropTable(name);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + name);
+        } catch (IllegalStateException e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        }
+        synchronized (Parser.class) {
+            statsMap.remove(name);
+        }
+        tablesChanged();
+        System.out.println("Dropped table " + name + ".");
+    }
+
+    /** Forgets the plans and results computed while the tables were different. */
+    private static void tablesChanged() {
+        statementCache.clear();
+        if (resultCache != null)
+            resultCache.clear();
+    }
+
+    private static final Pattern CREATE_TABLE_STATEMENT =
+        Pattern.compile("\\s*(?i:create)\\s+(?i:table)\\s+(.*?)\\s*;?\\s*", Pattern.DOTALL);
+    private static final Pattern DROP_TABLE_STATEMENT =
+        Pattern.compile("\\s*(?i:drop)\\s+(?i:table)\\s+([^\\s;]+)\\s*;?\\s*");
+    private static final Pattern CREATE_INDEX_STATEMENT =
+        Pattern.compile("\\s*(?i:create)\\s+(?:(?i:unique)\\s+)?(?i:index)\\b.*", Pattern.DOTALL);
+
+    /**
+     * Handles the statements that change the tables or their statistics
+     * rather than their rows, and so run outside transactions: ANALYZE,
+     * CREATE TABLE and DROP TABLE.
+     *
+     * @return false if the statement is not one of those
+     */
+    public static boolean handleUtilityStatement(String sql) throws IOException, simpledb.ParsingException {
+        Matcher m = ANALYZE_STATEMENT.matcher(sql);
+        if (m.matches()) {
+            handleAnalyzeStatement(m.group(1));
+            return true;
+        }
+        m = CREATE_TABLE_STATEMENT.matcher(sql);
+        if (m.matches()) {
+            handleCreateTableStatement(m.group(1));
+            return true;
+        }
+        m = DROP_TABLE_STATEMENT.matcher(sql);
+        if (m.matches()) {
+            handleDropTableStatement(m.group(1));
+            return true;
+        }
+        if (CREATE_INDEX_STATEMENT.matcher(sql).matches())
+            throw new simpledb.ParsingException("SimpleDB has no indexes; tables are scanned, "
+                    + "skipping the pages their zone maps rule out.");
+        return false;
+    }
+
+    /** ANALYZE, optionally followed by a table name, at the start of a statement */
+    private static final Pattern ANALYZE_STATEMENT =
+        Pattern.compile("\\s*(?i:analyze)(?:\\s+([^\\s;]+))?\\s*;?\\s*");
+    private static final Pattern PREPARE_STATEMENT =
+        Pattern.compile("\\s*(?i:prepare)\\s+(\\w+)\\s+(?i:as)\\s+(.*)", Pattern.DOTALL);
+    private static final Pattern EXECUTE_STATEMENT =
+        Pattern.compile("\\s*(?i:execute)\\s+(\\w+)\\s*(\\(.*\\))?\\s*;?\\s*", Pattern.DOTALL);
+    private static final Pattern DEALLOCATE_STATEMENT =
+        Pattern.compile("\\s*(?i:deallocate)\\s+(?:(?i:prepare)\\s+)?(\\w+)\\s*;?\\s*");
+    /** the normalized arguments of EXECUTE: a list of constants in parentheses */
+    private static final Pattern EXECUTE_ARGUMENTS =
+        Pattern.compile("\\( ?(\\? ?(, ?\\? ?)*)?\\)");
+
     public static void processNextStatement(InputStream is) {
         try {
+            // read the statement, to handle what Zql does not parse and to
+            // look queries up in the statement cache before parsing them
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int r;
+            while ((r = is.read(buf)) > 0)
+                bytes.write(buf, 0, r);
+            String sql = new String(bytes.toByteArray(), "UTF-8");
+
+            if (handleUtilityStatement(sql))
+                return;
+            Matcher m = PREPARE_STATEMENT.matcher(sql);
+            if (m.matches()) {
+                handlePrepareStatement(m.group(1), m.group(2));
+                return;
+            }
+            m = EXECUTE_STATEMENT.matcher(sql);
+            if (m.matches()) {
+                handleExecuteStatement(m.group(1), m.group(2));
+                return;
+            }
+            m = DEALLOCATE_STATEMENT.matcher(sql);
+            if (m.matches()) {
+                handleDeallocateStatement(m.group(1));
+                return;
+            }
+            StatementCache.Statement query = StatementCache.normalize(sql);
+            if (query.isCacheable()) {
+                handleCachedQuery(query);
+                return;
+            }
+            is = new ByteArrayInputStream(bytes.toByteArray());
+
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
 
@@ -434,6 +745,21 @@ public class Parser {
         }
     }
 
+    /** Loads the statistics of every table in the catalog, to plan queries with. */
+    public static void loadTableStats() {
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+
+        System.out.println("Loading table stats.");
+        while (tableIt.hasNext()) {
+            int tableid = tableIt.next();
+            TableStats s = TableStats.load(tableid, IOCOSTPERPAGE);
+            synchronized (Parser.class) {
+                statsMap.put(Database.getCatalog().getTableName(tableid), s);
+            }
+        }
+        System.out.println("Done.");
+    }
+
     // Basic SQL completions
     static final String[] SQL_COMMANDS = {
         "select",
@@ -449,14 +775,20 @@ public class Parser {
         "insert",
         "delete",
         "values",
-        "into"
+        "into",
+        "analyze",
+        "prepare",
+        "execute",
+        "deallocate",
+        "create table",
+        "drop table"
     };
 
     public static void main(String argv[]) throws IOException {
 
-        String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+        String usage = "Usage: parser catalogFile [-explain] [-resultcache] [-offheap] [-f queryFile]";
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -464,15 +796,7 @@ public class Parser {
         //first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
 
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
-
-        System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            statsMap.put(Database.getCatalog().getTableName(tableid), s);
-        }
-        System.out.println("Done.");
+        loadTableStats();
 
         boolean interactive = true;
         String queryFile = null;
@@ -482,6 +806,12 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-resultcache")) {
+                    resultCache = new ResultCache(ResultCache.DEFAULT_MAX_BYTES);
+                    System.out.println("Caching query results.");
+                } else if (argv[i].equals("-offheap")) {
+                    Database.resetBufferPool(BufferPool.DEFAULT_PAGES, true);
+                    System.out.println("Keeping buffer pool pages off the heap.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxFile is a HeapFile whose pages are {@link PaxPage}s, which store the
+ * values of each field of the tuples on a page together, rather than the
+ * fields of each tuple together.  Files, locking, zone maps and updates
+ * work as for a HeapFile; only the layout within a page differs, so scans
+ * that use a few of the fields of a wide table read fewer bytes.
+ * <p>
+ * A PaxFile holds as many tuples per page as a HeapFile of the same
+ * table.  Use {@link #convert} to rearrange the pages of a HeapFile, such
+ * as one written by {@link HeapFileEncoder}, into a PaxFile.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    /**
+     * Writes the pages of a HeapFile of tuples with the given TupleDesc to
+     * a new file, rearranged into PaxPages of the same size.
+     *
+     * @param heapFile the HeapFile to read
+     * @param paxFile the file to write; it may be heapFile itself
+     * @param td the TupleDesc of the tuples in the file
+     */
+    public static void convert(File heapFile, File paxFile, TupleDesc td) throws IOException {
+        int pageSize = HeapFile.readPageSize(heapFile);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) heapFile.length());
+        HeapFile.writeHeader(out, pageSize);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        try {
+            in.skipBytes(HeapFile.headerSize(pageSize));
+            byte[] page = new byte[pageSize];
+            for (long n = heapFile.length() / pageSize; n > 0; --n) {
+                in.readFully(page);
+                out.write(PaxPage.fromRows(page, td));
+            }
+        } finally {
+            in.close();
+        }
+        FileOutputStream fos = new FileOutputStream(paxFile);
+        try {
+            out.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxPage stores pages of PaxFiles.  It holds the same slots as a HeapPage
+ * of the same table, behind the same header, but lays them out by column
+ * (the PAX layout of Ailamaki et al., 2001): each field of the table has
+ * a minipage holding its values for every slot of the page, one after
+ * another, and the minipages follow the header in field order.  Field j of
+ * slot i is thus at
+ * <p>
+ *      header size + number of slots * (size of fields 0 .. j-1) + i * (size of field j)
+ * <p>
+ * so that reading one field of every tuple on the page touches only the
+ * bytes of that field.  Scans that test predicates against the page data
+ * (see {@link #iterator(Predicate[])}) or append only some of the fields
+ * to a {@link ColumnBatch} (see {@link BatchSeqScan}) read the columns
+ * they use and no others.
+ *
+ * @see PaxFile
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data, true);
+    }
+
+    HeapPage newPage(byte[] data) throws IOException {
+        return new PaxPage(getId(), data);
+    }
+
+    /**
+     * Rearranges the bytes of a HeapPage of tuples with the given TupleDesc
+     * into those of a PaxPage holding the same tuples in the same slots.
+     */
+    public static byte[] fromRows(byte[] rows, TupleDesc td) {
+        int tupleSize = td.getSize();
+        int numSlots = rows.length * 8 / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] columns = new byte[rows.length];
+        System.arraycopy(rows, 0, columns, 0, headerSize);
+        int fieldOffset = 0;
+        for (int j = 0; j < td.numFields(); ++j) {
+            int len = td.getType(j).getLen();
+            int minipage = headerSize + numSlots * fieldOffset;
+            for (int i = 0; i < numSlots; ++i)
+                System.arraycopy(rows, headerSize + i * tupleSize + fieldOffset, columns, minipage + i * len, len);
+            fieldOffset += len;
+        }
+        return columns;
+    }
+}
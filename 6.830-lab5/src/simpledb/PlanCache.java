@@ -1,50 +1,100 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Arrays;
 import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.
+ * <p>
+ * Sets of joins are represented as bitmasks over the positions of the
+ * joins in the vector given to the constructor, and the cache is a set of
+ * arrays indexed by bitmask.  For each set it stores the cost and
+ * cardinality of the best plan, and the join that plan performs last
+ * (with its orientation); the rest of the plan is the best plan for the
+ * set without that join, so full orders are rebuilt on demand.
+ */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
+    /** Largest number of joins a PlanCache can be built for (the arrays have 2^n entries). */
+    public static final int MAX_JOINS = 20;
+
+    private Vector<LogicalJoinNode> joins;
+    private double[] bestCosts;
+    private int[] bestCardinalities;
+    private byte[] lastJoins;
+    private boolean[] lastSwapped;
+
+    /**
+     * @param joins the joins being ordered; bit i of a set refers to joins.get(i)
+     * @throws IllegalArgumentException if there are more than MAX_JOINS joins
+     */
+    PlanCache(Vector<LogicalJoinNode> joins) {
+        if (joins.size() > MAX_JOINS)
+            throw new IllegalArgumentException("too many joins for a PlanCache: " + joins.size());
+        this.joins = joins;
+        int size = 1 << joins.size();
+        bestCosts = new double[size];
+        bestCardinalities = new int[size];
+        lastJoins = new byte[size];
+        lastSwapped = new boolean[size];
+        Arrays.fill(lastJoins, (byte) -1);
+    }
+
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
         specified join set
         @param s the set of joins for which a new ordering (plan) is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param last the index of the join performed last; the rest of the plan is the
+               cached plan for s without that join
+        @param swapped true if the last join is performed with its inner and outer swapped
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    void addPlan(int s, double cost, int card, int last, boolean swapped) {
+        bestCosts[s] = cost;
+        bestCardinalities[s] = card;
+        lastJoins[s] = (byte) last;
+        lastSwapped[s] = swapped;
+    }
+
+    /** @return true if a plan for the set s has been added */
+    boolean hasPlan(int s) {
+        return lastJoins[s] >= 0;
     }
-    
-    /** Find the best join order in the cache for the specified plan 
+
+    /** @return the index of the join performed last by the best plan for s, or -1 */
+    int getLastJoin(int s) {
+        return lastJoins[s];
+    }
+
+    /** Find the best join order in the cache for the specified plan
         @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @return the best order for s in the cache, or null if there is none
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    Vector<LogicalJoinNode> getOrder(int s) {
+        if (s != 0 && !hasPlan(s))
+            return null;
+        LogicalJoinNode[] order = new LogicalJoinNode[Integer.bitCount(s)];
+        for (int k = order.length - 1; k >= 0; --k) {
+            int last = lastJoins[s];
+            LogicalJoinNode j = joins.get(last);
+            order[k] = lastSwapped[s] ? j.swapInnerOuter() : j;
+            s &= ~(1 << last);
+        }
+        return new Vector<LogicalJoinNode>(Arrays.asList(order));
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
+
+    /** Find the cost of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(int s) {
+        return bestCosts[s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
+
+    /** Find the cardinality of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(int s) {
+        return bestCardinalities[s];
     }
 }
@@ -1,6 +1,10 @@
 package simpledb;
 
 /** Predicate compares tuples to a specified Field value.
+ * <p>
+ * The comparison is compiled when the predicate is built into a matcher
+ * specialized to its operator and the type of its operand, so filtering a
+ * tuple neither switches on the operator nor dispatches on the field type.
  */
 public class Predicate {
 
@@ -32,6 +36,7 @@ public class Predicate {
     private int field;
     private Op op;
     private Field operand;
+    private Matcher matcher;
 
     /**
      * Constructor.
@@ -44,6 +49,249 @@ public class Predicate {
         this.field = field;
         this.op = op;
         this.operand = operand;
+        this.matcher = compile(field, op, operand);
+    }
+
+    /** A test of tuples against a predicate, specialized to its operator and operand type. */
+    abstract static class Matcher {
+        abstract boolean matches(Tuple t);
+    }
+
+    /**
+     * Tests an int field for a single operator.  Subclasses implement both
+     * methods, so that testing a tuple takes a single virtual call.
+     */
+    abstract static class IntMatcher extends Matcher {
+        private final int field;
+
+        IntMatcher(int field) {
+            this.field = field;
+        }
+
+        final int value(Tuple t) {
+            return ((IntField) t.getField(field)).getValue();
+        }
+
+        abstract boolean matches(int value);
+    }
+
+    /** Tests a string field for a single operator. */
+    abstract static class StringMatcher extends Matcher {
+        private final int field;
+
+        StringMatcher(int field) {
+            this.field = field;
+        }
+
+        final String value(Tuple t) {
+            return ((StringField) t.getField(field)).getValue();
+        }
+    }
+
+    /**
+     * Tests a field of a type stored as a long (LONG_TYPE, DATE_TYPE or
+     * DECIMAL_TYPE) for a single operator.
+     */
+    abstract static class LongMatcher extends Matcher {
+        private final int field;
+        private final Type type;
+
+        LongMatcher(int field, Type type) {
+            this.field = field;
+            this.type = type;
+        }
+
+        final boolean matches(Tuple t) {
+            return matches(type.bits(t.getField(field)));
+        }
+
+        abstract boolean matches(long value);
+    }
+
+    /** Tests a double field for a single operator. */
+    abstract static class DoubleMatcher extends Matcher {
+        private final int field;
+
+        DoubleMatcher(int field) {
+            this.field = field;
+        }
+
+        final boolean matches(Tuple t) {
+            return matches(((DoubleField) t.getField(field)).getValue());
+        }
+
+        abstract boolean matches(double value);
+    }
+
+    /** @return a matcher for tuples whose field compares to operand by op, with Field.compare semantics */
+    static Matcher compile(final int field, final Op op, final Field operand) {
+        if (operand instanceof IntField)
+            return compileInt(field, op, ((IntField) operand).getValue());
+        if (operand instanceof StringField)
+            return compileString(field, op, ((StringField) operand).getValue());
+        if (operand instanceof DoubleField)
+            return compileDouble(field, op, ((DoubleField) operand).getValue());
+        if (operand instanceof LongField || operand instanceof DateField || operand instanceof DecimalField)
+            return compileLong(field, operand.getType(), op, operand.getType().bits(operand));
+        return new Matcher() {
+            boolean matches(Tuple t) {
+                return t.getField(field).compare(op, operand);
+            }
+        };
+    }
+
+    private static IntMatcher compileInt(int field, Op op, final int v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new IntMatcher(field) {
+                boolean matches(Tuple t) { return value(t) == v; }
+                boolean matches(int value) { return value == v; }
+            };
+        case NOT_EQUALS:
+            return new IntMatcher(field) {
+                boolean matches(Tuple t) { return value(t) != v; }
+                boolean matches(int value) { return value != v; }
+            };
+        case GREATER_THAN:
+            return new IntMatcher(field) {
+                boolean matches(Tuple t) { return value(t) > v; }
+                boolean matches(int value) { return value > v; }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new IntMatcher(field) {
+                boolean matches(Tuple t) { return value(t) >= v; }
+                boolean matches(int value) { return value >= v; }
+            };
+        case LESS_THAN:
+            return new IntMatcher(field) {
+                boolean matches(Tuple t) { return value(t) < v; }
+                boolean matches(int value) { return value < v; }
+            };
+        case LESS_THAN_OR_EQ:
+            return new IntMatcher(field) {
+                boolean matches(Tuple t) { return value(t) <= v; }
+                boolean matches(int value) { return value <= v; }
+            };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    private static LongMatcher compileLong(int field, Type type, Op op, final long v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new LongMatcher(field, type) {
+                boolean matches(long value) { return value == v; }
+            };
+        case NOT_EQUALS:
+            return new LongMatcher(field, type) {
+                boolean matches(long value) { return value != v; }
+            };
+        case GREATER_THAN:
+            return new LongMatcher(field, type) {
+                boolean matches(long value) { return value > v; }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new LongMatcher(field, type) {
+                boolean matches(long value) { return value >= v; }
+            };
+        case LESS_THAN:
+            return new LongMatcher(field, type) {
+                boolean matches(long value) { return value < v; }
+            };
+        case LESS_THAN_OR_EQ:
+            return new LongMatcher(field, type) {
+                boolean matches(long value) { return value <= v; }
+            };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    private static DoubleMatcher compileDouble(int field, Op op, final double v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new DoubleMatcher(field) {
+                boolean matches(double value) { return value == v; }
+            };
+        case NOT_EQUALS:
+            return new DoubleMatcher(field) {
+                boolean matches(double value) { return value != v; }
+            };
+        case GREATER_THAN:
+            return new DoubleMatcher(field) {
+                boolean matches(double value) { return value > v; }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new DoubleMatcher(field) {
+                boolean matches(double value) { return value >= v; }
+            };
+        case LESS_THAN:
+            return new DoubleMatcher(field) {
+                boolean matches(double value) { return value < v; }
+            };
+        case LESS_THAN_OR_EQ:
+            return new DoubleMatcher(field) {
+                boolean matches(double value) { return value <= v; }
+            };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    private static StringMatcher compileString(int field, Op op, final String v) {
+        switch (op) {
+        case EQUALS:
+            return new StringMatcher(field) {
+                boolean matches(Tuple t) { return value(t).equals(v); }
+            };
+        case NOT_EQUALS:
+            return new StringMatcher(field) {
+                boolean matches(Tuple t) { return !value(t).equals(v); }
+            };
+        case GREATER_THAN:
+            return new StringMatcher(field) {
+                boolean matches(Tuple t) { return value(t).compareTo(v) > 0; }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new StringMatcher(field) {
+                boolean matches(Tuple t) { return value(t).compareTo(v) >= 0; }
+            };
+        case LESS_THAN:
+            return new StringMatcher(field) {
+                boolean matches(Tuple t) { return value(t).compareTo(v) < 0; }
+            };
+        case LESS_THAN_OR_EQ:
+            return new StringMatcher(field) {
+                boolean matches(Tuple t) { return value(t).compareTo(v) <= 0; }
+            };
+        case LIKE:
+            return new StringMatcher(field) {
+                boolean matches(Tuple t) { return value(t).indexOf(v) >= 0; }
+            };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    /**
+     * @return the field number of the tuples this predicate tests
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the comparison operator of this predicate
+     */
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the constant the tested field is compared against
+     */
+    public Field getOperand() {
+        return operand;
     }
 
     /**
@@ -56,7 +304,32 @@ public class Predicate {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        return t.getField(field).compare(op, operand);
+        return matcher.matches(t);
+    }
+
+    /**
+     * Compares an int value of the tested field, read without building a
+     * tuple, to the operand.  Only for predicates with an IntField operand.
+     */
+    boolean filter(int value) {
+        return ((IntMatcher) matcher).matches(value);
+    }
+
+    /**
+     * Compares the value of the tested field as it is stored (see
+     * {@link Type#bits}), read without building a tuple, to the operand.
+     * Only for predicates with a LongField, DateField or DecimalField operand.
+     */
+    boolean filter(long value) {
+        return ((LongMatcher) matcher).matches(value);
+    }
+
+    /**
+     * Compares a double value of the tested field, read without building a
+     * tuple, to the operand.  Only for predicates with a DoubleField operand.
+     */
+    boolean filter(double value) {
+        return ((DoubleMatcher) matcher).matches(value);
     }
 
     /**
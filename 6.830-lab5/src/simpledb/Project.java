@@ -8,6 +8,8 @@ public class Project extends AbstractDbIterator {
     DbIterator child;
     TupleDesc td;
     ArrayList<Integer> outFieldIds;
+    /** outFieldIds, unboxed once rather than for every tuple */
+    private int[] outFields;
 
     /**
      * Constructor accepts a child
@@ -28,6 +30,9 @@ public class Project extends AbstractDbIterator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td= new TupleDesc(typesList.toArray(new Type[0]), fieldAr);
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
     }
 
     public TupleDesc getTupleDesc() {
@@ -58,8 +63,8 @@ public class Project extends AbstractDbIterator {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            for (int i = 0; i < outFields.length; i++) {
+                newTuple.setField(i, t.getField(outFields[i]));
             }
             return newTuple;
         }
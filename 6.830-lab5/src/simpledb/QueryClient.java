@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * QueryClient runs SQL statements on a {@link QueryServer}, in a session of
+ * its own.  The rows of a statement are read from the connection as they
+ * are iterated over, a batch at a time, so a large result is never held in
+ * memory at once:
+ * <pre>
+ *     QueryClient client = new QueryClient("localhost", QueryServer.DEFAULT_PORT);
+ *     QueryClient.Result r = client.execute("SELECT * FROM t WHERE t.x &lt; 10;");
+ *     while (r.hasNext())
+ *         System.out.println(r.next());
+ *     System.out.println(r.getMessage());
+ *     client.close();
+ * </pre>
+ * A client is a single session, so statements run one after the other:
+ * executing a statement first reads whatever is left of the result of the
+ * one before.
+ */
+public class QueryClient {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private Result current = null;
+
+    /** Connects to a server, starting a session. */
+    public QueryClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Runs a statement on the server.
+     *
+     * @return the result of the statement, whose rows are read as they are
+     *   iterated over
+     * @throws DbException if the server could not run the statement
+     */
+    public synchronized Result execute(String sql) throws DbException, IOException {
+        if (current != null && current.error == null)
+            current.close();
+        out.writeByte(QueryServer.STATEMENT);
+        QueryServer.writeString(out, sql);
+        out.flush();
+        current = new Result();
+        current.read();
+        return current;
+    }
+
+    /** Ends the session, which aborts its transaction if one is running. */
+    public synchronized void close() throws IOException {
+        try {
+            out.writeByte(QueryServer.QUIT);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /** The result of a statement: the rows it returns, if any, and a message. */
+    public class Result {
+        private TupleDesc td = null;
+        private ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        private int next = 0;
+        private String message = null;
+        private DbException error = null;
+
+        /** Reads the next message of the result from the server. */
+        private void read() throws DbException, IOException {
+            if (error != null)
+                throw error;
+            byte type = in.readByte();
+            switch (type) {
+            case QueryServer.DESCRIBE:
+                int n = in.readInt();
+                Type[] types = new Type[n];
+                String[] names = new String[n];
+                for (int i = 0; i < n; ++i) {
+                    types[i] = Type.values()[in.readByte()];
+                    names[i] = QueryServer.readString(in);
+                }
+                td = new TupleDesc(types, names);
+                break;
+            case QueryServer.BATCH:
+                batch.clear();
+                next = 0;
+                for (int rows = in.readInt(); rows > 0; --rows) {
+                    Tuple t = new Tuple(td);
+                    for (int i = 0; i < td.numFields(); ++i) {
+                        if (td.getType(i) == Type.STRING_TYPE)
+                            t.setField(i, new StringField(QueryServer.readString(in), Type.STRING_LEN));
+                        else {
+                            try {
+                                t.setField(i, td.getType(i).parse(in));
+                            } catch (java.text.ParseException e) {
+                                throw new IOException("invalid field: " + e.getMessage());
+                            }
+                        }
+                    }
+                    batch.add(t);
+                }
+                break;
+            case QueryServer.COMPLETE:
+                message = QueryServer.readString(in);
+                break;
+            case QueryServer.ERROR:
+                error = new DbException(QueryServer.readString(in));
+                throw error;
+            default:
+                throw new IOException("unknown message " + type);
+            }
+        }
+
+        /** @return the fields of the rows of the result, or null if it has no rows */
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        /**
+         * @return true if the result has more rows
+         * @throws DbException if the statement failed while its rows were sent
+         */
+        public boolean hasNext() throws DbException, IOException {
+            while (next == batch.size() && message == null)
+                read();
+            return next < batch.size();
+        }
+
+        /** @return the next row of the result */
+        public Tuple next() throws DbException, IOException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return batch.get(next++);
+        }
+
+        /**
+         * @return the message the statement completed with, such as the
+         *   number of rows; the rows not read yet are skipped
+         */
+        public String getMessage() throws DbException, IOException {
+            close();
+            return message;
+        }
+
+        /** Skips the rows not read yet. */
+        public void close() throws DbException, IOException {
+            if (error != null)
+                throw error;
+            while (message == null) {
+                batch.clear();
+                next = 0;
+                read();
+            }
+        }
+    }
+}
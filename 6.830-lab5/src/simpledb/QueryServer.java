@@ -0,0 +1,335 @@
+package simpledb;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * QueryServer runs SQL statements sent by clients over TCP (see
+ * {@link QueryClient}), so that many processes share one database and its
+ * buffer pool.  Each connection is a session, served by a thread of its
+ * own, with its own transaction.
+ * <p>
+ * A session runs each statement in a transaction of its own, committed
+ * when the statement succeeds and aborted when it fails, unless a
+ * transaction was started with BEGIN: then its statements run in it until
+ * COMMIT or ROLLBACK, and a failed statement aborts it.  A transaction
+ * still running when its connection is closed is aborted.  CREATE TABLE,
+ * DROP TABLE and ANALYZE run outside transactions (see
+ * {@link Parser#handleUtilityStatement}).
+ * <p>
+ * The protocol is binary, with the integers and fixed-size fields of
+ * {@link DataOutputStream}; strings are an int count of bytes followed by
+ * that many bytes of UTF-8.  A client sends
+ * <ul>
+ * <li>STATEMENT, followed by the statement, for each statement, and</li>
+ * <li>QUIT, to end the session.</li>
+ * </ul>
+ * The server answers each statement with
+ * <ul>
+ * <li>DESCRIBE, followed by an int number of fields and, for each, the
+ *     ordinal of its {@link Type} as a byte and its name, if the statement
+ *     returns rows;</li>
+ * <li>BATCH, followed by an int number of rows and the fields of each row,
+ *     as many times as there are batches of rows: those of the root of the
+ *     plan are sent in batches of up to {@link #BATCH_ROWS} rows as they
+ *     are produced, strings as strings and other fields as
+ *     {@link Field#serialize} writes them;</li>
+ * <li>and last COMPLETE, followed by a message such as the number of rows,
+ *     or ERROR, followed by what went wrong.</li>
+ * </ul>
+ */
+public class QueryServer {
+    /** The port the server listens on unless told otherwise. */
+    public static final int DEFAULT_PORT = 6830;
+    /** The most rows sent in a batch. */
+    public static final int BATCH_ROWS = 512;
+
+    /** Messages from clients. */
+    static final byte STATEMENT = 'S', QUIT = 'Q';
+    /** Messages from the server. */
+    static final byte DESCRIBE = 'D', BATCH = 'B', COMPLETE = 'C', ERROR = 'E';
+
+    private static final Pattern BEGIN =
+        Pattern.compile("\\s*(?i:begin|start\\s+transaction)(?:\\s+(?i:transaction|work))?\\s*;?\\s*");
+    private static final Pattern COMMIT =
+        Pattern.compile("\\s*(?i:commit)(?:\\s+(?i:transaction|work))?\\s*;?\\s*");
+    private static final Pattern ROLLBACK =
+        Pattern.compile("\\s*(?i:rollback|abort)(?:\\s+(?i:transaction|work))?\\s*;?\\s*");
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService threads;
+    private final Set<Session> sessions = Collections.synchronizedSet(new HashSet<Session>());
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a server listening on a port of this machine; call
+     * {@link #start} to accept connections.
+     *
+     * @param port the port, or 0 for any free port (see {@link #getPort})
+     */
+    public QueryServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            private int n = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "QueryServer " + (n++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** @return the port the server listens on */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Starts accepting connections, in a thread of the server's own. */
+    public void start() {
+        threads.execute(new Runnable() {
+            public void run() {
+                serve();
+            }
+        });
+    }
+
+    /** Accepts connections, each served by a thread, until the server is closed. */
+    public void serve() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                if (!closed)
+                    e.printStackTrace();
+                continue;
+            }
+            Session session = new Session(socket);
+            sessions.add(session);
+            threads.execute(session);
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes those that are open, aborting
+     * the transactions of their sessions.
+     */
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        Session[] open;
+        synchronized (sessions) {
+            open = sessions.toArray(new Session[0]);
+        }
+        for (Session session : open)
+            session.socket.close();
+        threads.shutdown();
+    }
+
+    /** @return the number of sessions open */
+    public int numSessions() {
+        return sessions.size();
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /** The state of a connection: its transaction, if one is running. */
+    private class Session implements Runnable {
+        final Socket socket;
+        private DataOutputStream out;
+        private Transaction transaction = null;
+        /** true if the transaction was started by BEGIN */
+        private boolean explicit = false;
+
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while (true) {
+                    byte message = in.readByte();
+                    if (message == QUIT)
+                        break;
+                    if (message != STATEMENT)
+                        throw new IOException("unknown message " + message);
+                    execute(readString(in));
+                    out.flush();
+                }
+            } catch (EOFException e) {
+                // the client went away
+            } catch (IOException e) {
+                if (!closed && !socket.isClosed())
+                    e.printStackTrace();
+            } finally {
+                try {
+                    if (transaction != null)
+                        finish(true);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+                sessions.remove(this);
+            }
+        }
+
+        private void begin(boolean explicit) {
+            transaction = new Transaction();
+            transaction.start();
+            this.explicit = explicit;
+        }
+
+        private void finish(boolean abort) throws IOException {
+            Transaction t = transaction;
+            transaction = null;
+            explicit = false;
+            t.transactionComplete(abort);
+        }
+
+        private void complete(String message) throws IOException {
+            out.writeByte(COMPLETE);
+            writeString(out, message);
+        }
+
+        private void error(String message) throws IOException {
+            out.writeByte(ERROR);
+            writeString(out, message == null ? "error" : message);
+        }
+
+        /** Runs a statement and sends its results. */
+        private void execute(String sql) throws IOException {
+            try {
+                if (BEGIN.matcher(sql).matches()) {
+                    if (explicit) {
+                        error("A transaction is already running.");
+                        return;
+                    }
+                    begin(true);
+                    complete("Transaction started.");
+                } else if (COMMIT.matcher(sql).matches() || ROLLBACK.matcher(sql).matches()) {
+                    if (!explicit) {
+                        error("No transaction is running.");
+                        return;
+                    }
+                    boolean abort = ROLLBACK.matcher(sql).matches();
+                    finish(abort);
+                    complete(abort ? "Transaction aborted." : "Transaction committed.");
+                } else if (Parser.handleUtilityStatement(sql)) {
+                    complete("Done.");
+                } else {
+                    if (transaction == null)
+                        begin(false);
+                    DbIterator plan = Parser.planStatement(transaction.getId(), sql);
+                    int rows = send(plan);
+                    if (!explicit)
+                        finish(false);
+                    complete(rows + " rows.");
+                }
+            } catch (ParsingException e) {
+                // nothing was run
+                if (transaction != null && !explicit)
+                    finish(true);
+                error(e.getMessage());
+            } catch (TransactionAbortedException e) {
+                finish(true);
+                error("Transaction aborted.");
+            } catch (DbException e) {
+                if (transaction != null)
+                    finish(true);
+                error(e.getMessage());
+            } catch (RuntimeException e) {
+                if (transaction != null)
+                    finish(true);
+                error(e.toString());
+            }
+        }
+
+        /**
+         * Runs a plan and sends its rows, in batches as they are produced.
+         * @return the number of rows sent
+         */
+        private int send(DbIterator plan) throws DbException, TransactionAbortedException, IOException {
+            TupleDesc td = plan.getTupleDesc();
+            plan.open();
+            try {
+                out.writeByte(DESCRIBE);
+                out.writeInt(td.numFields());
+                for (int i = 0; i < td.numFields(); ++i) {
+                    out.writeByte(td.getType(i).ordinal());
+                    String name = td.getFieldName(i);
+                    writeString(out, name == null ? "" : name);
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream batch = new DataOutputStream(bytes);
+                int rows = 0, n = 0;
+                while (plan.hasNext()) {
+                    Tuple t = plan.next();
+                    for (int i = 0; i < td.numFields(); ++i) {
+                        Field f = t.getField(i);
+                        if (td.getType(i) == Type.STRING_TYPE)
+                            writeString(batch, ((StringField) f).getValue());
+                        else
+                            f.serialize(batch);
+                    }
+                    ++rows;
+                    if (++n == BATCH_ROWS) {
+                        sendBatch(n, bytes);
+                        n = 0;
+                    }
+                }
+                if (n > 0)
+                    sendBatch(n, bytes);
+                return rows;
+            } finally {
+                plan.close();
+            }
+        }
+
+        private void sendBatch(int rows, ByteArrayOutputStream bytes) throws IOException {
+            out.writeByte(BATCH);
+            out.writeInt(rows);
+            bytes.writeTo(out);
+            bytes.reset();
+            out.flush();
+        }
+    }
+
+    /**
+     * Runs a server for the tables of a schema file.
+     * Usage: <tt>QueryServer catalogFile [port]</tt>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: QueryServer catalogFile [port]");
+            System.exit(0);
+        }
+        Database.getCatalog().loadSchema(args[0]);
+        Parser.loadTableStats();
+        QueryServer server = new QueryServer(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+        System.out.println("Listening on port " + server.getPort() + ".");
+        server.serve();
+    }
+}
@@ -0,0 +1,316 @@
+package simpledb;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A ResultCache keeps the results of recently run queries, so that a query
+ * run again before any of its tables has changed is answered without being
+ * planned or run.
+ * <p>
+ * Results are looked up by the text of the query with its constants taken
+ * out (see {@link StatementCache#normalize}) and the constants themselves.
+ * Each result records the version of every table in the FROM list of its
+ * query (see {@link BufferPool#getTableVersion}), and is dropped as soon as
+ * one has changed.  A result is only kept if no table changed while it
+ * was computed and none of them had uncommitted changes, which the result
+ * could include, when it was complete.
+ * <p>
+ * A transaction served a cached result takes the same read locks as one
+ * that runs the query, so it sees no changes to the result's tables until
+ * it completes.
+ * <p>
+ * The cache holds results of at most a given estimated size in memory,
+ * dropping the least recently used ones to make room.  Results larger than
+ * that are not kept.
+ */
+public class ResultCache {
+
+    /** Estimated size of the results a cache holds by default, in bytes. */
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    /** estimated size of a tuple beyond its fields, and of a field beyond its value */
+    private static final int TUPLE_OVERHEAD = 32;
+    private static final int FIELD_OVERHEAD = 16;
+
+    /** the FROM list of a query without subqueries */
+    private static final Pattern FROM_LIST =
+        Pattern.compile("(?i)\\bfrom\\b(.*?)(?:\\b(?:where|group|order)\\b|$)");
+
+    /** A cached result, with the versions of the tables it was computed from. */
+    private static class Entry {
+        final TupleDesc td;
+        final ArrayList<Tuple> tuples;
+        final long bytes;
+        final BufferPool pool;
+        final int[] tableIds;
+        final long[] versions;
+
+        Entry(TupleDesc td, ArrayList<Tuple> tuples, long bytes, BufferPool pool, int[] tableIds, long[] versions) {
+            this.td = td;
+            this.tuples = tuples;
+            this.bytes = bytes;
+            this.pool = pool;
+            this.tableIds = tableIds;
+            this.versions = versions;
+        }
+
+        /** @return false if one of the tables has changed since the result was computed */
+        boolean isCurrent() {
+            if (pool != Database.getBufferPool())
+                return false;
+            for (int i = 0; i < tableIds.length; ++i)
+                if (pool.getTableVersion(tableIds[i]) != versions[i])
+                    return false;
+            return true;
+        }
+    }
+
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    private long hits, misses, invalidations;
+
+    /** Create an empty cache that holds results of at most maxBytes estimated bytes. */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** @return the key of a query, which tells apart queries with different constants */
+    private static String key(StatementCache.Statement s) {
+        StringBuilder key = new StringBuilder(s.getText());
+        for (String c : s.getConstants())
+            key.append('\0').append(c.length()).append(':').append(c);
+        return key.toString();
+    }
+
+    /**
+     * @return the ids of the tables in the FROM list of a query, or null if
+     *   one of them is not in the catalog
+     */
+    static int[] tableIds(StatementCache.Statement s) {
+        Matcher m = FROM_LIST.matcher(s.getText());
+        if (!m.find())
+            return null;
+        String[] items = m.group(1).split(",");
+        int[] ids = new int[items.length];
+        for (int i = 0; i < items.length; ++i) {
+            String table = items[i].trim().split(" ")[0];
+            try {
+                ids[i] = Database.getCatalog().getTableId(table);
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    /** @return the estimated size in memory of a tuple */
+    private static long size(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        return TUPLE_OVERHEAD + td.getSize() + (long) FIELD_OVERHEAD * td.numFields();
+    }
+
+    /**
+     * Returns the cached result of a query, if none of its tables has
+     * changed since it was computed.  Before a result is returned, the
+     * transaction takes the read locks on the pages of the tables that
+     * running the query would take, so that a transaction that reads a
+     * result twice sees the same result.
+     *
+     * @param tid the transaction the query runs in
+     * @param s the query, which must be cacheable and have no unbound parameters
+     * @return an iterator over the result, or null if it is not cached
+     */
+    public DbIterator get(TransactionId tid, StatementCache.Statement s)
+        throws TransactionAbortedException {
+        String key = key(s);
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key);
+        }
+        // locks are taken outside the monitor, since they may wait for writers
+        boolean current = e != null && e.isCurrent() && lockTables(tid, e.tableIds);
+        synchronized (this) {
+            if (e != null && !(current && e.isCurrent())) {
+                if (entries.get(key) == e)
+                    remove(key);
+                ++invalidations;
+                e = null;
+            }
+            if (e == null) {
+                ++misses;
+                return null;
+            }
+            ++hits;
+            return new TupleIterator(e.td, e.tuples);
+        }
+    }
+
+    /**
+     * Locks every page of some tables for reading, as a scan of them would.
+     *
+     * @return false if one of the tables is no longer in the catalog
+     */
+    private static boolean lockTables(TransactionId tid, int[] tableIds)
+        throws TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        for (int tableId : tableIds) {
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDbFile(tableId);
+            } catch (NoSuchElementException e) {
+                return false;
+            }
+            if (file instanceof HeapFile) {
+                int numPages = ((HeapFile) file).numPages();
+                for (int pageno = 0; pageno < numPages; ++pageno)
+                    pool.lockPage(tid, new HeapPageId(tableId, pageno), Permissions.READ_ONLY);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an iterator over the result of a plan for a query, which
+     * adds the result to the cache once all of it has been read, if it is
+     * still up to date then.  The versions of the tables of the query are
+     * taken now, so the plan must not have been opened yet.
+     *
+     * @param s the query
+     * @param plan a plan for the query
+     */
+    public DbIterator record(StatementCache.Statement s, DbIterator plan) {
+        int[] tableIds = tableIds(s);
+        if (tableIds == null)
+            return plan;
+        return new Recorder(key(s), plan, tableIds);
+    }
+
+    /** Adds a result, dropping the least recently used results to make room. */
+    private synchronized void put(String key, Entry e) {
+        if (!e.isCurrent())
+            return;
+        for (int tableId : e.tableIds)
+            if (e.pool.hasUncommittedChanges(tableId))
+                return;
+        remove(key);
+        entries.put(key, e);
+        bytes += e.bytes;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null)
+            bytes -= e.bytes;
+    }
+
+    /** Passes the tuples of a plan through, keeping them to add to the cache. */
+    private class Recorder extends AbstractDbIterator {
+        private final String key;
+        private final DbIterator child;
+        private final BufferPool pool;
+        private final int[] tableIds;
+        private final long[] versions;
+        private ArrayList<Tuple> tuples;
+        private long size;
+
+        Recorder(String key, DbIterator child, int[] tableIds) {
+            this.key = key;
+            this.child = child;
+            this.pool = Database.getBufferPool();
+            this.tableIds = tableIds;
+            this.versions = new long[tableIds.length];
+            for (int i = 0; i < tableIds.length; ++i)
+                versions[i] = pool.getTableVersion(tableIds[i]);
+        }
+
+        public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+            child.open();
+            tuples = new ArrayList<Tuple>();
+            size = 0;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                if (tuples != null)
+                    put(key, new Entry(child.getTupleDesc(), tuples, size, pool, tableIds, versions));
+                tuples = null;
+                return null;
+            }
+            Tuple t = child.next();
+            if (tuples != null) {
+                size += size(t);
+                if (size <= maxBytes)
+                    tuples.add(t);
+                else
+                    tuples = null;
+            }
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            // a result is only kept from the first pass
+            child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            tuples = null;
+        }
+    }
+
+    /** @return the number of queries answered from the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of queries whose result was not in the cache */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of results dropped because one of their tables changed */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /** @return the fraction of queries answered from the cache, or 0 if there have been none */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /** @return the estimated size of the cached results, in bytes */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** @return the number of cached results */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Drops every cached result and resets the counters. */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        hits = misses = invalidations = 0;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d results cached (%d bytes), %d hits, %d misses (hit rate %.1f%%), %d invalidated",
+                entries.size(), bytes, hits, misses, 100 * getHitRate(), invalidations);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+/**
+ * RowBuffer is a reusable view of one row of a {@link ColumnBatch}: the
+ * batch holds the values, and the view only records which row it is at.
+ * Moving a RowBuffer to another row with {@link #at} allocates nothing,
+ * and neither do its typed accessors other than {@link #getString}, so an
+ * operator can walk the rows of its inputs through a few RowBuffers
+ * instead of building a Tuple of Fields for each of them.
+ * <p>
+ * Like the batch it views, a RowBuffer is only valid until the producer of
+ * the batch refills it; use {@link #toTuple} to keep a row.
+ */
+public class RowBuffer {
+
+    private ColumnBatch batch;
+    private int row;
+
+    /** Creates a view that is not at any row yet. */
+    public RowBuffer() {
+    }
+
+    /**
+     * Moves this view to physical row row of batch.
+     *
+     * @return this view
+     */
+    public RowBuffer at(ColumnBatch batch, int row) {
+        this.batch = batch;
+        this.row = row;
+        return this;
+    }
+
+    /** @return the batch this view is in */
+    public ColumnBatch getBatch() {
+        return batch;
+    }
+
+    /** @return the physical row of its batch this view is at */
+    public int getRow() {
+        return row;
+    }
+
+    /** @return the schema of the row */
+    public TupleDesc getTupleDesc() {
+        return batch.getTupleDesc();
+    }
+
+    /** @return the int field i of the row */
+    public int getInt(int i) {
+        return batch.intColumn(i)[row];
+    }
+
+    /** @return the string field i of the row, as a new String */
+    public String getString(int i) {
+        return batch.getString(i, row);
+    }
+
+    /** @return the length of the string field i of the row */
+    public int getStringLength(int i) {
+        return batch.stringLengths(i)[row];
+    }
+
+    /**
+     * Lexicographically compares the string field i of this row to the
+     * string field j of the row of other, as {@link ColumnBatch#compareString}
+     * does.
+     */
+    public int compareString(int i, RowBuffer other, int j) {
+        byte[] a = batch.stringColumn(i), b = other.batch.stringColumn(j);
+        int offA = row * Type.STRING_LEN, offB = other.row * Type.STRING_LEN;
+        int lenA = getStringLength(i), lenB = other.getStringLength(j);
+        int n = Math.min(lenA, lenB);
+        for (int k = 0; k < n; ++k) {
+            int c = (a[offA + k] & 0xff) - (b[offB + k] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return lenA - lenB;
+    }
+
+    /** @return true if the string field i of this row contains the string field j of the row of other */
+    public boolean containsString(int i, RowBuffer other, int j) {
+        byte[] a = batch.stringColumn(i), b = other.batch.stringColumn(j);
+        int offA = row * Type.STRING_LEN, offB = other.row * Type.STRING_LEN;
+        int lenA = getStringLength(i), lenB = other.getStringLength(j);
+        outer:
+        for (int s = 0; s + lenB <= lenA; ++s) {
+            for (int k = 0; k < lenB; ++k)
+                if (a[offA + s + k] != b[offB + k])
+                    continue outer;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies the fields of the row into consecutive columns of physical row
+     * outRow of out, starting at column firstCol.
+     */
+    public void copyTo(ColumnBatch out, int outRow, int firstCol) {
+        TupleDesc td = getTupleDesc();
+        for (int i = 0; i < td.numFields(); ++i) {
+            int k = firstCol + i;
+            if (td.getType(i) == Type.INT_TYPE) {
+                out.intColumn(k)[outRow] = batch.intColumn(i)[row];
+            } else if (td.getType(i) == Type.LONG_TYPE) {
+                out.longColumn(k)[outRow] = batch.longColumn(i)[row];
+            } else {
+                int len = getStringLength(i);
+                System.arraycopy(batch.stringColumn(i), row * Type.STRING_LEN,
+                        out.stringColumn(k), outRow * Type.STRING_LEN, len);
+                out.stringLengths(k)[outRow] = len;
+            }
+        }
+    }
+
+    /** @return the row as a new Tuple (with no RecordId) */
+    public Tuple toTuple() {
+        return batch.toTuple(row);
+    }
+}
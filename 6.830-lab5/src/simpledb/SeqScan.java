@@ -5,12 +5,18 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan can be given predicates over the table's fields, which it applies
+ * itself; over a {@link HeapFile} they are tested against the page bytes
+ * before tuples are built, and pages that cannot match are skipped.
  */
 public class SeqScan implements DbIterator {
 
     private DbFileIterator dbfItr;
     private DbFile dbf;
+    private TransactionId tid;
     private TupleDesc aliasTd;
+    private Predicate[] predicates;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -24,10 +30,67 @@ public class SeqScan implements DbIterator {
      *         name can be null.fieldName, tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
-        // some code goes here
+        this(tid, tableid, tableAlias, new ArrayList<Predicate>());
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples of the table
+     * that satisfy all of the given predicates.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table (see above)
+     * @param predicates predicates over the fields of the table's tuples
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, List<Predicate> predicates) {
+        this.tid = tid;
         dbf = Database.getCatalog().getDbFile(tableid);
-        dbfItr = dbf.iterator(tid);
-        TupleDesc td = dbf.getTupleDesc();
+        this.predicates = predicates.toArray(new Predicate[predicates.size()]);
+        if (this.predicates.length == 0)
+            dbfItr = dbf.iterator(tid);
+        else if (dbf instanceof HeapFile)
+            dbfItr = ((HeapFile) dbf).iterator(tid, this.predicates);
+        else
+            dbfItr = filter(dbf.iterator(tid), this.predicates);
+        aliasTd = aliasTupleDesc(dbf.getTupleDesc(), tableAlias);
+    }
+
+    /** @return an iterator over the tuples of it that satisfy all of the predicates */
+    private static DbFileIterator filter(final DbFileIterator it, final Predicate[] predicates) {
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    boolean match = true;
+                    for (int i = 0; i < predicates.length && match; ++i)
+                        match = predicates[i].filter(t);
+                    if (match)
+                        return t;
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of td whose field names are prefixed with tableAlias, as
+     * described in the constructor.  Shared with the other scan operators.
+     */
+    static TupleDesc aliasTupleDesc(TupleDesc td, String tableAlias) {
         int aliasNumFields = td.numFields();
         Type[] aliasTypes = new Type[aliasNumFields];
         String[] aliasFields = new String[aliasNumFields];
@@ -37,7 +100,22 @@ public class SeqScan implements DbIterator {
                 aliasFields[i] = String.valueOf(td.getFieldName(i));
             else aliasFields[i] = String.valueOf(tableAlias) + "." + String.valueOf(td.getFieldName(i));
         }
-        aliasTd = new TupleDesc(aliasTypes, aliasFields);
+        return new TupleDesc(aliasTypes, aliasFields);
+    }
+
+    /** @return the file this scan reads */
+    DbFile getDbFile() {
+        return dbf;
+    }
+
+    /** @return the predicates every tuple returned by this scan satisfies */
+    Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return tid;
     }
 
     public void open()
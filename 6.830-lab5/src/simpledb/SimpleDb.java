@@ -8,33 +8,73 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+        // a pagesize=N argument writes pages of N bytes rather than
+        // BufferPool.PAGE_SIZE
+        int pageSize = BufferPool.PAGE_SIZE;
+        ArrayList<String> rest = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.toLowerCase().startsWith("pagesize="))
+                pageSize = Integer.parseInt(arg.substring("pagesize=".length()));
+            else
+                rest.add(arg);
+        }
+        args = rest.toArray(new String[0]);
+        // a trailing pax or compressed argument writes a PaxFile or a
+        // CompressedFile rather than a HeapFile
+        boolean pax = args[args.length - 1].toLowerCase().equals("pax");
+        boolean compressed = args[args.length - 1].toLowerCase().equals("compressed");
+        if (pax || compressed) {
+            String[] newargs = new String[args.length - 1];
+            System.arraycopy(args, 0, newargs, 0, newargs.length);
+            args = newargs;
+        }
+        Type[] types = null;
+        int[] maxLengths = null;
+        boolean slotted = false;
         if (args.length == 3) {
+            types = Utility.getTypes(Integer.parseInt(args[2]));
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
+                        pageSize,
                         Integer.parseInt(args[2]));
         }
         else if (args.length == 4) {
             ArrayList<Type> ts = new ArrayList<Type>();
             String[] typeStringAr = args[3].split(",");
+            maxLengths = new int[typeStringAr.length];
             for (String s: typeStringAr) {
-            if (s.toLowerCase().equals("int"))
-                ts.add(Type.INT_TYPE);
-            else if (s.toLowerCase().equals("string"))
+            maxLengths[ts.size()] = Type.STRING_LEN;
+            if (Type.forName(s) != null)
+                ts.add(Type.forName(s));
+            else if (s.toLowerCase().matches("varchar\\(\\d+\\)")) {
+                // varchar fields are written to a SlottedFile
+                maxLengths[ts.size()] = Integer.parseInt(s.replaceAll("\\D", ""));
                 ts.add(Type.STRING_TYPE);
-            else {
+                slotted = true;
+            } else {
                 System.out.println("Unknown type " + s);
                 return;
             }
             }
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
+                        pageSize,
                         Integer.parseInt(args[2]), ts.toArray(new Type[0]));
-
+            types = ts.toArray(new Type[0]);
         } else {
             System.out.println("Unexpected number of arguments to convert ");
         }
+        File dat = new File(args[1].replaceAll(".txt", ".dat"));
+        if (slotted)
+            SlottedFile.convert(dat, dat, new TupleDesc(types), maxLengths);
+        else if (pax && types != null)
+            PaxFile.convert(dat, dat, new TupleDesc(types));
+        else if (compressed && types != null) {
+            long size = dat.length();
+            int pages = CompressedFile.convert(dat, dat, new TupleDesc(types));
+            System.out.println(String.format("Compressed %d pages into %d (ratio %.2f)",
+                    size / pageSize, pages, (double) size / Math.max(dat.length(), 1)));
+        }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -79,6 +119,14 @@ public class SimpleDb {
             }
 
         }
+        else if (args[0].equals("server")) {
+            // Strip the first argument and run a query server
+            String[] newargs = new String[args.length-1];
+            for (int i = 1; i < args.length; ++i) {
+                newargs[i-1] = args[i];
+            }
+            QueryServer.main(newargs);
+        }
         else {
             System.err.println("Unknown command: " + args[0]);
             System.exit(1);
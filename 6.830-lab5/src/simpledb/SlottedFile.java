@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedFile is a HeapFile whose pages are {@link SlottedPage}s, which
+ * store each tuple in a record just as long as its values.  Tables with
+ * short strings fit many more tuples on each page than in a HeapFile, and
+ * so take fewer pages to scan.
+ * <p>
+ * Each string field of a SlottedFile may be declared with a maximum
+ * length, as a <tt>varchar(n)</tt> field of a catalog schema (see
+ * {@link Catalog#loadSchema}) is, of at most {@link Type#STRING_LEN}.
+ * Use {@link #convert} to rewrite a HeapFile, such as one written by
+ * {@link HeapFileEncoder}, as a SlottedFile.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile extends HeapFile {
+    private final int[] maxLengths;
+
+    /**
+     * Constructs a slotted file backed by the specified file, whose
+     * strings are at most {@link Type#STRING_LEN} long.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this(f, td, defaultMaxLengths(td));
+    }
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param maxLengths the maximum length of each string field of td,
+     *        with anything for the other fields
+     * @throws IllegalArgumentException if a maximum length is not between 1
+     *         and {@link Type#STRING_LEN}
+     */
+    public SlottedFile(File f, TupleDesc td, int[] maxLengths) {
+        super(f, td);
+        if (maxLengths.length != td.numFields())
+            throw new IllegalArgumentException("expected " + td.numFields() + " maximum lengths");
+        for (int j = 0; j < maxLengths.length; ++j)
+            if (td.getType(j) == Type.STRING_TYPE && (maxLengths[j] < 1 || maxLengths[j] > Type.STRING_LEN))
+                throw new IllegalArgumentException("maximum length of field " + j
+                        + " must be between 1 and " + Type.STRING_LEN);
+        this.maxLengths = maxLengths.clone();
+    }
+
+    private static int[] defaultMaxLengths(TupleDesc td) {
+        int[] maxLengths = new int[td.numFields()];
+        for (int j = 0; j < maxLengths.length; ++j)
+            maxLengths[j] = Type.STRING_LEN;
+        return maxLengths;
+    }
+
+    /**
+     * @return the maximum length of the string field i of this file
+     */
+    public int getMaxLength(int i) {
+        return maxLengths[i];
+    }
+
+    HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    /**
+     * Writes the tuples of a HeapFile of tuples with the given TupleDesc to
+     * a new file of SlottedPages of the same size, in order.  Strings longer
+     * than the maximum length of their field are truncated.
+     *
+     * @param heapFile the HeapFile to read
+     * @param slottedFile the file to write; it may be heapFile itself
+     * @param td the TupleDesc of the tuples in the file
+     * @param maxLengths the maximum length of each string field of td
+     */
+    public static void convert(File heapFile, File slottedFile, TupleDesc td, int[] maxLengths)
+            throws IOException {
+        int pageSize = HeapFile.readPageSize(heapFile);
+        int numSlots = pageSize * 8 / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) heapFile.length());
+        HeapFile.writeHeader(out, pageSize);
+        byte[] slotted = HeapPage.createEmptyPageData(pageSize);
+        boolean empty = true;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        try {
+            in.skipBytes(HeapFile.headerSize(pageSize));
+            byte[] page = new byte[pageSize];
+            for (long n = heapFile.length() / pageSize; n > 0; --n) {
+                in.readFully(page);
+                for (int i = 0; i < numSlots; ++i) {
+                    if (((page[i / 8] >> (i % 8)) & 1) == 0)
+                        continue;
+                    DataInputStream row = new DataInputStream(new ByteArrayInputStream(
+                            page, headerSize + i * td.getSize(), td.getSize()));
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < td.numFields(); ++j) {
+                        Field f = td.getType(j).parse(row);
+                        if (td.getType(j) == Type.STRING_TYPE) {
+                            String s = ((StringField) f).getValue();
+                            if (s.length() > maxLengths[j])
+                                f = new StringField(s.substring(0, maxLengths[j]), Type.STRING_LEN);
+                        }
+                        t.setField(j, f);
+                    }
+                    if (SlottedPage.insert(slotted, t) < 0) {
+                        out.write(slotted);
+                        slotted = HeapPage.createEmptyPageData(pageSize);
+                        SlottedPage.insert(slotted, t);
+                    }
+                    empty = false;
+                }
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("couldn't parse " + heapFile);
+        } finally {
+            in.close();
+        }
+        if (!empty)
+            out.write(slotted);
+
+        FileOutputStream fos = new FileOutputStream(slottedFile);
+        try {
+            out.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * SlottedPage stores pages of SlottedFiles, whose tuples are stored in
+ * records of varying length: a string field takes 4 bytes for its length
+ * followed by its characters, rather than the {@link Type#STRING_LEN}
+ * characters it takes on a HeapPage, so a page holds as many tuples as
+ * their values fit.
+ * <p>
+ * The page begins with a 4-byte header: the number of entries in its slot
+ * directory and the number of bytes taken by its records, as unsigned
+ * shorts.  The slot directory follows, with the offset and length of the
+ * record in each slot as unsigned shorts, or zeros for an empty slot.  The
+ * records fill the page from its end backwards, so the free space of the
+ * page lies between the directory and the records.
+ * <p>
+ * The tuple in a slot keeps its slot, and so its RecordId, for as long as
+ * it is on the page.  Deleting a tuple moves the records below it up over
+ * its record, so that the free space of the page is always in one piece.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage extends HeapPage {
+
+    /** the sizes of the page header and of a slot directory entry */
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    private final TupleDesc td;
+    private final int[] maxLengths;
+    private final byte[] data;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     * The maximum lengths of its string fields are those of its
+     * SlottedFile, if it is one.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, maxLengths(id.getTableId()));
+    }
+
+    private SlottedPage(HeapPageId id, byte[] data, int[] maxLengths) {
+        super(id, data, maxSlots(Database.getCatalog().getTupleDesc(id.getTableId()), data.length));
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.maxLengths = maxLengths;
+        this.data = data;
+        setBeforeImage();
+    }
+
+    private static int[] maxLengths(int tableId) {
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        TupleDesc td = f.getTupleDesc();
+        int[] maxLengths = new int[td.numFields()];
+        for (int j = 0; j < maxLengths.length; ++j)
+            maxLengths[j] = f instanceof SlottedFile ? ((SlottedFile) f).getMaxLength(j) : Type.STRING_LEN;
+        return maxLengths;
+    }
+
+    HeapPage newPage(byte[] data) throws IOException {
+        return new SlottedPage(getId(), data.clone(), maxLengths);
+    }
+
+    /** @return the size of the smallest record of a tuple with the given TupleDesc */
+    private static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); ++j)
+            size += td.getType(j) == Type.STRING_TYPE ? 4 : td.getType(j).getLen();
+        return size;
+    }
+
+    /** @return the most slots a page of the given size of tuples with the given TupleDesc can have */
+    private static int maxSlots(TupleDesc td, int pageSize) {
+        return (pageSize - HEADER_SIZE) / (SLOT_SIZE + minRecordSize(td));
+    }
+
+    /** @return the size of the record of t */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); ++j) {
+            if (td.getType(j) == Type.STRING_TYPE)
+                size += 4 + ((StringField) t.getField(j)).getValue().length();
+            else
+                size += td.getType(j).getLen();
+        }
+        return size;
+    }
+
+    private static int getShort(byte[] data, int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    private static void putShort(byte[] data, int off, int value) {
+        data[off] = (byte) (value >> 8);
+        data[off + 1] = (byte) value;
+    }
+
+    /** @return the offset of the directory entry of slot i */
+    private static int slot(int i) {
+        return HEADER_SIZE + i * SLOT_SIZE;
+    }
+
+    /** @return the number of free bytes between the slot directory and the records of a page */
+    private static int freeSpace(byte[] data) {
+        return data.length - slot(getShort(data, 0)) - getShort(data, 2);
+    }
+
+    /**
+     * Adds the record of t to the page data, in its first empty slot.
+     *
+     * @return the slot of the record, or -1 if it does not fit
+     */
+    static int insert(byte[] data, Tuple t) {
+        int numEntries = getShort(data, 0);
+        int i = 0;
+        while (i < numEntries && getShort(data, slot(i) + 2) != 0)
+            ++i;
+        int size = recordSize(t);
+        if (freeSpace(data) < size + (i == numEntries ? SLOT_SIZE : 0))
+            return -1;
+
+        int used = getShort(data, 2) + size;
+        int off = data.length - used;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            TupleDesc td = t.getTupleDesc();
+            for (int j = 0; j < td.numFields(); ++j) {
+                if (td.getType(j) == Type.STRING_TYPE) {
+                    String s = ((StringField) t.getField(j)).getValue();
+                    dos.writeInt(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    t.getField(j).serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, off, size);
+
+        putShort(data, slot(i), off);
+        putShort(data, slot(i) + 2, size);
+        putShort(data, 2, used);
+        if (i == numEntries)
+            putShort(data, 0, numEntries + 1);
+        return i;
+    }
+
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    public boolean getSlot(int i) {
+        return i < getShort(data, 0) && getShort(data, slot(i) + 2) != 0;
+    }
+
+    int fieldOffset(int i, int j) {
+        int off = getShort(data, slot(i));
+        for (int k = 0; k < j; ++k) {
+            if (td.getType(k) == Type.STRING_TYPE)
+                off += 4 + ((data[off] & 0xff) << 24 | (data[off + 1] & 0xff) << 16
+                        | (data[off + 2] & 0xff) << 8 | (data[off + 3] & 0xff));
+            else
+                off += td.getType(k).getLen();
+        }
+        return off;
+    }
+
+    /**
+     * Returns the number of tuples of the smallest size (all strings empty)
+     * that could still be added to this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        int free = freeSpace(data);
+        int minSize = minRecordSize(td);
+        int empty = 0;
+        for (int i = 0; i < getShort(data, 0); ++i)
+            if (getShort(data, slot(i) + 2) == 0)
+                ++empty;
+        int reused = Math.min(empty, free / minSize);
+        return reused + (free - reused * minSize) / (SLOT_SIZE + minSize);
+    }
+
+    synchronized boolean hasRoomFor(Tuple t) {
+        int numEntries = getShort(data, 0);
+        int extra = SLOT_SIZE;
+        for (int i = 0; i < numEntries && extra > 0; ++i)
+            if (getShort(data, slot(i) + 2) == 0)
+                extra = 0;
+        return freeSpace(data) >= recordSize(t) + extra;
+    }
+
+    /**
+     * Adds the specified tuple to the page in its first empty slot.
+     *
+     * @throws DbException if the tuple does not fit on the page, its
+     *         tupledesc is mismatched, or one of its strings is longer than
+     *         the maximum length of its field
+     * @param t The tuple to add.
+     */
+    public synchronized void addTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc is mismatch");
+        for (int j = 0; j < td.numFields(); ++j)
+            if (td.getType(j) == Type.STRING_TYPE
+                    && ((StringField) t.getField(j)).getValue().length() > maxLengths[j])
+                throw new DbException("value of field " + j + " is longer than " + maxLengths[j]);
+        int i = insert(data, t);
+        if (i < 0)
+            throw new DbException("page is full");
+        forgetTuple(i);
+        t.setRecordId(new RecordId(getId(), i));
+    }
+
+    /**
+     * Deletes the specified tuple from the page, and moves the records
+     * below it up to close the gap.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        if (!t.getRecordId().getPageId().equals(getId()))
+            throw new DbException("tuple to delete is not on this page");
+        int i = t.getRecordId().tupleno();
+        if (!getSlot(i))
+            throw new DbException("tuple slot is already empty");
+        forgetTuple(i);
+
+        int off = getShort(data, slot(i));
+        int size = getShort(data, slot(i) + 2);
+        int used = getShort(data, 2);
+        int start = data.length - used;
+        System.arraycopy(data, start, data, start + size, off - start);
+        Arrays.fill(data, start, start + size, (byte) 0);
+        int numEntries = getShort(data, 0);
+        for (int k = 0; k < numEntries; ++k) {
+            int entry = getShort(data, slot(k));
+            if (getShort(data, slot(k) + 2) != 0 && entry < off)
+                putShort(data, slot(k), entry + size);
+        }
+        putShort(data, slot(i), 0);
+        putShort(data, slot(i) + 2, 0);
+        putShort(data, 2, used - size);
+
+        // empty slots at the end of the directory give their space back
+        while (numEntries > 0 && getShort(data, slot(numEntries - 1) + 2) == 0)
+            --numEntries;
+        putShort(data, 0, numEntries);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file used by operators that run out of memory
+ * (e.g., {@link SpillingAggregator} and the external sort in
+ * {@link OrderBy}).  Records are appended through {@link #output} or
+ * {@link #writeTuple} and read back sequentially, any number of times,
+ * through {@link #openInput}.  The file is deleted by {@link #delete},
+ * and by nothing else: its users delete it once they are done with it, or
+ * when they fail or are closed, so that a long-running process does not
+ * collect them.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private File file;
+    private DataOutputStream out;
+    private long numRecords;
+
+    /**
+     * Creates a new, empty spill file in the default temporary directory.
+     *
+     * @param prefix the prefix of the temporary file name
+     */
+    public SpillFile(String prefix) throws IOException {
+        file = File.createTempFile(prefix, ".spill");
+    }
+
+    /**
+     * Returns the stream to append records to.  The caller must call
+     * {@link #recordWritten} once for each complete record it writes.
+     */
+    public DataOutputStream output() throws IOException {
+        if (out == null) {
+            if (file == null)
+                throw new IllegalStateException("spill file was deleted");
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file, true), BUFFER_SIZE));
+        }
+        return out;
+    }
+
+    /** Counts one more record written through {@link #output}. */
+    public void recordWritten() {
+        numRecords++;
+    }
+
+    /** Appends the serialized fields of t as one record. */
+    public void writeTuple(Tuple t) throws IOException {
+        DataOutputStream dos = output();
+        for (int i = 0; i < t.getTupleDesc().numFields(); ++i)
+            t.getField(i).serialize(dos);
+        numRecords++;
+    }
+
+    /** @return the number of records in this file */
+    public long numRecords() {
+        return numRecords;
+    }
+
+    /** @return the current size of this file in bytes, including buffered records */
+    public long length() throws IOException {
+        if (out != null)
+            out.flush();
+        return file == null ? 0 : file.length();
+    }
+
+    /** Flushes and closes the output stream; more records may still be appended later. */
+    public void finish() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Finishes writing and returns a stream positioned at the first record.
+     * The caller is responsible for closing it.
+     */
+    public DataInputStream openInput() throws IOException {
+        finish();
+        if (file == null)
+            throw new IllegalStateException("spill file was deleted");
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Reads one record written by {@link #writeTuple}.
+     *
+     * @param td the descriptor of the tuples in the file
+     */
+    public static Tuple readTuple(DataInputStream in, TupleDesc td) throws IOException {
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); ++i)
+                t.setField(i, td.getType(i).parse(in));
+        } catch (ParseException e) {
+            throw new IOException("corrupt spill file: " + e.getMessage());
+        }
+        return t;
+    }
+
+    /** Closes and removes the file; it cannot be used afterwards. */
+    public void delete() {
+        try {
+            finish();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillingAggregator computes the same aggregates as {@link IntAggregator}
+ * and {@link StringAggregator}, but keeps at most a memory budget's worth of
+ * groups in its in-memory {@link AggregateHashTable}.
+ * <p>
+ * Tuples of groups that are already in memory are merged in place.  Once
+ * the table is full, tuples of new groups are written to one of
+ * {@link #FANOUT} partition files, chosen by the hash of the group value.
+ * Since the table never shrinks, a group is either entirely in memory or
+ * entirely in one partition.  When the results are read, the in-memory
+ * groups are returned first, and then each partition is aggregated in turn
+ * by a SpillingAggregator of its own (which may spill again, using a
+ * different hash function).
+ * <p>
+ * Spilled records hold a partial aggregate (group value, count,
+ * accumulator), so raw tuples and the results of {@link #combine} are
+ * spilled in the same way.
+ */
+public class SpillingAggregator implements Aggregator {
+
+    /** Memory budget used unless one is given explicitly: 16 MB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+
+    /** Number of partitions each level of spilling splits the overflow into. */
+    public static final int FANOUT = 16;
+
+    /** Beyond this depth partitions are aggregated in memory regardless of the budget. */
+    private static final int MAX_DEPTH = 8;
+
+    private int gbFieldId, aFieldId;
+    private Type gbFieldType, aFieldType;
+    private Op what;
+    private int depth;
+    private long memoryBudget;
+    private int maxGroups;
+
+    private AggregateHashTable table;
+    private SpillFile[] partitions;
+    private TupleDesc resultTd;
+
+    /**
+     * Aggregate constructor
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param afieldtype the type of the aggregate field
+     * @param what the aggregation operator, which must apply to afieldtype (see {@link Aggregate#resultType})
+     * @param memoryBudget approximately how many bytes the in-memory groups may use
+     */
+    public SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what,
+                              long memoryBudget) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what, memoryBudget, 0);
+    }
+
+    /**
+     * Constructs an aggregator over an int field, or a COUNT of a field of
+     * any type.
+     */
+    public SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Op what, long memoryBudget) {
+        this(gbfield, gbfieldtype, afield, Type.INT_TYPE, what, memoryBudget, 0);
+    }
+
+    public SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, DEFAULT_MEMORY_BUDGET);
+    }
+
+    private SpillingAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what,
+                               long memoryBudget, int depth) {
+        this.gbFieldId = gbfield;
+        this.gbFieldType = gbfield == NO_GROUPING ? null : gbfieldtype;
+        this.aFieldId = afield;
+        this.aFieldType = afieldtype;
+        this.what = what;
+        this.memoryBudget = memoryBudget;
+        this.depth = depth;
+        long perGroup = bytesPerGroup(this.gbFieldType);
+        maxGroups = depth >= MAX_DEPTH
+                ? Integer.MAX_VALUE
+                : (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / perGroup));
+        table = new AggregateHashTable(this.gbFieldType, new Op[] {what}, new Type[] {afieldtype});
+        Type resultType = Aggregate.resultType(what, afieldtype);
+        resultTd = new TupleDesc(gbFieldType == null
+                ? new Type[] {resultType}
+                : new Type[] {gbFieldType, resultType});
+    }
+
+    /**
+     * Estimates the heap used by one group of an AggregateHashTable,
+     * including the slack left by doubling its arrays.
+     */
+    static long bytesPerGroup(Type keyType) {
+        // count + accumulator + two bucket slots
+        long bytes = 8 + 8 + 8;
+        if (keyType == Type.INT_TYPE)
+            bytes += 4;
+        else if (keyType != null)
+            // reference, cached hash and the Field object itself
+            bytes += 8 + 4 + 64 + 2 * keyType.getLen();
+        return bytes * 2;
+    }
+
+    /** @return the number of groups this aggregator keeps in memory before spilling */
+    public int getMaxGroups() {
+        return maxGroups;
+    }
+
+    /** @return true if some groups have been written to partition files */
+    public boolean hasSpilled() {
+        return partitions != null;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    public void merge(Tuple tup) {
+        Field key = gbFieldId == NO_GROUPING ? null : tup.getField(gbFieldId);
+        long value = what == Op.COUNT ? 0 : aFieldType.bits(tup.getField(aFieldId));
+        mergePartial(key, 1, value);
+    }
+
+    private void mergePartial(Field key, long count, long acc) {
+        int g;
+        if (table.numGroups() < maxGroups) {
+            g = table.findOrInsert(key);
+        } else {
+            g = table.find(key);
+            if (g < 0) {
+                spill(key, count, acc);
+                return;
+            }
+        }
+        table.mergePartial(g, count, acc);
+    }
+
+    private int partitionOf(Field key) {
+        // a different multiplier at every depth, so a partition that spills
+        // again is split along different hash bits
+        int h = key.hashCode() * (0x9E3779B9 + 2 * depth);
+        h ^= h >>> 15;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % FANOUT;
+    }
+
+    private void spill(Field key, long count, long acc) {
+        try {
+            if (partitions == null) {
+                partitions = new SpillFile[FANOUT];
+                for (int i = 0; i < FANOUT; ++i)
+                    partitions[i] = new SpillFile("agg");
+            }
+            SpillFile part = partitions[partitionOf(key)];
+            DataOutputStream out = part.output();
+            key.serialize(out);
+            out.writeLong(count);
+            out.writeLong(acc);
+            part.recordWritten();
+        } catch (IOException e) {
+            deletePartitions();
+            throw new RuntimeException("could not spill aggregate: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Merge the groups of another SpillingAggregator, including its spilled
+     * groups, into this one.
+     * @param other a SpillingAggregator constructed with the same arguments
+     */
+    public void combine(Aggregator other) {
+        if (!(other instanceof SpillingAggregator))
+            throw new IllegalArgumentException("can only combine with a SpillingAggregator");
+        SpillingAggregator o = (SpillingAggregator) other;
+        for (int g = 0; g < o.table.numGroups(); ++g)
+            mergePartial(o.table.getKey(g), o.table.getCount(g), o.table.getAccumulator(0, g));
+        if (o.partitions != null) {
+            try {
+                for (SpillFile part : o.partitions) {
+                    DataInputStream in = part.openInput();
+                    try {
+                        for (long r = 0; r < part.numRecords(); ++r)
+                            mergePartial(gbFieldType.parse(in), in.readLong(), in.readLong());
+                    } finally {
+                        in.close();
+                    }
+                    part.delete();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("could not read spilled aggregate: " + e.getMessage(), e);
+            } finally {
+                o.deletePartitions();
+            }
+        }
+    }
+
+    /** Aggregates partition p of this aggregator in a new, deeper aggregator. */
+    private SpillingAggregator aggregatePartition(int p) throws DbException {
+        SpillingAggregator sub = new SpillingAggregator(
+                gbFieldId, gbFieldType, aFieldId, aFieldType, what, memoryBudget, depth + 1);
+        SpillFile part = partitions[p];
+        try {
+            DataInputStream in = part.openInput();
+            try {
+                for (long r = 0; r < part.numRecords(); ++r)
+                    sub.mergePartial(gbFieldType.parse(in), in.readLong(), in.readLong());
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            throw new DbException("could not read spilled aggregate: " + e.getMessage());
+        }
+        return sub;
+    }
+
+    /** Removes the partition files of this aggregator. */
+    private void deletePartitions() {
+        if (partitions != null)
+            for (SpillFile part : partitions)
+                if (part != null)
+                    part.delete();
+        partitions = null;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.  The in-memory groups
+     * are returned first; partitions are aggregated one at a time as the
+     * iterator reaches them.  Closing the iterator removes the partition
+     * files, so no more tuples may be merged afterwards.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal,
+     *   aggregateVal) if using group, or a single (aggregateVal) if no
+     *   grouping.
+     */
+    public DbIterator iterator() {
+        return new AbstractDbIterator() {
+            private DbIterator current;
+            private SpillingAggregator currentSub;
+            private int nextPartition = -1;
+
+            public void open() throws DbException, TransactionAbortedException {
+                current = table.iterator(resultTd);
+                current.open();
+                nextPartition = 0;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                closeCurrent();
+                open();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return resultTd;
+            }
+
+            private void closeCurrent() {
+                if (current != null)
+                    current.close();
+                current = null;
+                if (currentSub != null)
+                    currentSub.deletePartitions();
+                currentSub = null;
+            }
+
+            public void close() {
+                super.close();
+                closeCurrent();
+                nextPartition = -1;
+                deletePartitions();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (nextPartition < 0)
+                    throw new IllegalStateException("iterator not open");
+                while (true) {
+                    if (current != null && current.hasNext())
+                        return current.next();
+                    closeCurrent();
+                    if (partitions == null || nextPartition >= partitions.length)
+                        return null;
+                    currentSub = aggregatePartition(nextPartition++);
+                    current = currentSub.iterator();
+                    current.open();
+                }
+            }
+        };
+    }
+}
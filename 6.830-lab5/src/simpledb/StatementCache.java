@@ -0,0 +1,321 @@
+package simpledb;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A StatementCache keeps the logical plans of recently run queries, with
+ * the order chosen for their joins, so that a query that differs from an
+ * earlier one only in its constants is run without being parsed or having
+ * its joins ordered again.
+ * <p>
+ * Queries are looked up by their text with every constant replaced by
+ * <tt>?</tt> (see {@link #normalize}), so all queries of one shape share an
+ * entry, whose plan refers to the constants as parameters (see
+ * {@link LogicalPlan#bind}).  The joins of every query of a shape are
+ * performed in the order chosen for the constants of the first one.
+ * <p>
+ * An entry is dropped when the statistics of one of its tables are
+ * recomputed, because the table has been analyzed or enough of it has
+ * changed (see {@link TableStats#getVersion}), and the next query of its
+ * shape is planned afresh.  When the cache is full, the least recently
+ * used entry is dropped.  Queries with subqueries, which the parser plans
+ * while it parses them, are not cached.
+ */
+public class StatementCache {
+
+    /** Number of query shapes a cache holds by default. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * A statement with its constants taken out: the text it is looked up
+     * by, and its constants in the order they appear.  Each <tt>?</tt> in
+     * the statement is a parameter, whose constant is null until it is
+     * bound.
+     */
+    public static class Statement {
+        private final String text;
+        private final String parameterized;
+        private final List<String> constants;
+
+        private Statement(String text, String parameterized, List<String> constants) {
+            this.text = text;
+            this.parameterized = parameterized;
+            this.constants = constants;
+        }
+
+        /** @return the text of the statement with each constant replaced by <tt>?</tt> */
+        public String getText() {
+            return text;
+        }
+
+        /** @return the constants of the statement, with null for each parameter */
+        public List<String> getConstants() {
+            return Collections.unmodifiableList(constants);
+        }
+
+        /** @return the number of parameters that have no value yet */
+        public int numParameters() {
+            int n = 0;
+            for (String c : constants)
+                if (c == null)
+                    ++n;
+            return n;
+        }
+
+        /**
+         * @return this statement with its parameters, in order, set to values
+         * @throws ParsingException if there is not one value for each parameter
+         */
+        public Statement bind(List<String> values) throws ParsingException {
+            if (values.size() != numParameters())
+                throw new ParsingException("Expected " + numParameters() + " parameters, got " + values.size());
+            List<String> bound = new ArrayList<String>(constants.size());
+            Iterator<String> it = values.iterator();
+            for (String c : constants)
+                bound.add(c != null ? c : it.next());
+            return new Statement(text, parameterized, bound);
+        }
+
+        /** @return true if this statement is a query without subqueries, which can be cached */
+        public boolean isCacheable() {
+            return SELECT.matcher(text).lookingAt() && !NESTED_SELECT.matcher(text).find();
+        }
+
+        /**
+         * @return the statement with its k-th constant replaced by a string
+         *   constant naming parameter k, which the parser adds to a plan as is
+         */
+        String getParameterizedText() {
+            return parameterized;
+        }
+
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static final Pattern SELECT =
+        Pattern.compile("(?i)select\\b");
+    private static final Pattern NESTED_SELECT =
+        Pattern.compile("(?i).\\bselect\\b");
+
+    /**
+     * Takes the constants out of the first statement of a string of SQL.
+     * Numbers and single-quoted strings are constants, and whitespace
+     * outside them is collapsed, so statements that differ only in their
+     * constants or layout have the same text.  The value of a constant is
+     * its text as the parser sees it, without the quotes of a string.
+     */
+    public static Statement normalize(String sql) {
+        StringBuilder text = new StringBuilder();
+        StringBuilder parameterized = new StringBuilder();
+        List<String> constants = new ArrayList<String>();
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char ch = sql.charAt(i);
+            int start = i;
+            String constant = null;
+            boolean isConstant = false;
+            if (ch == ';') {
+                break;
+            } else if (Character.isWhitespace(ch)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i)))
+                    ++i;
+                if (text.length() > 0) {
+                    text.append(' ');
+                    parameterized.append(' ');
+                }
+                continue;
+            } else if (ch == '\'') {
+                // a doubled quote does not end the string
+                ++i;
+                while (i < n && (sql.charAt(i) != '\'' || (i + 1 < n && sql.charAt(i + 1) == '\'')))
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                constant = sql.substring(start + 1, Math.min(i, n));
+                isConstant = true;
+                ++i;
+            } else if (Character.isDigit(ch)) {
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'
+                                 || ((sql.charAt(i) == '+' || sql.charAt(i) == '-')
+                                     && Character.toLowerCase(sql.charAt(i - 1)) == 'e')))
+                    ++i;
+                constant = sql.substring(start, i);
+                isConstant = true;
+            } else if (ch == '?') {
+                ++i;
+                isConstant = true;
+            } else if (ch == '"') {
+                ++i;
+                while (i < n && sql.charAt(i) != '"')
+                    ++i;
+                ++i;
+            } else if (Character.isLetter(ch) || ch == '_') {
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+                                 || sql.charAt(i) == '.' || sql.charAt(i) == '$' || sql.charAt(i) == '#'))
+                    ++i;
+            } else {
+                ++i;
+            }
+            if (isConstant) {
+                text.append('?');
+                parameterized.append('\'').append(LogicalPlan.parameter(constants.size())).append('\'');
+                constants.add(constant);
+            } else {
+                String token = sql.substring(start, Math.min(i, n));
+                text.append(token);
+                parameterized.append(token);
+            }
+        }
+        String t = text.toString().trim();
+        return new Statement(t, parameterized.toString().trim() + ";", constants);
+    }
+
+    /**
+     * A cached plan and the order of its joins, with the statistics the
+     * order was chosen from.
+     */
+    private static class Entry {
+        final LogicalPlan plan;
+        Vector<LogicalJoinNode> joins;
+        final String[] tables;
+        final int[] ids;
+        final TableStats[] stats;
+        final int[] versions;
+
+        Entry(LogicalPlan plan, HashMap<String,TableStats> statsMap) {
+            this.plan = plan;
+            ArrayList<Integer> tableIds = plan.getTableIds();
+            int n = tableIds.size();
+            tables = new String[n];
+            ids = new int[n];
+            stats = new TableStats[n];
+            versions = new int[n];
+            for (int i = 0; i < n; ++i) {
+                ids[i] = tableIds.get(i);
+                tables[i] = Database.getCatalog().getTableName(ids[i]);
+                stats[i] = statsMap.get(tables[i]);
+                versions[i] = stats[i] == null ? -1 : stats[i].getVersion();
+            }
+        }
+
+        /** @return false if a table or its statistics have changed since the plan was cached */
+        boolean isCurrent(HashMap<String,TableStats> statsMap) {
+            for (int i = 0; i < tables.length; ++i) {
+                try {
+                    if (Database.getCatalog().getTableId(tables[i]) != ids[i])
+                        return false;
+                } catch (NoSuchElementException e) {
+                    return false;
+                }
+                if (statsMap.get(tables[i]) != stats[i]
+                    || (stats[i] != null && stats[i].getVersion() != versions[i]))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String,Entry> entries;
+    private long hits, misses, invalidations;
+
+    /** Create an empty cache that holds the plans of at most capacity query shapes. */
+    public StatementCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+                return size() > StatementCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns a physical plan for a query, using the cached plan of its
+     * shape if there is a current one, and parsing the query and caching
+     * its plan otherwise.
+     *
+     * @param tid the transaction the plan will run as a part of
+     * @param s the query, which must be cacheable and have no unbound parameters
+     * @param statsMap the statistics of the tables, by table name
+     * @param explain flag indicating whether the plan should be described
+     * @throws ParsingException if the query is invalid
+     */
+    public DbIterator plan(TransactionId tid, Statement s, HashMap<String,TableStats> statsMap, boolean explain)
+        throws ParsingException {
+        if (!s.isCacheable())
+            throw new ParsingException("Only queries without subqueries can be cached: " + s);
+        if (s.numParameters() > 0)
+            throw new ParsingException("No value given for " + s.numParameters() + " parameters of " + s);
+        Entry e;
+        synchronized (this) {
+            e = entries.get(s.getText());
+            if (e != null && !e.isCurrent(statsMap)) {
+                entries.remove(s.getText());
+                ++invalidations;
+                e = null;
+            }
+            if (e != null)
+                ++hits;
+            else
+                ++misses;
+        }
+        if (e != null) {
+            if (explain)
+                System.out.println("Reusing the plan of " + s);
+            return e.plan.bind(s.getConstants(), e.joins).physicalPlan(tid, statsMap, explain);
+        }
+
+        LogicalPlan template = Parser.generateLogicalPlan(tid, s.getParameterizedText());
+        if (template.hasSubqueries())
+            throw new ParsingException("Only queries without subqueries can be cached: " + s);
+        e = new Entry(template, statsMap);
+        LogicalPlan lp = template.bind(s.getConstants(), null);
+        DbIterator plan = lp.physicalPlan(tid, statsMap, explain);
+        e.joins = lp.getJoins();
+        synchronized (this) {
+            entries.put(s.getText(), e);
+        }
+        return plan;
+    }
+
+    /** @return the number of queries planned from a cached plan */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of queries that were parsed and planned */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of cached plans dropped because their statistics changed */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /** @return the fraction of queries planned from a cached plan, or 0 if there have been none */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /** @return the number of query shapes with a cached plan */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Drops every cached plan and resets the counters. */
+    public synchronized void clear() {
+        entries.clear();
+        hits = misses = invalidations = 0;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d plans cached, %d hits, %d misses (hit rate %.1f%%), %d invalidated",
+                entries.size(), hits, misses, 100 * getHitRate(), invalidations);
+    }
+}
@@ -1,10 +1,5 @@
 package simpledb;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Knows how to compute some aggregate over a set of StringFields.
  */
@@ -18,11 +13,10 @@ public class StringAggregator implements Aggregator {
      * @param what aggregation operator to use -- only supports COUNT
      * @throws IllegalArgumentException if what != COUNT
      */
-    private HashMap<Field, Integer> count;
+    private AggregateHashTable count;
     private int gbFieldId, aFieldId;
     private Type gbFieldType;
     private Op what;
-    private static final Field NO_GROUPING_FIELD = new IntField(Integer.MAX_VALUE);
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         gbFieldId = gbfield;
@@ -31,14 +25,7 @@ public class StringAggregator implements Aggregator {
         if (what != Op.COUNT)
             throw new IllegalArgumentException("unsupported operator");
         this.what = what;
-        count = new HashMap<Field, Integer>();
-    }
-
-    private Field initGroupby(Tuple tup) {
-        if (gbFieldId == NO_GROUPING)
-            return NO_GROUPING_FIELD;
-        else
-            return tup.getField(gbFieldId);
+        count = new AggregateHashTable(gbfield == NO_GROUPING ? null : gbfieldtype, new Op[] {what});
     }
 
     /**
@@ -46,10 +33,20 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void merge(Tuple tup) {
-        Field gbField = initGroupby(tup);
-        if (! count.containsKey(gbField) )
-            count.put(gbField, 1);
-        else count.put(gbField, count.get(gbField) + 1);
+        int g = gbFieldId == NO_GROUPING
+                ? count.findOrInsert((Field) null)
+                : count.findOrInsert(tup.getField(gbFieldId));
+        count.merge(g, 0);
+    }
+
+    /**
+     * Merge the groups of another StringAggregator into this one.
+     * @param other a StringAggregator constructed with the same arguments
+     */
+    public void combine(Aggregator other) {
+        if (!(other instanceof StringAggregator))
+            throw new IllegalArgumentException("can only combine with a StringAggregator");
+        count.combine(((StringAggregator) other).count);
     }
 
     /**
@@ -66,17 +63,6 @@ public class StringAggregator implements Aggregator {
                         ? new Type[] {Type.INT_TYPE}
                         : new Type[] {gbFieldType, Type.INT_TYPE}
         );
-        List<Tuple> tuples = new LinkedList<Tuple>();
-        for (Map.Entry<Field, Integer> entry: count.entrySet()) {
-            Tuple tp = new Tuple(td);
-            if (gbFieldId == NO_GROUPING)
-                tp.setField(0, new IntField(entry.getValue()));
-            else {
-                tp.setField(0, entry.getKey());
-                tp.setField(1, new IntField(entry.getValue()));
-            }
-            tuples.add(tp);
-        }
-        return new TupleIterator(td, tuples);
+        return count.iterator(td);
     }
 }
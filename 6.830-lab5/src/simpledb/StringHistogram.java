@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.*;
+
 /** A class to represent a fixed-width histogram over a single String-based field.
  */
 public class StringHistogram {
@@ -45,6 +47,23 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /** Remove a value that was previously added to the histogram */
+    public void removeValue(String s) {
+        hist.removeValue(stringToInt(s));
+    }
+
+    /** Writes this histogram in the form read by {@link #readFrom}. */
+    public void writeTo(DataOutputStream out) throws IOException {
+        hist.writeTo(out);
+    }
+
+    /** Reads a histogram written by {@link #writeTo}. */
+    public static StringHistogram readFrom(DataInputStream in) throws IOException {
+        StringHistogram h = new StringHistogram(1);
+        h.hist = IntHistogram.readFrom(in);
+        return h;
+    }
+
     /** Estimate the selectivity (as a double between 0 and 1) of the specified predicate over the specified string 
         @param op The operation being applied
         @param s The string to apply op to 
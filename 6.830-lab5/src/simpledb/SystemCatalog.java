@@ -0,0 +1,331 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * SystemCatalog keeps the descriptions of the tables of a schema file in
+ * SimpleDB tables, stored as HeapFiles in a directory next to the schema
+ * file (<tt>catalog.txt.sys</tt> for <tt>catalog.txt</tt>):
+ * <ul>
+ * <li><tt>tables.dat</tt> (table_id, name, file, layout, primary_key),
+ *     with a row for each table,</li>
+ * <li><tt>columns.dat</tt> (table_id, position, name, type, max_length),
+ *     with a row for each column, in order, and</li>
+ * <li><tt>groups.dat</tt> (table_id, field1, field2), with a row for each
+ *     column group, and</li>
+ * <li><tt>schema.dat</tt> (length, checksum), with the length and CRC-32
+ *     of the schema file the other tables were written from, so that an
+ *     edit to it is noticed whenever it was made.</li>
+ * </ul>
+ * A table keeps the id it was first given for as long as its name stays in
+ * the schema, wherever its file is moved.  New ids count up from a base
+ * derived from the path of the schema file, so that the tables of
+ * different schemas loaded into one Catalog do not share ids.
+ * <p>
+ * The system tables are read and written a page at a time, without going
+ * through the BufferPool; while they are, they are known by reserved ids in
+ * the Catalog of the {@link Database}, where their pages find their
+ * schemas.  They are always rewritten as a whole: the new tables are
+ * written to a directory of their own, which then replaces the old one.
+ */
+class SystemCatalog {
+    static final TupleDesc TABLES_TD = new TupleDesc(
+        new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+        new String[] {"table_id", "name", "file", "layout", "primary_key"});
+    static final TupleDesc COLUMNS_TD = new TupleDesc(
+        new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+        new String[] {"table_id", "position", "name", "type", "max_length"});
+    static final TupleDesc GROUPS_TD = new TupleDesc(
+        new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+        new String[] {"table_id", "field1", "field2"});
+    static final TupleDesc SCHEMA_TD = new TupleDesc(
+        new Type[] {Type.LONG_TYPE, Type.LONG_TYPE},
+        new String[] {"length", "checksum"});
+
+    private static final String TABLES = "tables.dat", COLUMNS = "columns.dat", GROUPS = "groups.dat",
+        SCHEMA = "schema.dat";
+
+    /**
+     * The ids the system tables are known by while they are read or
+     * written, which no table of a schema is given (see {@link #idFor}).
+     */
+    private static final int TABLES_ID = -1, COLUMNS_ID = -2, GROUPS_ID = -3, SCHEMA_ID = -4;
+
+    private final File schema;
+    private final File dir;
+
+    /** the ids of the tables in the system catalog by name, read when first needed */
+    private HashMap<String, Integer> ids;
+    private int nextId;
+
+    /**
+     * Constructor.
+     *
+     * @param schema the schema file the system catalog describes
+     */
+    SystemCatalog(File schema) {
+        this.schema = schema;
+        this.dir = new File(schema.getPath() + ".sys");
+        File old = old();
+        if (!dir.exists() && old.exists())
+            old.renameTo(dir);   // a rewrite was interrupted after the old tables were moved away
+    }
+
+    private File old() {
+        return new File(dir.getPath() + ".old");
+    }
+
+    /**
+     * @return true if the system catalog describes the schema file as it
+     *   is now, because it was written from a file of the same length and
+     *   checksum
+     */
+    boolean isCurrent() {
+        if (!new File(dir, TABLES).exists() || !new File(dir, SCHEMA).exists())
+            return false;
+        try {
+            List<Tuple> rows;
+            synchronized (SystemCatalog.class) {
+                rows = scan(SCHEMA, SCHEMA_ID, SCHEMA_TD);
+            }
+            long[] now = fingerprint(schema);
+            return rows.size() == 1 && longAt(rows.get(0), 0) == now[0] && longAt(rows.get(0), 1) == now[1];
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** @return the length and CRC-32 of the contents of a file */
+    private static long[] fingerprint(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        long length = 0;
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+                length += n;
+            }
+        } finally {
+            in.close();
+        }
+        return new long[] {length, crc.getValue()};
+    }
+
+    /**
+     * @return the tables of the system catalog, in the order they are in
+     *   the schema file, with their files not yet opened
+     */
+    List<Catalog.Table> read() throws IOException {
+        synchronized (SystemCatalog.class) {
+            HashMap<Integer, ArrayList<Tuple>> columns = byTable(scan(COLUMNS, COLUMNS_ID, COLUMNS_TD));
+            HashMap<Integer, ArrayList<Tuple>> groups = byTable(scan(GROUPS, GROUPS_ID, GROUPS_TD));
+            List<Catalog.Table> tables = new ArrayList<Catalog.Table>();
+            for (Tuple t : scan(TABLES, TABLES_ID, TABLES_TD)) {
+                int id = intAt(t, 0);
+                ArrayList<Tuple> cols = columns.get(id);
+                if (cols == null)
+                    throw new IOException("table " + stringAt(t, 1) + " has no columns");
+                Type[] types = new Type[cols.size()];
+                String[] names = new String[cols.size()];
+                int[] maxLengths = new int[cols.size()];
+                for (Tuple c : cols) {
+                    int i = intAt(c, 1);
+                    names[i] = stringAt(c, 2);
+                    try {
+                        types[i] = Type.valueOf(stringAt(c, 3));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("unknown type " + stringAt(c, 3));
+                    }
+                    maxLengths[i] = intAt(c, 4);
+                }
+                String layout = stringAt(t, 3);
+                Catalog.Table table = new Catalog.Table(id, stringAt(t, 1), new TupleDesc(types, names),
+                        stringAt(t, 4), stringAt(t, 2), layout,
+                        layout.equals(Catalog.SLOTTED) ? maxLengths : null);
+                if (groups.containsKey(id))
+                    for (Tuple g : groups.get(id))
+                        table.columnGroups().add(new String[] {stringAt(g, 1), stringAt(g, 2)});
+                tables.add(table);
+            }
+            return tables;
+        }
+    }
+
+    /**
+     * @return the id of the table with the given name in the system
+     *   catalog, or, for a table it does not have, an id no other table of
+     *   the schema has
+     */
+    int idFor(String name) {
+        if (ids == null) {
+            ids = new HashMap<String, Integer>();
+            nextId = ((schema.getAbsolutePath().hashCode() & 0x7fff) << 16) + 1;
+            if (new File(dir, TABLES).exists()) {
+                try {
+                    synchronized (SystemCatalog.class) {
+                        for (Tuple t : scan(TABLES, TABLES_ID, TABLES_TD)) {
+                            ids.put(stringAt(t, 1), intAt(t, 0));
+                            nextId = Math.max(nextId, intAt(t, 0) + 1);
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("Can't read the ids of " + this + ": " + e.getMessage());
+                }
+            }
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = nextId++;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Replaces the contents of the system catalog with the given tables,
+     * which the schema file as it is now describes.
+     */
+    void write(List<Catalog.Table> tables) throws IOException {
+        long[] fingerprint = fingerprint(schema);
+        ArrayList<Tuple> schemaRows = new ArrayList<Tuple>();
+        schemaRows.add(row(SCHEMA_TD, fingerprint[0], fingerprint[1]));
+        ArrayList<Tuple> tableRows = new ArrayList<Tuple>();
+        ArrayList<Tuple> columnRows = new ArrayList<Tuple>();
+        ArrayList<Tuple> groupRows = new ArrayList<Tuple>();
+        for (Catalog.Table table : tables) {
+            tableRows.add(row(TABLES_TD, table.id(), table.name(), table.path(), table.layout(),
+                              table.primaryKey()));
+            TupleDesc td = table.getTupleDesc();
+            for (int i = 0; i < td.numFields(); ++i)
+                columnRows.add(row(COLUMNS_TD, table.id(), i, td.getFieldName(i), td.getType(i).name(),
+                                   table.maxLengths() == null ? Type.STRING_LEN : table.maxLengths()[i]));
+            for (String[] group : table.columnGroups())
+                groupRows.add(row(GROUPS_TD, table.id(), group[0], group[1]));
+        }
+
+        synchronized (SystemCatalog.class) {
+            File tmp = new File(dir.getPath() + ".new");
+            delete(tmp);
+            if (!tmp.mkdirs())
+                throw new IOException("can't create " + tmp);
+            store(new File(tmp, TABLES), TABLES_ID, TABLES_TD, tableRows);
+            store(new File(tmp, COLUMNS), COLUMNS_ID, COLUMNS_TD, columnRows);
+            store(new File(tmp, GROUPS), GROUPS_ID, GROUPS_TD, groupRows);
+            store(new File(tmp, SCHEMA), SCHEMA_ID, SCHEMA_TD, schemaRows);
+
+            File old = old();
+            delete(old);
+            if (dir.exists() && !dir.renameTo(old))
+                throw new IOException("can't replace " + dir);
+            if (!tmp.renameTo(dir))
+                throw new IOException("can't replace " + dir);
+            delete(old);
+        }
+
+        ids = null;   // read again from the new tables when next needed
+    }
+
+    public String toString() {
+        return dir.getPath();
+    }
+
+    private static Tuple row(TupleDesc td, Object... values) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] instanceof Integer)
+                t.setField(i, new IntField((Integer) values[i]));
+            else if (values[i] instanceof Long)
+                t.setField(i, new LongField((Long) values[i]));
+            else
+                t.setField(i, new StringField(values[i] == null ? "" : (String) values[i], Type.STRING_LEN));
+        }
+        return t;
+    }
+
+    private static int intAt(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    private static long longAt(Tuple t, int i) {
+        return ((LongField) t.getField(i)).getValue();
+    }
+
+    private static String stringAt(Tuple t, int i) {
+        return ((StringField) t.getField(i)).getValue();
+    }
+
+    private static HashMap<Integer, ArrayList<Tuple>> byTable(List<Tuple> rows) {
+        HashMap<Integer, ArrayList<Tuple>> byTable = new HashMap<Integer, ArrayList<Tuple>>();
+        for (Tuple t : rows) {
+            ArrayList<Tuple> list = byTable.get(intAt(t, 0));
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                byTable.put(intAt(t, 0), list);
+            }
+            list.add(t);
+        }
+        return byTable;
+    }
+
+    /** @return the rows of one of the system tables */
+    private List<Tuple> scan(String name, int id, TupleDesc td) throws IOException {
+        File f = new File(dir, name);
+        if (!f.exists())
+            throw new FileNotFoundException(f.getPath());
+        HeapFile hf = new HeapFile(f, td);
+        hf.setId(id);
+        Database.getCatalog().addSystemTable(hf);
+        try {
+            List<Tuple> rows = new ArrayList<Tuple>();
+            for (int pageno = 0; pageno < hf.numPages(); ++pageno) {
+                HeapPage page = (HeapPage) hf.readPage(new HeapPageId(id, pageno));
+                if (page == null)
+                    throw new IOException("can't read page " + pageno + " of " + f);
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext())
+                    rows.add(it.next());
+            }
+            return rows;
+        } finally {
+            Database.getCatalog().removeSystemTable(id);
+        }
+    }
+
+    /** Writes the rows of one of the system tables to a new file. */
+    private void store(File f, int id, TupleDesc td, List<Tuple> rows) throws IOException {
+        new FileOutputStream(f).close();
+        HeapFile hf = new HeapFile(f, td);
+        hf.setId(id);
+        Database.getCatalog().addSystemTable(hf);
+        try {
+            HeapPage page = null;
+            int pageno = 0;
+            for (Tuple t : rows) {
+                if (page == null || page.getNumEmptySlots() == 0) {
+                    if (page != null)
+                        hf.writePage(page);
+                    page = new HeapPage(new HeapPageId(id, pageno++), HeapPage.createEmptyPageData());
+                }
+                page.addTuple(t);
+            }
+            if (page != null)
+                hf.writePage(page);
+        } catch (DbException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            Database.getCatalog().removeSystemTable(id);
+        }
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        f.delete();
+    }
+}
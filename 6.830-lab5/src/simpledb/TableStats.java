@@ -1,11 +1,41 @@
 package simpledb;
 
 
-import java.util.Arrays;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
-/** TableStats represents statistics (e.g., histograms) about base tables in a query */
+/**
+ * TableStats represents statistics (e.g., histograms) about base tables in a query.
+ * Each column is summarized by a {@link ColumnStats}: its most common
+ * values, an equi-depth histogram of the others, and a sketch of its
+ * number of distinct values.  Pairs of columns declared as correlated with
+ * {@link Catalog#addColumnGroup} are also summarized together, by a
+ * {@link ColumnGroupStats}, and conjunctions of predicates over them are
+ * estimated from it (see {@link #estimateSelectivity(List)}).
+ * <p>
+ * Statistics obtained through {@link #load} or {@link #analyze} are saved to a
+ * sidecar file next to the table's data file (<tt>emp.dat</tt> has
+ * <tt>emp.stats</tt>), so they are only computed from the data when a table
+ * has no statistics yet.  They are also registered, so that {@link Insert}
+ * and {@link Delete} can keep the tuple count and histograms up to date as
+ * tuples are added and removed.  Once the number of such changes exceeds
+ * the refresh fraction (see {@link #setRefreshFraction}) of the table, the
+ * statistics are recomputed by a background thread.  Changes made by
+ * transactions that later abort are counted as well; the next refresh
+ * corrects them.
+ * <p>
+ * Statistics are computed in a single pass from a sample of at most
+ * {@link #setSampleSize} tuples, kept with reservoir sampling.  Tables
+ * with more than {@link #setSamplePages} pages are block sampled: only
+ * that many randomly chosen pages are read, so the cost of computing
+ * statistics does not grow with the table.  Distinct values are counted
+ * over every tuple read, not just the sample.  The sampling error is
+ * reported by {@link #cardinalityErrorBound} and
+ * {@link #selectivityErrorBound}.
+ */
 public class TableStats {
-    
+
     /**
      * Number of bins for the histogram.
      * Feel free to increase this value over 100,
@@ -13,86 +43,628 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /** Fraction of a table that must change before its statistics are refreshed, unless changed. */
+    public static final double DEFAULT_REFRESH_FRACTION = 0.2;
+
+    /** Most tuples statistics are computed from, unless changed. */
+    public static final int DEFAULT_SAMPLE_SIZE = 1 << 16;
+
+    /** Tables with more pages than this are block sampled, unless changed. */
+    public static final int DEFAULT_SAMPLE_PAGES = 1024;
+
+    /** Two-sided 95% normal quantile, for the reported error bounds. */
+    private static final double Z_95 = 1.96;
+
+    private static final int STATS_MAGIC = 0x53444235; // "SDB5"
+
+    /** Tables with fewer tuples than this count as this large when deciding to refresh. */
+    private static final int MIN_REFRESH_TUPLES = 1000;
+
+    private static double refreshFraction = DEFAULT_REFRESH_FRACTION;
+    private static int sampleSize = DEFAULT_SAMPLE_SIZE;
+    private static int samplePages = DEFAULT_SAMPLE_PAGES;
+
+    /** statistics maintained by Insert and Delete, by table id */
+    private static final ConcurrentHashMap<Integer, TableStats> registry =
+        new ConcurrentHashMap<Integer, TableStats>();
+
+    private static ExecutorService refresher;
+
+    private final int tableid;
     private int ioCostPerPage;
     private int numPages, numTuples;
-    private Object[] hists;
+    private ColumnStats[] columns;
+    private ColumnGroupStats[] groups = new ColumnGroupStats[0];
+    /** tuples the histograms were built from */
+    private int sampledTuples;
+    /** true if every tuple of the table was in the sample */
+    private boolean exact;
+    /** half-width of the 95% confidence interval of numTuples */
+    private double cardinalityError;
+    /** tuples inserted or deleted since the statistics were computed */
+    private int changes;
+    private boolean refreshPending;
+    /**
+     * the tuples inserted (true) or deleted (false) while compute() reads
+     * the table, as {tuple, inserted}, or null if it is not running
+     */
+    private ArrayList<Object[]> changedDuringCompute;
+    /** held by compute(), so that the table is read by one at a time */
+    private final Object computeLock = new Object();
+    /** number of times the statistics have been computed */
+    private int version;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each column of a table
-     * 
+     *
      * @param tableid The table over which to compute statistics
-     * @param ioCostPerPage The cost per page of IO.  
+     * @param ioCostPerPage The cost per page of IO.
      * 		                This doesn't differentiate between sequential-scan IO and disk seeks.
      */
     public TableStats (int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the DbFile for the table in question,
-    	// then scan through its tuples and calculate the values that you need.
-    	// You should try to do this reasonably efficiently, but you don't necessarily
-    	// have to (for example) do everything in a single scan of the table.
-    	// some code goes here
-        HeapFile file = ((HeapFile) Database.getCatalog().getDbFile(tableid));
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        compute();
+    }
+
+    private TableStats(int tableid, int ioCostPerPage, boolean compute) {
+        this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        numPages = file.numPages();
-        numTuples = 0;
-        DbFileIterator itr = file.iterator(new TransactionId());
+        if (compute)
+            compute();
+    }
+
+    /**
+     * Computes the statistics from the table's data file, in one pass over
+     * all of its pages or over a random sample of them.  Pages are read
+     * directly from the file rather than through the buffer pool, so no
+     * locks are taken and the pages cached by queries stay in place; the
+     * statistics reflect the data last written to disk.  Tuples inserted or
+     * deleted while the table is read are applied to the new statistics as
+     * well, and still count as changes.
+     */
+    private void compute() {
+        synchronized (computeLock) {
+            int changesBefore;
+            synchronized (this) {
+                changesBefore = changes;
+                changedDuringCompute = new ArrayList<Object[]>();
+            }
+            try {
+                compute(changesBefore);
+            } finally {
+                synchronized (this) {
+                    changedDuringCompute = null;
+                }
+            }
+        }
+    }
+
+    private void compute(int changesBefore) {
+        HeapFile file = ((HeapFile) Database.getCatalog().getDbFile(tableid));
         TupleDesc td = file.getTupleDesc();
-        int numFields = td.numFields();
-        int[] mins = new int[numFields], maxs = new int[numFields];
-        Arrays.fill(mins, Integer.MAX_VALUE);
-        Arrays.fill(maxs, Integer.MIN_VALUE);
-        hists = new Object[numFields];
-        try {
-            itr.open();
-            while (itr.hasNext()) {
-                Tuple t = itr.next();
-                for (int i = 0; i < numFields; ++i) {
-                    if (td.getType(i) == Type.INT_TYPE) {
-                        int v = ((IntField) t.getField(i)).getValue();
-                        mins[i] = Math.min(mins[i], v);
-                        maxs[i] = Math.max(maxs[i], v);
+        int pages = file.numPages();
+        // seeded by table, so recomputing unchanged data gives the same statistics
+        Random random = new Random(tableid);
+        int[] pageNos = choosePages(pages, samplePages, random);
+        Reservoir sample = new Reservoir(td, sampleSize, random);
+        HyperLogLog[] sketches = new HyperLogLog[td.numFields()];
+        for (int i = 0; i < sketches.length; ++i)
+            sketches[i] = new HyperLogLog();
+        int[][] groupFields = declaredGroups();
+        HyperLogLog[] groupSketches = new HyperLogLog[groupFields.length];
+        for (int g = 0; g < groupSketches.length; ++g)
+            groupSketches[g] = new HyperLogLog();
+        long tuples = 0;
+        double sumSquares = 0;
+        for (int pageNo : pageNos) {
+            Page page = file.readPage(new HeapPageId(tableid, pageNo));
+            if (page == null)
+                continue;
+            int onPage = 0;
+            Iterator<Tuple> it = ((HeapPage) page).iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                sample.offer(t);
+                for (int i = 0; i < sketches.length; ++i)
+                    sketches[i].add(t.getField(i));
+                for (int g = 0; g < groupSketches.length; ++g)
+                    groupSketches[g].add(t.getField(groupFields[g][0]), t.getField(groupFields[g][1]));
+                ++onPage;
+            }
+            tuples += onPage;
+            sumSquares += (double) onPage * onPage;
+        }
+
+        long estimate = tuples;
+        double error = 0;
+        int m = pageNos.length;
+        if (m < pages) {
+            // scale the mean tuples per sampled page up to the table; the
+            // error is that of a mean over m of the pages, without replacement
+            double mean = (double) tuples / m;
+            estimate = Math.round(mean * pages);
+            double variance = m > 1 ? (sumSquares - m * mean * mean) / (m - 1) : 0;
+            error = Z_95 * pages * Math.sqrt(Math.max(0, variance) / m * (1 - (double) m / pages));
+        }
+        // before columnStats, which reorders the sampled values of each column
+        ColumnGroupStats[] newGroups = sample.groupStats(groupFields, estimate, groupSketches, tuples);
+        ColumnStats[] newColumns = sample.columnStats(estimate, sketches, tuples);
+        synchronized (this) {
+            for (Object[] c : changedDuringCompute) {
+                boolean inserted = (Boolean) c[1];
+                update(newColumns, newGroups, (Tuple) c[0], inserted);
+                estimate = inserted ? estimate + 1 : Math.max(0, estimate - 1);
+            }
+            numPages = pages;
+            numTuples = (int) Math.min(Integer.MAX_VALUE, estimate);
+            columns = newColumns;
+            groups = newGroups;
+            sampledTuples = sample.size();
+            exact = m == pages && sample.size() == tuples;
+            cardinalityError = error;
+            changes -= changesBefore;
+            ++version;
+        }
+    }
+
+    /** @return the field indexes of the column groups declared for the table */
+    private int[][] declaredGroups() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        List<String[]> declared = Database.getCatalog().getColumnGroups(tableid);
+        int[][] fields = new int[declared.size()][];
+        for (int g = 0; g < fields.length; ++g)
+            fields[g] = new int[] {td.nameToId(declared.get(g)[0]), td.nameToId(declared.get(g)[1])};
+        return fields;
+    }
+
+    /**
+     * @return all page numbers of a table in order, or count distinct
+     *   random ones (in order) if the table has more pages than that
+     */
+    private static int[] choosePages(int pages, int count, Random random) {
+        if (pages <= count) {
+            int[] all = new int[pages];
+            for (int i = 0; i < pages; ++i)
+                all[i] = i;
+            return all;
+        }
+        // Floyd's algorithm: count distinct values in [0, pages)
+        HashSet<Integer> chosen = new HashSet<Integer>();
+        for (int j = pages - count; j < pages; ++j) {
+            int t = random.nextInt(j + 1);
+            chosen.add(chosen.contains(t) ? j : t);
+        }
+        int[] pageNos = new int[count];
+        int i = 0;
+        for (int pageNo : chosen)
+            pageNos[i++] = pageNo;
+        // read in file order
+        Arrays.sort(pageNos);
+        return pageNos;
+    }
+
+    /**
+     * A uniform sample of at most a fixed number of tuples (reservoir
+     * sampling), stored as one array of values per column.
+     */
+    private static class Reservoir {
+        private final TupleDesc td;
+        private final Random random;
+        private final int capacity;
+        private Field[][] values;
+        private int size;
+        private long offered;
+
+        Reservoir(TupleDesc td, int capacity, Random random) {
+            this.td = td;
+            this.capacity = capacity;
+            this.random = random;
+            values = new Field[td.numFields()][Math.min(capacity, 1024)];
+        }
+
+        void offer(Tuple t) {
+            ++offered;
+            int slot;
+            if (size < capacity) {
+                slot = size++;
+                if (values.length > 0 && slot == values[0].length)
+                    grow();
+            } else {
+                long r = (long) (random.nextDouble() * offered);
+                if (r >= capacity)
+                    return;
+                slot = (int) r;
+            }
+            for (int i = 0; i < values.length; ++i)
+                values[i][slot] = t.getField(i);
+        }
+
+        private void grow() {
+            int n = (int) Math.min(capacity, 2L * values[0].length);
+            for (int i = 0; i < values.length; ++i)
+                values[i] = Arrays.copyOf(values[i], n);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param fields the field indexes of each column group
+         * @param rows the estimated number of tuples in the table
+         * @param sketches a sketch of each group over every tuple offered
+         * @param read the number of tuples offered
+         * @return the statistics of each column group, built from the sample
+         */
+        ColumnGroupStats[] groupStats(int[][] fields, long rows, HyperLogLog[] sketches, long read) {
+            ColumnGroupStats[] groups = new ColumnGroupStats[fields.length];
+            for (int g = 0; g < fields.length; ++g) {
+                int f1 = fields[g][0], f2 = fields[g][1];
+                groups[g] = ColumnGroupStats.build(f1, f2, values[f1], values[f2], size, rows,
+                                                   sketches[g], read);
+            }
+            return groups;
+        }
+
+        /**
+         * @param rows the estimated number of tuples in the table
+         * @param sketches a sketch of each column over every tuple offered
+         * @param read the number of tuples offered
+         * @return the statistics of each column, built from the sample
+         */
+        ColumnStats[] columnStats(long rows, HyperLogLog[] sketches, long read) {
+            ColumnStats[] columns = new ColumnStats[values.length];
+            for (int i = 0; i < values.length; ++i)
+                columns[i] = ColumnStats.build(td.getType(i), values[i], size, rows,
+                                               sketches[i], read, NUM_HIST_BINS);
+            return columns;
+        }
+    }
+
+    /**
+     * Returns the statistics of a table, read from its sidecar file if it
+     * has one and computed (and saved) otherwise.  The statistics are
+     * registered, so that Insert and Delete maintain them.  If the data file
+     * has changed size since the statistics were saved, a background
+     * refresh is scheduled.
+     *
+     * @param tableid the table to return statistics for
+     * @param ioCostPerPage the cost per page of IO
+     */
+    public static TableStats load(int tableid, int ioCostPerPage) {
+        TableStats s = new TableStats(tableid, ioCostPerPage, false);
+        File f = statsFile(tableid);
+        if (f == null || !f.exists() || !s.read(f)) {
+            s.compute();
+            s.saveQuietly();
+        }
+        registry.put(tableid, s);
+        s.maybeRefresh();
+        return s;
+    }
+
+    /**
+     * Recomputes the statistics of a table from its data, saves and
+     * registers them.  If the table already has registered statistics they
+     * are updated in place, so plans built from them see the new values.
+     *
+     * @param tableid the table to analyze
+     * @param ioCostPerPage the cost per page of IO
+     * @return the registered statistics of the table
+     */
+    public static TableStats analyze(int tableid, int ioCostPerPage) {
+        TableStats s = registry.get(tableid);
+        if (s == null) {
+            s = new TableStats(tableid, ioCostPerPage, false);
+            registry.put(tableid, s);
+        }
+        synchronized (s) {
+            s.ioCostPerPage = ioCostPerPage;
+        }
+        s.compute();
+        s.saveQuietly();
+        return s;
+    }
+
+    /**
+     * @return the number of times these statistics have been computed from
+     *   the data.  It changes when the table is analyzed, or when enough of
+     *   it has changed to be refreshed, so a plan chosen from an earlier
+     *   version may no longer be a good one.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /** @return the registered statistics of a table, or null if it has none */
+    public static TableStats getTableStats(int tableid) {
+        return registry.get(tableid);
+    }
+
+    /** Forgets the statistics of a table that has been dropped. */
+    static void forget(int tableid) {
+        registry.remove(tableid);
+    }
+
+    /**
+     * Forgets the statistics of every table, whose ids may be reused by
+     * the tables of a new catalog.
+     */
+    static void forgetAll() {
+        registry.clear();
+    }
+
+    /**
+     * Sets the fraction of a table's tuples that must be inserted or
+     * deleted before its registered statistics are recomputed.
+     */
+    public static void setRefreshFraction(double fraction) {
+        if (fraction <= 0)
+            throw new IllegalArgumentException("refresh fraction must be positive");
+        refreshFraction = fraction;
+    }
+
+    /**
+     * Sets the largest number of tuples statistics computed from now on are
+     * built from.  Larger tables are represented by a uniform sample.
+     */
+    public static void setSampleSize(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("sample size must be positive");
+        sampleSize = tuples;
+    }
+
+    /**
+     * Sets the largest number of pages read to compute statistics from now
+     * on.  Larger tables are block sampled: that many random pages are read.
+     */
+    public static void setSamplePages(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("sample pages must be positive");
+        samplePages = pages;
+    }
+
+    /** Called by {@link Insert} for each tuple added to a table. */
+    static void tupleInserted(int tableid, Tuple t) {
+        TableStats s = registry.get(tableid);
+        if (s != null)
+            s.recordChange(t, true);
+    }
+
+    /** Called by {@link Delete} for each tuple removed from a table. */
+    static void tupleDeleted(int tableid, Tuple t) {
+        TableStats s = registry.get(tableid);
+        if (s != null)
+            s.recordChange(t, false);
+    }
+
+    /**
+     * Adds the values of an inserted tuple to column and column-group
+     * statistics, or removes those of a deleted one.
+     */
+    private static void update(ColumnStats[] columns, ColumnGroupStats[] groups,
+                               Tuple t, boolean inserted) {
+        for (int i = 0; i < columns.length; ++i) {
+            if (inserted)
+                columns[i].addValue(t.getField(i));
+            else
+                columns[i].removeValue(t.getField(i));
+        }
+        for (ColumnGroupStats g : groups) {
+            Field v1 = t.getField(g.getField1()), v2 = t.getField(g.getField2());
+            if (inserted)
+                g.addValues(v1, v2);
+            else
+                g.removeValues(v1, v2);
+        }
+    }
+
+    private void recordChange(Tuple t, boolean inserted) {
+        synchronized (this) {
+            if (columns == null)
+                return;
+            update(columns, groups, t, inserted);
+            if (changedDuringCompute != null)
+                changedDuringCompute.add(new Object[] {t, inserted});
+            if (inserted) {
+                ++numTuples;
+                DbFile file = Database.getCatalog().getDbFile(tableid);
+                if (file instanceof HeapFile)
+                    numPages = Math.max(numPages, ((HeapFile) file).numPages());
+            } else if (numTuples > 0) {
+                --numTuples;
+            }
+            ++changes;
+        }
+        maybeRefresh();
+    }
+
+    /** Schedules a background refresh if enough of the table has changed. */
+    private void maybeRefresh() {
+        synchronized (this) {
+            if (refreshPending || changes <= refreshFraction * Math.max(numTuples, MIN_REFRESH_TUPLES))
+                return;
+            refreshPending = true;
+        }
+        refresher().execute(new Runnable() {
+            public void run() {
+                try {
+                    if (registry.get(tableid) == TableStats.this) {
+                        compute();
+                        saveQuietly();
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    synchronized (TableStats.this) {
+                        refreshPending = false;
                     }
                 }
-                ++numTuples;
             }
-            for (int i = 0; i < numFields; ++i) {
-                if (td.getType(i) == Type.INT_TYPE)
-                    hists[i] = new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
-                else
-                    hists[i] = new StringHistogram(NUM_HIST_BINS);
+        });
+    }
+
+    private static synchronized ExecutorService refresher() {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TableStats refresh");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return refresher;
+    }
+
+    /**
+     * @return the sidecar file holding the saved statistics of a table, or
+     *   null if the table is not stored in a file
+     */
+    public static File statsFile(int tableid) {
+        DbFile dbFile = Database.getCatalog().getDbFile(tableid);
+        if (!(dbFile instanceof HeapFile))
+            return null;
+        File data = ((HeapFile) dbFile).getFile();
+        String name = data.getName();
+        if (name.endsWith(".dat"))
+            name = name.substring(0, name.length() - ".dat".length());
+        return new File(data.getAbsoluteFile().getParentFile(), name + ".stats");
+    }
+
+    /**
+     * Writes these statistics to the table's sidecar file.
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        File f = statsFile(tableid);
+        if (f == null)
+            return;
+        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        synchronized (this) {
+            out.writeInt(STATS_MAGIC);
+            out.writeLong(file.getFile().length());
+            out.writeInt(numPages);
+            out.writeInt(numTuples);
+            out.writeInt(sampledTuples);
+            out.writeBoolean(exact);
+            out.writeDouble(cardinalityError);
+            out.writeInt(td.numFields());
+            for (int i = 0; i < td.numFields(); ++i) {
+                out.writeByte(td.getType(i).ordinal());
+                columns[i].writeTo(out);
             }
-            itr.rewind();
-            while (itr.hasNext()) {
-                Tuple t = itr.next();
-                for (int i = 0; i < numFields; ++i) {
-                    if (td.getType(i) == Type.INT_TYPE)
-                        ( (IntHistogram) hists[i] ).addValue(( (IntField) t.getField(i) ).getValue());
-                    else
-                        ( (StringHistogram) hists[i] ).addValue(( (StringField) t.getField(i) ).getValue());
+            out.writeInt(groups.length);
+            for (ColumnGroupStats g : groups)
+                g.writeTo(out);
+        }
+        out.close();
+        // write a temporary file and rename it, so a crash never leaves a partial file
+        File tmp = new File(f.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            fos.write(bytes.toByteArray());
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("could not replace " + f);
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            System.err.println("Could not save statistics of table " + tableid + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads statistics saved by {@link #save}.
+     * @return false if the file is unreadable or does not match the table's schema
+     */
+    private boolean read(File f) {
+        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                if (in.readInt() != STATS_MAGIC)
+                    return false;
+                long dataLength = in.readLong();
+                int pages = in.readInt();
+                int tuples = in.readInt();
+                int sampled = in.readInt();
+                boolean wasExact = in.readBoolean();
+                double error = in.readDouble();
+                if (in.readInt() != td.numFields())
+                    return false;
+                ColumnStats[] newColumns = new ColumnStats[td.numFields()];
+                for (int i = 0; i < td.numFields(); ++i) {
+                    if (in.readByte() != td.getType(i).ordinal())
+                        return false;
+                    newColumns[i] = ColumnStats.readFrom(in, td.getType(i));
+                }
+                // statistics saved before a column group was declared are stale
+                int[][] groupFields = declaredGroups();
+                if (in.readInt() != groupFields.length)
+                    return false;
+                ColumnGroupStats[] newGroups = new ColumnGroupStats[groupFields.length];
+                for (int g = 0; g < groupFields.length; ++g) {
+                    newGroups[g] = ColumnGroupStats.readFrom(in, td);
+                    if (newGroups[g].getField1() != groupFields[g][0]
+                        || newGroups[g].getField2() != groupFields[g][1])
+                        return false;
                 }
+                synchronized (this) {
+                    numPages = pages;
+                    numTuples = tuples;
+                    columns = newColumns;
+                    groups = newGroups;
+                    sampledTuples = sampled;
+                    exact = wasExact;
+                    cardinalityError = error;
+                    // a data file that changed since the save counts as changed pages
+                    long changedPages = Math.abs(file.getFile().length() - dataLength) / file.getPageSize();
+                    int tuplesPerPage = (file.getPageSize() * 8) / (td.getSize() * 8 + 1);
+                    changes = (int) Math.min(Integer.MAX_VALUE, changedPages * tuplesPerPage);
+                    if (file.getFile().length() != dataLength && changes == 0)
+                        changes = 1;
+                }
+                return true;
+            } finally {
+                in.close();
             }
-            itr.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            return false;
         }
     }
 
-    /** 
+    /**
      * Estimates the
      * cost of sequentially scanning the file, given that the cost to read
      * a page is costPerPageIO.  You can assume that there are no
      * seeks and that no pages are in the buffer pool.
-     * 
+     *
      * Also, assume that your hard drive can only read entire pages at once,
      * so if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page.  (Most real hard drives can't efficiently
      * address regions smaller than a page at a time.)
-     * 
+     *
      * @return The estimated cost of scanning the table.
-     */ 
-    public double estimateScanCost() {
+     */
+    public synchronized double estimateScanCost() {
     	return ioCostPerPage * numPages;
     }
 
-    /** 
+    /**
      * This method returns the number of tuples in the relation,
      * given that a predicate with selectivity selectivityFactor is
      * applied.
@@ -100,25 +672,134 @@ public class TableStats {
      * @param selectivityFactor The selectivity of any predicates over the table
      * @return The estimated cardinality of the scan with the specified selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
         return ((int) (numTuples * selectivityFactor));
     }
 
-    /** 
+    /**
      * Estimate the selectivity of predicate <tt>field op constant</tt> on the table.
-     * 
+     *
      * @param field The field over which the predicate ranges
      * @param op The logical operation in the predicate
      * @param constant The value against which the field is compared
      * @return The estimated selectivity (fraction of tuples that satisfy) the predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        Object h = hists[field];
-        if (constant.getType() == Type.INT_TYPE) {
-            return ((IntHistogram) h).estimateSelectivity(op, ((IntField) constant).getValue());
-        } else {
-            return ((StringHistogram) h).estimateSelectivity(op, ((StringField) constant).getValue());
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        return columns[field].estimateSelectivity(op, constant);
+    }
+
+    /**
+     * Estimate the selectivity of a conjunction of predicates of the form
+     * <tt>field op constant</tt> on the table.  Pairs of predicates over a
+     * declared column group are estimated together; the others are
+     * assumed to be independent.
+     *
+     * @param predicates The predicates, all of which must hold
+     * @return The estimated selectivity (fraction of tuples that satisfy) the conjunction
+     */
+    public synchronized double estimateSelectivity(List<Predicate> predicates) {
+        boolean[] used = new boolean[predicates.size()];
+        double sel = 1.0;
+        for (ColumnGroupStats g : groups) {
+            int p1 = unusedPredicate(predicates, used, g.getField1());
+            int p2 = unusedPredicate(predicates, used, g.getField2());
+            if (p1 < 0 || p2 < 0)
+                continue;
+            Predicate a = predicates.get(p1), b = predicates.get(p2);
+            double joint = g.estimateSelectivity(a.getOp(), a.getOperand(), b.getOp(), b.getOperand());
+            if (joint < 0)
+                continue;
+            sel *= joint;
+            used[p1] = used[p2] = true;
         }
+        for (int i = 0; i < used.length; ++i) {
+            Predicate p = predicates.get(i);
+            if (!used[i])
+                sel *= estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        }
+        return sel;
+    }
+
+    private static int unusedPredicate(List<Predicate> predicates, boolean[] used, int field) {
+        for (int i = 0; i < used.length; ++i)
+            if (!used[i] && predicates.get(i).getField() == field)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @param field1 The first of two fields whose combined values are counted
+     * @param field2 The second field
+     * @return The estimated number of distinct pairs of values of the two
+     *   fields; exact up to sampling only if they are a declared column group
+     */
+    public synchronized double estimateDistinctValues(int field1, int field2) {
+        for (ColumnGroupStats g : groups)
+            if ((g.getField1() == field1 && g.getField2() == field2)
+                || (g.getField1() == field2 && g.getField2() == field1))
+                return g.numDistinct();
+        return Math.max(1, Math.min((double) numTuples,
+                                    columns[field1].numDistinct() * columns[field2].numDistinct()));
+    }
+
+    /**
+     * @param field The field whose values are counted
+     * @return The estimated number of distinct values of the field
+     */
+    public synchronized double estimateDistinctValues(int field) {
+        return columns[field].numDistinct();
+    }
+
+    /**
+     * @param field The field to return statistics for
+     * @return A copy of the statistics of the field, for estimating joins over it
+     */
+    public synchronized ColumnStats getColumnStats(int field) {
+        return columns[field].copy();
+    }
+
+    /** @return the id of the table these statistics describe */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the number of tuples the histograms were built from */
+    public synchronized int getSampleSize() {
+        return sampledTuples;
+    }
+
+    /** @return true if the statistics were computed from every tuple of the table */
+    public synchronized boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return the half-width of a 95% confidence interval around the
+     *   estimated number of tuples in the table; 0 unless it was block sampled
+     */
+    public synchronized double cardinalityErrorBound() {
+        return cardinalityError;
+    }
+
+    /**
+     * @return the half-width of a 95% confidence interval around any
+     *   selectivity estimated from the sample (its worst case, at a
+     *   selectivity of 1/2); 0 if the sample held every tuple.  Block
+     *   samples are treated as samples of independent tuples, which
+     *   understates the error when values are clustered on pages.
+     */
+    public synchronized double selectivityErrorBound() {
+        if (exact || sampledTuples == 0)
+            return 0;
+        double n = sampledTuples;
+        double total = Math.max(numTuples, n);
+        double fpc = total > 1 ? (total - n) / (total - 1) : 0;
+        return Z_95 * 0.5 * Math.sqrt(Math.max(0, fpc) / n);
+    }
+
+    /** @return the number of tuples inserted or deleted since the statistics were computed */
+    public synchronized int getChanges() {
+        return changes;
     }
 
 }
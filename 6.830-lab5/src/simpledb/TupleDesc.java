@@ -161,7 +161,7 @@ public class TupleDesc {
         for (int i = 0; i < numFields(); ++i) {
             Type type = getType(i);
             String name = getFieldName(i);
-            sb.append(type == Type.INT_TYPE ? "INT_TYPE" : "STRING_TYPE");
+            sb.append(type.name());
             sb.append('(');
             sb.append(name);
             if (i < numFields() - 1) sb.append("), ");
@@ -0,0 +1,42 @@
+package simpledb;
+
+/**
+ * TupleToBatchIterator exposes a {@link DbIterator} as a
+ * {@link BatchIterator} by copying the child's tuples into column batches.
+ */
+public class TupleToBatchIterator implements BatchIterator {
+
+    private DbIterator child;
+    private ColumnBatch batch;
+
+    public TupleToBatchIterator(DbIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new ColumnBatch(child.getTupleDesc());
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("TupleToBatchIterator not open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.append(child.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -7,6 +7,11 @@ import java.io.*;
  * Class representing a type in SimpleDB.
  * Types are static objects defined by this class; hence, the Type
  * constructor is private.
+ * <p>
+ * Every type but STRING_TYPE stores its values in a fixed number of bytes
+ * as a single int, long or double, and can convert them to and from the 64
+ * bits the value is stored as (see {@link #bits}), which is how operators
+ * such as the aggregates handle values of those types without boxing them.
  */
 public enum Type {
     INT_TYPE() {
@@ -24,6 +29,21 @@ public enum Type {
             }
         }
 
+        @Override
+        public Field fromString(String s) {
+            return new IntField(Integer.parseInt(s));
+        }
+
+        @Override
+        long bits(Field f) {
+            return ((IntField) f).getValue();
+        }
+
+        @Override
+        Field fromBits(long bits) {
+            return new IntField((int) bits);
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -35,15 +55,140 @@ public enum Type {
             try {
                 int strLen = dis.readInt();
                 byte bs[] = new byte[strLen];
-                dis.read(bs);
+                dis.readFully(bs);
                 dis.skipBytes(STRING_LEN-strLen);
                 return new StringField(new String(bs), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field fromString(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return new LongField(Long.parseLong(s));
+        }
+
+        @Override
+        long bits(Field f) {
+            return ((LongField) f).getValue();
+        }
+
+        @Override
+        Field fromBits(long bits) {
+            return new LongField(bits);
+        }
+
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return new DoubleField(Double.parseDouble(s));
+        }
+
+        @Override
+        long bits(Field f) {
+            return Double.doubleToLongBits(((DoubleField) f).getValue());
+        }
+
+        @Override
+        Field fromBits(long bits) {
+            return new DoubleField(Double.longBitsToDouble(bits));
+        }
+
+    }, DATE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return DateField.valueOf(s);
+        }
+
+        @Override
+        long bits(Field f) {
+            return ((DateField) f).getTime();
+        }
+
+        @Override
+        Field fromBits(long bits) {
+            return new DateField(bits);
+        }
+
+    }, DECIMAL_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return DecimalField.ofUnscaled(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field fromString(String s) {
+            return DecimalField.valueOf(s);
+        }
+
+        @Override
+        long bits(Field f) {
+            return ((DecimalField) f).getUnscaledValue();
+        }
+
+        @Override
+        Field fromBits(long bits) {
+            return DecimalField.ofUnscaled(bits);
+        }
     };
-    
+
     public static final int STRING_LEN = 128;
 
   /**
@@ -60,4 +205,53 @@ public enum Type {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field of this type holding the value written as text in s,
+   *   such as a constant of a query or a value of a text file to encode
+   * @throws IllegalArgumentException (such as a NumberFormatException) if s
+   *   is not a value of this type
+   */
+    public abstract Field fromString(String s);
+
+  /**
+   * @return the 64 bits the value of f, a field of this type, is stored as:
+   *   the value of an INT, LONG, DATE (in milliseconds since the epoch) or
+   *   DECIMAL (unscaled) field, or the IEEE 754 bits of a DOUBLE field
+   * @throws UnsupportedOperationException for STRING_TYPE
+   */
+    long bits(Field f) {
+        throw new UnsupportedOperationException(this + " is not stored as a number");
+    }
+
+  /**
+   * @return the field of this type whose value is stored as bits; the
+   *   inverse of {@link #bits}
+   * @throws UnsupportedOperationException for STRING_TYPE
+   */
+    Field fromBits(long bits) {
+        throw new UnsupportedOperationException(this + " is not stored as a number");
+    }
+
+  /**
+   * Returns the type of the given name, as written in a schema: int,
+   * string, long, double, date (or timestamp) or decimal, in any case.
+   *
+   * @return the type, or null if there is no type of that name
+   */
+    public static Type forName(String name) {
+        name = name.trim().toLowerCase();
+        if (name.equals("int"))
+            return INT_TYPE;
+        if (name.equals("string"))
+            return STRING_TYPE;
+        if (name.equals("long"))
+            return LONG_TYPE;
+        if (name.equals("double"))
+            return DOUBLE_TYPE;
+        if (name.equals("date") || name.equals("timestamp"))
+            return DATE_TYPE;
+        if (name.equals("decimal"))
+            return DECIMAL_TYPE;
+        return null;
+    }
 }
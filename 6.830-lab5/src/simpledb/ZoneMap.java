@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A ZoneMap records, for each page of a heap file, the smallest and largest
+ * value of every int field of the tuples on it, so that a scan with range
+ * predicates can skip pages that cannot hold a matching tuple without
+ * reading them.
+ * <p>
+ * A page is described once it has been read or written (see
+ * {@link HeapPage#widenZones}), and its bounds are widened as tuples are
+ * added to it.  Bounds are never narrowed: deleted tuples and aborted
+ * inserts leave them wider than necessary, which costs pages that could
+ * have been skipped but never hides a tuple.  Pages that have not been
+ * described yet are always read.
+ */
+public class ZoneMap {
+
+    private final TupleDesc td;
+    private final int stride;
+    private boolean[] covered = new boolean[0];
+    private boolean[] nonEmpty = new boolean[0];
+    private int[] mins = new int[0];
+    private int[] maxes = new int[0];
+
+    /**
+     * Create an empty zone map for a file of tuples with the given TupleDesc.
+     */
+    public ZoneMap(TupleDesc td) {
+        this.td = td;
+        this.stride = td.numFields();
+    }
+
+    private void ensurePage(int pageno) {
+        if (pageno < covered.length)
+            return;
+        int pages = Math.max(pageno + 1, covered.length * 2);
+        int oldEntries = mins.length;
+        covered = Arrays.copyOf(covered, pages);
+        nonEmpty = Arrays.copyOf(nonEmpty, pages);
+        mins = Arrays.copyOf(mins, pages * stride);
+        maxes = Arrays.copyOf(maxes, pages * stride);
+        Arrays.fill(mins, oldEntries, mins.length, Integer.MAX_VALUE);
+        Arrays.fill(maxes, oldEntries, maxes.length, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Records that the bounds of a page describe all of its tuples; until
+     * then, the page may hold anything.
+     */
+    public synchronized void cover(int pageno) {
+        ensurePage(pageno);
+        covered[pageno] = true;
+    }
+
+    /** Records that a page holds at least one tuple. */
+    public synchronized void addTuple(int pageno) {
+        ensurePage(pageno);
+        nonEmpty[pageno] = true;
+    }
+
+    /** Widens the bounds of an int field on a page to include value. */
+    public synchronized void widen(int pageno, int field, int value) {
+        ensurePage(pageno);
+        int k = pageno * stride + field;
+        if (value < mins[k])
+            mins[k] = value;
+        if (value > maxes[k])
+            maxes[k] = value;
+    }
+
+    /**
+     * Widens the bounds of a page to include a tuple added to it.  A page
+     * that was empty when it was created is covered by its tuples.
+     */
+    public synchronized void widen(int pageno, Tuple t) {
+        addTuple(pageno);
+        for (int j = 0; j < stride; ++j)
+            if (td.getType(j) == Type.INT_TYPE)
+                widen(pageno, j, ((IntField) t.getField(j)).getValue());
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy all of the
+     * predicates, or true if the page has to be read to find out
+     */
+    public synchronized boolean mayMatch(int pageno, Predicate[] predicates) {
+        if (pageno >= covered.length || !covered[pageno])
+            return true;
+        if (!nonEmpty[pageno])
+            return false;
+        for (Predicate p : predicates) {
+            int j = p.getField();
+            if (td.getType(j) != Type.INT_TYPE || !(p.getOperand() instanceof IntField))
+                continue;
+            int v = ((IntField) p.getOperand()).getValue();
+            int lo = mins[pageno * stride + j], hi = maxes[pageno * stride + j];
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                if (v < lo || v > hi)
+                    return false;
+                break;
+            case NOT_EQUALS:
+                if (lo == v && hi == v)
+                    return false;
+                break;
+            case LESS_THAN:
+                if (lo >= v)
+                    return false;
+                break;
+            case LESS_THAN_OR_EQ:
+                if (lo > v)
+                    return false;
+                break;
+            case GREATER_THAN:
+                if (hi <= v)
+                    return false;
+                break;
+            case GREATER_THAN_OR_EQ:
+                if (hi < v)
+                    return false;
+                break;
+            }
+        }
+        return true;
+    }
+}
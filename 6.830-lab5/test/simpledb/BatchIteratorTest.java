@@ -0,0 +1,267 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+
+  int testWidth = 3;
+
+  private BatchIterator mockBatches(int low, int high) {
+    return new TupleToBatchIterator(new TestUtil.MockScan(low, high, testWidth));
+  }
+
+  /**
+   * Adapting a DbIterator to batches and back must return the same tuples,
+   * including when the input spans several batches.
+   */
+  @Test public void roundTrip() throws Exception {
+    int high = 3 * ColumnBatch.DEFAULT_CAPACITY + 7;
+    BatchToTupleIterator op = new BatchToTupleIterator(mockBatches(0, high));
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, high, testWidth), op);
+    op.rewind();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, high, testWidth), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for BatchFilter with each int comparison operator
+   */
+  @Test public void filterInts() throws Exception {
+    int high = 2 * ColumnBatch.DEFAULT_CAPACITY;
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate pred = new Predicate(0, op, TestUtil.getField(700));
+      DbIterator batched = new BatchToTupleIterator(
+          new BatchFilter(pred, mockBatches(-5, high)));
+      DbIterator expected = new Filter(pred, new TestUtil.MockScan(-5, high, testWidth));
+      batched.open();
+      expected.open();
+      TestUtil.compareDbIterators(expected, batched);
+      batched.close();
+    }
+  }
+
+  /**
+   * Stacked filters narrow the same selection vector.
+   */
+  @Test public void stackedFilters() throws Exception {
+    BatchIterator op = new BatchFilter(
+        new Predicate(1, Predicate.Op.LESS_THAN, TestUtil.getField(2)),
+        new BatchFilter(
+            new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-1)),
+            mockBatches(-5, 5)));
+    DbIterator actual = new BatchToTupleIterator(op);
+    actual.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(-1, 2, testWidth), actual);
+    actual.close();
+  }
+
+  /**
+   * Unit test for BatchFilter over string columns
+   */
+  @Test public void filterStrings() throws Exception {
+    Object[] data = new Object[] {"apple", 1, "banana", 2, "cherry", 3, "bandana", 4};
+    Predicate pred = new Predicate(0, Predicate.Op.LIKE,
+        new StringField("ana", Type.STRING_LEN));
+    DbIterator actual = new BatchToTupleIterator(new BatchFilter(pred,
+        new TupleToBatchIterator(TestUtil.createTupleList(2, data))));
+    actual.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new Object[] {"banana", 2, "bandana", 4}), actual);
+    actual.close();
+
+    pred = new Predicate(0, Predicate.Op.GREATER_THAN,
+        new StringField("banana", Type.STRING_LEN));
+    actual = new BatchToTupleIterator(new BatchFilter(pred,
+        new TupleToBatchIterator(TestUtil.createTupleList(2, data))));
+    actual.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new Object[] {"cherry", 3, "bandana", 4}), actual);
+    actual.close();
+  }
+
+  /**
+   * Unit test for BatchProject over a filtered child
+   */
+  @Test public void project() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(1);
+    fields.add(0);
+    ArrayList<Type> types = new ArrayList<Type>();
+    types.add(Type.STRING_TYPE);
+    types.add(Type.INT_TYPE);
+    Object[] data = new Object[] {1, "a", 2, "b", 3, "c"};
+    BatchIterator op = new BatchProject(fields, types, new BatchFilter(
+        new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(2)),
+        new TupleToBatchIterator(TestUtil.createTupleList(2, data))));
+    assertEquals(Type.STRING_TYPE, op.getTupleDesc().getType(0));
+    DbIterator actual = new BatchToTupleIterator(op);
+    actual.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new Object[] {"a", 1, "c", 3}), actual);
+    actual.close();
+  }
+
+  /**
+   * A child that reuses its batch gets the same projected view back.
+   */
+  @Test public void projectReusesView() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(2);
+    ArrayList<Type> types = new ArrayList<Type>();
+    types.add(Type.INT_TYPE);
+    BatchIterator op = new BatchProject(fields, types,
+        mockBatches(0, 2 * ColumnBatch.DEFAULT_CAPACITY + 1));
+    op.open();
+    ColumnBatch first = op.nextBatch();
+    assertEquals(0, first.getInt(0, 0));
+    ColumnBatch second = op.nextBatch();
+    assertTrue(first == second);
+    assertEquals(ColumnBatch.DEFAULT_CAPACITY, second.getInt(0, 0));
+    assertEquals(1, op.nextBatch().numSelected());
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
+  /** @return the data of n tuples of two random ints below max */
+  private static int[] randomData(Random rand, int n, int max) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < data.length; ++i)
+      data[i] = rand.nextInt(max);
+    return data;
+  }
+
+  /**
+   * BatchJoin must return the same tuples as Join, in the same order, for
+   * every operator, including when they span several output batches.
+   */
+  @Test public void join() throws Exception {
+    Random rand = new Random(6830);
+    int[] outer = randomData(rand, 300, 31);
+    int[] inner = randomData(rand, 200, 31);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(1, op, 0);
+      DbIterator expected = new Join(p, TestUtil.createTupleList(2, outer),
+          TestUtil.createTupleList(2, inner));
+      BatchJoin join = new BatchJoin(p, new TupleToBatchIterator(TestUtil.createTupleList(2, outer)),
+          new TupleToBatchIterator(TestUtil.createTupleList(2, inner)));
+      assertEquals(expected.getTupleDesc(), join.getTupleDesc());
+      DbIterator actual = new BatchToTupleIterator(join);
+      expected.open();
+      actual.open();
+      TestUtil.compareDbIterators(expected, actual);
+      expected.rewind();
+      actual.rewind();
+      TestUtil.compareDbIterators(expected, actual);
+      expected.close();
+      actual.close();
+    }
+  }
+
+  /**
+   * BatchJoin compares string fields as Join does.
+   */
+  @Test public void joinStrings() throws Exception {
+    Object[] left = new Object[] {"ban", 1, "cherry", 2, "apple", 3};
+    Object[] right = new Object[] {"banana", 4, "apple", 5, "bandana", 6, "ban", 7};
+    for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN}) {
+      JoinPredicate p = new JoinPredicate(0, op, 0);
+      DbIterator expected = new Join(p, TestUtil.createTupleList(2, left),
+          TestUtil.createTupleList(2, right));
+      DbIterator actual = new BatchToTupleIterator(new BatchJoin(p,
+          new TupleToBatchIterator(TestUtil.createTupleList(2, left)),
+          new TupleToBatchIterator(TestUtil.createTupleList(2, right))));
+      expected.open();
+      actual.open();
+      TestUtil.compareDbIterators(expected, actual);
+      actual.close();
+    }
+    // right LIKE left: the inner strings that contain the outer one
+    DbIterator actual = new BatchToTupleIterator(new BatchJoin(
+        new JoinPredicate(0, Predicate.Op.LIKE, 0),
+        new TupleToBatchIterator(TestUtil.createTupleList(2, right)),
+        new TupleToBatchIterator(TestUtil.createTupleList(2, left))));
+    actual.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(4, new Object[] {
+        "banana", 4, "ban", 1, "apple", 5, "apple", 3, "bandana", 6, "ban", 1, "ban", 7, "ban", 1}), actual);
+    actual.close();
+  }
+
+  /**
+   * BatchAggregate must agree with Aggregate for every operator.
+   */
+  @Test public void aggregate() throws Exception {
+    int[] data = new int[4000];
+    Random rand = new Random(6830);
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = rand.nextInt(20);
+      data[i + 1] = rand.nextInt(1000) - 500;
+    }
+    for (Aggregator.Op aop : Aggregator.Op.values()) {
+      for (int gfield : new int[] {Aggregator.NO_GROUPING, 0}) {
+        Aggregate expected = new Aggregate(TestUtil.createTupleList(2, data), 1, gfield, aop);
+        DbIterator actual = new BatchToTupleIterator(new BatchAggregate(
+            new TupleToBatchIterator(TestUtil.createTupleList(2, data)), 1, gfield, aop));
+        expected.open();
+        actual.open();
+        TestUtil.matchAllTuples(expected, actual);
+        expected.rewind();
+        actual.rewind();
+        int n = 0;
+        while (actual.hasNext()) {
+          actual.next();
+          ++n;
+        }
+        int m = 0;
+        while (expected.hasNext()) {
+          expected.next();
+          ++m;
+        }
+        assertEquals(m, n);
+        actual.close();
+      }
+    }
+  }
+
+  /**
+   * BatchSeqScan over a HeapFile returns every tuple of the file.
+   */
+  @Test public void seqScan() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+    TransactionId tid = new TransactionId();
+    BatchSeqScan scan = new BatchSeqScan(tid, f.getId(), "t");
+    DbIterator it = new BatchToTupleIterator(scan);
+    SystemTestUtil.matchTuples(it, tuples);
+
+    scan.open();
+    int rows = 0;
+    ColumnBatch batch;
+    while ((batch = scan.nextBatch()) != null) {
+      assertTrue(batch.size() <= ColumnBatch.DEFAULT_CAPACITY);
+      rows += batch.numSelected();
+    }
+    assertEquals(3000, rows);
+    assertNull(scan.nextBatch());
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchIteratorTest.class);
+  }
+}
@@ -68,6 +68,34 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.addColumnGroup() and getColumnGroups()
+     */
+    @Test public void columnGroups() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-3, Utility.getTupleDesc(3, "c")), "grouped");
+        assertEquals(0, Database.getCatalog().getColumnGroups(-3).size());
+
+        Database.getCatalog().addColumnGroup(-3, "c0", "c2");
+        // declaring the same pair again, in either order, has no effect
+        Database.getCatalog().addColumnGroup(-3, "c2", "c0");
+        assertEquals(1, Database.getCatalog().getColumnGroups(-3).size());
+        assertEquals("c0", Database.getCatalog().getColumnGroups(-3).get(0)[0]);
+        assertEquals("c2", Database.getCatalog().getColumnGroups(-3).get(0)[1]);
+
+        try {
+            Database.getCatalog().addColumnGroup(-3, "c0", "nosuchfield");
+            Assert.fail("Should not group a field that doesn't exist");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+        try {
+            Database.getCatalog().addColumnGroup(-3, "c1", "c1");
+            Assert.fail("Should not group a field with itself");
+        } catch (IllegalArgumentException e) {
+            // Expected to get here
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class ColumnGroupStatsTest {
+
+	/** Build exact statistics over the given pairs of int values. */
+	private static ColumnGroupStats build(int[] a, int[] b) {
+		Field[] fa = new Field[a.length];
+		Field[] fb = new Field[b.length];
+		HyperLogLog sketch = new HyperLogLog();
+		for (int i = 0; i < a.length; i++) {
+			fa[i] = new IntField(a[i]);
+			fb[i] = new IntField(b[i]);
+			sketch.add(fa[i], fb[i]);
+		}
+		return ColumnGroupStats.build(0, 1, fa, fb, a.length, a.length, sketch, a.length);
+	}
+
+	/**
+	 * Two columns that always hold the same value: a conjunction over both
+	 * is as selective as a predicate over either, where independence would
+	 * square its selectivity
+	 */
+	@Test public void correlatedColumnsTest() {
+		int[] a = new int[10000];
+		for (int i = 0; i < a.length; i++)
+			a[i] = i % 1000;
+		ColumnGroupStats s = build(a, a.clone());
+
+		Assert.assertEquals(1000, s.numDistinct(), 30);
+		Assert.assertEquals(0.001, s.estimateSelectivity(Op.EQUALS, new IntField(7), Op.EQUALS, new IntField(7)), 0.0002);
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.EQUALS, new IntField(7), Op.EQUALS, new IntField(900)), 0.0001);
+		Assert.assertEquals(0.1, s.estimateSelectivity(Op.LESS_THAN, new IntField(100), Op.LESS_THAN, new IntField(100)), 0.02);
+		// contradictory ranges
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.LESS_THAN, new IntField(100), Op.GREATER_THAN, new IntField(500)), 0.01);
+		Assert.assertEquals(-1, s.estimateSelectivity(Op.LIKE, new IntField(1), Op.EQUALS, new IntField(1)), 0.0);
+	}
+
+	/**
+	 * Two independent columns are still estimated as independent
+	 */
+	@Test public void independentColumnsTest() {
+		Random r = new Random(6830);
+		int[] a = new int[20000];
+		int[] b = new int[20000];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = r.nextInt(1000);
+			b[i] = r.nextInt(1000);
+		}
+		ColumnGroupStats s = build(a, b);
+		Assert.assertEquals(0.25, s.estimateSelectivity(Op.LESS_THAN, new IntField(500), Op.GREATER_THAN_OR_EQ, new IntField(500)), 0.03);
+		Assert.assertEquals(0.1 * 0.9, s.estimateSelectivity(Op.LESS_THAN, new IntField(100), Op.NOT_EQUALS, new IntField(-1)), 0.02);
+	}
+
+	/**
+	 * Rows added after the statistics were built are counted, and the
+	 * statistics read back are the same as those written
+	 */
+	@Test public void addAndWriteTest() throws IOException {
+		int[] a = new int[1000];
+		int[] b = new int[1000];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = i;
+			b[i] = 2 * i;
+		}
+		ColumnGroupStats s = build(a, b);
+		for (int i = 0; i < 1000; i++)
+			s.addValues(new IntField(5000 + i), new IntField(5000 + i));
+		// the original rows are now half of the table
+		Assert.assertEquals(0.5, s.estimateSelectivity(Op.LESS_THAN, new IntField(1000), Op.LESS_THAN, new IntField(2000)), 0.06);
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.GREATER_THAN, new IntField(6000), Op.GREATER_THAN, new IntField(6000)), 0.0);
+		s.removeValues(new IntField(5000), new IntField(5000));
+
+		TupleDesc td = Utility.getTupleDesc(2);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		s.writeTo(new DataOutputStream(bytes));
+		ColumnGroupStats read = ColumnGroupStats.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), td);
+		Assert.assertEquals(s.toString(), read.toString());
+		for (int v = -10; v < 2100; v += 37)
+			Assert.assertEquals(s.estimateSelectivity(Op.LESS_THAN, new IntField(v), Op.GREATER_THAN, new IntField(v)),
+					read.estimateSelectivity(Op.LESS_THAN, new IntField(v), Op.GREATER_THAN, new IntField(v)), 0.0);
+	}
+}
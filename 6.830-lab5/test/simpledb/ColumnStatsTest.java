@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class ColumnStatsTest {
+
+	/** Build exact statistics over the given int values. */
+	private static ColumnStats build(int[] values) {
+		Field[] sample = new Field[values.length];
+		HyperLogLog sketch = new HyperLogLog();
+		for (int i = 0; i < values.length; i++) {
+			sample[i] = new IntField(values[i]);
+			sketch.add(sample[i]);
+		}
+		return ColumnStats.build(Type.INT_TYPE, sample, values.length, values.length,
+				sketch, values.length, TableStats.NUM_HIST_BINS);
+	}
+
+	/**
+	 * Half the rows hold a single value and the rest are spread over a wide
+	 * range: the common value must be estimated exactly, and the others
+	 * must not be swamped by it as they would in an equi-width bucket
+	 */
+	@Test public void skewedValuesTest() {
+		int[] values = new int[20000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i % 2 == 0 ? 500 : i;
+		ColumnStats s = build(values);
+
+		Assert.assertTrue(s.numMcvs() >= 1);
+		Assert.assertEquals(0.5, s.estimateSelectivity(Op.EQUALS, new IntField(500)), 1e-9);
+		Assert.assertEquals(1.0 / 20000, s.estimateSelectivity(Op.EQUALS, new IntField(501)), 1e-4);
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.EQUALS, new IntField(-5)), 0.0);
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.EQUALS, new IntField(30000)), 0.0);
+
+		// 250 odd values below 500, then the common value
+		Assert.assertEquals(250.0 / 20000, s.estimateSelectivity(Op.LESS_THAN, new IntField(500)), 0.002);
+		Assert.assertEquals(10250.0 / 20000, s.estimateSelectivity(Op.LESS_THAN_OR_EQ, new IntField(500)), 0.002);
+		Assert.assertEquals(0.75, s.estimateSelectivity(Op.LESS_THAN, new IntField(10000)), 0.01);
+		Assert.assertEquals(0.25, s.estimateSelectivity(Op.GREATER_THAN, new IntField(10000)), 0.01);
+		Assert.assertEquals(1.0, s.estimateSelectivity(Op.GREATER_THAN_OR_EQ, new IntField(0)), 0.0);
+		Assert.assertEquals(0.5, s.estimateSelectivity(Op.NOT_EQUALS, new IntField(500)), 1e-9);
+
+		Assert.assertEquals(10001, s.numDistinct(), 1.0);
+	}
+
+	/**
+	 * The distinct-count sketch should be within a few percent, far beyond
+	 * the range where values could be counted exactly
+	 */
+	@Test public void distinctCountTest() {
+		HyperLogLog sketch = new HyperLogLog();
+		Random r = new Random(6830);
+		for (int i = 0; i < 1000000; i++)
+			sketch.add(new IntField(r.nextInt(200000)));
+		// 200000 * (1 - e^-5) distinct values are expected
+		Assert.assertEquals(198652, sketch.estimate(), 198652 * 0.05);
+
+		HyperLogLog small = new HyperLogLog();
+		for (int i = 0; i < 100; i++)
+			small.add(new StringField("value" + (i % 10), Type.STRING_LEN));
+		Assert.assertEquals(10, small.estimate(), 0.5);
+
+		small.merge(sketch);
+		Assert.assertEquals(sketch.estimate(), small.estimate(), sketch.estimate() * 0.01);
+	}
+
+	/**
+	 * Strings that share their first characters are told apart
+	 */
+	@Test public void stringValuesTest() {
+		Field[] sample = new Field[1000];
+		for (int i = 0; i < sample.length; i++)
+			sample[i] = new StringField("prefix" + (i % 4 == 0 ? "common" : Integer.toString(1000 + i)), Type.STRING_LEN);
+		ColumnStats s = ColumnStats.build(Type.STRING_TYPE, sample, sample.length, sample.length,
+				null, 0, TableStats.NUM_HIST_BINS);
+		Assert.assertEquals(0.25, s.estimateSelectivity(Op.EQUALS, new StringField("prefixcommon", Type.STRING_LEN)), 1e-9);
+		Assert.assertEquals(0.001, s.estimateSelectivity(Op.EQUALS, new StringField("prefix1001", Type.STRING_LEN)), 0.001);
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.EQUALS, new StringField("prefiy", Type.STRING_LEN)), 0.0);
+		Assert.assertEquals(0.375, s.estimateSelectivity(Op.LESS_THAN, new StringField("prefix1500", Type.STRING_LEN)), 0.02);
+	}
+
+	/**
+	 * Equi-joins are estimated from the distinct counts and MCVs of both
+	 * sides, including when one value dominates both columns
+	 */
+	@Test public void joinSelectivityTest() {
+		// a key column 0..999 and a foreign key column over it
+		int[] keys = new int[1000];
+		int[] refs = new int[5000];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = i;
+		for (int i = 0; i < refs.length; i++)
+			refs[i] = i % 1000;
+		ColumnStats k = build(keys), f = build(refs);
+		Assert.assertEquals(5000, 1000.0 * 5000 * f.estimateJoinSelectivity(Op.EQUALS, k), 250);
+		Assert.assertEquals(5000, 1000.0 * 5000 * k.estimateJoinSelectivity(Op.EQUALS, f), 250);
+
+		// both columns are 90% zeros: the join is dominated by matching zeros
+		int[] a = new int[1000];
+		int[] b = new int[1000];
+		for (int i = 0; i < 1000; i++) {
+			a[i] = i % 10 == 0 ? i : 0;
+			b[i] = i % 10 == 0 ? i : 0;
+		}
+		ColumnStats sa = build(a), sb = build(b);
+		// 0 occurs 901 times in each column, and 99 other values once
+		double actual = 901.0 * 901 + 99;
+		double estimate = 1000.0 * 1000 * sa.estimateJoinSelectivity(Op.EQUALS, sb);
+		Assert.assertEquals(actual, estimate, actual * 0.05);
+
+		// half of the pairs of two identical uniform columns satisfy a < b
+		double lt = k.estimateJoinSelectivity(Op.LESS_THAN, k);
+		Assert.assertEquals(0.5, lt, 0.02);
+		Assert.assertEquals(-1, k.estimateJoinSelectivity(Op.LIKE, k), 0.0);
+	}
+
+	/**
+	 * Values added after the statistics were built are counted
+	 */
+	@Test public void addAndRemoveTest() {
+		int[] values = new int[1000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i;
+		ColumnStats s = build(values);
+		for (int i = 0; i < 1000; i++)
+			s.addValue(new IntField(5000 + i));
+		Assert.assertEquals(2000, s.numRows(), 0.0);
+		Assert.assertEquals(2000, s.numDistinct(), 100);
+		Assert.assertEquals(0.5, s.estimateSelectivity(Op.GREATER_THAN, new IntField(999)), 0.01);
+
+		s.removeValue(new IntField(5000));
+		Assert.assertEquals(1999, s.numRows(), 0.0);
+	}
+
+	/**
+	 * Statistics read back are the same as the statistics written
+	 */
+	@Test public void writeAndReadTest() throws IOException {
+		int[] values = new int[5000];
+		Random r = new Random(1);
+		for (int i = 0; i < values.length; i++)
+			values[i] = (int) Math.abs(r.nextGaussian() * 1000);
+		ColumnStats s = build(values);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		s.writeTo(new DataOutputStream(bytes));
+		ColumnStats read = ColumnStats.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), Type.INT_TYPE);
+		Assert.assertEquals(s.toString(), read.toString());
+		for (int v = -10; v < 4000; v += 37)
+			Assert.assertEquals(s.estimateSelectivity(Op.LESS_THAN, new IntField(v)),
+					read.estimateSelectivity(Op.LESS_THAN, new IntField(v)), 0.0);
+	}
+}
@@ -0,0 +1,238 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedFileTest extends SimpleDbTestBase {
+
+    /** @return a CompressedFile in the catalog converted from a HeapFile of the tuples */
+    private CompressedFile compress(ArrayList<ArrayList<Integer>> tuples, int columns) throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, columns);
+        CompressedFile.convert(f, f, Utility.getTupleDesc(columns));
+        CompressedFile cf = new CompressedFile(f, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(cf, UUID.randomUUID().toString());
+        return cf;
+    }
+
+    /**
+     * A sorted field with few values and a field with a small range
+     * compress well, and read back as they were.
+     */
+    @Test public void sortedAndNarrow() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20000; ++i)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i / 1000, 1000000 + i % 100, -i)));
+        CompressedFile cf = compress(tuples, 3);
+        int heapPages = (int) Math.ceil(20000.0 / (BufferPool.PAGE_SIZE * 8 / (12 * 8 + 1)));
+        assertTrue(cf.numPages() * 3 < heapPages);
+
+        SystemTestUtil.matchTuples(cf, tuples);
+        assertEquals(cf.numPages(), cf.getDecodedPages());
+        assertTrue(cf.getCompressionRatio() > 3);
+        assertTrue(cf.getDecodeThroughput() > 0);
+    }
+
+    /** Random ints, which do not compress well, still read back. */
+    @Test public void random() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        SystemTestUtil.createRandomHeapFileUnopened(2, 5000, Integer.MAX_VALUE, null, tuples);
+        CompressedFile cf = compress(tuples, 2);
+        SystemTestUtil.matchTuples(cf, tuples);
+    }
+
+    /** String fields are stored through a dictionary. */
+    @Test public void strings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "city"});
+        String[] cities = {"Boston", "Cambridge", "Somerville", ""};
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedFile cf = new CompressedFile(f, td);
+        Database.getCatalog().addTable(cf, UUID.randomUUID().toString());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; ++i) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(cities[i % cities.length], Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // 2000 tuples take 67 pages of a HeapFile
+        assertTrue(cf.numPages() <= 5);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(cities[id % cities.length], ((StringField) t.getField(1)).getValue());
+            ++count;
+        }
+        it.close();
+        assertEquals(2000, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Deleted tuples leave the page, and the others keep their slots. */
+    @Test public void delete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3000; ++i)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        CompressedFile cf = compress(tuples, 2);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        HashMap<RecordId, Integer> kept = new HashMap<RecordId, Integer>();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                deleted.add(t);
+            else
+                kept.put(t.getRecordId(), ((IntField) t.getField(0)).getValue());
+        }
+        it.close();
+        for (Tuple t : deleted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        it = cf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(kept.get(t.getRecordId()), (Integer) ((IntField) t.getField(0)).getValue());
+            ++count;
+        }
+        it.close();
+        assertEquals(1500, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple tuple(TupleDesc td, int id, String name, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        t.setField(2, new IntField(value));
+        return t;
+    }
+
+    /**
+     * @return true if the tuples of a page and one more tuple, in the first
+     *   empty slot, fit on a page when compressed
+     */
+    private static boolean fitsWith(CompressedPage page, TupleDesc td, Tuple extra) throws Exception {
+        int capacity = CompressedPage.capacity(td, BufferPool.PAGE_SIZE);
+        byte[] rows = new byte[capacity * td.getSize()];
+        boolean[] filled = new boolean[capacity];
+        int n = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().tupleno();
+            write(t, rows, slot * td.getSize());
+            filled[slot] = true;
+            n = Math.max(n, slot + 1);
+        }
+        int slot = 0;
+        while (slot < capacity && filled[slot])
+            ++slot;
+        if (slot == capacity)
+            return false;
+        write(extra, rows, slot * td.getSize());
+        filled[slot] = true;
+        return CompressedPage.encode(td, rows, filled, Math.max(n, slot + 1), BufferPool.PAGE_SIZE) != null;
+    }
+
+    private static void write(Tuple t, byte[] rows, int off) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        for (int j = 0; j < t.getTupleDesc().numFields(); ++j)
+            t.getField(j).serialize(out);
+        out.flush();
+        System.arraycopy(baos.toByteArray(), 0, rows, off, baos.size());
+    }
+
+    /**
+     * A page filled one tuple at a time, at the end and in the slots of
+     * deleted tuples, takes tuples until the next one does not fit, and
+     * reads back as it was.
+     */
+    @Test public void fill() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                                     new String[] {"id", "name", "value"});
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedFile cf = new CompressedFile(f, td);
+        Database.getCatalog().addTable(cf, UUID.randomUUID().toString());
+        HeapPageId pid = new HeapPageId(cf.getId(), 0);
+        CompressedPage page = new CompressedPage(pid, HeapPage.createEmptyPageData());
+
+        Random rand = new Random(1);
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        for (int round = 0; round < 2; ++round) {
+            int id = added.size();
+            while (true) {
+                // values that spread out as the page fills
+                Tuple t = tuple(td, id, "name" + rand.nextInt(1000),
+                                rand.nextInt(1 << Math.min(30, 4 + id / 32)));
+                ++id;
+                if (!page.hasRoomFor(t)) {
+                    assertFalse(fitsWith(page, td, t));
+                    break;
+                }
+                assertTrue(fitsWith(page, td, t));
+                page.addTuple(t);
+                added.add(t);
+            }
+            assertTrue(page.getNumEmptySlots() > 0);
+            // free every third slot for the next round
+            for (int i = 0; i < added.size(); i += 3)
+                page.deleteTuple(added.get(i));
+            for (int i = added.size() - 1 - (added.size() - 1) % 3; i >= 0; i -= 3)
+                added.remove(i);
+        }
+
+        CompressedPage read = new CompressedPage(pid, page.getPageData());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = read.iterator();
+        int count = 0;
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+            ++count;
+        }
+        assertFalse(actual.hasNext());
+        assertEquals(added.size(), count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedFileTest.class);
+    }
+}
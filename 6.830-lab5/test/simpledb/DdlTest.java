@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.io.*;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DdlTest extends SimpleDbTestBase {
+
+    private File schema;
+    private String a, b;
+
+    /** Loads a schema with one table, a, and names a table b that does not exist yet. */
+    @Before public void loadSchema() throws Exception {
+        schema = File.createTempFile("ddl", ".txt");
+        schema.deleteOnExit();
+        a = "a" + UUID.randomUUID().toString().replace("-", "");
+        b = "b" + UUID.randomUUID().toString().replace("-", "");
+        FileWriter w = new FileWriter(schema);
+        w.write(a + " (x int pk, y int)\n");
+        w.close();
+        schema.setLastModified(System.currentTimeMillis() - 60000);
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    }
+
+    @After public void cleanUp() {
+        File dir = new File(schema.getPath() + ".sys");
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+        new File(a + ".dat").delete();
+        new File(b + ".dat").delete();
+        new File(b + ".stats").delete();
+    }
+
+    private static String read(File f) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        BufferedReader r = new BufferedReader(new FileReader(f));
+        String line;
+        while ((line = r.readLine()) != null)
+            sb.append(line).append('\n');
+        r.close();
+        return sb.toString();
+    }
+
+    private int count(String table) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, Database.getCatalog().getTableId(table), "t");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++n;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /** Tables created and dropped by statements are usable at once, and recorded in the schema. */
+    @Test public void createAndDrop() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Parser.setTransaction(t);
+        Parser.processNextStatement("CREATE TABLE " + b + " (k int pk,\n v long) pax group (k, v);");
+        int id = Database.getCatalog().getTableId(b);
+        assertTrue(Database.getCatalog().getDbFile(id) instanceof PaxFile);
+        assertEquals(Type.LONG_TYPE, Database.getCatalog().getTupleDesc(id).getType(1));
+        assertEquals("k", Database.getCatalog().getPrimaryKey(id));
+        assertEquals(a + " (x int pk, y int)\n" + b + " (k int pk, v long) pax group (k, v)\n", read(schema));
+
+        Parser.processNextStatement("INSERT INTO " + b + " VALUES (1, 10000000000);");
+        Parser.processNextStatement("INSERT INTO " + b + " VALUES (2, 20000000000);");
+        t.commit();
+        Parser.setTransaction(null);
+        assertEquals(2, count(b));
+
+        // a new catalog finds the table, with the same id, in the system catalog
+        Catalog reloaded = new Catalog();
+        reloaded.loadSchema(schema.getAbsolutePath());
+        assertEquals(id, reloaded.getTableId(b));
+
+        // a table that exists can't be created again, and nothing is changed
+        Parser.processNextStatement("CREATE TABLE " + b + " (k int);");
+        assertEquals(id, Database.getCatalog().getTableId(b));
+
+        Parser.processNextStatement("DROP TABLE " + b + ";");
+        try {
+            Database.getCatalog().getTableId(b);
+            fail("the table was dropped");
+        } catch (java.util.NoSuchElementException e) {
+            // expected
+        }
+        assertFalse(new File(b + ".dat").exists());
+        assertEquals(a + " (x int pk, y int)\n", read(schema));
+        assertEquals(0, count(a));
+    }
+
+    /** A table can't be dropped while a transaction that changed it is running. */
+    @Test public void dropWithUncommittedChanges() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Parser.setTransaction(t);
+        Parser.processNextStatement("INSERT INTO " + a + " VALUES (1, 2);");
+        try {
+            Database.getCatalog().dropTable(a);
+            fail("the table has uncommitted changes");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        t.commit();
+        Parser.setTransaction(null);
+        Database.getCatalog().dropTable(a);
+        assertFalse(new File(a + ".dat").exists());
+    }
+
+    private void insert(TransactionId tid, String table, int x, int y) throws Exception {
+        int id = Database.getCatalog().getTableId(table);
+        Tuple t = new Tuple(Database.getCatalog().getTupleDesc(id));
+        t.setField(0, new IntField(x));
+        t.setField(1, new IntField(y));
+        Database.getBufferPool().insertTuple(tid, id, t);
+    }
+
+    /** A table can't be dropped while a transaction holds locks on it, even only to read it. */
+    @Test public void dropWhileLocked() throws Exception {
+        TransactionId t0 = new TransactionId();
+        insert(t0, a, 1, 2);
+        Database.getBufferPool().transactionComplete(t0);
+
+        TransactionId t1 = new TransactionId();
+        int id = Database.getCatalog().getTableId(a);
+        SeqScan scan = new SeqScan(t1, id, "t");
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.close();
+        HeapPageId pid = new HeapPageId(id, 0);
+        assertTrue(Database.getBufferPool().holdsLock(t1, pid));
+        try {
+            Database.getCatalog().dropTable(a);
+            fail("the table is locked");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(id, Database.getCatalog().getTableId(a));
+
+        Database.getBufferPool().transactionComplete(t1);
+        assertFalse(Database.getBufferPool().holdsLock(t1, pid));
+        Database.getCatalog().dropTable(a);
+        assertFalse(new File(a + ".dat").exists());
+    }
+
+    /** A transaction whose table left the catalog still commits, and gives up its locks. */
+    @Test public void completeAfterTableRemoved() throws Exception {
+        TransactionId t = new TransactionId();
+        insert(t, a, 1, 2);
+        HeapPageId pid = new HeapPageId(Database.getCatalog().getTableId(a), 0);
+        assertTrue(Database.getBufferPool().holdsLock(t, pid));
+        Database.getCatalog().clear();
+        Database.getBufferPool().transactionComplete(t);
+        assertFalse(Database.getBufferPool().holdsLock(t, pid));
+    }
+
+    /** Rolling back skips the logged updates of tables that are gone. */
+    @Test public void rollbackAfterTableRemoved() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), a, 1, 2);
+        Database.getBufferPool().flushAllPages();   // logs an UPDATE record
+        HeapPageId pid = new HeapPageId(Database.getCatalog().getTableId(a), 0);
+        Database.getCatalog().clear();
+        t.transactionComplete(true);
+        assertFalse(Database.getBufferPool().holdsLock(t.getId(), pid));
+    }
+
+    /** Catalog changes that were logged but did not reach the schema file are redone by recovery. */
+    @Test public void recovery() throws Exception {
+        int id = Database.getCatalog().getTableId(a);
+        LogFile log = Database.getLogFile();
+        log.logCatalogChange(LogFile.CREATE_TABLE, schema, 12345, b + " (k int, s varchar(20))");
+        log.logCatalogChange(LogFile.DROP_TABLE, schema, id, a);
+
+        // crash, restart and recover
+        Database.reset();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        assertEquals(id, Database.getCatalog().getTableId(a));
+        Database.getLogFile().recover();
+
+        assertEquals(12345, Database.getCatalog().getTableId(b));
+        assertTrue(Database.getCatalog().getDbFile(12345) instanceof SlottedFile);
+        assertEquals(0, count(b));
+        assertEquals(b + " (k int, s varchar(20))\n", read(schema));
+        try {
+            Database.getCatalog().getTableId(a);
+            fail("the table was dropped");
+        } catch (java.util.NoSuchElementException e) {
+            // expected
+        }
+
+        // recovering again changes nothing
+        Database.reset();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Database.getLogFile().recover();
+        assertEquals(12345, Database.getCatalog().getTableId(b));
+        Database.getCatalog().dropTable(b);
+    }
+
+    /** CREATE INDEX is refused, as there are no indexes. */
+    @Test public void createIndex() throws Exception {
+        Parser.processNextStatement("CREATE INDEX i ON " + a + " (x);");
+        assertEquals(0, count(a));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DdlTest.class);
+    }
+}
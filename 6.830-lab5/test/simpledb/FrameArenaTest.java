@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    /** An arena hands out frames until it has none left, and reuses freed ones. */
+    @Test public void allocate() {
+        FrameArena arena = new FrameArena(1024, FrameArena.FRAMES_PER_SLAB + 2);
+        ArrayList<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        ByteBuffer frame;
+        while ((frame = arena.allocate()) != null) {
+            assertTrue(frame.isDirect());
+            assertEquals(1024, frame.capacity());
+            assertEquals(1024, frame.remaining());
+            frames.add(frame);
+        }
+        assertEquals(FrameArena.FRAMES_PER_SLAB + 2, frames.size());
+        assertEquals(frames.size(), arena.getUsedFrames());
+
+        // frames do not overlap
+        for (int k = 0; k < frames.size(); ++k)
+            frames.get(k).putInt(0, k);
+        for (int k = 0; k < frames.size(); ++k)
+            assertEquals(k, frames.get(k).getInt(0));
+
+        arena.free(frames.get(3));
+        assertEquals(frames.size() - 1, arena.getUsedFrames());
+        assertEquals(3, arena.allocate().getInt(0));
+        assertNull(arena.allocate());
+        assertEquals(FrameArena.FRAMES_PER_SLAB + 2, arena.getNumFrames());
+    }
+
+    /** A pool that keeps its pages off the heap scans a table larger than itself. */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+        BufferPool pool = Database.resetBufferPool(8, true);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertTrue(pool.getFrameArena().getUsedFrames() <= 16);
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(page.isOffHeap());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Pages in frames are written in place, and their before images undo
+     * the changes of an aborted transaction.
+     */
+    @Test public void insertDeleteAbort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        BufferPool pool = Database.resetBufferPool(8, true);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; ++i) {
+            pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] {i, -i}));
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        pool.transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            pool.deleteTuple(tid, it.next());
+        it.close();
+        pool.transactionComplete(tid, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /** A page evicted while a scan holds it moves back onto the heap unchanged. */
+    @Test public void evictedPageKeepsItsTuples() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, tuples);
+        BufferPool pool = Database.resetBufferPool(2, true);
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(page.isOffHeap());
+        for (int pageno = 1; pageno < 4; ++pageno)
+            pool.getPage(tid, new HeapPageId(f.getId(), pageno), Permissions.READ_ONLY);
+        assertFalse(page.isOffHeap());
+
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 504; ++i) {
+            Tuple t = it.next();
+            for (int j = 0; j < 2; ++j)
+                assertEquals((int) tuples.get(i).get(j), ((IntField) t.getField(j)).getValue());
+        }
+        assertFalse(it.hasNext());
+        pool.transactionComplete(tid);
+        assertEquals(4, pool.getFrameArena().getUsedFrames());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
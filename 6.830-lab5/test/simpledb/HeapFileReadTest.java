@@ -121,6 +121,63 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.iterator(TransactionId, Predicate[]): pages
+     * whose zone map rules out the predicates are skipped once they have
+     * been read, and inserted tuples widen the zone map of their page
+     */
+    @Test
+    public void testPredicateIterator() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 7);
+            tuples.add(tuple);
+        }
+        HeapFile sorted = JoinOptimizerTest.createDuplicateHeapFile(tuples, 2, "c");
+        Database.getCatalog().addTable(sorted, SystemTestUtil.getUUID());
+        assertEquals(4, sorted.numPages());
+        Predicate[] predicates = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1800)),
+            new Predicate(1, Predicate.Op.EQUALS, new IntField(3))
+        };
+        assertTrue(sorted.getZoneMap().mayMatch(0, predicates));
+
+        for (int scan = 0; scan < 2; scan++) {
+            DbFileIterator it = sorted.iterator(tid, predicates);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                assertTrue(((IntField) t.getField(0)).getValue() >= 1800);
+                assertEquals(3, ((IntField) t.getField(1)).getValue());
+                count++;
+            }
+            it.close();
+            // 1802, 1809, ..., 1998
+            assertEquals(29, count);
+        }
+        for (int pageno = 0; pageno < 3; pageno++)
+            assertFalse(sorted.getZoneMap().mayMatch(pageno, predicates));
+        assertTrue(sorted.getZoneMap().mayMatch(3, predicates));
+
+        Predicate[] low = new Predicate[] {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))
+        };
+        assertFalse(sorted.getZoneMap().mayMatch(3, low));
+        Tuple t = new Tuple(sorted.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, sorted.getId(), t);
+        DbFileIterator it = sorted.iterator(tid, low);
+        it.open();
+        assertTrue(it.hasNext());
+        assertEquals(-5, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
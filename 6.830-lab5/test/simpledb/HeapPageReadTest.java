@@ -99,6 +99,31 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[])
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] predicates = new Predicate[] {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30000)),
+            new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20000))
+        };
+        Iterator<Tuple> it = page.iterator(predicates);
+
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] >= 30000 || values[1] < 20000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+
+        // tuples that were never decoded are written back unchanged
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
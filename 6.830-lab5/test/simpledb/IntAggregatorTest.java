@@ -15,7 +15,7 @@ public class IntAggregatorTest extends SimpleDbTestBase {
 
   int width1 = 2;
   DbIterator scan1;
-  int[][] sum = null;
+  Object[][] sum = null;
   int[][] min = null;
   int[][] max = null;
   int[][] avg = null;
@@ -34,11 +34,11 @@ public class IntAggregatorTest extends SimpleDbTestBase {
                     5, 7 });
 
     // verify how the results progress after a few merges
-    this.sum = new int[][] {
-      { 1, 2 },
-      { 1, 6 },
-      { 1, 12 },
-      { 1, 12, 3, 2 }
+    this.sum = new Object[][] {
+      { 1, 2L },
+      { 1, 6L },
+      { 1, 12L },
+      { 1, 12L, 3, 2L }
     };
 
     this.min = new int[][] {
@@ -70,7 +70,7 @@ public class IntAggregatorTest extends SimpleDbTestBase {
     scan1.open();
     IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
     
-    for (int[] step : sum) {
+    for (Object[] step : sum) {
       agg.merge(scan1.next());
       DbIterator it = agg.iterator();
       it.open();
@@ -178,6 +178,77 @@ public class IntAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test computing several aggregates over the same groups in one pass
+   */
+  @Test public void mergeMultiple() throws Exception {
+    scan1.open();
+    IntAggregator agg = new IntAggregator(0, Type.INT_TYPE,
+        new int[] { 1, 1, 1, 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT });
+    while (scan1.hasNext())
+      agg.merge(scan1.next());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(6,
+        new Object[] { 1, 12L, 2, 6, 4, 3,
+                       3, 12L, 2, 6, 4, 3,
+                       5, 7L, 7, 7, 7, 1 }), it);
+  }
+
+  /**
+   * Test that a SUM of ints is a LONG, which holds sums past the range of an int
+   */
+  @Test public void sumPastIntRange() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE,
+                    2, Integer.MIN_VALUE,
+                    2, Integer.MIN_VALUE });
+    IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    while (scan.hasNext())
+      agg.merge(scan.next());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    assertEquals(Type.LONG_TYPE, it.getTupleDesc().getType(1));
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new Object[] { 1, 3L * Integer.MAX_VALUE,
+                       2, 2L * Integer.MIN_VALUE }), it);
+  }
+
+  /**
+   * Test that groups survive the growth of the hash table
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 10000;
+    int[] data = new int[groups * 4];
+    for (int i = 0; i < groups; ++i) {
+      data[4 * i] = i * 7 - 3000;
+      data[4 * i + 1] = i;
+      data[4 * i + 2] = i * 7 - 3000;
+      data[4 * i + 3] = 2 * i;
+    }
+    DbIterator scan = TestUtil.createTupleList(width1, data);
+    IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    while (scan.hasNext())
+      agg.merge(scan.next());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      assertEquals(3 * (key + 3000) / 7, ((LongField) t.getField(1)).getValue());
+      count++;
+    }
+    assertEquals(groups, count);
+  }
+
   /**
    * JUnit suite target
    */
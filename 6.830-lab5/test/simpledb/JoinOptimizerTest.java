@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -198,6 +199,45 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 	         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
 	}
 	
+	/**
+	 * Verify that join cardinalities estimated from column statistics are
+	 * close to the actual size of the join, where the fallback estimate of
+	 * max(card1, card2) is far too small
+	 */
+	@Test public void estimateJoinCardinalityFromStatistics() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		JoinOptimizer j = new JoinOptimizer(Parser.generateLogicalPlan(tid, "SELECT * FROM " + tableName2 + " t1, " + tableName2 + " t2 WHERE t1.c8 = t2.c7;"),
+				new Vector<LogicalJoinNode>());
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put(tableName1, stats1);
+		stats.put(tableName2, stats2);
+
+		// both columns hold about 20 distinct values
+		HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		for (ArrayList<Integer> t : tuples2) {
+			Integer c = counts.get(t.get(4));
+			counts.put(t.get(4), c == null ? 1 : c + 1);
+		}
+		long actual = 0;
+		for (ArrayList<Integer> t : tuples1) {
+			Integer c = counts.get(t.get(3));
+			if (c != null)
+				actual += c;
+		}
+
+		LogicalJoinNode equals = new LogicalJoinNode(tableName1, tableName2, tableName1 + ".c3", tableName2 + ".c4", Predicate.Op.EQUALS);
+		int cardinality = j.estimateJoinCardinality(equals, 1000, 10000, false, false, stats);
+		Assert.assertEquals(actual, cardinality, actual * 0.1);
+
+		// a key of the left table caps the join at the size of the right table
+		cardinality = j.estimateJoinCardinality(equals, 1000, 10000, true, false, stats);
+		Assert.assertEquals(10000, cardinality);
+
+		LogicalJoinNode lessThan = new LogicalJoinNode(tableName1, tableName2, tableName1 + ".c3", tableName2 + ".c4", Predicate.Op.LESS_THAN);
+		cardinality = j.estimateJoinCardinality(lessThan, 1000, 10000, false, false, stats);
+		Assert.assertEquals(1000 * 10000 * 0.475, cardinality, 1000 * 10000 * 0.05);
+	}
+
 	/**
 	 * Determine whether the orderJoins implementation is doing a reasonable job of ordering joins,
 	 * and not taking an unreasonable amount of time to do so 
@@ -461,4 +501,62 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		// Make sure that "bigTable" is the innermost table in the join
 		Assert.assertEquals(result.get(result.size()-1).t2, "a");
 	}
+
+	/**
+	 * Order a join graph too wide for dynamic programming, to make sure the heuristic
+	 * enumerator returns every join, without cross products, and keeps the big table innermost
+	 */
+	@Test public void heuristicOrderJoinsTest() throws IOException, DbException, TransactionAbortedException, ParsingException {
+		final int IO_COST = 101;
+		final int TABLES = 30;
+		
+		HashMap<String, TableStats> stats = new HashMap<String,TableStats>();
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		LogicalPlan plan = new LogicalPlan();
+		
+		ArrayList<ArrayList<Integer>> smallHeapFileTuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile smallHeapFile = SystemTestUtil.createRandomHeapFile(2, 100, Integer.MAX_VALUE, null, smallHeapFileTuples, "c");
+		ArrayList<ArrayList<Integer>> bigHeapFileTuples = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 100000; i++) {
+			bigHeapFileTuples.add( smallHeapFileTuples.get( i%100 ) );
+		}
+		HeapFile bigHeapFile = createDuplicateHeapFile(bigHeapFileTuples, 2, "c");
+		
+		// a chain t0 - t1 - ... - t(TABLES-2) - bigTable
+		for (int i = 0; i < TABLES; i++) {
+			String name = i == TABLES - 1 ? "bigTable" : "t" + i;
+			HeapFile f = i == TABLES - 1 ? bigHeapFile : createDuplicateHeapFile(smallHeapFileTuples, 2, "c");
+			Database.getCatalog().addTable(f, name);
+			plan.addScan(f.getId(), name);
+			stats.put(name, new TableStats(f.getId(), IO_COST));
+			filterSelectivities.put(name, 1.0);
+			if (i > 0)
+				nodes.add(new LogicalJoinNode("t" + (i - 1), name, "c1", "c0", Predicate.Op.EQUALS));
+		}
+		Collections.shuffle(nodes);
+		
+		Vector<LogicalJoinNode> result;
+		JoinOptimizer.setTimeLimit(50);
+		try {
+			result = new JoinOptimizer(plan, nodes).orderJoins(stats, filterSelectivities, false);
+		} finally {
+			JoinOptimizer.setTimeLimit(JoinOptimizer.DEFAULT_TIME_LIMIT_MILLIS);
+		}
+		
+		Assert.assertEquals(nodes.size(), result.size());
+		HashSet<String> joined = new HashSet<String>();
+		for (int i = 0; i < result.size(); i++) {
+			LogicalJoinNode n = result.get(i);
+			Assert.assertTrue(nodes.contains(n));
+			if (i > 0)
+				Assert.assertTrue(joined.contains(n.t1) || joined.contains(n.t2));
+			joined.add(n.t1);
+			joined.add(n.t2);
+		}
+		Assert.assertEquals(TABLES, joined.size());
+		
+		// Make sure that "bigTable" is the innermost table in the join
+		Assert.assertEquals("bigTable", result.get(result.size()-1).t2);
+	}
 }
@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -56,6 +57,30 @@ public class JoinPredicateTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Unit test for JoinPredicate.filter() with every operator, over int and
+   * string fields: it agrees with Field.compare()
+   */
+  @Test public void filterAgreesWithCompare() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    Tuple[] tuples = new Tuple[4];
+    for (int i = 0; i < tuples.length; i++) {
+      tuples[i] = new Tuple(td);
+      tuples[i].setField(0, new IntField(i % 3 - 1));
+      tuples[i].setField(1, new StringField("ab".substring(0, i % 3), Type.STRING_LEN));
+    }
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate ints = new JoinPredicate(0, op, 0);
+      JoinPredicate strings = new JoinPredicate(1, op, 1);
+      for (Tuple t1 : tuples) {
+        for (Tuple t2 : tuples) {
+          assertEquals(t1.getField(0).compare(op, t2.getField(0)), ints.filter(t1, t2));
+          assertEquals(t1.getField(1).compare(op, t2.getField(1)), strings.filter(t1, t2));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
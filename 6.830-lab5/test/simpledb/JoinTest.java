@@ -105,6 +105,16 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() over an empty outer input
+   */
+  @Test public void emptyOuter() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, TestUtil.createTupleList(width1, new int[0]), scan2);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
   /**
    * JUnit suite target
    */
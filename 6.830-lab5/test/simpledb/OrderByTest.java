@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /** Returns width-2 (key, position) pairs with keys in [0, maxKey). */
+  private int[] randomKeys(int rows, int maxKey, int seed) {
+    Random rand = new Random(seed);
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; ++i) {
+      data[2 * i] = rand.nextInt(maxKey) - maxKey / 2;
+      data[2 * i + 1] = i;
+    }
+    return data;
+  }
+
+  /** Reference answer: a stable sort of the (key, position) pairs. */
+  private int[] expectedOrder(int[] data, final boolean asc, int limit) {
+    List<int[]> rows = new ArrayList<int[]>();
+    for (int i = 0; i < data.length; i += 2)
+      rows.add(new int[] {data[i], data[i + 1]});
+    Collections.sort(rows, new Comparator<int[]>() {
+      public int compare(int[] a, int[] b) {
+        int c = a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+        return asc ? c : -c;
+      }
+    });
+    int n = limit == OrderBy.NO_LIMIT ? rows.size() : Math.min(limit, rows.size());
+    int[] out = new int[n * 2];
+    for (int i = 0; i < n; ++i) {
+      out[2 * i] = rows.get(i)[0];
+      out[2 * i + 1] = rows.get(i)[1];
+    }
+    return out;
+  }
+
+  private void checkSort(int[] data, boolean asc, int limit, long budget, boolean external)
+      throws Exception {
+    OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(2, data), limit);
+    if (budget > 0)
+      op.setMemoryBudget(budget);
+    op.open();
+    assertEquals(external, op.isExternal());
+    TestUtil.compareDbIterators(
+        TestUtil.createTupleList(2, expectedOrder(data, asc, limit)), op);
+    op.rewind();
+    TestUtil.compareDbIterators(
+        TestUtil.createTupleList(2, expectedOrder(data, asc, limit)), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for an in-memory sort, which must be stable
+   */
+  @Test public void inMemory() throws Exception {
+    int[] data = randomKeys(2000, 50, 1);
+    checkSort(data, true, OrderBy.NO_LIMIT, 0, false);
+    checkSort(data, false, OrderBy.NO_LIMIT, 0, false);
+  }
+
+  /**
+   * Unit test for an external sort with many runs and more than one merge pass
+   */
+  @Test public void external() throws Exception {
+    int[] data = randomKeys(20000, 1000, 2);
+    // about 100 tuples per run, so 200 runs need two merge passes
+    long budget = 100 * (32 + 8 + 64);
+    checkSort(data, true, OrderBy.NO_LIMIT, budget, true);
+    checkSort(data, false, OrderBy.NO_LIMIT, budget, true);
+    checkSort(data, true, 500, budget, true);
+  }
+
+  /**
+   * Unit test for the bounded-heap top-N path
+   */
+  @Test public void topN() throws Exception {
+    int[] data = randomKeys(5000, 100, 3);
+    checkSort(data, true, 10, 0, false);
+    checkSort(data, false, 77, 0, false);
+    checkSort(data, true, 0, 0, false);
+    checkSort(data, true, 6000, 0, false);
+  }
+
+  /**
+   * Unit test for sorting on a string field, in memory and externally
+   */
+  @Test public void strings() throws Exception {
+    Object[] data = new Object[400];
+    Random rand = new Random(4);
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = "s" + rand.nextInt(30);
+      data[i + 1] = i;
+    }
+    for (long budget : new long[] {0, 20 * 400}) {
+      OrderBy op = new OrderBy(0, false, TestUtil.createTupleList(2, data));
+      if (budget > 0)
+        op.setMemoryBudget(budget);
+      op.open();
+      assertEquals(budget > 0, op.isExternal());
+      String prev = null;
+      int prevPos = -1;
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        String s = ((StringField) t.getField(0)).getValue();
+        int pos = ((IntField) t.getField(1)).getValue();
+        if (prev != null) {
+          assertTrue(prev.compareTo(s) >= 0);
+          if (prev.equals(s))
+            assertTrue(prevPos < pos);
+        }
+        prev = s;
+        prevPos = pos;
+        count++;
+      }
+      assertEquals(data.length / 2, count);
+      op.close();
+      assertFalse(op.isExternal());
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
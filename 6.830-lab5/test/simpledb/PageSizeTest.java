@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> tuples(int n, int columns) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < columns; ++j)
+                tuple.add(i * columns + j);
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    /** @return a HeapFile in the catalog of the tuples, with pages of pageSize bytes */
+    private HeapFile create(ArrayList<ArrayList<Integer>> tuples, int columns, int pageSize) throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, pageSize, columns);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /**
+     * A file of pages of another size records it in its header; a file of
+     * default-size pages has no header.
+     */
+    @Test public void header() throws Exception {
+        HeapFile hf = create(tuples(3000, 2), 2, 16384);
+        assertEquals(16384, HeapFile.readPageSize(hf.getFile()));
+        assertEquals(16384, hf.getPageSize());
+        assertEquals(HeapFile.FILE_HEADER_SIZE + 16384L * hf.numPages(), hf.getFile().length());
+        // 16 KB pages hold 2016 tuples of two ints, 4 KB pages 504
+        assertEquals(2, hf.numPages());
+
+        HeapFile plain = create(tuples(3000, 2), 2, BufferPool.PAGE_SIZE);
+        assertEquals(BufferPool.PAGE_SIZE, plain.getPageSize());
+        assertEquals((long) BufferPool.PAGE_SIZE * plain.numPages(), plain.getFile().length());
+
+        try {
+            new HeapFile(hf.getFile(), Utility.getTupleDesc(2), 8192);
+            fail("should not open a file with pages of another size");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** Files with pages of each size read back their tuples */
+    @Test public void scan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = tuples(5000, 3);
+        for (int pageSize : new int[] {1024, 8192, 65536}) {
+            HeapFile hf = create(tuples, 3, pageSize);
+            SystemTestUtil.matchTuples(hf, tuples);
+        }
+    }
+
+    /**
+     * Tuples inserted into a new file of large pages go to pages of that
+     * size, which the buffer pool evicts to make room for each other.
+     */
+    @Test public void insert() throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), 32768);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        // a pool with room for three 32 KB pages
+        Database.resetBufferPool(24);
+
+        ArrayList<ArrayList<Integer>> tuples = tuples(10000, 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < tuples.size(); ++i) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(
+                    new int[] {tuples.get(i).get(0), tuples.get(i).get(1)}));
+            if (i % 1000 == 999) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // 32 KB pages hold 4032 tuples of two ints
+        assertEquals(3, hf.numPages());
+        assertEquals(32768, HeapFile.readPageSize(f));
+        assertEquals(HeapFile.FILE_HEADER_SIZE + 3 * 32768L, f.length());
+
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, UUID.randomUUID().toString());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /** Pages of default size and of a larger size share the buffer pool */
+    @Test public void mixedFrames() throws Exception {
+        HeapFile small = create(tuples(2000, 2), 2, BufferPool.PAGE_SIZE);
+        HeapFile large = create(tuples(20000, 2), 2, 65536);
+        Database.resetBufferPool(20);
+        ArrayList<ArrayList<Integer>> smallTuples = tuples(2000, 2);
+        ArrayList<ArrayList<Integer>> largeTuples = tuples(20000, 2);
+        for (int i = 0; i < 3; ++i) {
+            SystemTestUtil.matchTuples(small, smallTuples);
+            SystemTestUtil.matchTuples(large, largeTuples);
+        }
+        assertEquals(3, large.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 2000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File rows;
+    private PaxFile pax;
+
+    /** Writes ROWS random tuples to a HeapFile and converts it to a PaxFile. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        rows = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS,
+                1 << 16, null, tuples);
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxFile.convert(rows, f, Utility.getTupleDesc(COLUMNS));
+        pax = new PaxFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(pax, UUID.randomUUID().toString());
+    }
+
+    /**
+     * The values of each field of the tuples on a page are stored together,
+     * in slot order.
+     */
+    @Test public void layout() throws Exception {
+        assertEquals(rows.length(), pax.getFile().length());
+        byte[] page = TestUtil.readFileBytes(pax.getFile().getAbsolutePath());
+        int numSlots = BufferPool.PAGE_SIZE * 8 / (COLUMNS * 4 * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        for (int i = 0; i < numSlots; i += 37) {
+            for (int j = 0; j < COLUMNS; ++j) {
+                int off = headerSize + numSlots * 4 * j + i * 4;
+                int value = ((page[off] & 0xff) << 24) | ((page[off + 1] & 0xff) << 16)
+                        | ((page[off + 2] & 0xff) << 8) | (page[off + 3] & 0xff);
+                assertEquals((int) tuples.get(i).get(j), value);
+            }
+        }
+    }
+
+    /** A PaxFile holds the tuples of the HeapFile it was converted from. */
+    @Test public void scan() throws Exception {
+        SystemTestUtil.matchTuples(pax, tuples);
+        assertEquals(rows.length() / BufferPool.PAGE_SIZE, pax.numPages());
+    }
+
+    /** Inserted and deleted tuples are written back as PaxPages. */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, pax.getId(), "");
+        scan.open();
+        Tuple first = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        tuples.remove(SystemTestUtil.tupleToList(first));
+        for (int i = 0; i < 600; ++i) {
+            ArrayList<Integer> values = new ArrayList<Integer>();
+            Tuple t = new Tuple(pax.getTupleDesc());
+            for (int j = 0; j < COLUMNS; ++j) {
+                values.add(i * COLUMNS + j);
+                t.setField(j, new IntField(i * COLUMNS + j));
+            }
+            Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+            tuples.add(values);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // read the pages back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(pax, tuples);
+    }
+
+    /** A BatchSeqScan of some of the fields reads just those fields. */
+    @Test public void batchScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        int[] fields = new int[] {2, 0};
+        BatchSeqScan scan = new BatchSeqScan(tid, pax.getId(), "t", fields);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals(Type.INT_TYPE, scan.getTupleDesc().getType(1));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            ArrayList<Integer> projected = new ArrayList<Integer>();
+            for (int j : fields)
+                projected.add(t.get(j));
+            expected.add(projected);
+        }
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(scan), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** String fields are stored in minipages of their own. */
+    @Test public void strings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE},
+                new String[] {"id", "name"});
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxFile names = new PaxFile(f, td);
+        Database.getCatalog().addTable(names, UUID.randomUUID().toString());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; ++i) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, names.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        BatchSeqScan scan = new BatchSeqScan(tid, names.getId(), "n", new int[] {1});
+        scan.open();
+        int count = 0;
+        ColumnBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            for (int r = 0; r < batch.size(); ++r) {
+                assertEquals("name" + count, ((StringField) batch.toTuple(r).getField(0)).getValue());
+                ++count;
+            }
+        }
+        scan.close();
+        assertEquals(100, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -55,6 +56,32 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.filter() with every operator, over int and
+   * string fields: it agrees with Field.compare()
+   */
+  @Test public void filterAgreesWithCompare() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    String[] strings = new String[] { "", "a", "ab", "abc", "b" };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i = -1; i <= 1; i++) {
+        for (String v : strings) {
+          Tuple t = new Tuple(td);
+          t.setField(0, new IntField(i));
+          t.setField(1, new StringField(v, Type.STRING_LEN));
+          for (String operand : strings) {
+            Field intOperand = new IntField(operand.length() - 1);
+            Field stringOperand = new StringField(operand, Type.STRING_LEN);
+            assertEquals(t.getField(0).compare(op, intOperand),
+                new Predicate(0, op, intOperand).filter(t));
+            assertEquals(t.getField(1).compare(op, stringOperand),
+                new Predicate(1, op, stringOperand).filter(t));
+          }
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryServerTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+
+    private String name;
+    private QueryServer server;
+
+    /** Serves a table that holds (i, i % 10) for i < ROWS. */
+    @Before public void startServer() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        name = "t" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(JoinOptimizerTest.createDuplicateHeapFile(rows, 2, "c"), name);
+        int id = Database.getCatalog().getTableId(name);
+        TableStats.statsFile(id).deleteOnExit();
+        HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put(name, TableStats.analyze(id, 1000));
+        Parser.setStatsMap(statsMap);
+        Parser.getStatementCache().clear();
+
+        server = new QueryServer(0);
+        server.start();
+    }
+
+    @After public void stopServer() throws Exception {
+        server.close();
+    }
+
+    private QueryClient connect() throws Exception {
+        return new QueryClient("localhost", server.getPort());
+    }
+
+    private int count(QueryClient client, String where) throws Exception {
+        QueryClient.Result r = client.execute("SELECT * FROM " + name + " t" + where + ";");
+        int n = 0;
+        while (r.hasNext()) {
+            r.next();
+            ++n;
+        }
+        assertEquals(n + " rows.", r.getMessage());
+        return n;
+    }
+
+    /** The rows of a query are streamed in batches, with the fields they have. */
+    @Test public void select() throws Exception {
+        QueryClient client = connect();
+        QueryClient.Result r = client.execute("SELECT t.c0, t.c1 FROM " + name + " t;");
+        assertEquals(2, r.getTupleDesc().numFields());
+        assertEquals(Type.INT_TYPE, r.getTupleDesc().getType(1));
+        int[] seen = new int[ROWS];
+        int n = 0;
+        while (r.hasNext()) {
+            Tuple t = r.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(i % 10, ((IntField) t.getField(1)).getValue());
+            ++seen[i];
+            ++n;
+        }
+        assertEquals(ROWS, n);
+        for (int i = 0; i < ROWS; ++i)
+            assertEquals(1, seen[i]);
+        assertEquals(ROWS + " rows.", r.getMessage());
+
+        // a result that is not read to its end is skipped by the next statement
+        client.execute("SELECT * FROM " + name + " t;").next();
+        assertEquals(100, count(client, " WHERE t.c1 = 3"));
+        client.close();
+    }
+
+    /** Statements run in their own transactions unless one was started with BEGIN. */
+    @Test public void transactions() throws Exception {
+        QueryClient a = connect();
+        QueryClient b = connect();
+        assertEquals("1 rows.", a.execute("INSERT INTO " + name + " VALUES (5000, 1);").getMessage());
+        assertEquals(1, count(b, " WHERE t.c0 = 5000"));
+
+        a.execute("BEGIN;");
+        a.execute("INSERT INTO " + name + " VALUES (6000, 1);");
+        assertEquals(1, count(a, " WHERE t.c0 = 6000"));
+        assertEquals("Transaction aborted.", a.execute("ROLLBACK;").getMessage());
+        assertEquals(0, count(b, " WHERE t.c0 = 6000"));
+
+        a.execute("BEGIN;");
+        a.execute("INSERT INTO " + name + " VALUES (7000, 1);");
+        assertEquals("Transaction committed.", a.execute("COMMIT;").getMessage());
+        assertEquals(1, count(b, " WHERE t.c0 = 7000"));
+
+        // a session closed with a transaction running aborts it
+        a.execute("BEGIN;");
+        a.execute("INSERT INTO " + name + " VALUES (8000, 1);");
+        a.close();
+        while (server.numSessions() > 1)
+            Thread.sleep(10);
+        assertEquals(0, count(b, " WHERE t.c0 = 8000"));
+        b.close();
+    }
+
+    /** Statements that fail are reported, and the session goes on. */
+    @Test public void errors() throws Exception {
+        QueryClient client = connect();
+        String[] bad = {
+            "SELECT * FROM nosuchtable t;",
+            "SELEKT nothing;",
+            "INSERT INTO " + name + " VALUES (1);",
+            "COMMIT;",
+        };
+        for (String sql : bad) {
+            try {
+                client.execute(sql);
+                fail(sql + " should fail");
+            } catch (DbException e) {
+                // expected
+            }
+        }
+        assertEquals(ROWS, count(client, ""));
+        client.close();
+    }
+
+    /** Many sessions run queries at once. */
+    @Test public void concurrentSessions() throws Exception {
+        final int SESSIONS = 8;
+        final int[] counts = new int[SESSIONS];
+        final Exception[] failures = new Exception[SESSIONS];
+        Thread[] threads = new Thread[SESSIONS];
+        for (int s = 0; s < SESSIONS; ++s) {
+            final int session = s;
+            threads[s] = new Thread() {
+                public void run() {
+                    try {
+                        QueryClient client = connect();
+                        for (int q = 0; q < 10; ++q)
+                            counts[session] += count(client, " WHERE t.c1 = " + (q % 10));
+                        client.close();
+                    } catch (Exception e) {
+                        failures[session] = e;
+                    }
+                }
+            };
+            threads[s].start();
+        }
+        for (int s = 0; s < SESSIONS; ++s) {
+            threads[s].join();
+            if (failures[s] != null)
+                throw failures[s];
+            assertEquals(ROWS, counts[s]);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryServerTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ResultCacheTest extends SimpleDbTestBase {
+	private static final int IO_COST = 71;
+
+	String name;
+	int tableId;
+	HashMap<String, TableStats> statsMap;
+	StatementCache plans;
+
+	/** The table holds (i, i % 10) for i < 1000 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 1000; i++)
+			tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+		// a table name the SQL parser accepts
+		name = "t" + SystemTestUtil.getUUID().replace("-", "");
+		Database.getCatalog().addTable(JoinOptimizerTest.createDuplicateHeapFile(tuples, 2, "c"), name);
+		tableId = Database.getCatalog().getTableId(name);
+		TableStats.statsFile(tableId).deleteOnExit();
+		statsMap = new HashMap<String, TableStats>();
+		statsMap.put(name, TableStats.analyze(tableId, IO_COST));
+		plans = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+	}
+
+	/** Runs a query through the result cache, and returns the sum of the first field of its result */
+	private int run(ResultCache cache, TransactionId tid, String sql) throws Exception {
+		StatementCache.Statement s = StatementCache.normalize(sql);
+		DbIterator it = cache.get(tid, s);
+		if (it == null)
+			it = cache.record(s, plans.plan(tid, s, statsMap, false));
+		int sum = 0;
+		it.open();
+		while (it.hasNext()) {
+			Field f = it.next().getField(0);
+			sum += f instanceof LongField ? ((LongField) f).getValue() : ((IntField) f).getValue();
+		}
+		it.close();
+		return sum;
+	}
+
+	private String groupBy(int bound) {
+		return "SELECT SUM(t.c0) FROM " + name + " t WHERE t.c0 < " + bound + " GROUP BY t.c1;";
+	}
+
+	private void insert(TransactionId tid, int value) throws Exception {
+		Tuple t = new Tuple(Database.getCatalog().getTupleDesc(tableId));
+		t.setField(0, new IntField(value));
+		t.setField(1, new IntField(value % 10));
+		Database.getBufferPool().insertTuple(tid, tableId, t);
+	}
+
+	/**
+	 * A query run again is answered from the cache, and queries with other
+	 * constants are not
+	 */
+	@Test public void hitTest() throws Exception {
+		ResultCache cache = new ResultCache(ResultCache.DEFAULT_MAX_BYTES);
+		TransactionId tid = new TransactionId();
+		Assert.assertEquals(499500, run(cache, tid, groupBy(1000)));
+		Assert.assertEquals(499500, run(cache, tid, groupBy(1000)));
+		Assert.assertEquals(45, run(cache, tid, groupBy(10)));
+		Assert.assertEquals(499500, run(cache, tid, "SELECT SUM(t.c0)  FROM " + name + " t WHERE t.c0 < 1000 GROUP BY t.c1"));
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertEquals(2, cache.size());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Inserting into a table drops the results computed from it, and
+	 * results that may include uncommitted changes are not kept
+	 */
+	@Test public void invalidationTest() throws Exception {
+		ResultCache cache = new ResultCache(ResultCache.DEFAULT_MAX_BYTES);
+		TransactionId reader = new TransactionId();
+		Assert.assertEquals(499500, run(cache, reader, groupBy(2000)));
+		Database.getBufferPool().transactionComplete(reader);
+
+		TransactionId writer = new TransactionId();
+		insert(writer, 1500);
+		Assert.assertEquals(501000, run(cache, writer, groupBy(2000)));
+		Assert.assertEquals(1, cache.getInvalidations());
+		Assert.assertEquals(0, cache.size());
+		Database.getBufferPool().transactionComplete(writer);
+
+		reader = new TransactionId();
+		Assert.assertEquals(501000, run(cache, reader, groupBy(2000)));
+		Assert.assertEquals(501000, run(cache, reader, groupBy(2000)));
+		Assert.assertEquals(1, cache.getHits());
+		Database.getBufferPool().transactionComplete(reader);
+
+		// an aborted insert also drops the result
+		writer = new TransactionId();
+		insert(writer, 1600);
+		Database.getBufferPool().transactionComplete(writer, false);
+		reader = new TransactionId();
+		Assert.assertEquals(501000, run(cache, reader, groupBy(2000)));
+		Assert.assertEquals(2, cache.getInvalidations());
+		Database.getBufferPool().transactionComplete(reader);
+	}
+
+	/**
+	 * A transaction served a cached result holds read locks on the pages of
+	 * its table, so no other transaction can change the result under it
+	 */
+	@Test public void lockTest() throws Exception {
+		ResultCache cache = new ResultCache(ResultCache.DEFAULT_MAX_BYTES);
+		TransactionId tid = new TransactionId();
+		run(cache, tid, groupBy(1000));
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		Assert.assertEquals(499500, run(cache, tid, groupBy(1000)));
+		Assert.assertEquals(1, cache.getHits());
+		HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+		for (int pageno = 0; pageno < file.numPages(); pageno++)
+			Assert.assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(tableId, pageno)));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The least recently used results are dropped to keep the cache within
+	 * its size, and results larger than it are not kept
+	 */
+	@Test public void evictionTest() throws Exception {
+		TransactionId tid = new TransactionId();
+		// room for the 10 tuples of one of the grouped results, but not two
+		ResultCache cache = new ResultCache(600);
+		run(cache, tid, groupBy(1000));
+		run(cache, tid, groupBy(500));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertTrue(cache.getBytes() <= 600);
+		run(cache, tid, groupBy(500));
+		run(cache, tid, groupBy(1000));
+		Assert.assertEquals(1, cache.getHits());
+
+		run(cache, tid, "SELECT * FROM " + name + " t;");
+		run(cache, tid, "SELECT * FROM " + name + " t;");
+		Assert.assertEquals(1, cache.getHits());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+}
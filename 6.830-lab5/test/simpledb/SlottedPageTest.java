@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedFile file;
+
+    /** Creates an empty table of (int, varchar(16)) */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        file = new SlottedFile(f, td, new int[] {0, 16});
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedPage emptyPage() throws Exception {
+        return new SlottedPage(new HeapPageId(file.getId(), 0), HeapPage.createEmptyPageData());
+    }
+
+    /** @return the ids of the tuples on a page, checking their names and record ids */
+    private ArrayList<Integer> ids(HeapPage page) {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            assertEquals(page.getId(), t.getRecordId().getPageId());
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * A page holds as many short tuples as fit, many more than a HeapPage
+     * of the same table.
+     */
+    @Test public void capacity() throws Exception {
+        SlottedPage page = emptyPage();
+        int n = 0;
+        while (page.hasRoomFor(tuple(n)))
+            page.addTuple(tuple(n++));
+        int heapPageTuples = BufferPool.PAGE_SIZE * 8 / (td.getSize() * 8 + 1);
+        assertTrue(n > 5 * heapPageTuples);
+        assertEquals(n, ids(page).size());
+        try {
+            page.addTuple(tuple(n));
+            fail("should not add a tuple to a full page");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the page reads back from its data
+        HeapPage copy = new SlottedPage(page.getId(), page.getPageData());
+        assertEquals(ids(page), ids(copy));
+    }
+
+    /**
+     * Deleting tuples gives their space back, and the other tuples keep
+     * their slots.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedPage page = emptyPage();
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        while (page.hasRoomFor(tuple(added.size()))) {
+            Tuple t = tuple(added.size());
+            page.addTuple(t);
+            added.add(t);
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        for (int i = 0; i < added.size(); i += 2)
+            page.deleteTuple(added.get(i));
+        assertTrue(page.getNumEmptySlots() >= added.size() / 2);
+
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 1; i < added.size(); i += 2) {
+            Tuple t = it.next();
+            assertEquals(added.get(i).getRecordId(), t.getRecordId());
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+
+        // the freed space takes the deleted tuples again
+        for (int i = 0; i < added.size(); i += 2)
+            page.addTuple(tuple(i));
+        assertEquals(added.size(), ids(new SlottedPage(page.getId(), page.getPageData())).size());
+    }
+
+    /** Strings longer than the maximum length of their field are rejected */
+    @Test public void varcharLength() throws Exception {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(0));
+        t.setField(1, new StringField("seventeen letters", Type.STRING_LEN));
+        try {
+            emptyPage().addTuple(t);
+            fail("should not add a string longer than its field");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** Tuples inserted into a SlottedFile are written back to it */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; ++i) {
+            Tuple t = tuple(i);
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            added.add(t);
+        }
+        for (int i = 0; i < 1000; i += 3)
+            Database.getBufferPool().deleteTuple(tid, added.get(i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(file.numPages() <= 5);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertTrue(id % 3 != 0);
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            ++count;
+        }
+        it.close();
+        assertEquals(666, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A HeapFile converted to a SlottedFile holds the same tuples on fewer pages */
+    @Test public void convert() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 500; ++i)
+            w.write(i + ",name" + i + "\n");
+        w.close();
+        File heap = File.createTempFile("slotted", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.PAGE_SIZE, 2, new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        long heapPages = heap.length() / BufferPool.PAGE_SIZE;
+        SlottedFile.convert(heap, heap, td, new int[] {0, 16});
+        SlottedFile converted = new SlottedFile(heap, td, new int[] {0, 16});
+        Database.getCatalog().addTable(converted, UUID.randomUUID().toString());
+        assertTrue(converted.numPages() * 5 < heapPages);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = converted.iterator(tid);
+        it.open();
+        for (int i = 0; i < 500; ++i) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("name" + i, ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Tables with varchar fields in a schema file are SlottedFiles */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("slotted", ".txt");
+        schema.deleteOnExit();
+        String name = "t" + UUID.randomUUID().toString().replace("-", "");
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (id int, name varchar(10), note string)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile f = Database.getCatalog().getDbFile(Database.getCatalog().getTableId(name));
+        assertTrue(f instanceof SlottedFile);
+        assertEquals(3, f.getTupleDesc().numFields());
+        assertEquals(Type.STRING_TYPE, f.getTupleDesc().getType(1));
+        assertEquals(10, ((SlottedFile) f).getMaxLength(1));
+        assertEquals(Type.STRING_LEN, ((SlottedFile) f).getMaxLength(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SpillingAggregatorTest extends SimpleDbTestBase {
+
+  /** Budget small enough that only a handful of int groups fit in memory */
+  static final long SMALL_BUDGET = 10 * SpillingAggregator.bytesPerGroup(Type.INT_TYPE);
+
+  private int[] randomPairs(int rows, int groups, int seed) {
+    java.util.Random rand = new java.util.Random(seed);
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = rand.nextInt(groups);
+      data[i + 1] = rand.nextInt(2000) - 1000;
+    }
+    return data;
+  }
+
+  private int count(DbIterator it) throws Exception {
+    int n = 0;
+    it.rewind();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Spilled results must match those of the in-memory IntAggregator
+   */
+  @Test public void matchesIntAggregator() throws Exception {
+    int[] data = randomPairs(5000, 700, 1);
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      IntAggregator expected = new IntAggregator(0, Type.INT_TYPE, 1, op);
+      SpillingAggregator actual = new SpillingAggregator(0, Type.INT_TYPE, 1, op, SMALL_BUDGET);
+      DbIterator scan = TestUtil.createTupleList(2, data);
+      while (scan.hasNext()) {
+        Tuple t = scan.next();
+        expected.merge(t);
+        actual.merge(t);
+      }
+      assertTrue(actual.hasSpilled());
+
+      DbIterator e = expected.iterator();
+      DbIterator a = actual.iterator();
+      e.open();
+      a.open();
+      TestUtil.matchAllTuples(e, a);
+      assertEquals(count(e), count(a));
+      a.close();
+    }
+  }
+
+  /**
+   * String group values spill and come back intact
+   */
+  @Test public void stringGroups() throws Exception {
+    Object[] data = new Object[2000];
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = "key" + (i % 97);
+      data[i + 1] = i;
+    }
+    StringAggregator expected = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    SpillingAggregator actual = new SpillingAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT,
+        10 * SpillingAggregator.bytesPerGroup(Type.STRING_TYPE));
+    DbIterator scan = TestUtil.createTupleList(2, data);
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      expected.merge(t);
+      actual.merge(t);
+    }
+    assertTrue(actual.hasSpilled());
+    DbIterator e = expected.iterator();
+    DbIterator a = actual.iterator();
+    e.open();
+    a.open();
+    TestUtil.matchAllTuples(e, a);
+    assertEquals(97, count(a));
+    a.close();
+  }
+
+  /**
+   * Combining two spilled aggregators keeps AVG exact
+   */
+  @Test public void combine() throws Exception {
+    int[] data1 = randomPairs(3000, 400, 2);
+    int[] data2 = randomPairs(3000, 400, 3);
+    IntAggregator expected = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    SpillingAggregator left = new SpillingAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG, SMALL_BUDGET);
+    SpillingAggregator right = new SpillingAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG, SMALL_BUDGET);
+    DbIterator scan = TestUtil.createTupleList(2, data1);
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      expected.merge(t);
+      left.merge(t);
+    }
+    scan = TestUtil.createTupleList(2, data2);
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      expected.merge(t);
+      right.merge(t);
+    }
+    left.combine(right);
+    assertFalse(right.hasSpilled());
+
+    DbIterator e = expected.iterator();
+    DbIterator a = left.iterator();
+    e.open();
+    a.open();
+    TestUtil.matchAllTuples(e, a);
+    assertEquals(count(e), count(a));
+    a.close();
+    assertFalse(left.hasSpilled());
+  }
+
+  private static int spillFiles() {
+    String[] names = new java.io.File(System.getProperty("java.io.tmpdir")).list();
+    int n = 0;
+    for (String name : names)
+      if (name.startsWith("agg") && name.endsWith(".spill"))
+        n++;
+    return n;
+  }
+
+  /**
+   * Spill files are deleted as soon as they are read back or the results
+   * are closed, not when the JVM exits
+   */
+  @Test public void filesDeleted() throws Exception {
+    int before = spillFiles();
+    SpillingAggregator left = new SpillingAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM, SMALL_BUDGET);
+    SpillingAggregator right = new SpillingAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM, SMALL_BUDGET);
+    DbIterator scan = TestUtil.createTupleList(2, randomPairs(3000, 400, 4));
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      left.merge(t);
+      right.merge(t);
+    }
+    assertTrue(spillFiles() > before);
+    left.combine(right);
+    DbIterator a = left.iterator();
+    a.open();
+    count(a);
+    a.close();
+    assertEquals(before, spillFiles());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SpillingAggregatorTest.class);
+  }
+}
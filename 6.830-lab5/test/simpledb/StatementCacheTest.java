@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class StatementCacheTest extends SimpleDbTestBase {
+	private static final int IO_COST = 71;
+
+	String nameA, nameB;
+	int idA;
+	HashMap<String, TableStats> statsMap;
+	TransactionId tid;
+
+	/** Table a holds (i, i % 10) for i < 1000, and table b holds (i, i) for i < 100 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>();
+		ArrayList<ArrayList<Integer>> b = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 1000; i++)
+			a.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+		for (int i = 0; i < 100; i++)
+			b.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+		// table names the SQL parser accepts
+		nameA = "a" + SystemTestUtil.getUUID().replace("-", "");
+		nameB = "b" + SystemTestUtil.getUUID().replace("-", "");
+		Database.getCatalog().addTable(JoinOptimizerTest.createDuplicateHeapFile(a, 2, "c"), nameA);
+		Database.getCatalog().addTable(JoinOptimizerTest.createDuplicateHeapFile(b, 2, "c"), nameB);
+		idA = Database.getCatalog().getTableId(nameA);
+		int idB = Database.getCatalog().getTableId(nameB);
+
+		statsMap = new HashMap<String, TableStats>();
+		for (int id : new int[] {idA, idB}) {
+			TableStats.statsFile(id).deleteOnExit();
+			statsMap.put(Database.getCatalog().getTableName(id), TableStats.analyze(id, IO_COST));
+		}
+		tid = new TransactionId();
+	}
+
+	private int count(DbIterator it) throws Exception {
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	private String join(int bound) {
+		return "SELECT * FROM " + nameA + " a, " + nameB + " b WHERE a.c1 = b.c0 AND a.c0 < " + bound + ";";
+	}
+
+	/**
+	 * Statements that differ only in their constants and layout have the
+	 * same text
+	 */
+	@Test public void normalizeTest() {
+		StatementCache.Statement s = StatementCache.normalize(
+				"SELECT *  FROM t1\n WHERE t1.c0 < 10 AND t1.name = 'it''s' AND t1.c2 > ?; SELECT 1;");
+		Assert.assertEquals("SELECT * FROM t1 WHERE t1.c0 < ? AND t1.name = ? AND t1.c2 > ?", s.getText());
+		Assert.assertEquals(Arrays.asList("10", "it''s", null), s.getConstants());
+		Assert.assertEquals(1, s.numParameters());
+		Assert.assertTrue(s.isCacheable());
+		Assert.assertEquals(s.getText(), StatementCache.normalize("SELECT * FROM t1 WHERE t1.c0 < 7 "
+				+ "AND t1.name = 'x' AND t1.c2 > 1.5e3").getText());
+
+		Assert.assertFalse(StatementCache.normalize("SELECT * FROM t WHERE t.a = (SELECT MAX(u.a) FROM u);").isCacheable());
+		Assert.assertFalse(StatementCache.normalize("DELETE FROM t WHERE t.a = 1;").isCacheable());
+	}
+
+	/**
+	 * Queries of one shape are planned from the first one's plan, and give
+	 * the same results as if they had been planned on their own
+	 */
+	@Test public void hitTest() throws Exception {
+		StatementCache cache = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+		Assert.assertEquals(10, count(cache.plan(tid, StatementCache.normalize(join(10)), statsMap, false)));
+		Assert.assertEquals(0, cache.getHits());
+		Assert.assertEquals(500, count(cache.plan(tid, StatementCache.normalize(join(500)), statsMap, false)));
+		Assert.assertEquals(0, count(cache.plan(tid, StatementCache.normalize(join(0)), statsMap, false)));
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+		Assert.assertEquals(1, cache.size());
+
+		StatementCache.Statement p = StatementCache.normalize(
+				"SELECT * FROM " + nameA + " a WHERE a.c0 >= ? AND a.c1 = ?;");
+		Assert.assertEquals(10, count(cache.plan(tid, p.bind(Arrays.asList("900", "3")), statsMap, false)));
+		Assert.assertEquals(1, count(cache.plan(tid, p.bind(Arrays.asList("990", "3")), statsMap, false)));
+		Assert.assertEquals(3, cache.getHits());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * A plan is not reused once the statistics it was chosen from have been
+	 * recomputed
+	 */
+	@Test public void invalidationTest() throws Exception {
+		StatementCache cache = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+		count(cache.plan(tid, StatementCache.normalize(join(10)), statsMap, false));
+		count(cache.plan(tid, StatementCache.normalize(join(20)), statsMap, false));
+		Assert.assertEquals(1, cache.getHits());
+
+		Assert.assertSame(statsMap.get(nameA), TableStats.analyze(idA, IO_COST));
+		Assert.assertEquals(30, count(cache.plan(tid, StatementCache.normalize(join(30)), statsMap, false)));
+		Assert.assertEquals(1, cache.getInvalidations());
+		Assert.assertEquals(2, cache.getMisses());
+		count(cache.plan(tid, StatementCache.normalize(join(40)), statsMap, false));
+		Assert.assertEquals(2, cache.getHits());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The least recently used plan is dropped when the cache is full
+	 */
+	@Test public void evictionTest() throws Exception {
+		StatementCache cache = new StatementCache(1);
+		String scan = "SELECT * FROM " + nameA + " a WHERE a.c0 < ";
+		count(cache.plan(tid, StatementCache.normalize(scan + "5;"), statsMap, false));
+		count(cache.plan(tid, StatementCache.normalize(join(5)), statsMap, false));
+		count(cache.plan(tid, StatementCache.normalize(scan + "6;"), statsMap, false));
+		Assert.assertEquals(0, cache.getHits());
+		Assert.assertEquals(1, cache.size());
+		count(cache.plan(tid, StatementCache.normalize(scan + "7;"), statsMap, false));
+		Assert.assertEquals(1, cache.getHits());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * PREPARE and EXECUTE, and queries run by the parser, share the
+	 * parser's cache
+	 */
+	@Test public void prepareTest() throws Exception {
+		Parser.setStatsMap(statsMap);
+		Transaction t = new Transaction();
+		t.start();
+		Parser.setTransaction(t);
+		StatementCache cache = Parser.getStatementCache();
+		cache.clear();
+
+		Parser.processNextStatement("PREPARE q AS SELECT * FROM " + nameA + " a WHERE a.c0 < ? AND a.c1 = 3;");
+		Parser.processNextStatement("EXECUTE q (100);");
+		Parser.processNextStatement("execute q(200);");
+		Assert.assertEquals(1, cache.getHits());
+		Parser.processNextStatement("SELECT * FROM " + nameA + "  a WHERE a.c0 < 300 AND a.c1 = 4;");
+		Assert.assertEquals(2, cache.getHits());
+		// the wrong number of arguments is reported, and nothing is run
+		Parser.processNextStatement("EXECUTE q (1, 2);");
+		Parser.processNextStatement("DEALLOCATE q;");
+		Parser.processNextStatement("EXECUTE q (100);");
+		Assert.assertEquals(3, cache.getHits() + cache.getMisses());
+		t.commit();
+		Parser.setTransaction(null);
+	}
+
+	/**
+	 * Parameters of a statement must all be given values before it is run
+	 */
+	@Test(expected = ParsingException.class) public void unboundParameterTest() throws Exception {
+		new StatementCache(1).plan(tid, StatementCache.normalize("SELECT * FROM " + nameA + " a WHERE a.c0 < ?;"),
+				statsMap, false);
+	}
+}
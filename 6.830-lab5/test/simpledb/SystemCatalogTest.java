@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.*;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SystemCatalogTest extends SimpleDbTestBase {
+
+    private File schema;
+    private String a, b;
+
+    @Before public void createSchema() throws Exception {
+        schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        a = "a" + UUID.randomUUID().toString().replace("-", "");
+        b = "b" + UUID.randomUUID().toString().replace("-", "");
+        write(a + " (id int pk, name varchar(12), price decimal) group (id, price)\n",
+              System.currentTimeMillis() - 60000);
+    }
+
+    @After public void deleteSystemCatalog() {
+        File dir = new File(schema.getPath() + ".sys");
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+    }
+
+    private void write(String text, long lastModified) throws IOException {
+        FileWriter w = new FileWriter(schema);
+        w.write(text);
+        w.close();
+        schema.setLastModified(lastModified);
+    }
+
+    private static Catalog load(File schema) {
+        Catalog catalog = new Catalog();
+        catalog.loadSchema(schema.getAbsolutePath());
+        return catalog;
+    }
+
+    /** Tables read back from the system catalog are described as they were in the schema. */
+    @Test public void readBack() throws Exception {
+        int id = load(schema).getTableId(a);
+        // the schema is not parsed again while its contents are unchanged,
+        // whatever its time of modification
+        schema.setLastModified(System.currentTimeMillis() + 60000);
+        assertTrue(new SystemCatalog(schema).isCurrent());
+        Catalog catalog = load(schema);
+        assertEquals(id, catalog.getTableId(a));
+        TupleDesc td = catalog.getTupleDesc(id);
+        assertEquals(3, td.numFields());
+        assertEquals("name", td.getFieldName(1));
+        assertEquals(Type.DECIMAL_TYPE, td.getType(2));
+        assertEquals("id", catalog.getPrimaryKey(id));
+        assertEquals(1, catalog.getColumnGroups(id).size());
+        assertEquals("price", catalog.getColumnGroups(id).get(0)[1]);
+
+        DbFile f = catalog.getDbFile(id);
+        assertTrue(f instanceof SlottedFile);
+        assertEquals(12, ((SlottedFile) f).getMaxLength(1));
+        assertEquals(id, f.getId());
+        assertEquals(new File(a + ".dat").getAbsoluteFile(), ((HeapFile) f).getFile().getAbsoluteFile());
+    }
+
+    /** A table keeps its id when the schema is edited, and new tables get ids of their own. */
+    @Test public void stableIds() throws Exception {
+        int id = load(schema).getTableId(a);
+        write(b + " (x int) pax\n" + a + " (id int pk, name varchar(12), price decimal)\n",
+              System.currentTimeMillis() + 60000);
+        Catalog catalog = load(schema);
+        assertEquals(id, catalog.getTableId(a));
+        assertTrue(catalog.getTableId(b) != id);
+        assertEquals(0, catalog.getColumnGroups(id).size());
+        assertTrue(catalog.getDbFile(catalog.getTableId(b)) instanceof PaxFile);
+        assertEquals(catalog.getTableId(b), load(schema).getTableId(b));
+    }
+
+    /** An edit that leaves the length and time of modification of the schema alone is noticed. */
+    @Test public void sameSizeEdit() throws Exception {
+        long modified = schema.lastModified();
+        int id = load(schema).getTableId(a);
+        write(a + " (id int pk, name varchar(12), price double) group (id, price)\n", modified);
+        assertEquals(modified, schema.lastModified());
+        assertFalse(new SystemCatalog(schema).isCurrent());
+        Catalog catalog = load(schema);
+        assertEquals(id, catalog.getTableId(a));
+        assertEquals(Type.DOUBLE_TYPE, catalog.getTupleDesc(id).getType(2));
+        assertTrue(new SystemCatalog(schema).isCurrent());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SystemCatalogTest.class);
+    }
+}
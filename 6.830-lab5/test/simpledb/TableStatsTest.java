@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -152,4 +154,221 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/** Insert rows tuples of ten copies of value into the test table, and commit */
+	private void insertRows(int rows, int value) throws Exception {
+		ArrayList<ArrayList<Integer>> newTuples = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < rows; i++) {
+			ArrayList<Integer> tuple = new ArrayList<Integer>();
+			for (int col = 0; col < 10; col++)
+				tuple.add(value);
+			newTuples.add(tuple);
+		}
+		TransactionId tid = new TransactionId();
+		Insert insert = new Insert(tid, TestUtil.createTupleList(10, flatten(newTuples)), tableId);
+		insert.open();
+		insert.next();
+		insert.close();
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static int[] flatten(ArrayList<ArrayList<Integer>> tuples) {
+		ArrayList<Integer> all = new ArrayList<Integer>();
+		for (ArrayList<Integer> t : tuples)
+			all.addAll(t);
+		int[] ret = new int[all.size()];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = all.get(i);
+		return ret;
+	}
+
+	/**
+	 * Verify that statistics are saved next to the data file, and that loading
+	 * them again gives the same estimates
+	 */
+	@Test public void saveAndLoadTest() throws Exception {
+		File statsFile = TableStats.statsFile(tableId);
+		statsFile.deleteOnExit();
+		Assert.assertFalse(statsFile.exists());
+
+		TableStats computed = TableStats.load(tableId, IO_COST);
+		Assert.assertTrue(statsFile.exists());
+		TableStats loaded = TableStats.load(tableId, IO_COST);
+		Assert.assertEquals(computed.estimateScanCost(), loaded.estimateScanCost(), 0.0);
+		Assert.assertEquals(1020, loaded.estimateTableCardinality(1.0));
+		for (int v = -1; v <= 33; v++) {
+			Field f = new IntField(v);
+			Assert.assertEquals(computed.estimateSelectivity(3, Predicate.Op.LESS_THAN, f),
+					loaded.estimateSelectivity(3, Predicate.Op.LESS_THAN, f), 0.0);
+		}
+
+		// an unreadable file is ignored, and replaced
+		FileOutputStream out = new FileOutputStream(statsFile);
+		out.write(new byte[] {1, 2, 3});
+		out.close();
+		Assert.assertEquals(1020, TableStats.load(tableId, IO_COST).estimateTableCardinality(1.0));
+		Assert.assertTrue(statsFile.length() > 3);
+	}
+
+	/**
+	 * Verify that inserted tuples are counted in the registered statistics
+	 * without recomputing them, and that ANALYZE recomputes them
+	 */
+	@Test public void incrementalTest() throws Exception {
+		TableStats.statsFile(tableId).deleteOnExit();
+		TableStats s = TableStats.load(tableId, IO_COST);
+		double before = s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(16));
+
+		insertRows(100, 16);
+		Assert.assertEquals(1120, s.estimateTableCardinality(1.0));
+		Assert.assertEquals(100, s.getChanges());
+		Assert.assertTrue(s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(16)) > before + 0.05);
+
+		Parser.processNextStatement("ANALYZE " + tableName + ";");
+		Assert.assertSame(s, TableStats.getTableStats(tableId));
+		Assert.assertEquals(0, s.getChanges());
+		Assert.assertEquals(1120, s.estimateTableCardinality(1.0));
+	}
+
+	/**
+	 * Verify that statistics are recomputed in the background once enough of
+	 * the table has changed
+	 */
+	@Test public void backgroundRefreshTest() throws Exception {
+		TableStats.statsFile(tableId).deleteOnExit();
+		TableStats s = TableStats.load(tableId, IO_COST);
+		insertRows(200, 5);
+		Assert.assertEquals(200, s.getChanges());
+		TableStats.setRefreshFraction(0.1);
+		try {
+			// the next change schedules a refresh, which may or may not see it on disk
+			insertRows(1, 5);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (s.getChanges() > 1 && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			Assert.assertTrue(s.getChanges() <= 1);
+			Assert.assertTrue(s.estimateTableCardinality(1.0) >= 1220);
+			Assert.assertTrue(s.estimateTableCardinality(1.0) <= 1221);
+		} finally {
+			TableStats.setRefreshFraction(TableStats.DEFAULT_REFRESH_FRACTION);
+		}
+	}
+
+	/**
+	 * Verify that statistics built from a block sample of the pages and a
+	 * reservoir sample of their tuples estimate the table within the
+	 * reported error
+	 */
+	@Test public void samplingTest() {
+		TableStats.setSampleSize(200);
+		TableStats.setSamplePages(5);
+		try {
+			TableStats s = new TableStats(tableId, IO_COST);
+			Assert.assertFalse(s.isExact());
+			Assert.assertEquals(200, s.getSampleSize());
+			// every page of the table is full, so the sampled pages predict its size exactly
+			Assert.assertEquals(1020, s.estimateTableCardinality(1.0));
+			Assert.assertEquals(0.0, s.cardinalityErrorBound(), 0.0);
+			Assert.assertEquals(10 * IO_COST, s.estimateScanCost(), 0.0);
+
+			double bound = s.selectivityErrorBound();
+			Assert.assertTrue(bound > 0 && bound < 0.1);
+			double actual = 0;
+			for (ArrayList<Integer> t : tuples)
+				if (t.get(3) < 16)
+					actual++;
+			actual /= tuples.size();
+			Assert.assertEquals(actual,
+					s.estimateSelectivity(3, Predicate.Op.LESS_THAN, new IntField(16)), bound + 0.05);
+		} finally {
+			TableStats.setSampleSize(TableStats.DEFAULT_SAMPLE_SIZE);
+			TableStats.setSamplePages(TableStats.DEFAULT_SAMPLE_PAGES);
+		}
+
+		// without limits every tuple is used, and there is no error
+		TableStats s = new TableStats(tableId, IO_COST);
+		Assert.assertTrue(s.isExact());
+		Assert.assertEquals(1020, s.getSampleSize());
+		Assert.assertEquals(0.0, s.selectivityErrorBound(), 0.0);
+	}
+
+	/**
+	 * Verify that a conjunction over a declared column group is estimated
+	 * from the joint distribution, and that group statistics are saved
+	 */
+	@Test public void columnGroupTest() throws Exception {
+		// the second column always equals the first
+		ArrayList<ArrayList<Integer>> pairs = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 2000; i++) {
+			ArrayList<Integer> tuple = new ArrayList<Integer>();
+			tuple.add(i % 100);
+			tuple.add(i % 100);
+			pairs.add(tuple);
+		}
+		HeapFile hf = JoinOptimizerTest.createDuplicateHeapFile(pairs, 2, "c");
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		int id = Database.getCatalog().getTableId(name);
+		ArrayList<Predicate> preds = new ArrayList<Predicate>();
+		preds.add(new Predicate(0, Predicate.Op.EQUALS, new IntField(7)));
+		preds.add(new Predicate(1, Predicate.Op.EQUALS, new IntField(7)));
+
+		// without a group the predicates are assumed to be independent
+		TableStats independent = new TableStats(id, IO_COST);
+		Assert.assertEquals(0.0001, independent.estimateSelectivity(preds), 0.00001);
+		Assert.assertEquals(2000, independent.estimateDistinctValues(0, 1), 0.0);
+
+		Database.getCatalog().addColumnGroup(id, "c0", "c1");
+		TableStats.statsFile(id).deleteOnExit();
+		TableStats grouped = TableStats.load(id, IO_COST);
+		Assert.assertEquals(0.01, grouped.estimateSelectivity(preds), 0.001);
+		Assert.assertEquals(100, grouped.estimateDistinctValues(0, 1), 5);
+
+		TableStats loaded = TableStats.load(id, IO_COST);
+		Assert.assertEquals(grouped.estimateSelectivity(preds), loaded.estimateSelectivity(preds), 0.0);
+
+		// a third predicate is applied independently
+		preds.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)));
+		Assert.assertEquals(0.005, loaded.estimateSelectivity(preds), 0.001);
+	}
+
+	/**
+	 * Verify that a tuple inserted while the statistics are recomputed is
+	 * neither lost from them nor forgotten as a change
+	 */
+	@Test public void changeDuringRefreshTest() throws Exception {
+		TableStats.statsFile(tableId).deleteOnExit();
+		TableStats s = TableStats.load(tableId, IO_COST);
+		final Tuple t = new Tuple(f.getTupleDesc());
+		for (int col = 0; col < 10; col++)
+			t.setField(col, new IntField(16));
+		// the same file, which reports an insert when the statistics start reading it
+		HeapFile racing = new HeapFile(f.getFile(), f.getTupleDesc()) {
+			private boolean inserted = false;
+
+			public Page readPage(PageId pid) {
+				if (!inserted) {
+					inserted = true;
+					TableStats.tupleInserted(tableId, t);
+				}
+				return super.readPage(pid);
+			}
+		};
+		Database.getCatalog().addTable(racing, tableName);
+		Assert.assertSame(s, TableStats.analyze(tableId, IO_COST));
+		Assert.assertEquals(1, s.getChanges());
+		Assert.assertEquals(1021, s.estimateTableCardinality(1.0));
+	}
+
+	/**
+	 * Verify that resetting the database forgets the registered statistics,
+	 * whose table ids a new catalog may reuse
+	 */
+	@Test public void resetTest() throws Exception {
+		TableStats.statsFile(tableId).deleteOnExit();
+		TableStats.load(tableId, IO_COST);
+		Assert.assertNotNull(TableStats.getTableStats(tableId));
+		Database.reset();
+		Assert.assertNull(TableStats.getTableStats(tableId));
+	}
 }
@@ -43,7 +43,7 @@ public class TestUtil {
      *   provided in the constructor. This iterator is already open.
      * @param width the number of fields in each tuple
      * @param tupdata an array such that the ith element the jth tuple lives
-     *   in slot j * width + i.  Objects can be strings or ints;  tuples must all be of same type.
+     *   in slot j * width + i.  Objects can be strings, ints or longs;  tuples must all be of same type.
      * @require tupdata.length % width == 0
      * @throws DbException if we encounter an error creating the
      *   TupleIterator
@@ -60,6 +60,9 @@ public class TestUtil {
             if (tupdata[j] instanceof Integer) {
                 types[j] = Type.INT_TYPE;
             }
+            if (tupdata[j] instanceof Long) {
+                types[j] = Type.LONG_TYPE;
+            }
         }
         td = new TupleDesc(types);
 
@@ -70,6 +73,8 @@ public class TestUtil {
                 Object t = tupdata[i++];
                 if (t instanceof String)
                     f = new StringField((String)t, Type.STRING_LEN); 
+                else if (t instanceof Long)
+                    f = new LongField((Long)t);
                 else
                     f = new IntField((Integer)t);
 
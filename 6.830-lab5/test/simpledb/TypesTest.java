@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TypesTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long JAN_1_2020 = DateField.valueOf("2020-01-01").getTime();
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE, Type.DECIMAL_TYPE},
+            new String[] {"id", "amount", "price", "day", "cost"});
+
+    private HeapFile hf;
+
+    /**
+     * Encodes a table whose row i is (i, i * 10^10, i / 2.0, 2020-01-01
+     * plus i days, i.0125) from text, as a table loaded from a file would be.
+     */
+    @Before public void createTable() throws Exception {
+        File text = File.createTempFile("types", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < ROWS; ++i)
+            out.println(i + "," + (i * 10000000000L) + "," + (i / 2.0) + ","
+                    + new DateField(JAN_1_2020 + i * DAY) + "," + i + ".0125");
+        out.close();
+        File f = File.createTempFile("types", ".dat");
+        f.deleteOnExit();
+        Type[] types = new Type[TD.numFields()];
+        for (int j = 0; j < types.length; ++j)
+            types[j] = TD.getType(j);
+        HeapFileEncoder.convert(text, f, BufferPool.PAGE_SIZE, types.length, types);
+        hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+    }
+
+    /** Values of every type survive being written as text, serialized and parsed. */
+    @Test public void fields() throws Exception {
+        Field[] fields = {
+            new IntField(-7), new StringField("abc", Type.STRING_LEN), new LongField(1L << 40),
+            new DoubleField(-2.5), DateField.valueOf("2021-03-04 05:06:07.089"), DecimalField.valueOf("-12.5")
+        };
+        for (Field f : fields) {
+            Type type = f.getType();
+            assertEquals(type, Type.forName(type.name().substring(0, type.name().indexOf('_'))));
+            assertEquals(f, type.fromString(f.toString()));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            f.serialize(new DataOutputStream(bytes));
+            assertEquals(type.getLen(), bytes.size());
+            assertEquals(f, type.parse(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        }
+        assertEquals(Type.DATE_TYPE, Type.forName("Timestamp"));
+        assertNull(Type.forName("float"));
+
+        assertEquals("2021-03-04", DateField.valueOf("2021-03-04").toString());
+        assertEquals("2021-03-04 05:06:07", DateField.valueOf("2021-03-04 05:06:07").toString());
+        assertEquals("-12.5000", DecimalField.valueOf("-12.5").toString());
+        assertEquals(12346, DecimalField.valueOf("1.23456").getUnscaledValue());
+        assertEquals(new BigDecimal("1.2346"), DecimalField.valueOf("1.23456").getValue());
+        assertTrue(new LongField(5).compare(Predicate.Op.GREATER_THAN, new IntField(4)));
+        assertTrue(new DoubleField(4.5).compare(Predicate.Op.LESS_THAN, new LongField(5)));
+
+        String[] bad = {"2021-02-30", "2021-03-04x", "12e999999999"};
+        for (int k = 0; k < bad.length; ++k) {
+            try {
+                (k < 2 ? Type.DATE_TYPE : Type.DECIMAL_TYPE).fromString(bad[k]);
+                fail(bad[k] + " should not parse");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++n;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * @return the number of rows that pass a predicate, which must be the
+     *   same tested on tuples by a Filter and in place by a SeqScan
+     */
+    private int count(int field, Predicate.Op op, Field operand) throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(field, op, operand);
+        int n = count(new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+        ArrayList<Predicate> pushed = new ArrayList<Predicate>();
+        pushed.add(p);
+        assertEquals(n, count(new SeqScan(tid, hf.getId(), "t", pushed)));
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /** Predicates over each type select the rows they should. */
+    @Test public void filter() throws Exception {
+        assertEquals(500, count(1, Predicate.Op.GREATER_THAN_OR_EQ, new LongField(500 * 10000000000L)));
+        assertEquals(20, count(2, Predicate.Op.LESS_THAN, new DoubleField(10.0)));
+        assertEquals(ROWS - 31, count(3, Predicate.Op.GREATER_THAN, DateField.valueOf("2020-01-31")));
+        assertEquals(1, count(4, Predicate.Op.EQUALS, DecimalField.valueOf("7.0125")));
+        assertEquals(ROWS - 1, count(4, Predicate.Op.NOT_EQUALS, DecimalField.valueOf("7.0125")));
+    }
+
+    private Field aggregate(int field, Aggregator.Op op) throws Exception {
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, hf.getId(), "t"), field, Aggregator.NO_GROUPING, op);
+        agg.open();
+        Tuple t = agg.next();
+        assertFalse(agg.hasNext());
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(agg.getTupleDesc().getType(0), t.getField(0).getType());
+        return t.getField(0);
+    }
+
+    /**
+     * Aggregates produce values of the column's type, except SUM of ints,
+     * which is a LONG, computed without overflow or rounding.
+     */
+    @Test public void aggregates() throws Exception {
+        assertEquals(new LongField(ROWS * (ROWS - 1) / 2), aggregate(0, Aggregator.Op.SUM));
+        assertEquals(new LongField(10000000000L * ROWS * (ROWS - 1) / 2), aggregate(1, Aggregator.Op.SUM));
+        assertEquals(new DoubleField(249.75), aggregate(2, Aggregator.Op.AVG));
+        assertEquals(new DoubleField(499.5), aggregate(2, Aggregator.Op.MAX));
+        assertEquals(DateField.valueOf("2020-01-01"), aggregate(3, Aggregator.Op.MIN));
+        assertEquals(new IntField(ROWS), aggregate(3, Aggregator.Op.COUNT));
+        assertEquals(DecimalField.valueOf("499512.5"), aggregate(4, Aggregator.Op.SUM));
+        assertEquals(DecimalField.valueOf("499.5125"), aggregate(4, Aggregator.Op.AVG));
+        try {
+            aggregate(3, Aggregator.Op.SUM);
+            fail("dates cannot be summed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A SUM of ints that does not fit an int is a LONG; a SUM of longs that
+     * does not fit a long fails instead of wrapping around.
+     */
+    @Test public void sumOverflows() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3; ++i)
+            tuples.add(Utility.getHeapTuple(new int[] {Integer.MAX_VALUE}));
+        Aggregate agg = new Aggregate(new TupleIterator(Utility.getTupleDesc(1), tuples),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        assertEquals(new LongField(3L * Integer.MAX_VALUE), agg.next().getField(0));
+        agg.close();
+
+        TupleDesc longTd = new TupleDesc(new Type[] {Type.LONG_TYPE});
+        ArrayList<Tuple> longs = new ArrayList<Tuple>();
+        for (int i = 0; i < 2; ++i) {
+            Tuple t = new Tuple(longTd);
+            t.setField(0, new LongField(Long.MAX_VALUE));
+            longs.add(t);
+        }
+        agg = new Aggregate(new TupleIterator(longTd, longs), 0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        try {
+            agg.open();
+            agg.next();
+            fail("the sum does not fit a long");
+        } catch (ArithmeticException e) {
+            // expected
+        }
+        agg.close();
+
+        agg = new Aggregate(new TupleIterator(Utility.getTupleDesc(1), tuples),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.AVG);
+        agg.open();
+        assertEquals(new IntField(Integer.MAX_VALUE), agg.next().getField(0));
+        agg.close();
+    }
+
+    /** Histograms of numeric and date columns estimate range predicates. */
+    @Test public void selectivity() throws Exception {
+        TableStats stats = new TableStats(hf.getId(), 1);
+        assertEquals(0.5, stats.estimateSelectivity(1, Predicate.Op.GREATER_THAN_OR_EQ,
+                new LongField(500 * 10000000000L)), 0.05);
+        assertEquals(0.25, stats.estimateSelectivity(2, Predicate.Op.LESS_THAN,
+                new DoubleField(125.0)), 0.05);
+        assertEquals(0.9, stats.estimateSelectivity(3, Predicate.Op.GREATER_THAN,
+                new DateField(JAN_1_2020 + 100 * DAY)), 0.05);
+        assertEquals(1.0 / ROWS, stats.estimateSelectivity(4, Predicate.Op.EQUALS,
+                DecimalField.valueOf("7.0125")), 0.005);
+    }
+
+    /** OrderBy sorts values of the new types by value. */
+    @Test public void orderBy() throws Exception {
+        TransactionId tid = new TransactionId();
+        OrderBy sorted = new OrderBy(2, false, new SeqScan(tid, hf.getId(), "t"));
+        sorted.open();
+        double last = Double.MAX_VALUE;
+        int n = 0;
+        while (sorted.hasNext()) {
+            double v = ((DoubleField) sorted.next().getField(2)).getValue();
+            assertTrue(v <= last);
+            last = v;
+            ++n;
+        }
+        sorted.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TypesTest.class);
+    }
+}
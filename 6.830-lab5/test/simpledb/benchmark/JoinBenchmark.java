@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times an equality join of two tables and measures the bytes it
+ * allocates, with the tuple-at-a-time {@link Join} over SeqScans and with
+ * {@link BatchJoin} over BatchSeqScans, which reuses its output batch and
+ * builds no tuples.  Run with <code>ant runbenchmark -Dbenchmark=JoinBenchmark</code>;
+ * run directly, the class takes the number of outer rows as an argument.
+ */
+public class JoinBenchmark {
+
+    private static final int INNER_ROWS = 2000;
+    private static final int ROUNDS = 3;
+
+    /** @return the bytes allocated by this thread so far, or -1 if the JVM does not say */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        return -1;
+    }
+
+    private static long tupleJoin(TransactionId tid, HeapFile outer, HeapFile inner) throws Exception {
+        Join join = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        join.open();
+        long rows = 0;
+        while (join.hasNext()) {
+            join.next();
+            ++rows;
+        }
+        join.close();
+        return rows;
+    }
+
+    private static long batchJoin(TransactionId tid, HeapFile outer, HeapFile inner) throws Exception {
+        BatchJoin join = new BatchJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new BatchSeqScan(tid, outer.getId(), "o"), new BatchSeqScan(tid, inner.getId(), "i"));
+        join.open();
+        long rows = 0;
+        ColumnBatch batch;
+        while ((batch = join.nextBatch()) != null)
+            rows += batch.numSelected();
+        join.close();
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int outerRows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, outerRows, INNER_ROWS, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, INNER_ROWS, INNER_ROWS, null,
+                new ArrayList<ArrayList<Integer>>());
+
+        for (int batched = 0; batched < 2; ++batched) {
+            long best = Long.MAX_VALUE, bytes = 0, rows = 0;
+            for (int i = 0; i < ROUNDS; ++i) {
+                TransactionId tid = new TransactionId();
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                rows = batched == 1 ? batchJoin(tid, outer, inner) : tupleJoin(tid, outer, inner);
+                long nanos = System.nanoTime() - start;
+                if (nanos < best) {
+                    best = nanos;
+                    bytes = allocatedBytes() - allocated;
+                }
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            System.out.println(String.format("%-5s join: %d rows in %d ms, %d MB allocated (%d bytes/row)",
+                    batched == 1 ? "batch" : "tuple", rows, best / 1000000, bytes >> 20,
+                    rows == 0 ? 0 : bytes / rows));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb.benchmark;
+
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times JoinOptimizer.orderJoins on star and chain queries of increasing
+ * size; the largest are beyond the dynamic programming table limit and are
+ * ordered heuristically.  Run with <code>ant runbenchmark -Dbenchmark=JoinOrderBenchmark</code>.
+ */
+public class JoinOrderBenchmark {
+
+    private static final int[] SIZES = {5, 10, 15, 25};
+    private static final int ITERATIONS = 5;
+
+    private HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    private HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+    private LogicalPlan plan = new LogicalPlan();
+
+    /** Creates tables t0 ... t(n-1) of different sizes, with statistics. */
+    private JoinOrderBenchmark(int n) throws Exception {
+        Random r = new Random(n);
+        for (int i = 0; i < n; ++i) {
+            String name = "t" + i;
+            int rows = 10 + r.nextInt(i == 0 ? 5000 : 500);
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null,
+                    new ArrayList<ArrayList<Integer>>(), "c");
+            Database.getCatalog().addTable(f, name);
+            int tableId = Database.getCatalog().getTableId(name);
+            plan.addScan(tableId, name);
+            stats.put(name, new TableStats(tableId, 1000));
+            filterSelectivities.put(name, 1.0);
+        }
+    }
+
+    /** t0 joined to every other table */
+    private static Vector<LogicalJoinNode> star(int n) {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < n; ++i)
+            joins.add(new LogicalJoinNode("t0", "t" + i, "c1", "c0", Predicate.Op.EQUALS));
+        return joins;
+    }
+
+    /** t0 joined to t1, t1 to t2, ... */
+    private static Vector<LogicalJoinNode> chain(int n) {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < n; ++i)
+            joins.add(new LogicalJoinNode("t" + (i - 1), "t" + i, "c1", "c0", Predicate.Op.EQUALS));
+        return joins;
+    }
+
+    private void time(String shape, int n, Vector<LogicalJoinNode> joins) throws Exception {
+        // shuffled, so the optimizer is not handed a good order
+        Collections.shuffle(joins, new Random(42));
+        JoinOptimizer jo = new JoinOptimizer(plan, joins);
+        jo.orderJoins(stats, filterSelectivities, false); // warm up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            long start = System.nanoTime();
+            jo.orderJoins(stats, filterSelectivities, false);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(shape + " " + n + " tables: " + (best / 1000) + " us");
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int n : SIZES) {
+            Database.reset();
+            JoinOrderBenchmark b = new JoinOrderBenchmark(n);
+            b.time("star", n, star(n));
+            b.time("chain", n, chain(n));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Times full scans of the same table stored in HeapFiles with pages of 4,
+ * 8, 16 and 64 KB, reading every page from the file through a buffer pool
+ * of {@link BufferPool#DEFAULT_PAGES} default-size pages.  Larger pages
+ * mean fewer reads and page headers per tuple, but fewer pages in the pool.
+ * Run with <code>ant runbenchmark -Dbenchmark=PageSizeBenchmark</code>;
+ * run directly, the class takes the number of tuples as an argument.
+ */
+public class PageSizeBenchmark {
+
+    private static final int[] PAGE_SIZES = {4096, 8192, 16384, 65536};
+    private static final int COLUMNS = 4;
+    private static final int ROUNDS = 5;
+
+    private static long scan(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        long count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++count;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(6830);
+        for (int i = 0; i < n; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; ++j)
+                tuple.add(r.nextInt());
+            tuples.add(tuple);
+        }
+
+        for (int pageSize : PAGE_SIZES) {
+            Database.reset();
+            File file = File.createTempFile("pagesize", ".dat");
+            file.deleteOnExit();
+            HeapFileEncoder.convert(tuples, file, pageSize, COLUMNS);
+            HeapFile f = new HeapFile(file, Utility.getTupleDesc(COLUMNS));
+            Database.getCatalog().addTable(f, "t");
+            scan(f); // warm up
+
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; ++i) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                long start = System.nanoTime();
+                long count = scan(f);
+                best = Math.min(best, System.nanoTime() - start);
+                if (count != n)
+                    throw new RuntimeException("scanned " + count + " of " + n + " tuples");
+            }
+            System.out.println(String.format("%2d KB pages: %6d pages, %5d ms, %.0f tuples/s",
+                    pageSize / 1024, f.numPages(), best / 1000000, n * 1e9 / best));
+        }
+    }
+}
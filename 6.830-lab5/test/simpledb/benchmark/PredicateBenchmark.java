@@ -0,0 +1,121 @@
+package simpledb.benchmark;
+
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Times predicate evaluation over tuples in memory, comparing the compiled
+ * {@link Predicate#filter} and {@link JoinPredicate#filter} with comparing
+ * the fields through {@link Field#compare}, which switches on the operator
+ * and dispatches on the field type for every tuple.  Each run evaluates a
+ * mix of predicates through the same call sites, as the operators of a
+ * query plan do.  Run with <code>ant runbenchmark -Dbenchmark=PredicateBenchmark</code>,
+ * which makes 100 million evaluations of each kind; run directly, the class
+ * takes the number of evaluations as an argument.
+ */
+public class PredicateBenchmark {
+
+    private static final int TUPLES = 4096;
+    private static final int ROUNDS = 3;
+
+    private final Tuple[] tuples = new Tuple[TUPLES];
+
+    private final Predicate[] predicates = {
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+        new Predicate(1, Predicate.Op.EQUALS, new IntField(7)),
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(900)),
+        new Predicate(2, Predicate.Op.EQUALS, new StringField("value7", Type.STRING_LEN)),
+    };
+
+    private final JoinPredicate[] joinPredicates = {
+        new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new JoinPredicate(0, Predicate.Op.GREATER_THAN, 1),
+        new JoinPredicate(1, Predicate.Op.LESS_THAN_OR_EQ, 0),
+    };
+    private final int[][] joinFields = {{0, 1}, {0, 1}, {1, 0}};
+    private final Predicate.Op[] joinOps = {
+        Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN_OR_EQ
+    };
+
+    private PredicateBenchmark() {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE});
+        Random r = new Random(6830);
+        for (int i = 0; i < TUPLES; ++i) {
+            tuples[i] = new Tuple(td);
+            tuples[i].setField(0, new IntField(r.nextInt(1000)));
+            tuples[i].setField(1, new IntField(r.nextInt(1000)));
+            tuples[i].setField(2, new StringField("value" + r.nextInt(100), Type.STRING_LEN));
+        }
+    }
+
+    private long interpreted(long n) {
+        long matches = 0;
+        for (long i = 0; i < n; ++i) {
+            Predicate p = predicates[(int) (i % predicates.length)];
+            Tuple t = tuples[(int) ((i >>> 2) & (TUPLES - 1))];
+            if (t.getField(p.getField()).compare(p.getOp(), p.getOperand()))
+                ++matches;
+        }
+        return matches;
+    }
+
+    private long compiled(long n) {
+        long matches = 0;
+        for (long i = 0; i < n; ++i) {
+            Predicate p = predicates[(int) (i % predicates.length)];
+            Tuple t = tuples[(int) ((i >>> 2) & (TUPLES - 1))];
+            if (p.filter(t))
+                ++matches;
+        }
+        return matches;
+    }
+
+    private long interpretedJoin(long n) {
+        long matches = 0;
+        for (long i = 0; i < n; ++i) {
+            int k = (int) (i % joinOps.length);
+            Tuple t1 = tuples[(int) (i & (TUPLES - 1))];
+            Tuple t2 = tuples[(int) ((i >>> 12) & (TUPLES - 1))];
+            if (t1.getField(joinFields[k][0]).compare(joinOps[k], t2.getField(joinFields[k][1])))
+                ++matches;
+        }
+        return matches;
+    }
+
+    private long compiledJoin(long n) {
+        long matches = 0;
+        for (long i = 0; i < n; ++i) {
+            JoinPredicate p = joinPredicates[(int) (i % joinPredicates.length)];
+            Tuple t1 = tuples[(int) (i & (TUPLES - 1))];
+            Tuple t2 = tuples[(int) ((i >>> 12) & (TUPLES - 1))];
+            if (p.filter(t1, t2))
+                ++matches;
+        }
+        return matches;
+    }
+
+    private static void report(String name, long n, long nanos, long matches) {
+        System.out.println(String.format("%-20s %6.2f ns/evaluation (%d matches)",
+                name, (double) nanos / n, matches));
+    }
+
+    public static void main(String[] args) {
+        long n = args.length > 0 ? Long.parseLong(args[0]) : 100000000L;
+        PredicateBenchmark b = new PredicateBenchmark();
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            long matches = b.interpreted(n);
+            report("filter interpreted", n, System.nanoTime() - start, matches);
+            start = System.nanoTime();
+            matches = b.compiled(n);
+            report("filter compiled", n, System.nanoTime() - start, matches);
+            start = System.nanoTime();
+            matches = b.interpretedJoin(n);
+            report("join interpreted", n, System.nanoTime() - start, matches);
+            start = System.nanoTime();
+            matches = b.compiledJoin(n);
+            report("join compiled", n, System.nanoTime() - start, matches);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb.benchmark;
+
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Loads a {@link QueryServer} over the loopback interface with increasing
+ * numbers of clients, each a session of its own that runs statements one
+ * after the other as fast as the server answers them, and reports the
+ * throughput and the latencies of the statements.  The statements are a
+ * mix of selective queries, which return a few rows, and scans with
+ * aggregates, which read the whole table.  Run with
+ * <code>ant runbenchmark -Dbenchmark=QueryServerBenchmark</code>, which
+ * runs each number of clients for 5 seconds; run directly, the class takes
+ * the number of seconds as an argument.
+ */
+public class QueryServerBenchmark {
+
+    private static final int ROWS = 20000;
+    private static final int[] CLIENTS = {1, 4, 16, 64};
+
+    private final QueryServer server;
+
+    private QueryServerBenchmark() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f, "t");
+        int tableId = Database.getCatalog().getTableId("t");
+        TableStats.statsFile(tableId).deleteOnExit();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", TableStats.analyze(tableId, 1000));
+        Parser.setStatsMap(stats);
+        server = new QueryServer(0);
+        server.start();
+    }
+
+    /** Runs statements in a session until told to stop, recording their latencies. */
+    private class Client extends Thread {
+        final Random r;
+        final ArrayList<Long> latencies = new ArrayList<Long>();
+        volatile boolean stopped = false;
+        Exception failure = null;
+
+        Client(int seed) {
+            r = new Random(seed);
+        }
+
+        public void run() {
+            try {
+                QueryClient client = new QueryClient("localhost", server.getPort());
+                while (!stopped) {
+                    String sql = r.nextInt(10) == 0
+                        ? "SELECT AVG(t.c1) FROM t WHERE t.c1 > " + r.nextInt(1000) + ";"
+                        : "SELECT t.c0, t.c1 FROM t WHERE t.c0 = " + r.nextInt(1000) + ";";
+                    long start = System.nanoTime();
+                    QueryClient.Result result = client.execute(sql);
+                    while (result.hasNext())
+                        result.next();
+                    latencies.add(System.nanoTime() - start);
+                }
+                client.close();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void run(int clients, long millis) throws Exception {
+        Client[] threads = new Client[clients];
+        for (int i = 0; i < clients; ++i) {
+            threads[i] = new Client(i);
+            threads[i].start();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        for (Client c : threads)
+            c.stopped = true;
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        for (Client c : threads) {
+            c.join();
+            if (c.failure != null)
+                throw c.failure;
+            latencies.addAll(c.latencies);
+        }
+        long nanos = System.nanoTime() - start;
+        Collections.sort(latencies);
+        System.out.println(String.format(
+                "%3d clients: %8.1f statements/s, latency p50 %7.2f ms, p99 %7.2f ms, max %7.2f ms",
+                clients, latencies.size() * 1e9 / nanos, percentile(latencies, 0.5),
+                percentile(latencies, 0.99), percentile(latencies, 1.0)));
+    }
+
+    private static double percentile(ArrayList<Long> sorted, double p) {
+        if (sorted.isEmpty())
+            return 0;
+        int i = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(i, 0)) / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        QueryServerBenchmark b = new QueryServerBenchmark();
+        b.run(CLIENTS[0], 1000);   // warm up
+        for (int clients : CLIENTS)
+            b.run(clients, seconds * 1000);
+        b.server.close();
+    }
+}
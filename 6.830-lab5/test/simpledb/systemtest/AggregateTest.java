@@ -8,12 +8,28 @@ import java.util.Map;
 import simpledb.*;
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, expectedResult, 1, false);
+    }
+
+    /**
+     * @param parallelism number of worker threads of the Aggregate
+     * @param hidden if true, hide the SeqScan behind a Filter so that the
+     *     Aggregate cannot partition the scan by page range
+     */
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult,
+            int parallelism, boolean hidden)
+            throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
-        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        DbIterator ss = new SeqScan(tid, table.getId(), "");
+        if (hidden)
+            ss = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), ss);
         Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        ag.setParallelism(parallelism);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
@@ -112,6 +128,80 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    private void doParallelAggregate(Aggregator.Op operation, int groupColumn, boolean hidden)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS * 20, MAX_VALUE, null, createdTuples);
+        ArrayList<ArrayList<Integer>> expected =
+                aggregate(createdTuples, operation, 1, groupColumn);
+        validateAggregate(table, operation, 1, groupColumn, expected, 4, hidden);
+    }
+
+    @Test public void testParallelPageRanges()
+            throws IOException, DbException, TransactionAbortedException {
+        doParallelAggregate(Aggregator.Op.AVG, 0, false);
+        doParallelAggregate(Aggregator.Op.MIN, 0, false);
+        doParallelAggregate(Aggregator.Op.COUNT, Aggregator.NO_GROUPING, false);
+    }
+
+    @Test public void testParallelHashPartitioned()
+            throws IOException, DbException, TransactionAbortedException {
+        doParallelAggregate(Aggregator.Op.AVG, 0, true);
+        doParallelAggregate(Aggregator.Op.MAX, 0, true);
+        doParallelAggregate(Aggregator.Op.SUM, Aggregator.NO_GROUPING, true);
+    }
+
+    /**
+     * A parallel aggregate that waits for a lock is seen by the deadlock
+     * detector, which aborts the transaction that would close the cycle.
+     */
+    @Test(timeout = 60000) public void testParallelDeadlock() throws Exception {
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS * 20, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>());
+        final int last = table.numPages() - 1;
+        assertTrue(last > 0);
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().getPage(writer, new HeapPageId(table.getId(), last), Permissions.READ_WRITE);
+
+        final TransactionId reader = new TransactionId();
+        final int[] count = new int[1];
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    Aggregate ag = new Aggregate(new SeqScan(reader, table.getId(), ""),
+                            0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+                    ag.setParallelism(4);
+                    ag.open();
+                    count[0] = ((IntField) ag.next().getField(0)).getValue();
+                    ag.close();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+
+        // the reader locks the other pages, then waits for the last one
+        while (!Database.getBufferPool().holdsLock(reader, new HeapPageId(table.getId(), last - 1)))
+            Thread.sleep(10);
+        Thread.sleep(200);
+        try {
+            Database.getBufferPool().getPage(writer, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+            fail("the writer and the reader wait for each other");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(writer, false);
+
+        thread.join();
+        if (failure[0] != null)
+            throw failure[0];
+        assertEquals(ROWS * 20, count[0]);
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,70 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs a GROUP BY whose groups cannot all be held in the test JVM's heap, so
+ * the aggregate has to spill partitions to disk.
+ */
+public class HighCardinalityAggregateTest extends SimpleDbTestBase {
+    private static final int ROWS = 10 * 1000 * 1000;
+
+    /** Generates (7 * i + 3, i % 1000) for i in [0, ROWS), so every group value is distinct. */
+    private static class DistinctKeys extends AbstractDbIterator {
+        private final TupleDesc td = Utility.getTupleDesc(2);
+        private int i = -1;
+
+        public void open() {
+            i = 0;
+        }
+
+        public void rewind() {
+            i = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        protected Tuple readNext() {
+            if (i >= ROWS)
+                return null;
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(7 * i + 3));
+            t.setField(1, new IntField(i % 1000));
+            ++i;
+            return t;
+        }
+    }
+
+    @Test public void testTenMillionGroups()
+            throws DbException, TransactionAbortedException {
+        Aggregate agg = new Aggregate(new DistinctKeys(), 1, 0, Aggregator.Op.SUM);
+        agg.open();
+        BitSet seen = new BitSet(ROWS);
+        int groups = 0;
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            int i = (key - 3) / 7;
+            assertFalse("group " + key + " returned twice", seen.get(i));
+            seen.set(i);
+            assertEquals(i % 1000, ((LongField) t.getField(1)).getValue());
+            ++groups;
+        }
+        agg.close();
+        assertEquals(ROWS, groups);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HighCardinalityAggregateTest.class);
+    }
+}
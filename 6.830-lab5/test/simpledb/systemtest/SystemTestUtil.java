@@ -88,8 +88,12 @@ public class SystemTestUtil {
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {
-            int value = ((IntField)tuple.getField(i)).getValue();
-            list.add(value);
+            // SUMs of ints are longs, which the expected results hold as ints
+            Field f = tuple.getField(i);
+            long value = f instanceof LongField ? ((LongField) f).getValue() : ((IntField) f).getValue();
+            if (value != (int) value)
+                throw new IllegalArgumentException(value + " does not fit an int");
+            list.add((int) value);
         }
         return list;
     }